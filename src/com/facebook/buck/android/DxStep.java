@@ -180,6 +180,25 @@ public class DxStep extends ShellStep {
   }
 
   private int executeInProcess(ExecutionContext context) {
+    // Unless dx has been asked to say what it is doing, dex each class on its own, so that the
+    // classes which did not change since the last run don't have to be dexed again.
+    if (!context.getVerbosity().shouldPrintSelectCommandOutput() &&
+        !context.getVerbosity().shouldUseVerbosityFlagIfAvailable() &&
+        IncrementalDexer.canDex(filesToDex, outputDexFile)) {
+      IncrementalDexer dexer = new IncrementalDexer(
+          !options.contains(Option.NO_OPTIMIZE),
+          options.contains(Option.FORCE_JUMBO),
+          context.getStdOut(),
+          context.getStdErr());
+      try {
+        return dexer.dex(filesystem, filesToDex, outputDexFile);
+      } catch (IOException | RuntimeException e) {
+        // Like dx itself, report failures such as duplicate classes rather than throwing them.
+        e.printStackTrace(context.getStdErr());
+        return 1;
+      }
+    }
+
     ImmutableList<String> argv = getShellCommandInternal(context);
 
     // The first arguments should be ".../dx --dex" ("...\dx.bat --dex on Windows).  Strip them off
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import com.android.dex.Dex;
+import com.android.dex.DexFormat;
+import com.android.dex.util.ExceptionWithContext;
+import com.android.dx.Version;
+import com.android.dx.cf.direct.DirectClassFile;
+import com.android.dx.cf.direct.StdAttributeFactory;
+import com.android.dx.dex.DexOptions;
+import com.android.dx.dex.cf.CfOptions;
+import com.android.dx.dex.cf.CfTranslator;
+import com.android.dx.dex.cf.CodeStatistics;
+import com.android.dx.dex.cf.OptimizerOptions;
+import com.android.dx.dex.code.PositionList;
+import com.android.dx.dex.file.DexFile;
+import com.android.dx.merge.CollisionPolicy;
+import com.android.dx.merge.DexMerger;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Does what {@code dx --dex} does for a set of jars, in-process, but translates each class on
+ * its own and keeps the result keyed by the contents of the class. The dex files of the classes
+ * are then merged, as {@code dx} does with the {@code classes.dex} of its inputs.
+ * <p>
+ * Classes are merged in two rounds: first into a fixed number of buckets, picked by class name,
+ * and then the buckets into the output. The merged buckets are kept keyed by the classes in them.
+ * <p>
+ * The translated classes and merged buckets live as long as the process, so in the daemon
+ * changing one class of a library only translates that class and merges its bucket again, rather
+ * than translating the whole library and merging every class of it.
+ */
+class IncrementalDexer {
+
+  private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+  private static final Attributes.Name CREATED_BY = new Attributes.Name("Created-By");
+
+  private static final long MAX_CACHED_CLASS_DEX_BYTES = 256L * 1024 * 1024;
+  private static final long MAX_CACHED_BUCKET_DEX_BYTES = 256L * 1024 * 1024;
+
+  /**
+   * Enough that a changed class only has a small share of a large library merged again, while
+   * the final merge still only has a few inputs.
+   */
+  @VisibleForTesting
+  static final int MERGE_BUCKETS = 16;
+
+  private static final Cache<HashCode, byte[]> CLASS_DEXES =
+      newDexCache(MAX_CACHED_CLASS_DEX_BYTES);
+  private static final Cache<HashCode, byte[]> BUCKET_DEXES =
+      newDexCache(MAX_CACHED_BUCKET_DEX_BYTES);
+
+  private final boolean optimize;
+  private final boolean forceJumbo;
+  private final PrintStream stdOut;
+  private final PrintStream stdErr;
+
+  IncrementalDexer(
+      boolean optimize,
+      boolean forceJumbo,
+      PrintStream stdOut,
+      PrintStream stdErr) {
+    this.optimize = optimize;
+    this.forceJumbo = forceJumbo;
+    this.stdOut = stdOut;
+    this.stdErr = stdErr;
+  }
+
+  /**
+   * Whether {@link #dex} handles these inputs and output. Otherwise, {@code dx} itself has to be
+   * run, for instance because the inputs are directories or the output is.
+   */
+  static boolean canDex(Iterable<Path> inputs, Path output) {
+    String outputName = output.getFileName().toString();
+    if (!isArchive(outputName) && !outputName.endsWith(".dex")) {
+      return false;
+    }
+    for (Path input : inputs) {
+      if (!isArchive(input.getFileName().toString())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the exit code {@code dx} would have returned.
+   */
+  int dex(ProjectFilesystem filesystem, Iterable<Path> inputs, Path output) throws IOException {
+    List<List<ClassEntry>> buckets = new ArrayList<>(MERGE_BUCKETS);
+    for (int i = 0; i < MERGE_BUCKETS; i++) {
+      buckets.add(new ArrayList<ClassEntry>());
+    }
+    List<Dex> dexes = new ArrayList<>();
+    SortedMap<String, byte[]> resources = new TreeMap<>();
+    for (Path input : inputs) {
+      try (ZipInputStream zip = new ZipInputStream(filesystem.newFileInputStream(input))) {
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+          if (entry.isDirectory()) {
+            continue;
+          }
+          String name = entry.getName();
+          byte[] bytes = ByteStreams.toByteArray(zip);
+          if (name.endsWith(".class")) {
+            if (isCoreLibraryClass(name)) {
+              // Let dx itself explain why this is a bad idea.
+              return runDx(filesystem, inputs, output);
+            }
+            int bucket = Hashing.consistentHash(
+                Hashing.murmur3_32().hashUnencodedChars(name),
+                MERGE_BUCKETS);
+            buckets.get(bucket).add(new ClassEntry(name, bytes, getClassKey(name, bytes)));
+          } else if (name.equals(DexFormat.DEX_IN_JAR_NAME)) {
+            dexes.add(new Dex(bytes));
+          } else {
+            resources.put(name, bytes);
+          }
+        }
+      }
+    }
+
+    // Merged buckets go first, then any dex files from the inputs, in the order of the inputs.
+    List<Dex> bucketDexes = new ArrayList<>(MERGE_BUCKETS);
+    for (List<ClassEntry> bucket : buckets) {
+      if (bucket.isEmpty()) {
+        continue;
+      }
+      byte[] bucketDex = getBucketDex(bucket);
+      if (bucketDex == null) {
+        return 1;
+      }
+      bucketDexes.add(new Dex(bucketDex));
+    }
+    dexes.addAll(0, bucketDexes);
+
+    if (dexes.isEmpty()) {
+      return runDx(filesystem, inputs, output);
+    }
+
+    byte[] merged = merge(dexes);
+
+    Path absoluteOutput = filesystem.resolve(output);
+    if (isArchive(absoluteOutput.getFileName().toString())) {
+      resources.put(DexFormat.DEX_IN_JAR_NAME, merged);
+      writeJar(absoluteOutput, resources);
+    } else {
+      Files.write(absoluteOutput, merged);
+    }
+    return 0;
+  }
+
+  private HashCode getClassKey(String name, byte[] bytes) {
+    return Hashing.sha1().newHasher()
+        .putBoolean(optimize)
+        .putBoolean(forceJumbo)
+        .putUnencodedChars(name)
+        .putBytes(bytes)
+        .hash();
+  }
+
+  /**
+   * @return the classes of the bucket merged in the order given, or {@code null} if one of them
+   *     could not be translated, in which case the problem has been reported.
+   */
+  private byte[] getBucketDex(List<ClassEntry> bucket) throws IOException {
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (ClassEntry entry : bucket) {
+      hasher.putBytes(entry.key.asBytes());
+    }
+    HashCode key = hasher.hash();
+    byte[] bucketDex = BUCKET_DEXES.getIfPresent(key);
+    if (bucketDex != null) {
+      return bucketDex;
+    }
+
+    List<Dex> classDexes = new ArrayList<>(bucket.size());
+    for (ClassEntry entry : bucket) {
+      byte[] classDex = getClassDex(entry);
+      if (classDex == null) {
+        return null;
+      }
+      classDexes.add(new Dex(classDex));
+    }
+    bucketDex = merge(classDexes);
+    BUCKET_DEXES.put(key, bucketDex);
+    return bucketDex;
+  }
+
+  /**
+   * @return the translated class, or {@code null} if it could not be translated, in which case
+   *     the problem has been reported.
+   */
+  private byte[] getClassDex(ClassEntry entry) {
+    String name = entry.name;
+    byte[] bytes = entry.bytes;
+    HashCode key = entry.key;
+    byte[] classDex = CLASS_DEXES.getIfPresent(key);
+    if (classDex != null) {
+      return classDex;
+    }
+
+    CfOptions cfOptions = new CfOptions();
+    cfOptions.positionInfo = PositionList.LINES;
+    cfOptions.localInfo = true;
+    cfOptions.strictNameCheck = true;
+    cfOptions.optimize = optimize;
+    cfOptions.warn = stdErr;
+    cfOptions.codeStatistics = new CodeStatistics();
+    DexOptions dexOptions = new DexOptions();
+    dexOptions.forceJumbo = forceJumbo;
+
+    try {
+      DirectClassFile classFile =
+          new DirectClassFile(bytes, name, cfOptions.strictNameCheck);
+      classFile.setAttributeFactory(StdAttributeFactory.THE_ONE);
+      classFile.getMagic();
+
+      DexFile dexFile = new DexFile(dexOptions);
+      dexFile.add(
+          CfTranslator.translate(
+              classFile,
+              bytes,
+              cfOptions,
+              dexOptions,
+              new OptimizerOptions(),
+              dexFile));
+      classDex = dexFile.toDex(null, false);
+    } catch (ExceptionWithContext e) {
+      stdErr.println("\ntrouble processing:");
+      e.printContext(stdErr);
+      return null;
+    } catch (IOException e) {
+      e.printStackTrace(stdErr);
+      return null;
+    }
+    CLASS_DEXES.put(key, classDex);
+    return classDex;
+  }
+
+  private static byte[] merge(List<Dex> dexes) throws IOException {
+    return dexes.size() == 1 ?
+        dexes.get(0).getBytes() :
+        new DexMerger(dexes, CollisionPolicy.FAIL).merge().getBytes();
+  }
+
+  private int runDx(ProjectFilesystem filesystem, Iterable<Path> inputs, Path output)
+      throws IOException {
+    ImmutableList.Builder<String> args = ImmutableList.builder();
+    if (!optimize) {
+      args.add("--no-optimize");
+    }
+    if (forceJumbo) {
+      args.add("--force-jumbo");
+    }
+    args.add("--output", filesystem.resolve(output).toString());
+    for (Path input : inputs) {
+      args.add(filesystem.resolve(input).toString());
+    }
+    List<String> argv = args.build();
+    return new com.android.dx.command.dexer.Main().run(
+        argv.toArray(new String[argv.size()]),
+        stdOut,
+        stdErr);
+  }
+
+  /**
+   * Writes the jar the same way {@code dx} does: resources in name order, and a manifest saying
+   * where the dex is.
+   */
+  private static void writeJar(Path output, SortedMap<String, byte[]> resources)
+      throws IOException {
+    byte[] manifestBytes = resources.remove(MANIFEST_NAME);
+    Manifest manifest = manifestBytes == null ?
+        new Manifest() :
+        new Manifest(new ByteArrayInputStream(manifestBytes));
+    Attributes attributes = manifest.getMainAttributes();
+    if (manifestBytes == null) {
+      attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    }
+    String createdBy = attributes.getValue(CREATED_BY);
+    attributes.put(
+        CREATED_BY,
+        (createdBy == null ? "" : createdBy + " + ") + "dx " + Version.VERSION);
+    attributes.putValue("Dex-Location", DexFormat.DEX_IN_JAR_NAME);
+
+    try (OutputStream out = Files.newOutputStream(output);
+         JarOutputStream jar = new JarOutputStream(out, manifest)) {
+      for (Map.Entry<String, byte[]> resource : resources.entrySet()) {
+        JarEntry entry = new JarEntry(resource.getKey());
+        entry.setSize(resource.getValue().length);
+        jar.putNextEntry(entry);
+        jar.write(resource.getValue());
+        jar.closeEntry();
+      }
+    }
+  }
+
+  private static boolean isArchive(String fileName) {
+    return fileName.endsWith(".jar") || fileName.endsWith(".zip") || fileName.endsWith(".apk");
+  }
+
+  /** {@code dx} refuses these unless told it is building a core library. */
+  private static boolean isCoreLibraryClass(String name) {
+    return name.startsWith("java/") || name.startsWith("javax/");
+  }
+
+  private static Cache<HashCode, byte[]> newDexCache(long maxBytes) {
+    return CacheBuilder.newBuilder()
+        .maximumWeight(maxBytes)
+        .weigher(
+            new Weigher<HashCode, byte[]>() {
+              @Override
+              public int weigh(HashCode key, byte[] value) {
+                return value.length;
+              }
+            })
+        .build();
+  }
+
+  @VisibleForTesting
+  static long getCachedClassCount() {
+    return CLASS_DEXES.size();
+  }
+
+  @VisibleForTesting
+  static long getCachedBucketCount() {
+    return BUCKET_DEXES.size();
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    CLASS_DEXES.invalidateAll();
+    BUCKET_DEXES.invalidateAll();
+  }
+
+  private static class ClassEntry {
+    private final String name;
+    private final byte[] bytes;
+    private final HashCode key;
+
+    ClassEntry(String name, byte[] bytes, HashCode key) {
+      this.name = name;
+      this.bytes = bytes;
+      this.key = key;
+    }
+  }
+}
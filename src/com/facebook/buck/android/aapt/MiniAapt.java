@@ -27,7 +27,7 @@ import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.MoreStrings;
-import com.facebook.buck.util.XmlDomParser;
+import com.facebook.buck.util.concurrent.MoreExecutors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
@@ -38,12 +38,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Ordering;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -51,11 +46,9 @@ import java.io.PrintWriter;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Set;
-
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Step which parses resources in an android {@code res} directory and compiles them into a
@@ -71,17 +64,6 @@ public class MiniAapt implements Step {
 
   private static final String ID_DEFINITION_PREFIX = "@+id/";
   private static final String ITEM_TAG = "item";
-  private static final String CUSTOM_DRAWABLE_PREFIX = "app-";
-
-  private static final XPathExpression ANDROID_ID_USAGE =
-      createExpression("//@*[starts-with(., '@') and " +
-              "not(starts-with(., '@+')) and " +
-              "not(starts-with(., '@android:')) and " +
-              "not(starts-with(., '@null'))]");
-
-  private static final XPathExpression ANDROID_ID_DEFINITION =
-      createExpression("//@*[starts-with(., '@+') and " +
-              "not(starts-with(., '@+android:id'))]");
 
   private static final ImmutableMap<String, RType> RESOURCE_TYPES = getResourceTypes();
   private static final ImmutableSet<String> IGNORED_TAGS = ImmutableSet.of(
@@ -102,6 +84,15 @@ public class MiniAapt implements Step {
   private final ImmutableSet<Path> pathsToSymblolsOfDeps;
   private final AaptResourceCollector resourceCollector;
 
+  /**
+   * Files scanned ahead of time by {@link #scanResourceFiles}, by absolute path, so that the
+   * resources they hold can then be added to {@link #resourceCollector} in a stable order.
+   */
+  private final ConcurrentMap<Path, ResourceXmlScanner.XmlFile> scannedXmlFiles =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, ResourceXmlScanner.ValuesFile> scannedValuesFiles =
+      new ConcurrentHashMap<>();
+
   public MiniAapt(
       SourcePathResolver resolver,
       ProjectFilesystem filesystem,
@@ -116,14 +107,6 @@ public class MiniAapt implements Step {
     this.resourceCollector = new AaptResourceCollector();
   }
 
-  private static XPathExpression createExpression(String expressionStr) {
-    try {
-      return XPathFactory.newInstance().newXPath().compile(expressionStr);
-    } catch (XPathExpressionException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   private static ImmutableMap<String, RType> getResourceTypes() {
     ImmutableMap.Builder<String, RType> types = ImmutableMap.builder();
     for (RType rType : RType.values()) {
@@ -145,9 +128,10 @@ public class MiniAapt implements Step {
     ImmutableSet.Builder<RDotTxtEntry> references = ImmutableSet.builder();
 
     try {
+      scanResourceFiles(filesystem, context.getConcurrencyLimit().threadLimit);
       collectResources(filesystem, context.getBuckEventBus());
       processXmlFilesForIds(filesystem, references);
-    } catch (IOException | XPathExpressionException | ResourceParseException e) {
+    } catch (IOException | ResourceParseException e) {
       context.logError(e, "Error parsing resources to generate resource IDs for %s.", resDirectory);
       return 1;
     }
@@ -182,6 +166,56 @@ public class MiniAapt implements Step {
     return 0;
   }
 
+  /**
+   * Scans all the XML files under the {@code res} directory on {@code threads} threads. Resource
+   * ids are handed out in the order in which resources are found, so the resources are only added
+   * afterwards, on one thread, in the same order as if each file had been scanned in turn.
+   * <p>
+   * Files which cannot be read or parsed are skipped here, so that the error is reported when
+   * the file is reached in that order.
+   */
+  @VisibleForTesting
+  void scanResourceFiles(final ProjectFilesystem filesystem, int threads)
+      throws IOException, InterruptedException {
+    Path absoluteResDir = resolver.getAbsolutePath(resDirectory);
+    Path relativeResDir = resolver.getRelativePath(resDirectory);
+    ExecutorService executor =
+        MoreExecutors.newMultiThreadExecutor("MiniAapt", Math.max(1, threads));
+    try {
+      for (final Path path : filesystem.getFilesUnderPath(absoluteResDir, ENDS_WITH_XML)) {
+        if (shouldIgnoreFile(path, filesystem)) {
+          continue;
+        }
+        final boolean isValuesFile =
+            isAValuesDir(relativeResDir.relativize(path).getName(0).toString());
+        executor.execute(
+            new Runnable() {
+              @Override
+              @SuppressWarnings("PMD.EmptyCatchBlock")
+              public void run() {
+                try {
+                  byte[] contents = readFile(filesystem, path);
+                  Path absolutePath = filesystem.resolve(path);
+                  if (isValuesFile) {
+                    scannedValuesFiles.put(
+                        absolutePath,
+                        ResourceXmlScanner.scanValuesFile(path, contents));
+                  } else {
+                    scannedXmlFiles.put(
+                        absolutePath,
+                        ResourceXmlScanner.scanXmlFile(path, contents));
+                  }
+                } catch (IOException | ResourceParseException e) {
+                  // Reported when the file is processed in order.
+                }
+              }
+            });
+      }
+    } finally {
+      MoreExecutors.shutdown(executor);
+    }
+  }
+
   /**
    * Collects file names under the {@code res} directory, except those under directories starting
    * with {@code values}, as resources based on their parent directory.
@@ -274,11 +308,7 @@ public class MiniAapt implements Step {
     // Look into the XML file.
     boolean isCustomDrawable = false;
     if (filename.endsWith(".xml")) {
-      try (InputStream stream = filesystem.newFileInputStream(resourceFile)) {
-        Document dom = parseXml(resourceFile, stream);
-        Element root = dom.getDocumentElement();
-        isCustomDrawable = root.getNodeName().startsWith(CUSTOM_DRAWABLE_PREFIX);
-      }
+      isCustomDrawable = getXmlFile(filesystem, resourceFile).isCustomDrawable();
     }
 
     if (isCustomDrawable) {
@@ -332,66 +362,56 @@ public class MiniAapt implements Step {
   @VisibleForTesting
   void processValuesFile(ProjectFilesystem filesystem, Path valuesFile)
       throws IOException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(valuesFile)) {
-      Document dom = parseXml(valuesFile, stream);
-      Element root = dom.getDocumentElement();
-
-      // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
-      // This is useful to exclude using generated strings to build the
-      // resource map, which ensures a build break will show up at build time
-      // rather than being hidden until generated resources are updated.
-      if (root.getAttribute("exclude-from-buck-resource-map").equals("true")) {
-        return;
-      }
-
-      for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
-        if (node.getNodeType() != Node.ELEMENT_NODE) {
-          continue;
-        }
-
-        String resourceType = node.getNodeName();
-        if (resourceType.equals(ITEM_TAG)) {
-          Node typeNode = node.getAttributes().getNamedItem("type");
-          if (typeNode == null) {
-            throw new ResourceParseException(
-                "Error parsing file '%s', expected a 'type' attribute in: \n'%s'\n",
-                valuesFile,
-                node.toString());
-          }
-          resourceType = typeNode.getNodeValue();
-        }
+    Path absolutePath = filesystem.resolve(valuesFile);
+    ResourceXmlScanner.ValuesFile scanned = scannedValuesFiles.get(absolutePath);
+    if (scanned == null) {
+      scanned = ResourceXmlScanner.scanValuesFile(valuesFile, readFile(filesystem, valuesFile));
+    }
 
-        if (IGNORED_TAGS.contains(resourceType)) {
-          continue;
-        }
+    // Exclude resources annotated with the attribute {@code exclude-from-resource-map}.
+    // This is useful to exclude using generated strings to build the
+    // resource map, which ensures a build break will show up at build time
+    // rather than being hidden until generated resources are updated.
+    if (scanned.isExcludedFromResourceMap()) {
+      return;
+    }
 
-        if (!RESOURCE_TYPES.containsKey(resourceType)) {
+    for (ResourceXmlScanner.ValuesElement element : scanned.getElements()) {
+      String resourceType = element.getTagName();
+      if (resourceType.equals(ITEM_TAG)) {
+        if (!element.getTypeAttribute().isPresent()) {
           throw new ResourceParseException(
-              "Invalid resource type '<%s>' in '%s'.",
-              resourceType,
-              valuesFile);
+              "Error parsing file '%s', expected a 'type' attribute in: \n'%s'\n",
+              valuesFile,
+              String.format("[%s: %s]", element.getTagName(), element.getNameAttribute().orNull()));
         }
+        resourceType = element.getTypeAttribute().get();
+      }
+
+      if (IGNORED_TAGS.contains(resourceType)) {
+        continue;
+      }
 
-        RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(resourceType));
-        addToResourceCollector(node, rType);
+      if (!RESOURCE_TYPES.containsKey(resourceType)) {
+        throw new ResourceParseException(
+            "Invalid resource type '<%s>' in '%s'.",
+            resourceType,
+            valuesFile);
       }
+
+      RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(resourceType));
+      addToResourceCollector(element, rType);
     }
   }
 
-  private void addToResourceCollector(Node node, RType rType) throws ResourceParseException {
-    String resourceName = sanitizeName(extractNameAttribute(node));
+  private void addToResourceCollector(ResourceXmlScanner.ValuesElement element, RType rType)
+      throws ResourceParseException {
+    String resourceName = sanitizeName(extractNameAttribute(element));
     if (rType.equals(RType.STYLEABLE)) {
 
       int count = 0;
-      for (Node attrNode = node.getFirstChild();
-           attrNode != null;
-           attrNode = attrNode.getNextSibling()) {
-        if (attrNode.getNodeType() != Node.ELEMENT_NODE ||
-            !attrNode.getNodeName().equals("attr")) {
-          continue;
-        }
-
-        String rawAttrName = extractNameAttribute(attrNode);
+      for (ResourceXmlScanner.ValuesElement attr : element.getAttrs()) {
+        String rawAttrName = extractNameAttribute(attr);
         String attrName = sanitizeName(rawAttrName);
         resourceCollector.addResource(
             RType.STYLEABLE,
@@ -416,7 +436,7 @@ public class MiniAapt implements Step {
   void processXmlFilesForIds(
       ProjectFilesystem filesystem,
       ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
+      throws IOException, ResourceParseException {
     Path absoluteResDir = resolver.getAbsolutePath(resDirectory);
     Path relativeResDir = resolver.getRelativePath(resDirectory);
     for (Path path : filesystem.getFilesUnderPath(absoluteResDir, ENDS_WITH_XML)) {
@@ -434,71 +454,65 @@ public class MiniAapt implements Step {
       ProjectFilesystem filesystem,
       Path xmlFile,
       ImmutableSet.Builder<RDotTxtEntry> references)
-      throws IOException, XPathExpressionException, ResourceParseException {
-    try (InputStream stream = filesystem.newFileInputStream(xmlFile)) {
-      Document dom = parseXml(xmlFile, stream);
-      NodeList nodesWithIds =
-          (NodeList) ANDROID_ID_DEFINITION.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesWithIds.getLength(); i++) {
-        String resourceName = nodesWithIds.item(i).getNodeValue();
-        if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
-        Preconditions.checkState(resourceName.startsWith(ID_DEFINITION_PREFIX));
-
-        resourceCollector.addIntResourceIfNotPresent(
-            RType.ID,
-            resourceName.substring(ID_DEFINITION_PREFIX.length()));
+      throws IOException, ResourceParseException {
+    ResourceXmlScanner.XmlFile scanned = getXmlFile(filesystem, xmlFile);
+    for (String resourceName : scanned.getIdDefinitions()) {
+      if (!resourceName.startsWith(ID_DEFINITION_PREFIX)) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
       }
 
-      NodeList nodesUsingIds =
-          (NodeList) ANDROID_ID_USAGE.evaluate(dom, XPathConstants.NODESET);
-      for (int i = 0; i < nodesUsingIds.getLength(); i++) {
-        String resourceName = nodesUsingIds.item(i).getNodeValue();
-        int slashPosition = resourceName.indexOf('/');
-        if (resourceName.charAt(0) != '@' || slashPosition == -1) {
-          throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
-        }
-
-        String rawRType = resourceName.substring(1, slashPosition);
-        String name = resourceName.substring(slashPosition + 1);
+      resourceCollector.addIntResourceIfNotPresent(
+          RType.ID,
+          resourceName.substring(ID_DEFINITION_PREFIX.length()));
+    }
 
-        String nodeName = nodesUsingIds.item(i).getNodeName();
-        if (name.startsWith("android:") || nodeName.startsWith("tools:")) {
-          continue;
-        }
-        if (!RESOURCE_TYPES.containsKey(rawRType)) {
-          throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
-        }
-        RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(rawRType));
+    for (ResourceXmlScanner.Attribute attribute : scanned.getReferences()) {
+      String resourceName = attribute.getValue();
+      int slashPosition = resourceName.indexOf('/');
+      if (resourceName.charAt(0) != '@' || slashPosition == -1) {
+        throw new ResourceParseException("Invalid definition of a resource: '%s'", resourceName);
+      }
 
+      String rawRType = resourceName.substring(1, slashPosition);
+      String name = resourceName.substring(slashPosition + 1);
 
-        references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
+      if (name.startsWith("android:") || attribute.getName().startsWith("tools:")) {
+        continue;
       }
+      if (!RESOURCE_TYPES.containsKey(rawRType)) {
+        throw new ResourceParseException("Invalid reference '%s' in '%s'", resourceName, xmlFile);
+      }
+      RType rType = Preconditions.checkNotNull(RESOURCE_TYPES.get(rawRType));
+
+
+      references.add(new FakeRDotTxtEntry(IdType.INT, rType, sanitizeName(name)));
     }
   }
 
-  private static Document parseXml(Path filepath, InputStream inputStream)
+  private ResourceXmlScanner.XmlFile getXmlFile(ProjectFilesystem filesystem, Path xmlFile)
       throws IOException, ResourceParseException {
-    try {
-      return XmlDomParser.parse(inputStream);
-    } catch (SAXException e) {
-      throw new ResourceParseException(
-          "Error parsing xml file '%s': %s.",
-          filepath,
-          e.getMessage());
+    ResourceXmlScanner.XmlFile scanned = scannedXmlFiles.get(filesystem.resolve(xmlFile));
+    if (scanned == null) {
+      scanned = ResourceXmlScanner.scanXmlFile(xmlFile, readFile(filesystem, xmlFile));
+    }
+    return scanned;
+  }
+
+  private static byte[] readFile(ProjectFilesystem filesystem, Path path) throws IOException {
+    try (InputStream stream = filesystem.newFileInputStream(path)) {
+      return ByteStreams.toByteArray(stream);
     }
   }
 
-  private static String extractNameAttribute(Node node) throws ResourceParseException {
-    Node attribute = node.getAttributes().getNamedItem("name");
-    if (attribute == null) {
+  private static String extractNameAttribute(ResourceXmlScanner.ValuesElement element)
+      throws ResourceParseException {
+    if (!element.getNameAttribute().isPresent()) {
       throw new ResourceParseException(
           "Error: expected a 'name' attribute in node '%s' with value '%s'",
-          node.getNodeName(),
-          node.getTextContent());
+          element.getTagName(),
+          element.getText());
     }
-    return attribute.getNodeValue();
+    return element.getNameAttribute().get();
   }
 
   private static String sanitizeName(String rawName) {
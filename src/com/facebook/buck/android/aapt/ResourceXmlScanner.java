@@ -0,0 +1,378 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android.aapt;
+
+import com.facebook.buck.android.aapt.MiniAapt.ResourceParseException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Pulls what {@link MiniAapt} needs out of resource XML files with a streaming parser, rather
+ * than building a DOM for each of them.
+ * <p>
+ * What is pulled out of a file depends only on its contents, so results are cached by content
+ * hash. When running in the daemon, files which did not change since the last build are not
+ * parsed again, whichever rule they belong to.
+ */
+class ResourceXmlScanner {
+
+  private static final String CUSTOM_DRAWABLE_PREFIX = "app-";
+  private static final String EXCLUDE_FROM_RESOURCE_MAP = "exclude-from-buck-resource-map";
+
+  private static final int MAX_CACHED_FILES = 50000;
+
+  private static final Cache<HashCode, XmlFile> XML_FILES = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_FILES)
+      .softValues()
+      .build();
+
+  private static final Cache<HashCode, ValuesFile> VALUES_FILES = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_FILES)
+      .softValues()
+      .build();
+
+  private static final ThreadLocal<XMLInputFactory> INPUT_FACTORY =
+      new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+          XMLInputFactory factory = XMLInputFactory.newInstance();
+          // Layouts often use prefixes such as "tools:" without declaring them.
+          factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+          factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+          return factory;
+        }
+      };
+
+  /** Utility class: do not instantiate. */
+  private ResourceXmlScanner() {}
+
+  /**
+   * Scans an XML file outside of the {@code values} directories for the ids it defines and the
+   * resources it refers to.
+   */
+  static XmlFile scanXmlFile(Path path, byte[] contents) throws ResourceParseException {
+    HashCode hash = Hashing.sha1().hashBytes(contents);
+    XmlFile xmlFile = XML_FILES.getIfPresent(hash);
+    if (xmlFile == null) {
+      try {
+        xmlFile = parseXmlFile(contents);
+      } catch (XMLStreamException e) {
+        throw newParseException(path, e);
+      }
+      XML_FILES.put(hash, xmlFile);
+    }
+    return xmlFile;
+  }
+
+  /**
+   * Scans an XML file under a {@code values} directory for the resources it defines.
+   */
+  static ValuesFile scanValuesFile(Path path, byte[] contents) throws ResourceParseException {
+    HashCode hash = Hashing.sha1().hashBytes(contents);
+    ValuesFile valuesFile = VALUES_FILES.getIfPresent(hash);
+    if (valuesFile == null) {
+      try {
+        valuesFile = parseValuesFile(contents);
+      } catch (XMLStreamException e) {
+        throw newParseException(path, e);
+      }
+      VALUES_FILES.put(hash, valuesFile);
+    }
+    return valuesFile;
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    XML_FILES.invalidateAll();
+    VALUES_FILES.invalidateAll();
+  }
+
+  private static XmlFile parseXmlFile(byte[] contents) throws XMLStreamException {
+    XMLStreamReader reader = createReader(contents);
+    try {
+      advanceToRootElement(reader);
+      String rootName = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+      ImmutableList.Builder<String> idDefinitions = ImmutableList.builder();
+      ImmutableList.Builder<Attribute> references = ImmutableList.builder();
+      do {
+        if (reader.getEventType() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+          String value = reader.getAttributeValue(i);
+          if (isIdDefinition(value)) {
+            idDefinitions.add(value);
+          } else if (isReference(value)) {
+            references.add(
+                new Attribute(
+                    getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                    value));
+          }
+        }
+      } while (reader.hasNext() && reader.next() != XMLStreamConstants.END_DOCUMENT);
+      return new XmlFile(rootName, idDefinitions.build(), references.build());
+    } finally {
+      reader.close();
+    }
+  }
+
+  private static ValuesFile parseValuesFile(byte[] contents) throws XMLStreamException {
+    XMLStreamReader reader = createReader(contents);
+    try {
+      advanceToRootElement(reader);
+      if ("true".equals(getAttribute(reader, EXCLUDE_FROM_RESOURCE_MAP).orNull())) {
+        return new ValuesFile(true, ImmutableList.<ValuesElement>of());
+      }
+
+      ImmutableList.Builder<ValuesElement> elements = ImmutableList.builder();
+      while (reader.hasNext()) {
+        int event = reader.next();
+        if (event == XMLStreamConstants.START_ELEMENT) {
+          elements.add(readValuesElement(reader, /* readChildren */ true));
+        } else if (event == XMLStreamConstants.END_ELEMENT) {
+          break;
+        }
+      }
+      // Make sure the rest of the document is well-formed, as the DOM parser did.
+      while (reader.hasNext()) {
+        reader.next();
+      }
+      return new ValuesFile(false, elements.build());
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Reads the element the reader is positioned on, leaving the reader on its end tag. Only the
+   * {@code attr} elements immediately under it are kept, as those are all that a
+   * {@code declare-styleable} is made of.
+   */
+  private static ValuesElement readValuesElement(XMLStreamReader reader, boolean readChildren)
+      throws XMLStreamException {
+    String name = getQualifiedName(reader.getPrefix(), reader.getLocalName());
+    Optional<String> nameAttribute = getAttribute(reader, "name");
+    Optional<String> typeAttribute = getAttribute(reader, "type");
+    ImmutableList.Builder<ValuesElement> attrs = ImmutableList.builder();
+    // The text is only needed to report a missing name, so don't hold on to it otherwise.
+    StringBuilder text = nameAttribute.isPresent() ? null : new StringBuilder();
+
+    int depth = 0;
+    while (true) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        if (depth == 0 &&
+            readChildren &&
+            getQualifiedName(reader.getPrefix(), reader.getLocalName()).equals("attr")) {
+          ValuesElement attr = readValuesElement(reader, /* readChildren */ false);
+          if (text != null) {
+            text.append(attr.getText());
+          }
+          attrs.add(attr);
+          continue;
+        }
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        if (depth == 0) {
+          break;
+        }
+        depth--;
+      } else if (text != null &&
+          (event == XMLStreamConstants.CHARACTERS ||
+              event == XMLStreamConstants.CDATA ||
+              event == XMLStreamConstants.SPACE)) {
+        text.append(reader.getText());
+      }
+    }
+
+    return new ValuesElement(
+        name,
+        nameAttribute,
+        typeAttribute,
+        text == null ? "" : text.toString(),
+        attrs.build());
+  }
+
+  private static XMLStreamReader createReader(byte[] contents) throws XMLStreamException {
+    return INPUT_FACTORY.get().createXMLStreamReader(new ByteArrayInputStream(contents));
+  }
+
+  private static void advanceToRootElement(XMLStreamReader reader) throws XMLStreamException {
+    while (reader.hasNext()) {
+      if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+        return;
+      }
+    }
+    throw new XMLStreamException("Premature end of file");
+  }
+
+  private static Optional<String> getAttribute(XMLStreamReader reader, String name) {
+    for (int i = 0; i < reader.getAttributeCount(); i++) {
+      if (name.equals(
+          getQualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)))) {
+        return Optional.of(reader.getAttributeValue(i));
+      }
+    }
+    return Optional.absent();
+  }
+
+  private static String getQualifiedName(String prefix, String localName) {
+    return prefix == null || prefix.isEmpty() ? localName : prefix + ":" + localName;
+  }
+
+  private static boolean isIdDefinition(String value) {
+    return value.startsWith("@+") && !value.startsWith("@+android:id");
+  }
+
+  private static boolean isReference(String value) {
+    return value.startsWith("@") &&
+        !value.startsWith("@+") &&
+        !value.startsWith("@android:") &&
+        !value.startsWith("@null");
+  }
+
+  private static ResourceParseException newParseException(Path path, XMLStreamException e) {
+    return new ResourceParseException("Error parsing xml file '%s': %s.", path, e.getMessage());
+  }
+
+  /**
+   * What {@link MiniAapt} needs from a layout, drawable, menu or other XML file.
+   */
+  static class XmlFile {
+    private final String rootName;
+    private final ImmutableList<String> idDefinitions;
+    private final ImmutableList<Attribute> references;
+
+    XmlFile(
+        String rootName,
+        ImmutableList<String> idDefinitions,
+        ImmutableList<Attribute> references) {
+      this.rootName = rootName;
+      this.idDefinitions = idDefinitions;
+      this.references = references;
+    }
+
+    boolean isCustomDrawable() {
+      return rootName.startsWith(CUSTOM_DRAWABLE_PREFIX);
+    }
+
+    /** Values of attributes which define ids, such as {@code @+id/button}, in document order. */
+    ImmutableList<String> getIdDefinitions() {
+      return idDefinitions;
+    }
+
+    /** Attributes which refer to other resources, in document order. */
+    ImmutableList<Attribute> getReferences() {
+      return references;
+    }
+  }
+
+  static class Attribute {
+    private final String name;
+    private final String value;
+
+    Attribute(String name, String value) {
+      this.name = name;
+      this.value = value;
+    }
+
+    String getName() {
+      return name;
+    }
+
+    String getValue() {
+      return value;
+    }
+  }
+
+  /**
+   * The elements immediately under the root of a file in a {@code values} directory.
+   */
+  static class ValuesFile {
+    private final boolean excludedFromResourceMap;
+    private final ImmutableList<ValuesElement> elements;
+
+    ValuesFile(boolean excludedFromResourceMap, ImmutableList<ValuesElement> elements) {
+      this.excludedFromResourceMap = excludedFromResourceMap;
+      this.elements = elements;
+    }
+
+    boolean isExcludedFromResourceMap() {
+      return excludedFromResourceMap;
+    }
+
+    ImmutableList<ValuesElement> getElements() {
+      return elements;
+    }
+  }
+
+  static class ValuesElement {
+    private final String tagName;
+    private final Optional<String> nameAttribute;
+    private final Optional<String> typeAttribute;
+    private final String text;
+    private final ImmutableList<ValuesElement> attrs;
+
+    ValuesElement(
+        String tagName,
+        Optional<String> nameAttribute,
+        Optional<String> typeAttribute,
+        String text,
+        ImmutableList<ValuesElement> attrs) {
+      this.tagName = tagName;
+      this.nameAttribute = nameAttribute;
+      this.typeAttribute = typeAttribute;
+      this.text = text;
+      this.attrs = attrs;
+    }
+
+    String getTagName() {
+      return tagName;
+    }
+
+    Optional<String> getNameAttribute() {
+      return nameAttribute;
+    }
+
+    Optional<String> getTypeAttribute() {
+      return typeAttribute;
+    }
+
+    /** The text content of the element, which is only kept when it has no name. */
+    String getText() {
+      return text;
+    }
+
+    /** The {@code attr} elements immediately under this one. */
+    ImmutableList<ValuesElement> getAttrs() {
+      return attrs;
+    }
+  }
+}
@@ -23,6 +23,7 @@ import com.dd.plist.PropertyListParser;
 import com.facebook.buck.apple.clang.HeaderMap;
 import com.facebook.buck.apple.xcode.GidGenerator;
 import com.facebook.buck.apple.xcode.XcodeprojSerializer;
+import com.facebook.buck.apple.xcode.XmlPropertyListWriter;
 import com.facebook.buck.apple.xcode.xcodeproj.CopyFilePhaseDestinationSpec;
 import com.facebook.buck.apple.xcode.xcodeproj.PBXAggregateTarget;
 import com.facebook.buck.apple.xcode.xcodeproj.PBXBuildFile;
@@ -105,10 +106,12 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Funnels;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Resources;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 
@@ -117,6 +120,7 @@ import org.stringtemplate.v4.ST;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.FileVisitResult;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
@@ -370,13 +374,14 @@ public class ProjectGenerator {
     return executableFinder.getExecutable(Paths.get("buck"), environment);
   }
 
+  // Projects are generated in parallel, and unpacking a resource deletes and rewrites it.
   @VisibleForTesting
-  static Path getFixUUIDScriptPath(ProjectFilesystem filesystem) {
+  static synchronized Path getFixUUIDScriptPath(ProjectFilesystem filesystem) {
     return getPackagedResourceNamed(filesystem, FIX_UUID_PY_RESOURCE).get();
   }
 
   @VisibleForTesting
-  static Path getCodesignScriptPath(ProjectFilesystem filesystem) {
+  static synchronized Path getCodesignScriptPath(ProjectFilesystem filesystem) {
     return getPackagedResourceNamed(filesystem, CODESIGN_PY_RESOURCE).get();
   }
 
@@ -1910,29 +1915,25 @@ public class ProjectGenerator {
    * Create the project bundle structure and write {@code project.pbxproj}.
    */
   private Path writeProjectFile(PBXProject project) throws IOException {
-  XcodeprojSerializer serializer = new XcodeprojSerializer(
+    XcodeprojSerializer serializer = new XcodeprojSerializer(
         new GidGenerator(ImmutableSet.copyOf(gidsToTargetNames.keySet())),
         project);
     NSDictionary rootObject = serializer.toPlist();
     Path xcodeprojDir = outputDirectory.resolve(projectName + ".xcodeproj");
     projectFilesystem.mkdirs(xcodeprojDir);
     Path serializedProject = xcodeprojDir.resolve("project.pbxproj");
-    String contentsToWrite = rootObject.toXMLPropertyList();
-    // Before we write any files, check if the file contents have changed.
-    if (MorePaths.fileContentsDiffer(
-        new ByteArrayInputStream(contentsToWrite.getBytes(Charsets.UTF_8)),
-        serializedProject,
-        projectFilesystem)) {
+    // Before we write any files, check if the file contents have changed. The project is streamed
+    // through a hash first rather than rendered to a string, as it can get very large.
+    Hasher contentsHasher = Hashing.sha1().newHasher();
+    XmlPropertyListWriter.write(rootObject, Funnels.asOutputStream(contentsHasher));
+    if (fileContentsDiffer(contentsHasher.hash(), serializedProject)) {
       LOG.debug("Regenerating project at %s", serializedProject);
-      if (shouldGenerateReadOnlyFiles()) {
-        projectFilesystem.writeContentsToPath(
-            contentsToWrite,
-            serializedProject,
-            READ_ONLY_FILE_ATTRIBUTE);
-      } else {
-        projectFilesystem.writeContentsToPath(
-            contentsToWrite,
-            serializedProject);
+      FileAttribute<?>[] attributes = shouldGenerateReadOnlyFiles() ?
+          new FileAttribute<?>[] {READ_ONLY_FILE_ATTRIBUTE} :
+          new FileAttribute<?>[0];
+      try (OutputStream outputStream =
+               projectFilesystem.newFileOutputStream(serializedProject, attributes)) {
+        XmlPropertyListWriter.write(rootObject, outputStream);
       }
     } else {
       LOG.debug("Not regenerating project at %s (contents have not changed)", serializedProject);
@@ -1940,6 +1941,17 @@ public class ProjectGenerator {
     return xcodeprojDir;
   }
 
+  private boolean fileContentsDiffer(HashCode contentsHash, Path path) throws IOException {
+    if (!projectFilesystem.exists(path)) {
+      return true;
+    }
+    Hasher fileHasher = Hashing.sha1().newHasher();
+    try (InputStream inputStream = projectFilesystem.newFileInputStream(path)) {
+      ByteStreams.copy(inputStream, Funnels.asOutputStream(fileHasher));
+    }
+    return !fileHasher.hash().equals(contentsHash);
+  }
+
   private static String getProductNameForBuildTarget(BuildTarget buildTarget) {
     return buildTarget.getShortName();
   }
@@ -37,12 +37,14 @@ import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Optionals;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -54,13 +56,18 @@ import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 
 public class WorkspaceAndProjectGenerator {
   private static final Logger LOG = Logger.get(WorkspaceAndProjectGenerator.class);
@@ -175,6 +182,20 @@ public class WorkspaceAndProjectGenerator {
   public Path generateWorkspaceAndDependentProjects(
         Map<Path, ProjectGenerator> projectGenerators)
       throws IOException {
+    return generateWorkspaceAndDependentProjects(
+        projectGenerators,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  /**
+   * Generates the workspace and every project it needs which isn't in {@code projectGenerators}
+   * yet. The projects are independent of each other, so they are generated on
+   * {@code executorService} at the same time.
+   */
+  public Path generateWorkspaceAndDependentProjects(
+        Map<Path, ProjectGenerator> projectGenerators,
+        ListeningExecutorService executorService)
+      throws IOException {
     LOG.debug("Generating workspace for target %s", workspaceBuildTarget);
 
     String workspaceName = XcodeWorkspaceConfigDescription.getWorkspaceNameFromArg(
@@ -289,6 +310,9 @@ public class WorkspaceAndProjectGenerator {
       }
       ImmutableMultimap<Path, BuildTarget> projectDirectoryToBuildTargets =
           projectDirectoryToBuildTargetsBuilder.build();
+      ImmutableList.Builder<ProjectGenerator> generatorsInWorkspaceBuilder =
+          ImmutableList.builder();
+      ImmutableList.Builder<ProjectGenerator> generatorsToRunBuilder = ImmutableList.builder();
       for (Path projectDirectory : projectDirectoryToBuildTargets.keySet()) {
         final ImmutableSet<BuildTarget> rules = filterRulesForProjectDirectory(
             projectGraph,
@@ -338,13 +362,47 @@ public class WorkspaceAndProjectGenerator {
               cxxBuckConfig)
               .setTestsToGenerateAsStaticLibraries(groupableTests);
 
-          generator.createXcodeProjects();
-          requiredBuildTargetsBuilder.addAll(generator.getRequiredBuildTargets());
+          generatorsToRunBuilder.add(generator);
           projectGenerators.put(projectDirectory, generator);
         } else {
           LOG.debug("Already generated project for target %s, skipping", projectDirectory);
         }
+        generatorsInWorkspaceBuilder.add(generator);
+      }
+
+      Optional<ProjectGenerator> combinedTestsProjectGenerator = Optional.absent();
+      if (!groupedTests.isEmpty()) {
+        combinedTestsProjectGenerator = Optional.of(
+            new ProjectGenerator(
+                projectGraph,
+                ImmutableSortedSet.<BuildTarget>of(),
+                projectFilesystem,
+                BuildTargets.getGenPath(workspaceBuildTarget, "%s-CombinedTestBundles"),
+                "_CombinedTestBundles",
+                buildFileName,
+                projectGeneratorOptions,
+                Optional.<BuildTarget>absent(),
+                buildWithBuckFlags,
+                executableFinder,
+                environment,
+                cxxPlatforms,
+                defaultCxxPlatform,
+                sourcePathResolverForNode,
+                buckEventBus,
+                attemptToDetermineBestCxxPlatform,
+                halideBuckConfig,
+                cxxBuckConfig)
+                .setAdditionalCombinedTestTargets(groupedTests));
+        generatorsToRunBuilder.add(combinedTestsProjectGenerator.get());
+      }
+
+      ImmutableList<ProjectGenerator> generatorsToRun = generatorsToRunBuilder.build();
+      createXcodeProjects(generatorsToRun, executorService);
+      for (ProjectGenerator generator : generatorsToRun) {
+        requiredBuildTargetsBuilder.addAll(generator.getRequiredBuildTargets());
+      }
 
+      for (ProjectGenerator generator : generatorsInWorkspaceBuilder.build()) {
         workspaceGenerator.addFilePath(generator.getProjectPath());
 
         buildTargetToPbxTargetMapBuilder.putAll(generator.getBuildTargetToGeneratedTargetMap());
@@ -353,41 +411,17 @@ public class WorkspaceAndProjectGenerator {
         }
       }
 
-      if (!groupedTests.isEmpty()) {
-        ProjectGenerator combinedTestsProjectGenerator = new ProjectGenerator(
-            projectGraph,
-            ImmutableSortedSet.<BuildTarget>of(),
-            projectFilesystem,
-            BuildTargets.getGenPath(workspaceBuildTarget, "%s-CombinedTestBundles"),
-            "_CombinedTestBundles",
-            buildFileName,
-            projectGeneratorOptions,
-            Optional.<BuildTarget>absent(),
-            buildWithBuckFlags,
-            executableFinder,
-            environment,
-            cxxPlatforms,
-            defaultCxxPlatform,
-            sourcePathResolverForNode,
-            buckEventBus,
-            attemptToDetermineBestCxxPlatform,
-            halideBuckConfig,
-            cxxBuckConfig);
-        combinedTestsProjectGenerator
-            .setAdditionalCombinedTestTargets(groupedTests)
-            .createXcodeProjects();
-        workspaceGenerator.addFilePath(combinedTestsProjectGenerator.getProjectPath());
-        requiredBuildTargetsBuilder.addAll(combinedTestsProjectGenerator.getRequiredBuildTargets());
-        for (PBXTarget target :
-            combinedTestsProjectGenerator.getBuildTargetToGeneratedTargetMap().values()) {
-          targetToProjectPathMapBuilder.put(target, combinedTestsProjectGenerator.getProjectPath());
+      if (combinedTestsProjectGenerator.isPresent()) {
+        ProjectGenerator generator = combinedTestsProjectGenerator.get();
+        workspaceGenerator.addFilePath(generator.getProjectPath());
+        for (PBXTarget target : generator.getBuildTargetToGeneratedTargetMap().values()) {
+          targetToProjectPathMapBuilder.put(target, generator.getProjectPath());
         }
-        synthesizedCombinedTestTargets =
-            combinedTestsProjectGenerator.getBuildableCombinedTestTargets();
+        synthesizedCombinedTestTargets = generator.getBuildableCombinedTestTargets();
         for (PBXTarget target : synthesizedCombinedTestTargets) {
-          targetToProjectPathMapBuilder.put(target, combinedTestsProjectGenerator.getProjectPath());
+          targetToProjectPathMapBuilder.put(target, generator.getProjectPath());
         }
-        this.combinedTestsProjectGenerator = Optional.of(combinedTestsProjectGenerator);
+        this.combinedTestsProjectGenerator = combinedTestsProjectGenerator;
       }
     }
 
@@ -445,6 +479,30 @@ public class WorkspaceAndProjectGenerator {
     return workspacePath;
   }
 
+  private static void createXcodeProjects(
+      ImmutableList<ProjectGenerator> generators,
+      ListeningExecutorService executorService) throws IOException {
+    ImmutableList.Builder<Callable<Void>> tasks = ImmutableList.builder();
+    for (final ProjectGenerator generator : generators) {
+      tasks.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              generator.createXcodeProjects();
+              return null;
+            }
+          });
+    }
+    try {
+      MoreFutures.getAll(executorService, tasks.build());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    } catch (InterruptedException e) {
+      throw new InterruptedIOException("Interrupted while generating projects");
+    }
+  }
+
   private Optional<BuildTarget> getTargetToBuildWithBuck() {
     if (buildWithBuck) {
       return workspaceArguments.srcTarget;
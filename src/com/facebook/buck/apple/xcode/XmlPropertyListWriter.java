@@ -0,0 +1,145 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.apple.xcode;
+
+import com.dd.plist.NSArray;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSNumber;
+import com.dd.plist.NSObject;
+import com.dd.plist.NSString;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Writes property lists in the XML format produced by {@link NSObject#toXMLPropertyList()},
+ * byte for byte, but straight to a stream rather than building the whole document in memory
+ * first. Project files of large Xcode projects run to tens of megabytes.
+ */
+public class XmlPropertyListWriter {
+
+  private static final String NEWLINE = System.getProperty("line.separator");
+  private static final String PLIST_START = "<plist version=\"1.0\">";
+  private static final String PLIST_END = "</plist>";
+
+  private XmlPropertyListWriter() {
+    // Utility class.
+  }
+
+  public static void write(NSObject root, OutputStream outputStream) throws IOException {
+    Writer writer = new BufferedWriter(
+        new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+    writer.write(NEWLINE);
+    writer.write(
+        "<!DOCTYPE plist PUBLIC \"-//Apple//DTD PLIST 1.0//EN\" " +
+        "\"http://www.apple.com/DTDs/PropertyList-1.0.dtd\">");
+    writer.write(NEWLINE);
+    writer.write(PLIST_START);
+    writer.write(NEWLINE);
+    writeObject(writer, root, 0);
+    writer.write(NEWLINE);
+    writer.write(PLIST_END);
+    writer.flush();
+  }
+
+  private static void writeObject(Writer writer, NSObject object, int level) throws IOException {
+    if (object instanceof NSDictionary) {
+      indent(writer, level);
+      writer.write("<dict>");
+      writer.write(NEWLINE);
+      for (Map.Entry<String, NSObject> entry :
+          ((NSDictionary) object).getHashMap().entrySet()) {
+        indent(writer, level + 1);
+        writer.write("<key>");
+        writeText(writer, entry.getKey());
+        writer.write("</key>");
+        writer.write(NEWLINE);
+        writeObject(writer, entry.getValue(), level + 1);
+        writer.write(NEWLINE);
+      }
+      indent(writer, level);
+      writer.write("</dict>");
+    } else if (object instanceof NSArray) {
+      indent(writer, level);
+      writer.write("<array>");
+      writer.write(NEWLINE);
+      for (NSObject element : ((NSArray) object).getArray()) {
+        writeObject(writer, element, level + 1);
+        writer.write(NEWLINE);
+      }
+      indent(writer, level);
+      writer.write("</array>");
+    } else if (object instanceof NSString) {
+      indent(writer, level);
+      writer.write("<string>");
+      writeText(writer, ((NSString) object).getContent());
+      writer.write("</string>");
+    } else if (object instanceof NSNumber) {
+      indent(writer, level);
+      NSNumber number = (NSNumber) object;
+      switch (number.type()) {
+        case NSNumber.INTEGER:
+          writer.write("<integer>" + number.longValue() + "</integer>");
+          break;
+        case NSNumber.REAL:
+          writer.write("<real>" + number.doubleValue() + "</real>");
+          break;
+        case NSNumber.BOOLEAN:
+          writer.write(number.boolValue() ? "<true/>" : "<false/>");
+          break;
+      }
+    } else {
+      // Dates, data and the like don't show up in project files, so just re-indent whatever
+      // dd-plist makes of them on their own.
+      String xml = object.toXMLPropertyList();
+      int start = xml.indexOf(PLIST_START) + PLIST_START.length() + NEWLINE.length();
+      int end = xml.lastIndexOf(NEWLINE + PLIST_END);
+      boolean first = true;
+      for (String line : xml.substring(start, end).split(NEWLINE, -1)) {
+        if (!first) {
+          writer.write(NEWLINE);
+        }
+        first = false;
+        indent(writer, level);
+        writer.write(line);
+      }
+    }
+  }
+
+  private static void writeText(Writer writer, String text) throws IOException {
+    // Node values must not contain < or &, and > should be escaped too.
+    if (text.contains("&") || text.contains("<") || text.contains(">")) {
+      writer.write("<![CDATA[");
+      writer.write(text.replace("]]>", "]]]]><![CDATA[>"));
+      writer.write("]]>");
+    } else {
+      writer.write(text);
+    }
+  }
+
+  private static void indent(Writer writer, int level) throws IOException {
+    for (int i = 0; i < level; i++) {
+      writer.write('\t');
+    }
+  }
+}
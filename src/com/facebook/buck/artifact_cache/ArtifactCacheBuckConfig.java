@@ -80,6 +80,8 @@ public class ArtifactCacheBuckConfig {
   private static final String SERVED_CACHE_ENABLED_FIELD_NAME = "serve_local_cache";
   private static final String DEFAULT_SERVED_CACHE_MODE = CacheReadMode.readonly.name();
   private static final String SERVED_CACHE_READ_MODE_FIELD_NAME = "served_local_cache_mode";
+  private static final String DEFAULT_SERVED_CACHE_MAX_CONCURRENT_FETCHES = "64";
+  private static final String DEFAULT_SERVED_CACHE_MAX_CONCURRENT_STORES = "16";
   private static final String LOAD_BALANCING_TYPE = "load_balancing_type";
   private static final LoadBalancingType DEFAULT_LOAD_BALANCING_TYPE =
       LoadBalancingType.SINGLE_SERVER;
@@ -162,6 +164,25 @@ public class ArtifactCacheBuckConfig {
     return Optional.of(getDirCache().withCacheReadMode(getServedLocalCacheReadMode()));
   }
 
+  /**
+   * @return how many fetches the served local cache sends at once. Further fetches are turned
+   *     away, so that builders fall back to building locally instead of queueing up.
+   */
+  public int getServedLocalCacheMaxConcurrentFetches() {
+    return Integer.valueOf(
+        buckConfig.getValue(CACHE_SECTION_NAME, "served_local_cache_max_concurrent_fetches")
+            .or(DEFAULT_SERVED_CACHE_MAX_CONCURRENT_FETCHES));
+  }
+
+  /**
+   * @return how many stores the served local cache accepts at once.
+   */
+  public int getServedLocalCacheMaxConcurrentStores() {
+    return Integer.valueOf(
+        buckConfig.getValue(CACHE_SECTION_NAME, "served_local_cache_max_concurrent_stores")
+            .or(DEFAULT_SERVED_CACHE_MAX_CONCURRENT_STORES));
+  }
+
   public DirCacheEntry getDirCache() {
     return DirCacheEntry.builder()
         .setCacheDir(getCacheDir())
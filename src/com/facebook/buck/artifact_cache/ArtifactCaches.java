@@ -17,6 +17,8 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.slb.HedgedLoadBalancedService;
+import com.facebook.buck.slb.HedgingConfig;
 import com.facebook.buck.slb.HttpLoadBalancer;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.LoadBalancedService;
@@ -257,7 +259,16 @@ public class ArtifactCaches {
       case CLIENT_SLB:
         HttpLoadBalancer clientSideSlb = config.getSlbConfig().createHttpClientSideSlb(
             new DefaultClock());
-        fetchService = new LoadBalancedService(clientSideSlb, fetchClient);
+        Optional<HedgingConfig> hedgingConfig = config.getSlbConfig().getHedgingConfig();
+        // Only fetches are hedged: a duplicate store would upload the whole artifact twice.
+        if (hedgingConfig.isPresent()) {
+          fetchService = new HedgedLoadBalancedService(
+              clientSideSlb,
+              fetchClient,
+              hedgingConfig.get());
+        } else {
+          fetchService = new LoadBalancedService(clientSideSlb, fetchClient);
+        }
         storeService = new LoadBalancedService(clientSideSlb, storeClient);
         break;
 
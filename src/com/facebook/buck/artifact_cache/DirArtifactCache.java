@@ -40,6 +40,7 @@ import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DirArtifactCache implements ArtifactCache {
 
@@ -55,7 +56,7 @@ public class DirArtifactCache implements ArtifactCache {
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final boolean doStore;
-  private long bytesSinceLastDeleteOldFiles;
+  private final AtomicLong bytesSinceLastDeleteOldFiles;
 
   public DirArtifactCache(
       String name,
@@ -69,7 +70,7 @@ public class DirArtifactCache implements ArtifactCache {
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.doStore = doStore;
-    this.bytesSinceLastDeleteOldFiles = 0L;
+    this.bytesSinceLastDeleteOldFiles = new AtomicLong(0L);
     filesystem.mkdirs(cacheDir);
   }
 
@@ -79,25 +80,12 @@ public class DirArtifactCache implements ArtifactCache {
     try {
 
       // First, build up the metadata from the metadata file.
-      ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
-      try (DataInputStream in =
-               new DataInputStream(
-                   filesystem.newFileInputStream(
-                       cacheDir.resolve(ruleKey.toString() + ".metadata")))) {
-        int sz = in.readInt();
-        for (int i = 0; i < sz; i++) {
-          String key = in.readUTF();
-          int valSize = in.readInt();
-          byte[] val = new byte[valSize];
-          ByteStreams.readFully(in, val);
-          metadata.put(key, new String(val, Charsets.UTF_8));
-        }
-      }
+      ImmutableMap<String, String> metadata = readMetadata(ruleKey);
 
       // Now copy the artifact out.
       filesystem.copyFile(cacheDir.resolve(ruleKey.toString()), output);
 
-      result = CacheResult.hit(name, metadata.build());
+      result = CacheResult.hit(name, metadata);
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
     } catch (IOException e) {
@@ -117,6 +105,48 @@ public class DirArtifactCache implements ArtifactCache {
     return result;
   }
 
+  /**
+   * Reads only the metadata stored for {@code ruleKey}, for callers which read the artifact in
+   * place from {@link #getArtifactPath} rather than having it copied out by {@link #fetch}.
+   */
+  public CacheResult fetchMetadata(RuleKey ruleKey) {
+    try {
+      return CacheResult.hit(name, readMetadata(ruleKey));
+    } catch (NoSuchFileException e) {
+      return CacheResult.miss();
+    } catch (IOException e) {
+      LOG.warn(e, "Artifact metadata fetch(%s) error", ruleKey);
+      return CacheResult.error(name, String.format("%s: %s", e.getClass(), e.getMessage()));
+    }
+  }
+
+  /**
+   * @return the absolute path at which the artifact for {@code ruleKey} is kept, whether or not
+   *     it is present. The file must only be read, and may be replaced by a later store or deleted
+   *     when the cache is trimmed, so callers should open it once and read from the open file.
+   */
+  public Path getArtifactPath(RuleKey ruleKey) {
+    return filesystem.resolve(cacheDir.resolve(ruleKey.toString()));
+  }
+
+  private ImmutableMap<String, String> readMetadata(RuleKey ruleKey) throws IOException {
+    ImmutableMap.Builder<String, String> metadata = ImmutableMap.builder();
+    try (DataInputStream in =
+             new DataInputStream(
+                 filesystem.newFileInputStream(
+                     cacheDir.resolve(ruleKey.toString() + ".metadata")))) {
+      int sz = in.readInt();
+      for (int i = 0; i < sz; i++) {
+        String key = in.readUTF();
+        int valSize = in.readInt();
+        byte[] val = new byte[valSize];
+        ByteStreams.readFully(in, val);
+        metadata.put(key, new String(val, Charsets.UTF_8));
+      }
+    }
+    return metadata.build();
+  }
+
   @Override
   public ListenableFuture<Void> store(
       ImmutableSet<RuleKey> ruleKeys,
@@ -139,7 +169,7 @@ public class DirArtifactCache implements ArtifactCache {
           filesystem.copyFile(output, tmp);
           Path artifactPath = cacheDir.resolve(ruleKey.toString());
           filesystem.move(tmp, artifactPath);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+          bytesSinceLastDeleteOldFiles.addAndGet(filesystem.getFileSize(artifactPath));
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
@@ -158,7 +188,7 @@ public class DirArtifactCache implements ArtifactCache {
           }
           Path metadataPath = cacheDir.resolve(ruleKey.toString() + ".metadata");
           filesystem.move(tmp, metadataPath);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          bytesSinceLastDeleteOldFiles.addAndGet(filesystem.getFileSize(metadataPath));
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
@@ -172,10 +202,12 @@ public class DirArtifactCache implements ArtifactCache {
           output);
     }
 
+    // Stores may run concurrently when this cache is served to other machines, so only the store
+    // which manages to reset the counter goes on to trim the cache.
+    long bytesStored = bytesSinceLastDeleteOldFiles.get();
     if (maxCacheSizeBytes.isPresent() &&
-        bytesSinceLastDeleteOldFiles >
-            (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
+        bytesStored > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER) &&
+        bytesSinceLastDeleteOldFiles.compareAndSet(bytesStored, 0L)) {
       deleteOldFiles();
     }
 
@@ -40,6 +40,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.util.Map;
 
 /**
@@ -270,6 +271,18 @@ public class HttpArtifactCacheBinaryProtocol {
       return contentLength;
     }
 
+    /**
+     * @return the bytes which {@link #write} sends ahead of the payload, for callers which send
+     *     the payload themselves.
+     */
+    public ByteBuffer getHeader() {
+      ByteBuffer header = ByteBuffer.allocate(Integer.SIZE / Byte.SIZE + rawMetadata.length);
+      header.putInt(rawMetadata.length);
+      header.put(rawMetadata);
+      header.flip();
+      return header;
+    }
+
     public void write(OutputStream responseSink) throws IOException {
       try (DataOutputStream dataOutputStream = new DataOutputStream(responseSink)) {
         dataOutputStream.writeInt(rawMetadata.length);
@@ -0,0 +1,608 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+// CHECKSTYLE.OFF: AvoidStarImport
+import static com.facebook.buck.bser.BserConstants.*;
+
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Pull-style decoder for the BSER binary JSON format used by the Watchman service:
+ *
+ * https://facebook.github.io/watchman/docs/bser.html
+ *
+ * Unlike {@link BserDeserializer}, which reads each whole PDU into memory and then decodes it
+ * into a tree of {@link Map}s and {@link List}s, this reads from a {@link ReadableByteChannel}
+ * through a fixed-size buffer and hands out one {@link Token} at a time, so callers can skip or
+ * fold values they don't need to keep. {@link #readValue()} can still be used to materialize
+ * individual sub-values, in the same representation as {@link BserDeserializer}.
+ *
+ * Templates are presented as arrays of objects, with the template's keys reported as field
+ * names and skipped values omitted.
+ *
+ * A reader may buffer bytes beyond the end of the current PDU, so a single instance should be
+ * used for the lifetime of the channel.
+ */
+public class BserStreamReader {
+
+  public enum Token {
+    START_ARRAY,
+    END_ARRAY,
+    START_OBJECT,
+    END_OBJECT,
+    FIELD_NAME,
+    VALUE_STRING,
+    VALUE_NUMBER_INT,
+    VALUE_NUMBER_REAL,
+    VALUE_TRUE,
+    VALUE_FALSE,
+    VALUE_NULL,
+  }
+
+  private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private enum FrameType {
+    ARRAY,
+    OBJECT,
+    TEMPLATE,
+    TEMPLATE_ROW,
+  }
+
+  private static class Frame {
+    private final FrameType type;
+    private int remaining;
+    private boolean expectingValue;
+    @Nullable private final List<String> templateKeys;
+    private int templateKeyIndex;
+    private byte pendingValueType;
+
+    Frame(FrameType type, int remaining, @Nullable List<String> templateKeys) {
+      this.type = type;
+      this.remaining = remaining;
+      this.templateKeys = templateKeys;
+    }
+  }
+
+  private final ReadableByteChannel channel;
+  private final BserDeserializer.KeyOrdering keyOrdering;
+  private final ByteBuffer buffer;
+  private final CharsetDecoder utf8Decoder;
+  private final Deque<Frame> frames = new ArrayDeque<>();
+
+  /** Bytes of the current PDU not yet consumed. */
+  private long pduBytesRemaining;
+  /** True once a PDU header has been read but before its top-level value has been started. */
+  private boolean topLevelValuePending;
+
+  @Nullable private Token currentToken;
+  @Nullable private String currentString;
+  @Nullable private Number currentNumber;
+  private double currentReal;
+
+  public BserStreamReader(
+      ReadableByteChannel channel,
+      BserDeserializer.KeyOrdering keyOrdering) {
+    this(channel, keyOrdering, DEFAULT_BUFFER_SIZE);
+  }
+
+  public BserStreamReader(
+      ReadableByteChannel channel,
+      BserDeserializer.KeyOrdering keyOrdering,
+      int bufferSize) {
+    Preconditions.checkArgument(bufferSize >= 16, "Buffer must hold at least a PDU header");
+    this.channel = channel;
+    this.keyOrdering = keyOrdering;
+    this.buffer = ByteBuffer.allocate(bufferSize).order(ByteOrder.nativeOrder());
+    // Start out with nothing to read.
+    this.buffer.flip();
+    this.utf8Decoder = StandardCharsets.UTF_8
+        .newDecoder()
+        .onMalformedInput(CodingErrorAction.REPORT);
+  }
+
+  /**
+   * Advances to the next PDU in the channel, discarding whatever is left of the current one.
+   *
+   * @return false if the channel ended cleanly before the next PDU.
+   */
+  public boolean nextPdu() throws IOException {
+    skipRestOfPdu();
+    if (!buffer.hasRemaining() && !fill(1, /* eofAllowed */ true)) {
+      return false;
+    }
+    ensureAvailable(3);
+    if (buffer.get() != 0x00 || buffer.get() != 0x01) {
+      throw new IOException("Invalid BSER header");
+    }
+    byte lengthType = buffer.get();
+    int lengthSize;
+    switch (lengthType) {
+      case BSER_INT8:
+        lengthSize = 1;
+        break;
+      case BSER_INT16:
+        lengthSize = 2;
+        break;
+      case BSER_INT32:
+        lengthSize = 4;
+        break;
+      case BSER_INT64:
+        lengthSize = 8;
+        break;
+      default:
+        throw new IOException(
+            String.format("Unrecognized BSER header length type %d", lengthType));
+    }
+    ensureAvailable(lengthSize);
+    long length = readNumberFromBuffer(lengthType).longValue();
+    if (length < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", length));
+    }
+    pduBytesRemaining = length;
+    topLevelValuePending = true;
+    currentToken = null;
+    return true;
+  }
+
+  /**
+   * Reads the next PDU and returns its value as a tree, just like
+   * {@link BserDeserializer#deserializeBserValue(java.io.InputStream)}.
+   */
+  @Nullable
+  public Object readBserValue() throws IOException {
+    if (!nextPdu()) {
+      throw new BserDeserializer.BserEofException("Reached end of stream before BSER header");
+    }
+    nextToken();
+    return readValue();
+  }
+
+  /**
+   * @return the next token of the current PDU, or {@code null} once its top-level value has been
+   *     fully read.
+   */
+  @Nullable
+  public Token nextToken() throws IOException {
+    Frame frame = frames.peek();
+    if (frame == null) {
+      if (!topLevelValuePending) {
+        currentToken = null;
+        return null;
+      }
+      topLevelValuePending = false;
+      return readValueToken(readByte());
+    }
+
+    switch (frame.type) {
+      case ARRAY:
+        if (frame.remaining == 0) {
+          frames.pop();
+          return setToken(Token.END_ARRAY);
+        }
+        frame.remaining--;
+        return readValueToken(readByte());
+
+      case OBJECT:
+        if (frame.expectingValue) {
+          frame.expectingValue = false;
+          return readValueToken(readByte());
+        }
+        if (frame.remaining == 0) {
+          frames.pop();
+          return setToken(Token.END_OBJECT);
+        }
+        frame.remaining--;
+        byte keyType = readByte();
+        if (keyType != BSER_STRING) {
+          throw new IOException(
+              String.format("Unrecognized BSER object key type %d, expected string", keyType));
+        }
+        currentString = readString();
+        frame.expectingValue = true;
+        return setToken(Token.FIELD_NAME);
+
+      case TEMPLATE:
+        if (frame.remaining == 0) {
+          frames.pop();
+          return setToken(Token.END_ARRAY);
+        }
+        frame.remaining--;
+        frames.push(new Frame(FrameType.TEMPLATE_ROW, 0, frame.templateKeys));
+        return setToken(Token.START_OBJECT);
+
+      case TEMPLATE_ROW:
+        if (frame.expectingValue) {
+          frame.expectingValue = false;
+          return readValueToken(frame.pendingValueType);
+        }
+        List<String> keys = Preconditions.checkNotNull(frame.templateKeys);
+        while (frame.templateKeyIndex < keys.size()) {
+          String key = keys.get(frame.templateKeyIndex++);
+          byte valueType = readByte();
+          if (valueType != BSER_SKIP) {
+            frame.pendingValueType = valueType;
+            frame.expectingValue = true;
+            currentString = key;
+            return setToken(Token.FIELD_NAME);
+          }
+        }
+        frames.pop();
+        return setToken(Token.END_OBJECT);
+    }
+    throw new IllegalStateException("Unknown frame type " + frame.type);
+  }
+
+  @Nullable
+  public Token getCurrentToken() {
+    return currentToken;
+  }
+
+  /**
+   * @return the current field name or string value.
+   */
+  public String getString() {
+    Preconditions.checkState(
+        currentToken == Token.FIELD_NAME || currentToken == Token.VALUE_STRING,
+        "Current token %s is not a string",
+        currentToken);
+    return Preconditions.checkNotNull(currentString);
+  }
+
+  /**
+   * @return the current integer value, boxed in a type of the same width as its encoding.
+   */
+  public Number getNumber() {
+    Preconditions.checkState(
+        currentToken == Token.VALUE_NUMBER_INT,
+        "Current token %s is not an integer",
+        currentToken);
+    return Preconditions.checkNotNull(currentNumber);
+  }
+
+  public long getLong() {
+    return getNumber().longValue();
+  }
+
+  public double getDouble() {
+    Preconditions.checkState(
+        currentToken == Token.VALUE_NUMBER_REAL,
+        "Current token %s is not a real",
+        currentToken);
+    return currentReal;
+  }
+
+  /**
+   * If the current token starts an array or object, consumes everything up to and including
+   * the matching end token. Otherwise does nothing, as the current value has already been read.
+   */
+  public void skipChildren() throws IOException {
+    if (currentToken != Token.START_ARRAY && currentToken != Token.START_OBJECT) {
+      return;
+    }
+    int depth = 1;
+    while (depth > 0) {
+      Token token = nextToken();
+      if (token == null) {
+        throw new BserDeserializer.BserEofException("Reached end of PDU inside a container");
+      }
+      switch (token) {
+        case START_ARRAY:
+        case START_OBJECT:
+          depth++;
+          break;
+        case END_ARRAY:
+        case END_OBJECT:
+          depth--;
+          break;
+        // $CASES-OMITTED$
+        default:
+          break;
+      }
+    }
+  }
+
+  /**
+   * Materializes the value starting at the current token, consuming any children.
+   *
+   * @return either a {@link String}, {@link Number}, {@link Boolean}, {@link List}, {@link Map}
+   *     or {@code null}, as {@link BserDeserializer} would.
+   */
+  @Nullable
+  public Object readValue() throws IOException {
+    Token token = Preconditions.checkNotNull(currentToken, "No current value");
+    switch (token) {
+      case START_ARRAY:
+        return readArray();
+      case START_OBJECT:
+        return readObject();
+      case VALUE_STRING:
+        return getString();
+      case VALUE_NUMBER_INT:
+        return getNumber();
+      case VALUE_NUMBER_REAL:
+        return currentReal;
+      case VALUE_TRUE:
+        return true;
+      case VALUE_FALSE:
+        return false;
+      case VALUE_NULL:
+        return null;
+      // $CASES-OMITTED$
+      default:
+        throw new IllegalStateException("Token " + token + " does not start a value");
+    }
+  }
+
+  private List<Object> readArray() throws IOException {
+    Frame frame = Preconditions.checkNotNull(frames.peek());
+    if (frame.remaining == 0 && frame.type == FrameType.ARRAY) {
+      nextToken();
+      return Collections.emptyList();
+    }
+    List<Object> list = new ArrayList<>(frame.remaining);
+    while (nextToken() != Token.END_ARRAY) {
+      list.add(readValue());
+    }
+    return list;
+  }
+
+  private Map<String, Object> readObject() throws IOException {
+    Frame frame = Preconditions.checkNotNull(frames.peek());
+    if (frame.remaining == 0 && frame.type == FrameType.OBJECT) {
+      nextToken();
+      return Collections.emptyMap();
+    }
+    Map<String, Object> map;
+    if (keyOrdering == BserDeserializer.KeyOrdering.UNSORTED) {
+      map = new LinkedHashMap<>();
+    } else {
+      map = new TreeMap<>();
+    }
+    while (nextToken() != Token.END_OBJECT) {
+      String key = getString();
+      nextToken();
+      map.put(key, readValue());
+    }
+    return map;
+  }
+
+  private Token setToken(Token token) {
+    currentToken = token;
+    return token;
+  }
+
+  private Token readValueToken(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+        currentNumber = readNumber(type);
+        return setToken(Token.VALUE_NUMBER_INT);
+      case BSER_REAL:
+        consume(8);
+        currentReal = buffer.getDouble();
+        return setToken(Token.VALUE_NUMBER_REAL);
+      case BSER_TRUE:
+        return setToken(Token.VALUE_TRUE);
+      case BSER_FALSE:
+        return setToken(Token.VALUE_FALSE);
+      case BSER_NULL:
+        return setToken(Token.VALUE_NULL);
+      case BSER_STRING:
+        currentString = readString();
+        return setToken(Token.VALUE_STRING);
+      case BSER_ARRAY:
+        frames.push(new Frame(FrameType.ARRAY, readLength(), null));
+        return setToken(Token.START_ARRAY);
+      case BSER_OBJECT:
+        frames.push(new Frame(FrameType.OBJECT, readLength(), null));
+        return setToken(Token.START_OBJECT);
+      case BSER_TEMPLATE:
+        List<String> keys = readTemplateKeys();
+        frames.push(new Frame(FrameType.TEMPLATE, readLength(), keys));
+        return setToken(Token.START_ARRAY);
+      default:
+        throw new IOException(String.format("Unrecognized BSER value type %d", type));
+    }
+  }
+
+  private List<String> readTemplateKeys() throws IOException {
+    byte arrayType = readByte();
+    if (arrayType != BSER_ARRAY) {
+      throw new IOException(String.format("Expected ARRAY to follow TEMPLATE, got %d", arrayType));
+    }
+    int numKeys = readLength();
+    List<String> keys = new ArrayList<>(numKeys);
+    for (int i = 0; i < numKeys; i++) {
+      byte keyType = readByte();
+      if (keyType != BSER_STRING) {
+        throw new IOException(
+            String.format("Unrecognized BSER template key type %d, expected string", keyType));
+      }
+      keys.add(readString());
+    }
+    return keys;
+  }
+
+  private int readLength() throws IOException {
+    long value = readNumber(readByte()).longValue();
+    if (value > Integer.MAX_VALUE) {
+      throw new IOException(
+          String.format("BSER length out of range (%d > %d)", value, Integer.MAX_VALUE));
+    } else if (value < 0) {
+      throw new IOException(String.format("BSER length out of range (%d < 0)", value));
+    }
+    return (int) value;
+  }
+
+  private Number readNumber(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        consume(1);
+        break;
+      case BSER_INT16:
+        consume(2);
+        break;
+      case BSER_INT32:
+        consume(4);
+        break;
+      case BSER_INT64:
+        consume(8);
+        break;
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+    return readNumberFromBuffer(type);
+  }
+
+  private Number readNumberFromBuffer(byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return buffer.get();
+      case BSER_INT16:
+        return buffer.getShort();
+      case BSER_INT32:
+        return buffer.getInt();
+      case BSER_INT64:
+        return buffer.getLong();
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private String readString() throws IOException {
+    int length = readLength();
+    ByteBuffer stringBuffer;
+    if (length <= buffer.capacity()) {
+      consume(length);
+      stringBuffer = buffer.slice();
+      stringBuffer.limit(length);
+      buffer.position(buffer.position() + length);
+    } else {
+      // Too big for the read buffer, so this one string has to be copied out separately.
+      checkWithinPdu(length);
+      stringBuffer = ByteBuffer.allocate(length);
+      while (stringBuffer.hasRemaining()) {
+        if (!buffer.hasRemaining()) {
+          fill(1, /* eofAllowed */ false);
+        }
+        int chunk = Math.min(buffer.remaining(), stringBuffer.remaining());
+        ByteBuffer slice = buffer.slice();
+        slice.limit(chunk);
+        stringBuffer.put(slice);
+        buffer.position(buffer.position() + chunk);
+      }
+      pduBytesRemaining -= length;
+      stringBuffer.flip();
+    }
+    // We'll likely have many duplicates of this string, so deduplicate the instances as
+    // BserDeserializer does.
+    return utf8Decoder.decode(stringBuffer).toString().intern();
+  }
+
+  private byte readByte() throws IOException {
+    consume(1);
+    return buffer.get();
+  }
+
+  /**
+   * Accounts for {@code count} bytes of the current PDU, and ensures they are in the buffer.
+   */
+  private void consume(int count) throws IOException {
+    checkWithinPdu(count);
+    ensureAvailable(count);
+    pduBytesRemaining -= count;
+  }
+
+  private void checkWithinPdu(long count) throws IOException {
+    if (count > pduBytesRemaining) {
+      throw new BserDeserializer.BserEofException(
+          String.format(
+              "Prematurely reached end of BSER PDU (needed %d bytes, %d remaining)",
+              count,
+              pduBytesRemaining));
+    }
+  }
+
+  private void ensureAvailable(int count) throws IOException {
+    if (buffer.remaining() < count) {
+      fill(count, /* eofAllowed */ false);
+    }
+  }
+
+  /**
+   * Reads from the channel until at least {@code count} bytes are buffered.
+   *
+   * @return false if {@code eofAllowed} and the channel ended before any bytes were read.
+   */
+  private boolean fill(int count, boolean eofAllowed) throws IOException {
+    buffer.compact();
+    try {
+      while (buffer.position() < count) {
+        int read = channel.read(buffer);
+        if (read < 0) {
+          if (eofAllowed && buffer.position() == 0) {
+            return false;
+          }
+          throw new BserDeserializer.BserEofException(
+              String.format(
+                  "Prematurely reached end of BSER stream (expected %d bytes, got %d bytes)",
+                  count,
+                  buffer.position()));
+        }
+      }
+      return true;
+    } finally {
+      buffer.flip();
+    }
+  }
+
+  private void skipRestOfPdu() throws IOException {
+    frames.clear();
+    topLevelValuePending = false;
+    while (pduBytesRemaining > 0) {
+      if (!buffer.hasRemaining()) {
+        fill(1, /* eofAllowed */ false);
+      }
+      int skipped = (int) Math.min(buffer.remaining(), pduBytesRemaining);
+      buffer.position(buffer.position() + skipped);
+      pduBytesRemaining -= skipped;
+    }
+  }
+}
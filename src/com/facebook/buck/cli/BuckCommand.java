@@ -40,6 +40,7 @@ public class BuckCommand extends AbstractContainerCommand {
       @SubCommand(name = "clean", impl = CleanCommand.class),
       @SubCommand(name = "fetch", impl = FetchCommand.class),
       @SubCommand(name = "install", impl = InstallCommand.class),
+      @SubCommand(name = "log", impl = LogCommand.class),
       @SubCommand(name = "project", impl = ProjectCommand.class),
       @SubCommand(name = "publish", impl = PublishCommand.class),
       @SubCommand(name = "query", impl = QueryCommand.class),
@@ -87,6 +87,8 @@ public class BuckConfig {
   static final String BUCK_BUCKD_DIR_KEY = "buck.buckd_dir";
 
   private static final String DEFAULT_MAX_TRACES = "25";
+  private static final long DEFAULT_TRACE_AGGREGATION_MICROS = 1000;
+  private static final long DEFAULT_TRACE_SAMPLE_INTERVAL = 100;
 
   private static final Function<String, URI> TO_URI = new Function<String, URI>() {
     @Override
@@ -460,6 +462,18 @@ public class BuckConfig {
     return getBooleanValue("log", "compress_traces", false);
   }
 
+  public boolean getBinaryTraces() {
+    return getBooleanValue("log", "binary_traces", false);
+  }
+
+  public long getTraceAggregationThresholdMicros() {
+    return getLong("log", "trace_aggregation_threshold_us").or(DEFAULT_TRACE_AGGREGATION_MICROS);
+  }
+
+  public int getTraceSampleInterval() {
+    return getLong("log", "trace_sample_interval").or(DEFAULT_TRACE_SAMPLE_INTERVAL).intValue();
+  }
+
   public boolean getRestartAdbOnFailure() {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
@@ -472,6 +486,14 @@ public class BuckConfig {
     return getBooleanValue("daemon", "flush_events_before_exit", false);
   }
 
+  /**
+   * @return whether the daemon should save its file hashes and parsed build files when it exits,
+   *     for the next daemon to restore.
+   */
+  public boolean getPersistDaemonState() {
+    return getBooleanValue("daemon", "persist_state", false);
+  }
+
   public ImmutableSet<String> getListenerJars() {
     return ImmutableSet.copyOf(getListWithoutComments("extensions", "listeners"));
   }
@@ -677,6 +699,13 @@ public class BuckConfig {
     return getLong("build", "max_depfile_cache_entries").or(256L);
   }
 
+  /**
+   * @return how long to wait for a worker process to reply to a job before killing it, if at all.
+   */
+  public Optional<Long> getWorkerReplyTimeoutMillis() {
+    return getLong("build", "worker_reply_timeout_ms");
+  }
+
   /**
    * @return the selected execution order of the build work queue.
    */
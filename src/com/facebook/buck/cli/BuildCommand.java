@@ -37,6 +37,7 @@ import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.CachingBuildEngine;
 import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphToActionGraph;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.step.TargetDeviceOptions;
@@ -211,7 +212,8 @@ public class BuildCommand extends AbstractCommand {
       ObjectMapper objectMapper,
       Clock clock,
       Optional<AdbOptions> adbOptions,
-      Optional<TargetDeviceOptions> targetDeviceOptions) {
+      Optional<TargetDeviceOptions> targetDeviceOptions,
+      WorkerProcessPool workerProcessPool) {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", buckConfig.getNumThreads());
     }
@@ -235,7 +237,8 @@ public class BuildCommand extends AbstractCommand {
         clock,
         getConcurrencyLimit(buckConfig),
         adbOptions,
-        targetDeviceOptions);
+        targetDeviceOptions,
+        workerProcessPool);
   }
 
   @Nullable private Build lastBuild;
@@ -403,7 +406,8 @@ public class BuildCommand extends AbstractCommand {
         params.getObjectMapper(),
         params.getClock(),
         Optional.<AdbOptions>absent(),
-        Optional.<TargetDeviceOptions>absent())) {
+        Optional.<TargetDeviceOptions>absent(),
+        params.getWorkerProcessPool().addRef())) {
       lastBuild = build;
       return build.executeAndPrintFailuresToEventBus(
           buildTargets,
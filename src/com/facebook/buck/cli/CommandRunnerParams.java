@@ -23,6 +23,7 @@ import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.Cell;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -54,6 +55,7 @@ class CommandRunnerParams {
   private final Optional<WebServer> webServer;
   private final BuckConfig buckConfig;
   private final FileHashCache fileHashCache;
+  private final WorkerProcessPool workerProcessPool;
 
   public CommandRunnerParams(
       Console console,
@@ -70,7 +72,8 @@ class CommandRunnerParams {
       Optional<ProcessManager> processManager,
       Optional<WebServer> webServer,
       BuckConfig buckConfig,
-      FileHashCache fileHashCache) {
+      FileHashCache fileHashCache,
+      WorkerProcessPool workerProcessPool) {
     this.console = console;
     this.cell = cell;
     this.artifactCache = artifactCache;
@@ -86,6 +89,7 @@ class CommandRunnerParams {
     this.webServer = webServer;
     this.buckConfig = buckConfig;
     this.fileHashCache = fileHashCache;
+    this.workerProcessPool = workerProcessPool;
   }
 
   public Console getConsole() {
@@ -148,6 +152,14 @@ class CommandRunnerParams {
     return fileHashCache;
   }
 
+  /**
+   * @return the pool of worker processes, which a buck daemon keeps between commands. Anything
+   *     which holds on to it past the command should {@link WorkerProcessPool#addRef()} it.
+   */
+  public WorkerProcessPool getWorkerProcessPool() {
+    return workerProcessPool;
+  }
+
   protected ExecutionContext createExecutionContext() {
     return ExecutionContext.builder()
         .setConsole(console)
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.log.IndexedLogHandler;
+import com.facebook.buck.log.IndexedLogReader;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+import org.kohsuke.args4j.Option;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.annotation.Nullable;
+
+/**
+ * Prints the log records of an earlier command from the indexed log store, without having to
+ * search through every log file for them.
+ */
+public class LogCommand extends AbstractCommand {
+
+  @Option(
+      name = "--build-id",
+      usage = "The build ID of the command whose log to print. Defaults to the most recent " +
+          "command.")
+  @Nullable
+  private String buildId = null;
+
+  @Option(
+      name = "--target",
+      usage = "Only print the records logged while running steps for this build target.")
+  @Nullable
+  private String target = null;
+
+  @Override
+  public int runWithoutHelp(CommandRunnerParams params) throws IOException, InterruptedException {
+    IndexedLogReader logReader = new IndexedLogReader(
+        params.getCell().getFilesystem().resolve(IndexedLogHandler.getDirectory()));
+
+    Optional<String> commandId = Optional.fromNullable(buildId);
+    if (!commandId.isPresent()) {
+      commandId = logReader.getLastCommandId(
+          Optional.of(params.getBuckEventBus().getBuildId().toString()));
+      if (!commandId.isPresent()) {
+        params.getConsole().printErrorText("No commands have been logged yet.");
+        return 1;
+      }
+    }
+
+    Optional<String> buildTarget = Optional.absent();
+    if (target != null) {
+      buildTarget = Optional.of(
+          getCommandLineBuildTargetNormalizer(params.getBuckConfig()).normalize(target));
+    }
+
+    // Don't close the writer, as that would close stdout.
+    Writer writer = new OutputStreamWriter(params.getConsole().getStdOut(), Charsets.UTF_8);
+    int recordCount = logReader.copyRecords(commandId.get(), buildTarget, writer);
+    if (recordCount == 0) {
+      params.getConsole().printErrorText(
+          String.format("No log records found for build %s.", commandId.get()));
+      return 1;
+    }
+    return 0;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public String getShortDescription() {
+    return "prints the log of an earlier command";
+  }
+}
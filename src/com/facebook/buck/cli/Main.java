@@ -32,6 +32,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
+import com.facebook.buck.event.listener.BinaryTraceWriter;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.FileSerializationEventBusListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
@@ -46,6 +47,7 @@ import com.facebook.buck.io.MoreFiles;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.TempDirectoryCreator;
 import com.facebook.buck.io.Watchman;
+import com.facebook.buck.io.WatchmanSubscriber;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
 import com.facebook.buck.jvm.java.JavacOptions;
 import com.facebook.buck.log.CommandThreadAssociation;
@@ -55,12 +57,14 @@ import com.facebook.buck.model.BuckVersion;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
+import com.facebook.buck.parser.SavedRawNodes;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.ConstructorArgMarshaller;
 import com.facebook.buck.rules.KnownBuildRuleTypes;
 import com.facebook.buck.rules.KnownBuildRuleTypesFactory;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.test.TestConfig;
 import com.facebook.buck.test.TestResultSummaryVerbosity;
 import com.facebook.buck.timing.Clock;
@@ -80,6 +84,7 @@ import com.facebook.buck.util.PrintStreamProcessExecutorFactory;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessManager;
 import com.facebook.buck.util.PropertyFinder;
+import com.facebook.buck.util.ToolchainDiscoveryCache;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
@@ -106,6 +111,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -140,6 +150,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -179,6 +191,13 @@ public final class Main {
       "buck.path_to_static_content", "webserver/static");
   private static final int DISK_IO_STATS_TIMEOUT_SECONDS = 2;
 
+  /**
+   * Where the output of toolchain probes is kept, so that they are only run again once the tools
+   * change. Shared by every cell.
+   */
+  private static final Path TOOLCHAIN_DISCOVERY_CACHE =
+      BuckConstant.SCRATCH_PATH.resolve("toolchains.cache");
+
   private final PrintStream stdOut;
   private final PrintStream stdErr;
   private final ImmutableList<BuckEventListener> externalEventsListeners;
@@ -226,13 +245,36 @@ public final class Main {
    */
   private static final class Daemon implements Closeable {
 
-    private final Cell cell;
-    private final Parser parser;
-    private final DefaultFileHashCache hashCache;
+    /**
+     * The number of parsers, one per distinct parser configuration, kept warm at once. Each holds
+     * the parsed build files and target nodes of the whole project, so this is kept small.
+     */
+    private static final int MAX_CACHED_PARSERS = 3;
+
+    private static final Path FILE_HASH_SNAPSHOT =
+        BuckConstant.SCRATCH_PATH.resolve("file_hashes.snapshot");
+    private static final Path RAW_NODE_SNAPSHOT =
+        BuckConstant.SCRATCH_PATH.resolve("raw_nodes.snapshot");
+
+    private volatile Cell cell;
+    private final Cache<Cell.ParserCacheKey, Parser> parsers;
+    private final TypeCoercerFactory typeCoercerFactory;
+    private final WatchedFileHashCache hashCache;
+    private final Optional<Path> fileHashSnapshot;
+    private final Optional<SavedRawNodes> savedRawNodes;
+    @Nullable private final Thread saveStateOnExit;
     private final DefaultFileHashCache buckOutHashCache;
     private final EventBus fileEventBus;
-    private final Optional<WebServer> webServer;
+    private volatile Optional<WebServer> webServer;
+    private final WorkerProcessPool workerProcessPool;
     private final UUID watchmanQueryUUID;
+    private final boolean useWatchmanSubscription;
+    @Nullable private WatchmanSubscriber watchmanSubscriber;
+
+    /**
+     * Guards updates to the cached parsers' state, which are triggered by file system events.
+     */
+    private final Object parserStateLock = new Object();
 
     public Daemon(
         Cell cell,
@@ -241,6 +283,35 @@ public final class Main {
         throws IOException, InterruptedException {
       this.cell = cell;
       this.hashCache = new WatchedFileHashCache(cell.getFilesystem());
+      this.workerProcessPool =
+          new WorkerProcessPool(cell.getBuckConfig().getWorkerReplyTimeoutMillis());
+      if (cell.getBuckConfig().getPersistDaemonState()) {
+        // The daemon is usually stopped by exiting the VM, so save its state from a shutdown hook
+        // as well as when the daemon is closed.
+        this.fileHashSnapshot = Optional.of(cell.getFilesystem().resolve(FILE_HASH_SNAPSHOT));
+        try {
+          hashCache.loadSnapshot(fileHashSnapshot.get());
+        } catch (IOException e) {
+          LOG.warn(e, "Could not restore file hashes from %s.", fileHashSnapshot.get());
+        }
+        this.savedRawNodes = Optional.of(new SavedRawNodes(cell.getFilesystem().getRootPath()));
+        Path rawNodeSnapshot = cell.getFilesystem().resolve(RAW_NODE_SNAPSHOT);
+        try {
+          savedRawNodes.get().loadSnapshot(rawNodeSnapshot);
+        } catch (IOException e) {
+          LOG.warn(e, "Could not restore parsed build files from %s.", rawNodeSnapshot);
+        }
+        this.saveStateOnExit = new Thread("save-daemon-state") {
+          @Override
+          public void run() {
+            saveState();
+          }
+        };
+      } else {
+        this.fileHashSnapshot = Optional.absent();
+        this.savedRawNodes = Optional.absent();
+        this.saveStateOnExit = null;
+      }
       this.buckOutHashCache =
           new DefaultFileHashCache(
               new ProjectFilesystem(
@@ -249,12 +320,26 @@ public final class Main {
                   ImmutableSet.<ProjectFilesystem.PathOrGlobMatcher>of()));
       this.fileEventBus = new EventBus("file-change-events");
 
-      TypeCoercerFactory typeCoercerFactory = new DefaultTypeCoercerFactory();
-      this.parser = new Parser(
-          new ParserConfig(cell.getBuckConfig()),
-          typeCoercerFactory,
-          new ConstructorArgMarshaller(typeCoercerFactory));
-      fileEventBus.register(parser);
+      // Parsers are kept per parser configuration, which is the part of the cell's config that
+      // parsing can depend on, so that changing any other section keeps the current parser and a
+      // change to the parser configuration (for example a different set of -c overrides) starts a
+      // fresh one while the file hash caches, which only depend on the filesystem, stay warm.
+      // Switching back to an earlier configuration finds its parser still up to date, since
+      // every cached parser keeps receiving file system events.
+      this.typeCoercerFactory = new DefaultTypeCoercerFactory();
+      this.parsers = CacheBuilder.newBuilder()
+          .maximumSize(MAX_CACHED_PARSERS)
+          .removalListener(
+              new RemovalListener<Cell.ParserCacheKey, Parser>() {
+                @Override
+                public void onRemoval(
+                    RemovalNotification<Cell.ParserCacheKey, Parser> notification) {
+                  fileEventBus.unregister(notification.getValue());
+                }
+              })
+          .build();
+      this.useWatchmanSubscription =
+          new ParserConfig(cell.getBuckConfig()).getUseWatchmanSubscription();
       fileEventBus.register(hashCache);
 
       if (webServerToReuse.isPresent()) {
@@ -267,6 +352,11 @@ public final class Main {
       }
       watchmanQueryUUID = UUID.randomUUID();
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(cell.getFilesystem());
+
+      // Registered last, so that a daemon which fails to construct doesn't leave a hook behind.
+      if (saveStateOnExit != null) {
+        Runtime.getRuntime().addShutdownHook(saveStateOnExit);
+      }
     }
 
     private Optional<WebServer> createWebServer(
@@ -320,8 +410,58 @@ public final class Main {
       return webServer;
     }
 
-    private Parser getParser() {
-      return parser;
+    /**
+     * @return whether this daemon's filesystem state, which is the file hash caches, whether they
+     *     and the parsed build files are persisted, and the Watchman subscription, is still valid
+     *     for {@code newCell}.
+     */
+    private boolean canBeReusedFor(Cell newCell) {
+      return cell.getFilesystem().equals(newCell.getFilesystem()) &&
+          fileHashSnapshot.isPresent() == newCell.getBuckConfig().getPersistDaemonState() &&
+          useWatchmanSubscription ==
+              new ParserConfig(newCell.getBuckConfig()).getUseWatchmanSubscription();
+    }
+
+    /**
+     * Makes {@code newCell} the daemon's current cell, restarting the web server if its port has
+     * changed.
+     */
+    private void switchToCell(Cell newCell, ObjectMapper objectMapper) {
+      if (!getValidWebServerPort(cell.getBuckConfig()).equals(
+              getValidWebServerPort(newCell.getBuckConfig()))) {
+        shutdownWebServer();
+        webServer = createWebServer(
+            newCell.getBuckConfig(),
+            newCell.getFilesystem(),
+            objectMapper);
+      }
+      cell = newCell;
+      if (!initWebServer()) {
+        LOG.warn("Can't start web server");
+      }
+    }
+
+    private Parser getParser(final Cell cell) {
+      Cell.ParserCacheKey key = cell.getParserCacheKey();
+      try {
+        return parsers.get(
+            key,
+            new Callable<Parser>() {
+              @Override
+              public Parser call() {
+                LOG.debug("Creating parser for %s", cell.getParserCacheKey());
+                Parser parser = new Parser(
+                    new ParserConfig(cell.getBuckConfig()),
+                    typeCoercerFactory,
+                    new ConstructorArgMarshaller(typeCoercerFactory),
+                    savedRawNodes);
+                fileEventBus.register(parser);
+                return parser;
+              }
+            });
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
     }
 
     private DefaultFileHashCache getFileHashCache() {
@@ -332,17 +472,21 @@ public final class Main {
       return buckOutHashCache;
     }
 
+    private WorkerProcessPool getWorkerProcessPool() {
+      return workerProcessPool;
+    }
+
     private void watchClient(final NGContext context) {
       context.addClientListener(new NGClientListener() {
         @Override
         public void clientDisconnected() throws InterruptedException {
 
-          // Synchronize on parser object so that the main command processing thread is not
-          // interrupted mid way through a Parser cache update by the Thread.interrupt() call
-          // triggered by System.exit(). The Parser cache will be reused by subsequent commands
-          // so needs to be left in a consistent state even if the current command is interrupted
+          // Synchronize on the parser state lock so that the main command processing thread is
+          // not interrupted mid way through a Parser cache update by the Thread.interrupt() call
+          // triggered by System.exit(). The Parser caches will be reused by subsequent commands
+          // so need to be left in a consistent state even if the current command is interrupted
           // due to a client disconnection.
-          synchronized (parser) {
+          synchronized (parserStateLock) {
             LOG.info("Client disconnected.");
             // Client should no longer be connected, but printing helps detect false disconnections.
             context.err.println("Client disconnected.");
@@ -353,33 +497,74 @@ public final class Main {
     }
 
     private void watchFileSystem(
+        Parser parser,
         CommandEvent commandEvent,
         BuckEventBus eventBus,
+        Watchman watchman,
         WatchmanWatcher watchmanWatcher) throws IOException, InterruptedException {
 
-      // Synchronize on parser object so that all outstanding watch events are processed
+      // Synchronize on the parser state lock so that all outstanding watch events are processed
       // as a single, atomic Parser cache update and are not interleaved with Parser cache
       // invalidations triggered by requests to parse build files or interrupted by client
       // disconnections.
-      synchronized (parser) {
+      synchronized (parserStateLock) {
         parser.recordParseStartTime(eventBus);
         fileEventBus.post(commandEvent);
         ImmutableSet.Builder<String> encounteredWatchmanWarningsBuilder = ImmutableSet.builder();
-        watchmanWatcher.postEvents(eventBus, encounteredWatchmanWarningsBuilder);
+        if (watchmanSubscriber != null && watchmanSubscriber.isAlive()) {
+          watchmanWatcher.postEvents(
+              eventBus,
+              encounteredWatchmanWarningsBuilder,
+              watchmanSubscriber);
+        } else {
+          // Subscribe before querying, so that no change falls between the two.
+          subscribeToWatchman(watchman, watchmanWatcher);
+          watchmanWatcher.postEvents(eventBus, encounteredWatchmanWarningsBuilder);
+        }
 
         // TODO(bhamiltoncx): Pass encountered Watchman warnings to parser so Watchman glob can
         // ignore them.
       }
     }
 
+    private void subscribeToWatchman(Watchman watchman, WatchmanWatcher watchmanWatcher)
+        throws InterruptedException {
+      closeWatchmanSubscriber();
+      if (!useWatchmanSubscription || !watchman.getSocketPath().isPresent()) {
+        return;
+      }
+      try {
+        watchmanSubscriber = watchmanWatcher.subscribe(
+            watchman.getSocketPath().get(),
+            "buckd" + watchmanQueryUUID).orNull();
+      } catch (IOException e) {
+        LOG.warn(e, "Could not subscribe to Watchman, falling back to queries.");
+      }
+    }
+
+    private void closeWatchmanSubscriber() {
+      if (watchmanSubscriber != null) {
+        try {
+          watchmanSubscriber.close();
+        } catch (IOException e) {
+          LOG.warn(e, "Could not close Watchman subscription.");
+        }
+        watchmanSubscriber = null;
+      }
+    }
+
     /** @return true if the web server was started successfully. */
     private boolean initWebServer() {
       if (webServer.isPresent()) {
+        ArtifactCacheBuckConfig cacheBuckConfig = new ArtifactCacheBuckConfig(cell.getBuckConfig());
         Optional<ArtifactCache> servedCache = ArtifactCaches.newServedCache(
-            new ArtifactCacheBuckConfig(cell.getBuckConfig()),
+            cacheBuckConfig,
             cell.getFilesystem());
         try {
-          webServer.get().updateAndStartIfNeeded(servedCache);
+          webServer.get().updateAndStartIfNeeded(
+              servedCache,
+              cacheBuckConfig.getServedLocalCacheMaxConcurrentFetches(),
+              cacheBuckConfig.getServedLocalCacheMaxConcurrentStores());
           return true;
         } catch (WebServer.WebServerException e) {
           LOG.error(e);
@@ -396,9 +581,40 @@ public final class Main {
       return watchmanQueryUUID;
     }
 
+    private void saveState() {
+      if (fileHashSnapshot.isPresent()) {
+        try {
+          hashCache.saveSnapshot(fileHashSnapshot.get());
+        } catch (IOException e) {
+          LOG.warn(e, "Could not save file hashes to %s.", fileHashSnapshot.get());
+        }
+      }
+      if (savedRawNodes.isPresent()) {
+        Path rawNodeSnapshot = cell.getFilesystem().resolve(RAW_NODE_SNAPSHOT);
+        try {
+          savedRawNodes.get().saveSnapshot(rawNodeSnapshot);
+        } catch (IOException e) {
+          LOG.warn(e, "Could not save parsed build files to %s.", rawNodeSnapshot);
+        }
+      }
+    }
+
     @Override
     public void close() throws IOException {
+      synchronized (parserStateLock) {
+        closeWatchmanSubscriber();
+      }
       shutdownWebServer();
+      workerProcessPool.close();
+      if (saveStateOnExit != null) {
+        try {
+          Runtime.getRuntime().removeShutdownHook(saveStateOnExit);
+        } catch (IllegalStateException e) {
+          // The VM is already shutting down, and the hook will save the state.
+          return;
+        }
+        saveState();
+      }
     }
 
     private void shutdownWebServer() {
@@ -439,11 +655,12 @@ public final class Main {
             rootPath, parserRoot));
       }
 
-      // If Buck config or the AndroidDirectoryResolver has changed, invalidate the cache and
-      // create a new daemon.
-      if (!daemon.cell.equals(cell)) {
+      // If the filesystem or the way it is watched has changed, none of the cached state can be
+      // trusted, so create a new daemon. Any other change to the Buck config or the
+      // AndroidDirectoryResolver only needs a different parser, which the daemon keeps per cell.
+      if (!daemon.canBeReusedFor(cell)) {
         LOG.warn(
-            "Shutting down and restarting daemon on config or directory resolver change (%s != %s)",
+            "Shutting down and restarting daemon on filesystem or watch config change (%s != %s)",
             daemon.cell,
             cell);
         if (shouldReuseWebServer(cell)) {
@@ -453,11 +670,28 @@ public final class Main {
           daemon.close();
         }
         daemon = new Daemon(cell, objectMapper, webServer);
+      } else if (!daemon.cell.equals(cell)) {
+        LOG.info(
+            "Switching daemon to cell on config or directory resolver change (%s != %s)",
+            daemon.cell,
+            cell);
+        daemon.switchToCell(cell, objectMapper);
       }
     }
     return daemon;
   }
 
+  /**
+   * Get the daemon's parser for the given cell, creating the daemon if needed.
+   */
+  @VisibleForTesting
+  static Parser getDaemonParser(
+      Cell cell,
+      ObjectMapper objectMapper)
+      throws IOException, InterruptedException {
+    return getDaemon(cell, objectMapper).getParser(cell);
+  }
+
   private static boolean shouldReuseWebServer(Cell newCell) {
     if (newCell == null || daemon == null || daemon.cell == null) {
       return false;
@@ -732,6 +966,7 @@ public final class Main {
 
       KnownBuildRuleTypesFactory factory = new KnownBuildRuleTypesFactory(
           processExecutor,
+          ToolchainDiscoveryCache.persistedAt(filesystem.resolve(TOOLCHAIN_DISCOVERY_CACHE)),
           androidDirectoryResolver,
           testTempDirOverride);
 
@@ -830,6 +1065,7 @@ public final class Main {
                    webServer,
                    locale,
                    BuckConstant.LOG_PATH.resolve("test.log"));
+           WorkerProcessPool workerProcessPool = getWorkerProcessPool(context, rootCell);
            TempDirectoryCreator tempDirectoryCreator =
                new TempDirectoryCreator(testTempDirOverride);
            AsyncCloseable asyncCloseable = new AsyncCloseable(diskIoExecutorService);
@@ -906,6 +1142,7 @@ public final class Main {
                 rootCell,
                 startedEvent,
                 buildEventBus,
+                watchman,
                 watchmanWatcher);
           } catch (WatchmanWatcherException | IOException e) {
             buildEventBus.post(
@@ -966,7 +1203,8 @@ public final class Main {
                 processManager,
                 webServer,
                 buckConfig,
-                fileHashCache));
+                fileHashCache,
+                workerProcessPool));
         // Wait for HTTP writes to complete.
         closeHttpExecutorService(
             cacheBuckConfig, Optional.of(buildEventBus), httpWriteExecutorService);
@@ -1137,12 +1375,14 @@ public final class Main {
       Cell cell,
       CommandEvent commandEvent,
       BuckEventBus eventBus,
+      Watchman watchman,
       WatchmanWatcher watchmanWatcher) throws IOException, InterruptedException {
     // Wire up daemon to new client and get cached Parser.
     Daemon daemon = getDaemon(cell, objectMapper);
+    Parser parser = daemon.getParser(cell);
     daemon.watchClient(context.get());
-    daemon.watchFileSystem(commandEvent, eventBus, watchmanWatcher);
-    return daemon.getParser();
+    daemon.watchFileSystem(parser, commandEvent, eventBus, watchman, watchmanWatcher);
+    return parser;
   }
 
   private DefaultFileHashCache getFileHashCacheFromDaemon(Cell cell)
@@ -1157,6 +1397,18 @@ public final class Main {
     return daemon.getBuckOutHashCache();
   }
 
+  /**
+   * @return a reference to the daemon's worker processes, so that they outlive the command, or a
+   *     pool of the command's own if there is no daemon.
+   */
+  private WorkerProcessPool getWorkerProcessPool(Optional<NGContext> context, Cell cell)
+      throws IOException, InterruptedException {
+    if (context.isPresent()) {
+      return getDaemon(cell, objectMapper).getWorkerProcessPool().addRef();
+    }
+    return new WorkerProcessPool(cell.getBuckConfig().getWorkerReplyTimeoutMillis());
+  }
+
   private Optional<WebServer> getWebServerIfDaemon(
       Optional<NGContext> context,
       Cell cell)
@@ -1239,13 +1491,21 @@ public final class Main {
             .add(consoleEventBusListener)
             .add(new LoggingBuildListener());
     try {
+      Optional<BinaryTraceWriter.Options> binaryTraceOptions = Optional.absent();
+      if (config.getBinaryTraces()) {
+        binaryTraceOptions = Optional.of(
+            new BinaryTraceWriter.Options(
+                config.getTraceAggregationThresholdMicros(),
+                config.getTraceSampleInterval()));
+      }
       eventListenersBuilder.add(new ChromeTraceBuildListener(
           projectFilesystem,
           buildId,
           clock,
           objectMapper,
           config.getMaxTraces(),
-          config.getCompressTraces()));
+          config.getCompressTraces(),
+          binaryTraceOptions));
     } catch (IOException e) {
       LOG.error("Unable to create ChromeTrace listener!");
     }
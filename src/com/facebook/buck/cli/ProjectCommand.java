@@ -90,6 +90,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import org.kohsuke.args4j.Option;
 
@@ -220,6 +221,12 @@ public class ProjectCommand extends BuildCommand {
   @Nullable
   private IjModuleGraph.AggregationMode intellijAggregationMode = null;
 
+  @Option(
+      name = "--intellij-incremental",
+      usage = "Only regenerate the IntelliJ modules whose targets or dependencies changed since " +
+          "the project was last generated. Only applies to the experimental generator.")
+  private boolean intellijIncremental = false;
+
   public boolean getCombinedProject() {
     return combinedProject;
   }
@@ -326,6 +333,10 @@ public class ProjectCommand extends BuildCommand {
     return experimentalIntelliJProjectGenerationEnabled;
   }
 
+  public boolean isIntellijIncremental() {
+    return intellijIncremental;
+  }
+
   public IjModuleGraph.AggregationMode getIntellijAggregationMode(BuckConfig buckConfig) {
     if (intellijAggregationMode != null) {
       return intellijAggregationMode;
@@ -430,13 +441,15 @@ public class ProjectCommand extends BuildCommand {
                 params,
                 projectGraph,
                 targetGraphAndTargets,
-                passedInTargetsSet);
+                passedInTargetsSet,
+                pool.getExecutor());
             break;
           case XCODE:
             result = runXcodeProjectGenerator(
                 params,
                 targetGraphAndTargets,
-                passedInTargetsSet);
+                passedInTargetsSet,
+                pool.getExecutor());
             break;
           default:
             // unreachable
@@ -522,7 +535,8 @@ public class ProjectCommand extends BuildCommand {
    */
   int runExperimentalIntellijProjectGenerator(
       CommandRunnerParams params,
-      final TargetGraphAndTargets targetGraphAndTargets) throws IOException, InterruptedException {
+      final TargetGraphAndTargets targetGraphAndTargets,
+      ListeningExecutorService executor) throws IOException, InterruptedException {
     TargetGraphToActionGraph targetGraphToActionGraph = new TargetGraphToActionGraph(
         params.getBuckEventBus(),
         new BuildTargetNodeToBuildRuleTransformer());
@@ -541,7 +555,9 @@ public class ProjectCommand extends BuildCommand {
         ruleResolver,
         sourcePathResolver,
         params.getCell().getFilesystem(),
-        getIntellijAggregationMode(params.getBuckConfig()));
+        getIntellijAggregationMode(params.getBuckConfig()),
+        executor,
+        isIntellijIncremental());
 
     ImmutableSet<BuildTarget> requiredBuildTargets = project.write();
 
@@ -570,10 +586,11 @@ public class ProjectCommand extends BuildCommand {
       CommandRunnerParams params,
       TargetGraph projectGraph,
       TargetGraphAndTargets targetGraphAndTargets,
-      ImmutableSet<BuildTarget> passedInTargetsSet)
+      ImmutableSet<BuildTarget> passedInTargetsSet,
+      ListeningExecutorService executor)
       throws IOException, InterruptedException {
     if (isExperimentalIntelliJProjectGenerationEnabled()) {
-      return runExperimentalIntellijProjectGenerator(params, targetGraphAndTargets);
+      return runExperimentalIntellijProjectGenerator(params, targetGraphAndTargets, executor);
     }
     // Create an ActionGraph that only contains targets that can be represented as IDE
     // configuration files.
@@ -699,7 +716,8 @@ public class ProjectCommand extends BuildCommand {
   int runXcodeProjectGenerator(
       final CommandRunnerParams params,
       final TargetGraphAndTargets targetGraphAndTargets,
-      ImmutableSet<BuildTarget> passedInTargetsSet)
+      ImmutableSet<BuildTarget> passedInTargetsSet,
+      ListeningExecutorService executor)
       throws IOException, InterruptedException {
     int exitCode = 0;
     AppleConfig appleConfig = new AppleConfig(params.getBuckConfig());
@@ -719,7 +737,8 @@ public class ProjectCommand extends BuildCommand {
         new HashMap<Path, ProjectGenerator>(),
         getCombinedProject(),
         buildWithBuck || shouldForceBuildingWithBuck(params.getBuckConfig(), passedInTargetsSet),
-        getCombineTestBundles());
+        getCombineTestBundles(),
+        executor);
     if (!requiredBuildTargets.isEmpty()) {
       BuildCommand buildCommand = new BuildCommand(FluentIterable.from(requiredBuildTargets)
           .transform(Functions.toStringFunction())
@@ -750,7 +769,8 @@ public class ProjectCommand extends BuildCommand {
       Map<Path, ProjectGenerator> projectGenerators,
       boolean combinedProject,
       boolean buildWithBuck,
-      boolean combineTestBundles)
+      boolean combineTestBundles,
+      ListeningExecutorService executor)
       throws IOException, InterruptedException {
     ImmutableSet<BuildTarget> targets;
     if (passedInTargetsSet.isEmpty()) {
@@ -840,7 +860,7 @@ public class ProjectCommand extends BuildCommand {
           halideBuckConfig,
           cxxBuckConfig);
       generator.setGroupableTests(groupableTests);
-      generator.generateWorkspaceAndDependentProjects(projectGenerators);
+      generator.generateWorkspaceAndDependentProjects(projectGenerators, executor);
       ImmutableSet<BuildTarget> requiredBuildTargetsForWorkspace =
           generator.getRequiredBuildTargets();
       LOG.debug(
@@ -18,10 +18,13 @@ package com.facebook.buck.cli;
 
 import com.facebook.buck.slb.ClientSideSlb;
 import com.facebook.buck.slb.ClientSideSlbConfig;
+import com.facebook.buck.slb.HedgingConfig;
 import com.facebook.buck.timing.Clock;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.squareup.okhttp.OkHttpClient;
 
 import java.net.URI;
@@ -39,6 +42,10 @@ public class SlbBuckConfig {
   private static final String LATENCY_CHECK_TIME_RANGE_MILLIS =
       "slb_latency_check_time_range_millis";
   private static final String MAX_ACCEPTABLE_LATENCY_MILLIS = "slb_max_acceptable_latency_millis";
+  private static final String HEDGE_REQUESTS = "slb_hedge_requests";
+  private static final String HEDGE_LATENCY_PERCENTILE = "slb_hedge_latency_percentile";
+  private static final String HEDGE_MIN_DELAY_MILLIS = "slb_hedge_min_delay_millis";
+  private static final String HEDGE_MIN_LATENCY_SAMPLES = "slb_hedge_min_latency_samples";
 
   private final String parentSection;
   private final BuckConfig buckConfig;
@@ -108,4 +115,41 @@ public class SlbBuckConfig {
 
     return new ClientSideSlb(configBuilder.build());
   }
+
+  /**
+   * @return how requests which are safe to repeat should be hedged across the server pool, or
+   *     absent if they should not be.
+   */
+  public Optional<HedgingConfig> getHedgingConfig() {
+    if (!buckConfig.getBooleanValue(parentSection, HEDGE_REQUESTS, false)) {
+      return Optional.absent();
+    }
+
+    // One daemon thread per service starts the backup requests, so a service which is never
+    // closed still doesn't hold up exit.
+    HedgingConfig.Builder configBuilder = HedgingConfig.builder()
+        .setSchedulerService(
+            Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder()
+                    .setNameFormat("slb-hedging-%d")
+                    .setDaemon(true)
+                    .build()));
+
+    if (buckConfig.getValue(parentSection, HEDGE_LATENCY_PERCENTILE).isPresent()) {
+      configBuilder.setLatencyPercentile(
+          buckConfig.getFloat(parentSection, HEDGE_LATENCY_PERCENTILE).get());
+    }
+
+    if (buckConfig.getValue(parentSection, HEDGE_MIN_DELAY_MILLIS).isPresent()) {
+      configBuilder.setMinDelayMillis(
+          buckConfig.getLong(parentSection, HEDGE_MIN_DELAY_MILLIS).get().intValue());
+    }
+
+    if (buckConfig.getValue(parentSection, HEDGE_MIN_LATENCY_SAMPLES).isPresent()) {
+      configBuilder.setMinLatencySamples(
+          buckConfig.getLong(parentSection, HEDGE_MIN_LATENCY_SAMPLES).get().intValue());
+    }
+
+    return Optional.of(configBuilder.build());
+  }
 }
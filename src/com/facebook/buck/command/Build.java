@@ -33,6 +33,7 @@ import com.facebook.buck.rules.BuildResult;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.ImmutableBuildContext;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.step.AdbOptions;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
@@ -117,7 +118,8 @@ public class Build implements Closeable {
       Clock clock,
       ConcurrencyLimit concurrencyLimit,
       Optional<AdbOptions> adbOptions,
-      Optional<TargetDeviceOptions> targetDeviceOptions) {
+      Optional<TargetDeviceOptions> targetDeviceOptions,
+      WorkerProcessPool workerProcessPool) {
     this.actionGraph = actionGraph;
     this.ruleResolver = ruleResolver;
     this.executionContext = ExecutionContext.builder()
@@ -136,6 +138,7 @@ public class Build implements Closeable {
         .setConcurrencyLimit(concurrencyLimit)
         .setAdbOptions(adbOptions)
         .setTargetDeviceOptions(targetDeviceOptions)
+        .setWorkerProcessPool(workerProcessPool)
         .build();
     this.artifactCache = artifactCache;
     this.buildEngine = buildEngine;
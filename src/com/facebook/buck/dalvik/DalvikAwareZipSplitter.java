@@ -23,7 +23,9 @@ import com.facebook.buck.jvm.java.classes.ClasspathTraverser;
 import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.jvm.java.classes.FileLike;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableMap;
@@ -65,6 +67,10 @@ import javax.annotation.Nullable;
 public class DalvikAwareZipSplitter implements ZipSplitter {
   private static final Logger LOG = Logger.get(DalvikAwareZipSplitter.class);
 
+  /** Where linear alloc estimates are kept between runs, relative to the project root. */
+  private static final Path DALVIK_STATS_STORE =
+      BuckConstant.SCRATCH_PATH.resolve("dalvik_stats.cache");
+
   private final ProjectFilesystem filesystem;
   private final Set<Path> inFiles;
   private final Path outPrimary;
@@ -76,6 +82,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
   private final DexSplitStrategy dexSplitStrategy;
   private final ImmutableSet<String> secondaryHeadSet;
   private final ImmutableSet<String> secondaryTailSet;
+  private final int threadLimit;
 
   private final MySecondaryDexHelper secondaryDexWriter;
 
@@ -100,7 +107,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableSet<String> secondaryTailSet,
       DexSplitStrategy dexSplitStrategy,
       ZipSplitter.CanaryStrategy canaryStrategy,
-      Path reportDir) {
+      Path reportDir,
+      int threadLimit) {
     if (linearAllocLimit <= 0) {
       throw new HumanReadableException("linear_alloc_hard_limit must be greater than zero.");
     }
@@ -116,7 +124,9 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     this.reportDir = reportDir;
     this.dexSplitStrategy = dexSplitStrategy;
     this.linearAllocLimit = linearAllocLimit;
-    this.dalvikStatsCache = new DalvikStatsCache();
+    this.threadLimit = threadLimit;
+    this.dalvikStatsCache =
+        new DalvikStatsCache(Optional.of(filesystem.resolve(DALVIK_STATS_STORE)));
   }
 
   public static DalvikAwareZipSplitter splitZip(
@@ -132,7 +142,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
       ImmutableSet<String> secondaryTailSet,
       DexSplitStrategy dexSplitStrategy,
       ZipSplitter.CanaryStrategy canaryStrategy,
-      Path reportDir) {
+      Path reportDir,
+      int threadLimit) {
     return new DalvikAwareZipSplitter(
         filesystem,
         inFiles,
@@ -146,7 +157,8 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
         secondaryTailSet,
         dexSplitStrategy,
         canaryStrategy,
-        reportDir);
+        reportDir,
+        threadLimit);
   }
 
   @Override
@@ -154,6 +166,10 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     ClasspathTraverser classpathTraverser = new DefaultClasspathTraverser();
     final Set<String> secondaryTail = new HashSet<String>();
 
+    // Analyze the classes not seen before up front, in parallel, rather than one at a time as the
+    // traversals below reach them.
+    dalvikStatsCache.computeMissingStats(filesystem, inFiles, threadLimit);
+
     // Start out by writing the primary zip and recording which entries were added to it.
     primaryOut = newZipOutput(outPrimary);
     secondaryDexWriter.reset();
@@ -244,6 +260,7 @@ public class DalvikAwareZipSplitter implements ZipSplitter {
     }
     primaryOut.close();
     secondaryDexWriter.close();
+    dalvikStatsCache.save();
     return secondaryDexWriter.getFiles();
   }
 
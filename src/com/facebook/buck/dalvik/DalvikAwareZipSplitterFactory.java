@@ -27,12 +27,18 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
 
   private final long linearAllocLimit;
   private final Set<String> wantedInPrimaryZip;
+  private final int threadLimit;
 
+  /**
+   * @param threadLimit how many threads may analyze classes at once, usually the build's limit.
+   */
   public DalvikAwareZipSplitterFactory(
       long linearAllocLimit,
-      Set<String> wantedInPrimaryZip) {
+      Set<String> wantedInPrimaryZip,
+      int threadLimit) {
     this.linearAllocLimit = linearAllocLimit;
     this.wantedInPrimaryZip = wantedInPrimaryZip;
+    this.threadLimit = threadLimit;
   }
 
   @Override
@@ -61,6 +67,7 @@ public class DalvikAwareZipSplitterFactory implements ZipSplitterFactory {
         secondaryTailSet,
         dexSplitStrategy,
         canaryStrategy,
-        reportDir);
+        reportDir,
+        threadLimit);
   }
 }
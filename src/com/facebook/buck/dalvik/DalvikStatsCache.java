@@ -16,22 +16,99 @@
 
 package com.facebook.buck.dalvik;
 
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
+import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
 import com.facebook.buck.jvm.java.classes.FileLike;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.concurrent.MoreExecutors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.MapMaker;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
-import java.io.InputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nullable;
 
 /**
  * Cache to memoize results from DalvikStatsTool.
+ * <p>
+ * Results are keyed by the contents of the class, and shared by every splitter in the process,
+ * so that in the daemon only classes which changed since the last build are analyzed again. They
+ * can also be saved to and loaded from a file, so that a fresh process does not start from
+ * scratch either.
  */
 class DalvikStatsCache {
 
+  private static final Logger LOG = Logger.get(DalvikStatsCache.class);
+
+  private static final int MAGIC = 0x44535443;
+  /** Bump this whenever {@link DalvikStatsTool} changes the way it estimates. */
+  private static final int VERSION = 2;
+
+  /** Upper bound on the entries kept in a store file shared by several apps. */
+  private static final int MAX_STORED_STATS = 500000;
+
+  private static final Object SAVE_LOCK = new Object();
+
+  private static final Cache<HashCode, DalvikStatsTool.Stats> SHARED_STATS =
+      CacheBuilder.newBuilder()
+          .maximumSize(500000)
+          .build();
+
+  /** Store files which have already been read into {@link #SHARED_STATS} by this process. */
+  private static final Set<Path> LOADED_STORES = Sets.newConcurrentHashSet();
+
   private final ConcurrentMap<FileLike, DalvikStatsTool.Stats> cache;
+  private final Optional<Path> storeFile;
+  /** The classes this cache was asked about, which are the ones worth saving. */
+  private final Set<HashCode> usedHashes = Sets.newConcurrentHashSet();
+  private final AtomicBoolean computedNewStats = new AtomicBoolean();
 
   DalvikStatsCache() {
+    this(Optional.<Path>absent());
+  }
+
+  /**
+   * @param storeFile where to load results from on first use in this process, and where
+   *     {@link #save()} writes them.
+   */
+  DalvikStatsCache(Optional<Path> storeFile) {
     cache = new MapMaker().weakKeys().makeMap();
+    this.storeFile = storeFile;
+    if (storeFile.isPresent() && LOADED_STORES.add(storeFile.get())) {
+      load(storeFile.get());
+    }
   }
 
   DalvikStatsTool.Stats getStats(FileLike entry) {
@@ -48,7 +125,7 @@ class DalvikStatsCache {
     }
 
     try (InputStream is = entry.getInput()) {
-      stats = DalvikStatsTool.getEstimate(is);
+      stats = getStats(ByteStreams.toByteArray(is));
       cache.put(entry, stats);
       return stats;
     } catch (IOException e) {
@@ -57,4 +134,307 @@ class DalvikStatsCache {
       throw new RuntimeException(String.format("Error calculating size for %s.", name), e);
     }
   }
+
+  private DalvikStatsTool.Stats getStats(byte[] classBytes) throws IOException {
+    HashCode hash = Hashing.sha1().hashBytes(classBytes);
+    usedHashes.add(hash);
+    DalvikStatsTool.Stats stats = SHARED_STATS.getIfPresent(hash);
+    if (stats == null) {
+      stats = DalvikStatsTool.getEstimate(new ByteArrayInputStream(classBytes));
+      SHARED_STATS.put(hash, stats);
+      computedNewStats.set(true);
+    }
+    return stats;
+  }
+
+  /**
+   * Analyzes, on {@code threads} threads, the classes in {@code inFiles} for which there are no
+   * results yet. Classes which fail to be analyzed are skipped, and the error is reported when
+   * {@link #getStats(FileLike)} is called for them.
+   */
+  void computeMissingStats(ProjectFilesystem filesystem, Set<Path> inFiles, int threads)
+      throws IOException {
+    final ExecutorService executor =
+        MoreExecutors.newMultiThreadExecutor("dalvik-stats", threads);
+    // Don't read classes much faster than they can be analyzed, to bound memory use.
+    final Semaphore pending = new Semaphore(threads * 16);
+    try {
+      new DefaultClasspathTraverser().traverse(
+          new ClasspathTraversal(inFiles, filesystem) {
+            @Override
+            public void visit(FileLike entry) throws IOException {
+              if (!entry.getRelativePath().endsWith(".class")) {
+                return;
+              }
+              final byte[] classBytes;
+              try (InputStream is = entry.getInput()) {
+                classBytes = ByteStreams.toByteArray(is);
+              }
+              HashCode hash = Hashing.sha1().hashBytes(classBytes);
+              if (SHARED_STATS.getIfPresent(hash) != null) {
+                return;
+              }
+              pending.acquireUninterruptibly();
+              executor.execute(
+                  new Runnable() {
+                    @Override
+                    @SuppressWarnings("PMD.EmptyCatchBlock")
+                    public void run() {
+                      try {
+                        getStats(classBytes);
+                      } catch (IOException | RuntimeException e) {
+                        // Reported when the class is asked about.
+                      } finally {
+                        pending.release();
+                      }
+                    }
+                  });
+            }
+          });
+    } finally {
+      try {
+        MoreExecutors.shutdown(executor);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Writes the results for the classes this cache was asked about to the store file, if there is
+   * one and anything new was learned. The store is shared by every app built in the same
+   * buck-out, so what it already holds is kept, up to {@link #MAX_STORED_STATS} entries.
+   */
+  void save() {
+    if (!storeFile.isPresent() || !computedNewStats.get()) {
+      return;
+    }
+    Path path = storeFile.get();
+    Map<HashCode, DalvikStatsTool.Stats> entries = new LinkedHashMap<>();
+    for (HashCode hash : usedHashes) {
+      DalvikStatsTool.Stats stats = SHARED_STATS.getIfPresent(hash);
+      if (stats != null) {
+        entries.put(hash, stats);
+      }
+    }
+    // Splitters in this process save one at a time, so none of them drops what another just
+    // wrote. Another process can still win the race, which at worst loses some entries.
+    synchronized (SAVE_LOCK) {
+      try {
+        for (Map.Entry<HashCode, DalvikStatsTool.Stats> stored : read(path).entrySet()) {
+          if (entries.size() >= MAX_STORED_STATS) {
+            break;
+          }
+          if (!entries.containsKey(stored.getKey())) {
+            entries.put(stored.getKey(), stored.getValue());
+          }
+        }
+      } catch (NoSuchFileException e) {
+        LOG.debug("No dalvik stats saved in %s yet", path);
+      } catch (IOException e) {
+        LOG.debug(e, "Replacing unreadable dalvik stats in %s", path);
+      }
+
+      Path tmp = null;
+      try {
+        Files.createDirectories(path.getParent());
+        tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+          write(out, entries);
+        }
+        Files.move(
+            tmp,
+            path,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } catch (IOException e) {
+        LOG.warn(e, "Unable to save dalvik stats to %s", path);
+        if (tmp != null) {
+          try {
+            Files.deleteIfExists(tmp);
+          } catch (IOException deleteException) {
+            LOG.debug(deleteException, "Unable to delete %s", tmp);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a header, then the entries preceded by their length and a checksum, so that a reader
+   * can tell a truncated or corrupt file from a good one before using any of it.
+   */
+  private static void write(OutputStream stream, Map<HashCode, DalvikStatsTool.Stats> entries)
+      throws IOException {
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(payload);
+    StringTable strings = new StringTable();
+    for (DalvikStatsTool.Stats stats : entries.values()) {
+      for (DalvikStatsTool.MethodReference method : stats.methodReferences) {
+        strings.add(method.className);
+        strings.add(method.methodName);
+        strings.add(method.methodDesc);
+      }
+      for (DalvikStatsTool.FieldReference field : stats.fieldReferences) {
+        strings.add(field.className);
+        strings.add(field.fieldName);
+        strings.add(field.fieldDesc);
+      }
+    }
+
+    out.writeInt(strings.list.size());
+    for (String string : strings.list) {
+      out.writeUTF(string);
+    }
+    out.writeInt(entries.size());
+    for (Map.Entry<HashCode, DalvikStatsTool.Stats> entry : entries.entrySet()) {
+      DalvikStatsTool.Stats stats = entry.getValue();
+      byte[] hash = entry.getKey().asBytes();
+      out.writeByte(hash.length);
+      out.write(hash);
+      out.writeInt(stats.estimatedLinearAllocSize);
+      out.writeInt(stats.methodReferences.size());
+      for (DalvikStatsTool.MethodReference method : stats.methodReferences) {
+        out.writeInt(strings.indexOf(method.className));
+        out.writeInt(strings.indexOf(method.methodName));
+        out.writeInt(strings.indexOf(method.methodDesc));
+      }
+      out.writeInt(stats.fieldReferences.size());
+      for (DalvikStatsTool.FieldReference field : stats.fieldReferences) {
+        out.writeInt(strings.indexOf(field.className));
+        out.writeInt(strings.indexOf(field.fieldName));
+        out.writeInt(strings.indexOf(field.fieldDesc));
+      }
+    }
+    out.flush();
+
+    byte[] bytes = payload.toByteArray();
+    DataOutputStream header = new DataOutputStream(stream);
+    header.writeInt(MAGIC);
+    header.writeInt(VERSION);
+    header.writeInt(bytes.length);
+    header.writeLong(Hashing.crc32().hashBytes(bytes).padToLong());
+    header.write(bytes);
+    header.flush();
+  }
+
+  private static void load(Path path) {
+    try {
+      Map<HashCode, DalvikStatsTool.Stats> entries = read(path);
+      SHARED_STATS.putAll(entries);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No dalvik stats saved in %s yet", path);
+    } catch (IOException e) {
+      LOG.warn(e, "Unable to load dalvik stats from %s", path);
+    }
+  }
+
+  /**
+   * Reads every entry in a store file. Nothing is returned unless the whole file checks out.
+   */
+  private static Map<HashCode, DalvikStatsTool.Stats> read(Path path) throws IOException {
+    byte[] payload;
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+        throw new IOException("Dalvik stats written by another version of buck");
+      }
+      int length = in.readInt();
+      long checksum = in.readLong();
+      if (length < 0 || length > Files.size(path)) {
+        throw new IOException(String.format("Invalid dalvik stats length %d", length));
+      }
+      payload = new byte[length];
+      in.readFully(payload);
+      if (Hashing.crc32().hashBytes(payload).padToLong() != checksum) {
+        throw new IOException("Dalvik stats checksum mismatch");
+      }
+    } catch (EOFException e) {
+      throw new IOException("Truncated dalvik stats", e);
+    }
+
+    try {
+      return read(new DataInputStream(new ByteArrayInputStream(payload)));
+    } catch (EOFException | RuntimeException e) {
+      throw new IOException("Invalid dalvik stats", e);
+    }
+  }
+
+  private static Map<HashCode, DalvikStatsTool.Stats> read(DataInputStream in)
+      throws IOException {
+    String[] strings = new String[checkCount(in.readInt(), in)];
+    for (int i = 0; i < strings.length; i++) {
+      strings[i] = in.readUTF();
+    }
+    int entryCount = checkCount(in.readInt(), in);
+    Map<HashCode, DalvikStatsTool.Stats> entries = new LinkedHashMap<>();
+    for (int i = 0; i < entryCount; i++) {
+      byte[] hash = new byte[in.readUnsignedByte()];
+      in.readFully(hash);
+      int linearAllocSize = in.readInt();
+      ImmutableSet.Builder<DalvikStatsTool.MethodReference> methods = ImmutableSet.builder();
+      int methodCount = checkCount(in.readInt(), in);
+      for (int j = 0; j < methodCount; j++) {
+        methods.add(
+            new DalvikStatsTool.MethodReference(
+                lookup(strings, in.readInt()),
+                lookup(strings, in.readInt()),
+                lookup(strings, in.readInt())));
+      }
+      ImmutableSet.Builder<DalvikStatsTool.FieldReference> fields = ImmutableSet.builder();
+      int fieldCount = checkCount(in.readInt(), in);
+      for (int j = 0; j < fieldCount; j++) {
+        fields.add(
+            new DalvikStatsTool.FieldReference(
+                lookup(strings, in.readInt()),
+                lookup(strings, in.readInt()),
+                lookup(strings, in.readInt())));
+      }
+      entries.put(
+          HashCode.fromBytes(hash),
+          new DalvikStatsTool.Stats(linearAllocSize, methods.build(), fields.build()));
+    }
+    return entries;
+  }
+
+  /** Every counted item takes at least a byte, so a count can't exceed what is left to read. */
+  private static int checkCount(int count, DataInputStream in) throws IOException {
+    if (count < 0 || count > in.available()) {
+      throw new IOException(String.format("Invalid count %d in dalvik stats", count));
+    }
+    return count;
+  }
+
+  @Nullable
+  private static String lookup(String[] strings, int index) {
+    return index < 0 ? null : strings[index];
+  }
+
+  @VisibleForTesting
+  static long getSharedStatsCount() {
+    return SHARED_STATS.size();
+  }
+
+  @VisibleForTesting
+  static void invalidateAll() {
+    SHARED_STATS.invalidateAll();
+    LOADED_STORES.clear();
+  }
+
+  /** Numbers the strings in a store file, so that each is only written once. */
+  private static class StringTable {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> list = new ArrayList<>();
+
+    void add(@Nullable String string) {
+      if (string != null && !indexes.containsKey(string)) {
+        indexes.put(string, list.size());
+        list.add(string);
+      }
+    }
+
+    int indexOf(@Nullable String string) {
+      return string == null ? -1 : indexes.get(string);
+    }
+  }
 }
@@ -32,6 +32,7 @@ import com.facebook.buck.rules.ActionGraphEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccessType;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.Console;
@@ -165,6 +166,14 @@ public abstract class AbstractConsoleEventBusListener implements BuckEventListen
     }
   }
 
+  protected Optional<Long> getEstimatedBuildTimeRemainingMillis(long currentTimeMillis) {
+    if (progressEstimator.isPresent()) {
+      return progressEstimator.get().getEstimatedBuildTimeRemainingMillis(currentTimeMillis);
+    } else {
+      return Optional.<Long>absent();
+    }
+  }
+
   protected Optional<Double> getEstimatedProgressOfGeneratingProjectFiles() {
     if (progressEstimator.isPresent()) {
       return progressEstimator.get().getEstimatedProgressOfGeneratingProjectFiles();
@@ -338,27 +347,30 @@ public abstract class AbstractConsoleEventBusListener implements BuckEventListen
     }
   }
 
-  @SuppressWarnings("unused")
   @Subscribe
   public void buildRuleStarted(BuildRuleEvent.Started started) {
     if (progressEstimator.isPresent()) {
-      progressEstimator.get().didStartRule();
+      progressEstimator.get().didStartRule(
+          started.getBuildRule().getFullyQualifiedName(),
+          started.getTimestamp());
     }
   }
 
-  @SuppressWarnings("unused")
   @Subscribe
   public void buildRuleResumed(BuildRuleEvent.Resumed resumed) {
     if (progressEstimator.isPresent()) {
-      progressEstimator.get().didResumeRule();
+      progressEstimator.get().didResumeRule(
+          resumed.getBuildRule().getFullyQualifiedName(),
+          resumed.getTimestamp());
     }
   }
 
-  @SuppressWarnings("unused")
   @Subscribe
   public void buildRuleSuspended(BuildRuleEvent.Suspended suspended) {
     if (progressEstimator.isPresent()) {
-      progressEstimator.get().didSuspendRule();
+      progressEstimator.get().didSuspendRule(
+          suspended.getBuildRule().getFullyQualifiedName(),
+          suspended.getTimestamp());
     }
   }
 
@@ -366,7 +378,12 @@ public abstract class AbstractConsoleEventBusListener implements BuckEventListen
   public void buildRuleFinished(BuildRuleEvent.Finished finished) {
     if (finished.getStatus() != BuildRuleStatus.CANCELED) {
       if (progressEstimator.isPresent()) {
-        progressEstimator.get().didFinishRule();
+        progressEstimator.get().didFinishRule(
+            finished.getBuildRule().getFullyQualifiedName(),
+            finished.getTimestamp(),
+            finished.getStatus() == BuildRuleStatus.SUCCESS ?
+                finished.getSuccessType() :
+                Optional.<BuildRuleSuccessType>absent());
       }
       numRulesCompleted.getAndIncrement();
     }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Turns a trace written by {@link BinaryTraceWriter} into a JSON file that can be loaded into
+ * Chrome Trace View (chrome://tracing).
+ *
+ * Usage: {@code java -cp buck.jar com.facebook.buck.event.listener.BinaryTraceConverter
+ * build.bintrace build.trace}
+ */
+public class BinaryTraceConverter {
+
+  private BinaryTraceConverter() {
+    // Utility class.
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.println(
+          "Usage: " + BinaryTraceConverter.class.getName() + " <binary trace> <json trace>");
+      System.exit(1);
+    }
+    Path input = Paths.get(args[0]);
+    Path output = Paths.get(args[1]);
+    try (InputStream inputStream = Files.newInputStream(input);
+         OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(output))) {
+      convert(inputStream, outputStream, new ObjectMapper());
+    }
+  }
+
+  /**
+   * Reads a binary trace from {@code input} and writes it to {@code output} as a JSON array of
+   * {@link ChromeTraceEvent}s, in the same format as {@link ChromeTraceBuildListener} writes.
+   *
+   * Short events which were aggregated are reported as one instant event per name, carrying
+   * their count and total duration, at the time the last of them ended.
+   */
+  public static void convert(
+      InputStream input,
+      OutputStream output,
+      ObjectMapper mapper) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+    byte[] magic = new byte[BinaryTraceWriter.MAGIC.length];
+    in.readFully(magic);
+    if (!Arrays.equals(magic, BinaryTraceWriter.MAGIC)) {
+      throw new IOException("Not a binary trace file");
+    }
+    byte version = in.readByte();
+    if (version != BinaryTraceWriter.VERSION) {
+      throw new IOException(String.format("Unsupported binary trace version %d", version));
+    }
+
+    ChromeTraceEvent.Phase[] phases = ChromeTraceEvent.Phase.values();
+    List<String> strings = new ArrayList<>();
+    long microTime = 0;
+
+    JsonGenerator generator = mapper.getJsonFactory().createJsonGenerator(output);
+    generator.writeStartArray();
+    readRecords:
+    while (true) {
+      byte recordType;
+      try {
+        recordType = in.readByte();
+      } catch (EOFException e) {
+        // The writer didn't get to close the trace, but everything up to here is usable.
+        break;
+      }
+      switch (recordType) {
+        case BinaryTraceWriter.RECORD_END:
+          break readRecords;
+
+        case BinaryTraceWriter.RECORD_STRING:
+          strings.add(readString(in));
+          break;
+
+        case BinaryTraceWriter.RECORD_EVENT: {
+          ChromeTraceEvent.Phase phase = phases[in.readByte()];
+          String category = strings.get((int) readVarLong(in));
+          String name = strings.get((int) readVarLong(in));
+          long threadId = readVarLong(in);
+          microTime += readSignedVarLong(in);
+          int argCount = (int) readVarLong(in);
+          ImmutableMap.Builder<String, String> eventArgs = ImmutableMap.builder();
+          for (int i = 0; i < argCount; i++) {
+            String key = strings.get((int) readVarLong(in));
+            eventArgs.put(key, readString(in));
+          }
+          mapper.writeValue(
+              generator,
+              new ChromeTraceEvent(
+                  category,
+                  name,
+                  phase,
+                  /* processId */ 0,
+                  threadId,
+                  microTime,
+                  eventArgs.build()));
+          break;
+        }
+
+        case BinaryTraceWriter.RECORD_AGGREGATE: {
+          String category = strings.get((int) readVarLong(in));
+          String name = strings.get((int) readVarLong(in));
+          long count = readVarLong(in);
+          long sampled = readVarLong(in);
+          long totalMicros = readVarLong(in);
+          long lastMicroTime = readVarLong(in);
+          mapper.writeValue(
+              generator,
+              new ChromeTraceEvent(
+                  category,
+                  name + " (aggregated)",
+                  ChromeTraceEvent.Phase.IMMEDIATE,
+                  /* processId */ 0,
+                  /* threadId */ 0,
+                  lastMicroTime,
+                  ImmutableMap.of(
+                      "count", Long.toString(count),
+                      "sampled", Long.toString(sampled),
+                      "total_us", Long.toString(totalMicros))));
+          break;
+        }
+
+        default:
+          throw new IOException(String.format("Unrecognized binary trace record %d", recordType));
+      }
+    }
+    generator.writeEndArray();
+    generator.flush();
+  }
+
+  private static long readVarLong(DataInputStream in) throws IOException {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable-length integer in binary trace");
+  }
+
+  private static long readSignedVarLong(DataInputStream in) throws IOException {
+    long value = readVarLong(in);
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] utf8 = new byte[(int) readVarLong(in)];
+    in.readFully(utf8);
+    return new String(utf8, StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.google.common.base.Preconditions;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Writes trace events in a compact binary format, to be turned into Chrome's JSON trace format
+ * later by {@link BinaryTraceConverter}.
+ *
+ * Events are encoded on the calling thread and copied straight into a memory-mapped window of
+ * the trace file, which slides along as the file grows, so that memory use is bounded no matter
+ * how many events are written. Categories, names and argument keys are written once and then
+ * referred to by index, and timestamps are delta-encoded.
+ *
+ * Events started with {@link #writeShortEventBegin} which end within the aggregation threshold
+ * are not written individually: they are counted and timed per name, and only one in every
+ * {@code sampleInterval} of them is kept in full.
+ */
+public class BinaryTraceWriter implements AutoCloseable {
+
+  static final byte[] MAGIC = {'B', 'K', 'T', 'R'};
+  static final byte VERSION = 1;
+
+  /** Marks the end of the trace. The unwritten tail of a mapped window reads as this too. */
+  static final byte RECORD_END = 0;
+  /** Adds a string to the table of categories, names and argument keys. */
+  static final byte RECORD_STRING = 1;
+  static final byte RECORD_EVENT = 2;
+  /** Summarizes the short events of one category and name that were not written in full. */
+  static final byte RECORD_AGGREGATE = 3;
+
+  private static final int WINDOW_SIZE = 1024 * 1024;
+
+  /**
+   * Controls which short events get aggregated.
+   */
+  public static class Options {
+    private final long aggregationThresholdMicros;
+    private final int sampleInterval;
+
+    /**
+     * @param aggregationThresholdMicros events shorter than this are aggregated.
+     * @param sampleInterval every {@code sampleInterval}-th aggregated event is still written in
+     *     full, or none if zero.
+     */
+    public Options(long aggregationThresholdMicros, int sampleInterval) {
+      Preconditions.checkArgument(aggregationThresholdMicros >= 0);
+      Preconditions.checkArgument(sampleInterval >= 0);
+      this.aggregationThresholdMicros = aggregationThresholdMicros;
+      this.sampleInterval = sampleInterval;
+    }
+  }
+
+  private final FileChannel channel;
+  private final Options options;
+  private final RecordBuffer record = new RecordBuffer();
+
+  @GuardedBy("this")
+  private MappedByteBuffer window;
+  @GuardedBy("this")
+  private long windowStart;
+  @GuardedBy("this")
+  private final Map<String, Integer> stringIndexes = new HashMap<>();
+  @GuardedBy("this")
+  private long lastMicroTime;
+  /** Short events which have begun but not yet ended, by thread. */
+  @GuardedBy("this")
+  private final Map<Long, PendingBegin> pendingBegins = new HashMap<>();
+  @GuardedBy("this")
+  private final Map<String, Aggregate> aggregates = new LinkedHashMap<>();
+  @GuardedBy("this")
+  private boolean closed;
+
+  public BinaryTraceWriter(Path path, Options options) throws IOException {
+    this.channel = FileChannel.open(
+        path,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    this.options = options;
+    this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW_SIZE);
+    this.windowStart = 0;
+    window.put(MAGIC);
+    window.put(VERSION);
+  }
+
+  public synchronized void writeEvent(
+      String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      long threadId,
+      long microTime,
+      Map<String, String> args) throws IOException {
+    if (closed) {
+      return;
+    }
+    flushPendingBegin(threadId);
+    writeEventRecord(category, name, phase, threadId, microTime, args);
+  }
+
+  /**
+   * Begins an event which is likely to be short. Writing it is put off until it ends, or until
+   * another event is written on the same thread.
+   */
+  public synchronized void writeShortEventBegin(
+      String category,
+      String name,
+      long threadId,
+      long microTime,
+      Map<String, String> args) throws IOException {
+    if (closed) {
+      return;
+    }
+    flushPendingBegin(threadId);
+    pendingBegins.put(threadId, new PendingBegin(category, name, microTime, args));
+  }
+
+  /**
+   * Ends an event begun with {@link #writeShortEventBegin}.
+   */
+  public synchronized void writeShortEventEnd(
+      String category,
+      String name,
+      long threadId,
+      long microTime,
+      Map<String, String> args) throws IOException {
+    if (closed) {
+      return;
+    }
+    PendingBegin begin = pendingBegins.remove(threadId);
+    if (begin != null &&
+        begin.name.equals(name) &&
+        begin.category.equals(category) &&
+        microTime - begin.microTime < options.aggregationThresholdMicros) {
+      String key = category + '\0' + name;
+      Aggregate aggregate = aggregates.get(key);
+      if (aggregate == null) {
+        aggregate = new Aggregate(category, name);
+        aggregates.put(key, aggregate);
+      }
+      aggregate.count++;
+      aggregate.totalMicros += microTime - begin.microTime;
+      aggregate.lastMicroTime = Math.max(aggregate.lastMicroTime, microTime);
+      if (options.sampleInterval == 0 || aggregate.count % options.sampleInterval != 0) {
+        return;
+      }
+      aggregate.sampled++;
+    }
+    if (begin != null) {
+      begin.write(threadId);
+    }
+    writeEventRecord(category, name, ChromeTraceEvent.Phase.END, threadId, microTime, args);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    try {
+      for (Map.Entry<Long, PendingBegin> entry : pendingBegins.entrySet()) {
+        entry.getValue().write(entry.getKey());
+      }
+      pendingBegins.clear();
+      for (Aggregate aggregate : aggregates.values()) {
+        int categoryIndex = getStringIndex(aggregate.category);
+        int nameIndex = getStringIndex(aggregate.name);
+        record.reset();
+        record.writeByte(RECORD_AGGREGATE);
+        record.writeVarLong(categoryIndex);
+        record.writeVarLong(nameIndex);
+        record.writeVarLong(aggregate.count);
+        record.writeVarLong(aggregate.sampled);
+        record.writeVarLong(aggregate.totalMicros);
+        record.writeVarLong(aggregate.lastMicroTime);
+        flushRecord();
+      }
+      record.reset();
+      record.writeByte(RECORD_END);
+      flushRecord();
+      // The last window was mapped past the end of what was written, so trim the file.
+      channel.truncate(windowStart + window.position());
+    } finally {
+      closed = true;
+      channel.close();
+    }
+  }
+
+  @GuardedBy("this")
+  private void flushPendingBegin(long threadId) throws IOException {
+    PendingBegin begin = pendingBegins.remove(threadId);
+    if (begin != null) {
+      begin.write(threadId);
+    }
+  }
+
+  @GuardedBy("this")
+  private void writeEventRecord(
+      String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      long threadId,
+      long microTime,
+      Map<String, String> args) throws IOException {
+    int categoryIndex = getStringIndex(category);
+    int nameIndex = getStringIndex(name);
+    int[] keyIndexes = new int[args.size()];
+    int i = 0;
+    for (String key : args.keySet()) {
+      keyIndexes[i++] = getStringIndex(key);
+    }
+
+    record.reset();
+    record.writeByte(RECORD_EVENT);
+    record.writeByte((byte) phase.ordinal());
+    record.writeVarLong(categoryIndex);
+    record.writeVarLong(nameIndex);
+    record.writeVarLong(threadId);
+    record.writeSignedVarLong(microTime - lastMicroTime);
+    lastMicroTime = microTime;
+    record.writeVarLong(args.size());
+    i = 0;
+    for (String value : args.values()) {
+      record.writeVarLong(keyIndexes[i++]);
+      record.writeString(value);
+    }
+    flushRecord();
+  }
+
+  @GuardedBy("this")
+  private int getStringIndex(String string) throws IOException {
+    Integer index = stringIndexes.get(string);
+    if (index == null) {
+      index = stringIndexes.size();
+      stringIndexes.put(string, index);
+      record.reset();
+      record.writeByte(RECORD_STRING);
+      record.writeString(string);
+      flushRecord();
+    }
+    return index;
+  }
+
+  @GuardedBy("this")
+  private void flushRecord() throws IOException {
+    if (window.remaining() < record.size) {
+      windowStart += window.position();
+      window = channel.map(
+          FileChannel.MapMode.READ_WRITE,
+          windowStart,
+          Math.max(WINDOW_SIZE, record.size));
+    }
+    window.put(record.bytes, 0, record.size);
+  }
+
+  private class PendingBegin {
+    private final String category;
+    private final String name;
+    private final long microTime;
+    private final Map<String, String> args;
+
+    PendingBegin(String category, String name, long microTime, Map<String, String> args) {
+      this.category = category;
+      this.name = name;
+      this.microTime = microTime;
+      this.args = args;
+    }
+
+    @GuardedBy("BinaryTraceWriter.this")
+    void write(long threadId) throws IOException {
+      writeEventRecord(category, name, ChromeTraceEvent.Phase.BEGIN, threadId, microTime, args);
+    }
+  }
+
+  private static class Aggregate {
+    private final String category;
+    private final String name;
+    private long count;
+    private long sampled;
+    private long totalMicros;
+    private long lastMicroTime;
+
+    Aggregate(String category, String name) {
+      this.category = category;
+      this.name = name;
+    }
+  }
+
+  /**
+   * A reusable, growable buffer in which a single record is encoded before being copied into
+   * the mapped window in one go.
+   */
+  private static class RecordBuffer {
+    private byte[] bytes = new byte[256];
+    private int size;
+
+    void reset() {
+      size = 0;
+    }
+
+    void writeByte(byte b) {
+      ensureCapacity(1);
+      bytes[size++] = b;
+    }
+
+    /** Writes a non-negative value seven bits at a time, least significant group first. */
+    void writeVarLong(long value) {
+      ensureCapacity(10);
+      while ((value & ~0x7FL) != 0) {
+        bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes[size++] = (byte) value;
+    }
+
+    /** Zig-zag encodes the value so that small negative numbers stay short. */
+    void writeSignedVarLong(long value) {
+      writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    void writeString(String string) {
+      byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+      writeVarLong(utf8.length);
+      ensureCapacity(utf8.length);
+      System.arraycopy(utf8, 0, bytes, size, utf8.length);
+      size += utf8.length;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (size + extra > bytes.length) {
+        bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+      }
+    }
+  }
+}
@@ -57,6 +57,7 @@ import com.google.common.base.CaseFormat;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
@@ -67,13 +68,20 @@ import java.nio.file.Path;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.Map;
 import java.util.TimeZone;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+
 /**
  * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing).
+ *
+ * Alternatively, events can be logged in the more compact binary format of
+ * {@link BinaryTraceWriter}, which is much cheaper to write on large builds and can be turned
+ * into json afterwards with {@link BinaryTraceConverter}.
  */
 public class ChromeTraceBuildListener implements BuckEventListener {
   private static final Logger LOG = Logger.get(ChromeTraceBuildListener.class);
@@ -86,19 +94,24 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   private final ObjectMapper mapper;
   private final ThreadLocal<SimpleDateFormat> dateFormat;
   private final Path tracePath;
-  private final OutputStream traceStream;
-  private final JsonGenerator jsonGenerator;
+  @Nullable private final OutputStream traceStream;
+  @Nullable private final JsonGenerator jsonGenerator;
+  @Nullable private final BinaryTraceWriter binaryTraceWriter;
 
   private final ExecutorService outputExecutor;
 
 
+  /**
+   * @param binaryTraceOptions if present, the trace is written in binary rather than as json.
+   */
   public ChromeTraceBuildListener(
       ProjectFilesystem projectFilesystem,
       BuildId buildId,
       Clock clock,
       ObjectMapper objectMapper,
       int tracesToKeep,
-      boolean compressTraces) throws IOException {
+      boolean compressTraces,
+      Optional<BinaryTraceWriter.Options> binaryTraceOptions) throws IOException {
     this(
         projectFilesystem,
         buildId,
@@ -107,7 +120,30 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         Locale.US,
         TimeZone.getDefault(),
         tracesToKeep,
-        compressTraces);
+        compressTraces,
+        binaryTraceOptions);
+  }
+
+  @VisibleForTesting
+  ChromeTraceBuildListener(
+      ProjectFilesystem projectFilesystem,
+      BuildId buildId,
+      Clock clock,
+      ObjectMapper objectMapper,
+      Locale locale,
+      TimeZone timeZone,
+      int tracesToKeep,
+      boolean compressTraces) throws IOException {
+    this(
+        projectFilesystem,
+        buildId,
+        clock,
+        objectMapper,
+        locale,
+        timeZone,
+        tracesToKeep,
+        compressTraces,
+        Optional.<BinaryTraceWriter.Options>absent());
   }
 
   @VisibleForTesting
@@ -119,7 +155,8 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       final Locale locale,
       final TimeZone timeZone,
       int tracesToKeep,
-      boolean compressTraces) throws IOException {
+      boolean compressTraces,
+      Optional<BinaryTraceWriter.Options> binaryTraceOptions) throws IOException {
     this.projectFilesystem = projectFilesystem;
     this.clock = clock;
     this.mapper = objectMapper;
@@ -135,12 +172,20 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     this.compressTraces = compressTraces;
     this.outputExecutor = MoreExecutors.newSingleThreadExecutor(
         new CommandThreadFactory(getClass().getName()));
-    TracePathAndStream tracePathAndStream = createPathAndStream(buildId);
-    this.tracePath = tracePathAndStream.getPath();
-    this.traceStream = tracePathAndStream.getStream();
-    this.jsonGenerator = objectMapper.getJsonFactory().createJsonGenerator(this.traceStream);
-
-    this.jsonGenerator.writeStartArray();
+    if (binaryTraceOptions.isPresent()) {
+      this.tracePath = createBinaryTracePath(buildId);
+      this.traceStream = null;
+      this.jsonGenerator = null;
+      this.binaryTraceWriter = createBinaryTraceWriter(tracePath, binaryTraceOptions.get());
+    } else {
+      TracePathAndStream tracePathAndStream = createPathAndStream(buildId);
+      this.tracePath = tracePathAndStream.getPath();
+      this.traceStream = tracePathAndStream.getStream();
+      this.jsonGenerator = objectMapper.getJsonFactory().createJsonGenerator(this.traceStream);
+      this.binaryTraceWriter = null;
+
+      this.jsonGenerator.writeStartArray();
+    }
     addProcessMetadataEvent();
   }
 
@@ -170,9 +215,10 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     Path traceDirectory = projectFilesystem.getPathForRelativePath(BuckConstant.BUCK_TRACE_DIR);
 
     try {
+      // Count both kinds of trace, so ones left by builds using the other format are pruned too.
       for (Path path : PathListing.listMatchingPathsWithFilters(
                traceDirectory,
-               "build.*.trace",
+               "build.*.{trace,bintrace}",
                PathListing.GET_PATH_MODIFIED_TIME,
                PathListing.FilterMode.EXCLUDE,
                Optional.of(tracesToKeep),
@@ -184,6 +230,23 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     }
   }
 
+  private Path createBinaryTracePath(BuildId buildId) {
+    String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
+    return BuckConstant.BUCK_TRACE_DIR.resolve(
+        String.format("build.%s.%s.bintrace", filenameTime, buildId));
+  }
+
+  private BinaryTraceWriter createBinaryTraceWriter(
+      Path tracePath,
+      BinaryTraceWriter.Options options) {
+    try {
+      projectFilesystem.createParentDirs(tracePath);
+      return new BinaryTraceWriter(projectFilesystem.resolve(tracePath), options);
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to write trace file: " + e);
+    }
+  }
+
   private TracePathAndStream createPathAndStream(BuildId buildId) {
     String filenameTime = dateFormat.get().format(new Date(clock.currentTimeMillis()));
     String traceName = String.format("build.%s.%s.trace", filenameTime, buildId);
@@ -216,10 +279,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         Thread.currentThread().interrupt();
       }
 
-      jsonGenerator.writeEndArray();
-      jsonGenerator.close();
-      traceStream.close();
-      String symlinkName = compressTraces ? "build.trace.gz" : "build.trace";
+      String symlinkName;
+      if (binaryTraceWriter != null) {
+        binaryTraceWriter.close();
+        symlinkName = "build.bintrace";
+      } else {
+        Preconditions.checkNotNull(jsonGenerator).writeEndArray();
+        jsonGenerator.close();
+        Preconditions.checkNotNull(traceStream).close();
+        symlinkName = compressTraces ? "build.trace.gz" : "build.trace";
+      }
       Path symlinkPath = BuckConstant.BUCK_TRACE_DIR.resolve(symlinkName);
       projectFilesystem.createSymLink(
           projectFilesystem.resolve(symlinkPath),
@@ -264,7 +333,7 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   @Subscribe
-  public synchronized void buildFinished(BuildEvent.Finished finished) {
+  public void buildFinished(BuildEvent.Finished finished) {
     writeChromeTraceEvent("buck",
         "build",
         ChromeTraceEvent.Phase.END,
@@ -317,7 +386,22 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   @Subscribe
+  @SuppressWarnings("PMD.EmptyCatchBlock")
   public void stepStarted(StepEvent.Started started) {
+    if (binaryTraceWriter != null) {
+      // Builds run huge numbers of tiny steps, so let the writer aggregate them.
+      try {
+        binaryTraceWriter.writeShortEventBegin(
+            "buck",
+            started.getShortStepName(),
+            started.getThreadId(),
+            TimeUnit.NANOSECONDS.toMicros(started.getNanoTime()),
+            ImmutableMap.<String, String>of());
+      } catch (IOException e) {
+        // Swallow any failures to write.
+      }
+      return;
+    }
     writeChromeTraceEvent("buck",
         started.getShortStepName(),
         ChromeTraceEvent.Phase.BEGIN,
@@ -326,13 +410,28 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   @Subscribe
+  @SuppressWarnings("PMD.EmptyCatchBlock")
   public void stepFinished(StepEvent.Finished finished) {
+    ImmutableMap<String, String> args = ImmutableMap.of(
+        "description", finished.getDescription(),
+        "exit_code", Integer.toString(finished.getExitCode()));
+    if (binaryTraceWriter != null) {
+      try {
+        binaryTraceWriter.writeShortEventEnd(
+            "buck",
+            finished.getShortStepName(),
+            finished.getThreadId(),
+            TimeUnit.NANOSECONDS.toMicros(finished.getNanoTime()),
+            args);
+      } catch (IOException e) {
+        // Swallow any failures to write.
+      }
+      return;
+    }
     writeChromeTraceEvent("buck",
         finished.getShortStepName(),
         ChromeTraceEvent.Phase.END,
-        ImmutableMap.of(
-            "description", finished.getDescription(),
-            "exit_code", Integer.toString(finished.getExitCode())),
+        args,
         finished);
   }
 
@@ -652,6 +751,16 @@ public class ChromeTraceBuildListener implements BuckEventListener {
       ChromeTraceEvent.Phase phase,
       ImmutableMap<String, String> arguments,
       final BuckEvent event) {
+    if (binaryTraceWriter != null) {
+      writeBinaryTraceEvent(
+          category,
+          name,
+          phase,
+          event.getThreadId(),
+          TimeUnit.NANOSECONDS.toMicros(event.getNanoTime()),
+          arguments);
+      return;
+    }
     final ChromeTraceEvent chromeTraceEvent = new ChromeTraceEvent(category,
         name,
         phase,
@@ -662,8 +771,36 @@ public class ChromeTraceBuildListener implements BuckEventListener {
     submitTraceEvent(chromeTraceEvent);
   }
 
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private void writeBinaryTraceEvent(
+      String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      long threadId,
+      long microTime,
+      Map<String, String> arguments) {
+    // Encoding binary events is cheap enough to do on the calling thread.
+    try {
+      Preconditions.checkNotNull(binaryTraceWriter)
+          .writeEvent(category, name, phase, threadId, microTime, arguments);
+    } catch (IOException e) {
+      // Swallow any failures to write.
+    }
+  }
+
   @SuppressWarnings("PMD.EmptyCatchBlock")
   private void submitTraceEvent(final ChromeTraceEvent chromeTraceEvent) {
+    if (binaryTraceWriter != null) {
+      writeBinaryTraceEvent(
+          chromeTraceEvent.getCategory(),
+          chromeTraceEvent.getName(),
+          chromeTraceEvent.getPhase(),
+          chromeTraceEvent.getThreadId(),
+          chromeTraceEvent.getMicroTime(),
+          chromeTraceEvent.getArgs());
+      return;
+    }
+    final JsonGenerator jsonGenerator = Preconditions.checkNotNull(this.jsonGenerator);
     outputExecutor.submit(new Callable<Void>() {
       @Override
       public Void call() throws Exception {
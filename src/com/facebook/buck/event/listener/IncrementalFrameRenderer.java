@@ -0,0 +1,108 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.util.Ansi;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Turns successive super console frames into the minimal terminal output needed to get from the
+ * previously printed frame to the next one.
+ * <p>
+ * Most of a frame is stable between refreshes (idle threads, finished phases), so when the shape
+ * of the frame is unchanged only the lines whose text differs are cleared and rewritten. Lines
+ * that did not change are stepped over with a bare newline, which moves the cursor without
+ * touching the terminal contents. Log lines, a change in the number of lines, or a terminal that
+ * does not understand cursor movement all fall back to clearing and reprinting the whole frame.
+ * <p>
+ * The renderer assumes that after each frame the cursor sits at the start of the line below it.
+ */
+class IncrementalFrameRenderer {
+
+  private final Ansi ansi;
+  private ImmutableList<String> previousLines = ImmutableList.of();
+
+  IncrementalFrameRenderer(Ansi ansi) {
+    this.ansi = ansi;
+  }
+
+  /**
+   * @return the text to print to move the terminal from the previous frame to {@code lines},
+   *     with {@code logLines} printed above it. Empty if nothing needs to be printed.
+   */
+  String renderFrame(List<String> logLines, ImmutableList<String> lines) {
+    StringBuilder frame = new StringBuilder();
+    if (logLines.isEmpty() &&
+        ansi.isAnsiTerminal() &&
+        !previousLines.isEmpty() &&
+        lines.size() == previousLines.size()) {
+      appendChangedLines(lines, frame);
+    } else {
+      appendFullFrame(logLines, lines, frame);
+    }
+    previousLines = lines;
+    return frame.toString();
+  }
+
+  private void appendChangedLines(ImmutableList<String> lines, StringBuilder frame) {
+    int firstChanged = 0;
+    while (firstChanged < lines.size() &&
+        lines.get(firstChanged).equals(previousLines.get(firstChanged))) {
+      firstChanged++;
+    }
+    if (firstChanged == lines.size()) {
+      return;
+    }
+
+    frame.append(ansi.cursorPreviousLine(lines.size() - firstChanged));
+    StringBuilder changed = new StringBuilder();
+    for (int i = firstChanged; i < lines.size(); i++) {
+      String line = lines.get(i);
+      if (!line.equals(previousLines.get(i))) {
+        changed.append(ansi.clearLine()).append(line);
+      }
+      changed.append('\n');
+    }
+    for (String part : ansi.asNoWrap(ImmutableList.of(changed.toString()))) {
+      frame.append(part);
+    }
+  }
+
+  private void appendFullFrame(
+      List<String> logLines,
+      ImmutableList<String> lines,
+      StringBuilder frame) {
+    for (int i = 0; i < previousLines.size(); i++) {
+      frame.append(ansi.cursorPreviousLine(1));
+      frame.append(ansi.clearLine());
+    }
+    for (String logLine : logLines) {
+      frame.append(logLine).append('\n');
+    }
+    StringBuilder body = new StringBuilder();
+    for (String line : lines) {
+      body.append(line).append('\n');
+    }
+    if (!lines.isEmpty()) {
+      for (String part : ansi.asNoWrap(ImmutableList.of(body.toString()))) {
+        frame.append(part);
+      }
+    }
+  }
+}
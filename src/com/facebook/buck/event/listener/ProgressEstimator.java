@@ -19,6 +19,7 @@ package com.facebook.buck.event.listener;
 import com.facebook.buck.cli.ProgressEvent;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.BuildRuleSuccessType;
 import com.facebook.buck.util.BuckConstant;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -33,8 +34,10 @@ import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 
 public class ProgressEstimator {
 
@@ -48,6 +51,7 @@ public class ProgressEstimator {
   public static final String EXPECTED_NUMBER_OF_GENERATED_PROJECT_FILES =
       "expectedNumberOfGeneratedProjectFiles";
   public static final String PROGRESS_ESTIMATIONS_JSON = ".progressestimations.json";
+  public static final String RULE_COSTS_FILE = ".rulecosts";
 
   @Nullable
   private String command;
@@ -77,6 +81,37 @@ public class ProgressEstimator {
   private final AtomicDouble projectGenerationProgress = new AtomicDouble(-1.0);
   private final AtomicDouble buildProgress = new AtomicDouble(-1.0);
 
+  /**
+   * Per-rule costs from previous builds. Loaded when a build starts, so commands which don't
+   * build anything don't pay for reading it.
+   */
+  @GuardedBy("this")
+  @Nullable
+  private RuleCostHistory ruleCostHistory;
+
+  // What we expect the rules in the current build to cost, split into the rules we have a
+  // history for and those we don't. The latter are assumed to cost the average of the former.
+  @GuardedBy("this")
+  private final Map<String, RuleState> ruleStates = new HashMap<>();
+  @GuardedBy("this")
+  private double scheduledKnownCostMillis;
+  @GuardedBy("this")
+  private int scheduledKnownRules;
+  @GuardedBy("this")
+  private int scheduledUnknownRules;
+  @GuardedBy("this")
+  private double finishedKnownCostMillis;
+  @GuardedBy("this")
+  private int finishedUnknownRules;
+  @GuardedBy("this")
+  private long firstRuleStartedMillis = -1;
+  @GuardedBy("this")
+  private long lastRuleEventMillis = -1;
+  private volatile boolean buildFinished;
+
+  private final AtomicLong estimatedBuildTimeRemainingMillis = new AtomicLong(-1);
+  private volatile long estimatedBuildTimeRemainingAtMillis = -1;
+
   public ProgressEstimator(Path rootRepositoryPath, BuckEventBus buckEventBus) {
     this.rootRepositoryPath = rootRepositoryPath;
     this.command = null;
@@ -125,23 +160,80 @@ public class ProgressEstimator {
     calculateBuildProgress();
   }
 
-  public void didStartRule() {
+  public void didStartRule(String buildTarget, long timestampMillis) {
     numberOfStartedRules.incrementAndGet();
+    synchronized (this) {
+      if (firstRuleStartedMillis == -1) {
+        firstRuleStartedMillis = timestampMillis;
+      }
+      lastRuleEventMillis = timestampMillis;
+      RuleState state = ruleStates.get(buildTarget);
+      if (state == null) {
+        state = new RuleState(getRuleCostHistory().getExpectedCostMillis(buildTarget));
+        ruleStates.put(buildTarget, state);
+        if (state.expectedCostMillis.isPresent()) {
+          scheduledKnownCostMillis += state.expectedCostMillis.get();
+          scheduledKnownRules++;
+        } else {
+          scheduledUnknownRules++;
+        }
+      }
+      state.activeSinceMillis = timestampMillis;
+    }
     calculateBuildProgress();
   }
 
-  public void didResumeRule() {
+  public void didResumeRule(String buildTarget, long timestampMillis) {
     numberOfResumedRules.incrementAndGet();
+    synchronized (this) {
+      lastRuleEventMillis = timestampMillis;
+      RuleState state = ruleStates.get(buildTarget);
+      if (state != null) {
+        state.activeSinceMillis = timestampMillis;
+      }
+    }
     calculateBuildProgress();
   }
 
-  public void didSuspendRule() {
+  public void didSuspendRule(String buildTarget, long timestampMillis) {
     numberOfSuspendedRules.incrementAndGet();
+    synchronized (this) {
+      lastRuleEventMillis = timestampMillis;
+      RuleState state = ruleStates.get(buildTarget);
+      if (state != null) {
+        state.stopActivity(timestampMillis);
+      }
+    }
     calculateBuildProgress();
   }
 
-  public void didFinishRule() {
+  /**
+   * @param successType how the rule was brought up to date, or absent if it failed.
+   */
+  public void didFinishRule(
+      String buildTarget,
+      long timestampMillis,
+      Optional<BuildRuleSuccessType> successType) {
     numberOfFinishedRules.incrementAndGet();
+    synchronized (this) {
+      lastRuleEventMillis = timestampMillis;
+      RuleState state = ruleStates.get(buildTarget);
+      if (state != null && !state.finished) {
+        state.stopActivity(timestampMillis);
+        state.finished = true;
+        if (state.expectedCostMillis.isPresent()) {
+          finishedKnownCostMillis += state.expectedCostMillis.get();
+        } else {
+          finishedUnknownRules++;
+        }
+        if (successType.isPresent()) {
+          getRuleCostHistory().record(
+              buildTarget,
+              state.activeMillis,
+              successType.get() == BuildRuleSuccessType.BUILT_LOCALLY);
+        }
+      }
+    }
     calculateBuildProgress();
   }
 
@@ -150,6 +242,19 @@ public class ProgressEstimator {
     numberOfFinishedRules.set(0);
     numberOfResumedRules.set(0);
     numberOfSuspendedRules.set(0);
+    synchronized (this) {
+      getRuleCostHistory();
+      ruleStates.clear();
+      scheduledKnownCostMillis = 0;
+      scheduledKnownRules = 0;
+      scheduledUnknownRules = 0;
+      finishedKnownCostMillis = 0;
+      finishedUnknownRules = 0;
+      firstRuleStartedMillis = -1;
+      lastRuleEventMillis = -1;
+    }
+    buildFinished = false;
+    estimatedBuildTimeRemainingMillis.set(-1);
   }
 
   public void didFinishBuild() {
@@ -159,8 +264,27 @@ public class ProgressEstimator {
       numberOfFinishedRules.set(rulesCount);
       numberOfSuspendedRules.set(rulesCount * 2);
       numberOfResumedRules.set(rulesCount * 2);
+      buildFinished = true;
       calculateBuildProgress();
     }
+    synchronized (this) {
+      if (ruleCostHistory != null) {
+        ruleCostHistory.save(getRuleCostsFilePath());
+      }
+    }
+  }
+
+  private synchronized RuleCostHistory getRuleCostHistory() {
+    if (ruleCostHistory == null) {
+      ruleCostHistory = RuleCostHistory.load(getRuleCostsFilePath());
+    }
+    return ruleCostHistory;
+  }
+
+  private Path getRuleCostsFilePath() {
+    return rootRepositoryPath
+        .resolve(BuckConstant.BUCK_OUTPUT_PATH)
+        .resolve(RULE_COSTS_FILE);
   }
 
   private Path getStorageFilePath() {
@@ -335,21 +459,44 @@ public class ProgressEstimator {
     return wrapValueIntoOptional(buildProgress.get());
   }
 
+  /**
+   * @return Estimated time left until the current build finishes, based on how long its rules
+   * took in previous builds and how quickly this build has been getting through them.
+   * Returns absent value if there isn't enough history to go on yet.
+   */
+  public Optional<Long> getEstimatedBuildTimeRemainingMillis(long currentTimeMillis) {
+    long remaining = estimatedBuildTimeRemainingMillis.get();
+    if (remaining == -1) {
+      return Optional.absent();
+    }
+    long sinceEstimate = Math.max(currentTimeMillis - estimatedBuildTimeRemainingAtMillis, 0);
+    return Optional.of(Math.max(remaining - sinceEstimate, 0));
+  }
+
   private void calculateBuildProgress() {
     double ruleCount = numberOfRules.doubleValue();
 
     double newValue;
     if (ruleCount == 0.0) {
       newValue = -1.0;
+    } else if (buildFinished) {
+      newValue = 1.0;
+      estimatedBuildTimeRemainingMillis.set(-1);
     } else {
-      // TODO(beefon): t8529466 compute progress in better way
-      double cacheCheckProgress = numberOfStartedRules.get() / ruleCount;
-      double buildProgress = (numberOfFinishedRules.get() +
-          numberOfSuspendedRules.get() / 2.0 +
-          numberOfResumedRules.get() / 2.0) / 3.0 / ruleCount;
-      // cache check takes approximately 10% of time on clean builds. If there will be nothing
-      // to build after that, we will jump to 100%.
-      double totalProgress = cacheCheckProgress * 0.1 + Math.pow(buildProgress, 2.0) * 0.9;
+      Optional<Double> costWeightedProgress = calculateCostWeightedBuildProgress();
+      double totalProgress;
+      if (costWeightedProgress.isPresent()) {
+        totalProgress = costWeightedProgress.get();
+      } else {
+        // Without a history to go on, all we can do is count rules.
+        double cacheCheckProgress = numberOfStartedRules.get() / ruleCount;
+        double buildProgress = (numberOfFinishedRules.get() +
+            numberOfSuspendedRules.get() / 2.0 +
+            numberOfResumedRules.get() / 2.0) / 3.0 / ruleCount;
+        // cache check takes approximately 10% of time on clean builds. If there will be nothing
+        // to build after that, we will jump to 100%.
+        totalProgress = cacheCheckProgress * 0.1 + Math.pow(buildProgress, 2.0) * 0.9;
+      }
       newValue = Math.floor(totalProgress * 100.0) / 100.0;
     }
 
@@ -358,4 +505,54 @@ public class ProgressEstimator {
       buckEventBus.post(ProgressEvent.buildProgressUpdated(newValue));
     }
   }
+
+  /**
+   * Weighs each rule in the build by its cost in previous builds, and also estimates the time
+   * remaining from how quickly the build has been getting through that cost so far (which takes
+   * parallelism and this build's cache hits into account).
+   *
+   * @return absent if none of the rules scheduled so far have been built before.
+   */
+  private synchronized Optional<Double> calculateCostWeightedBuildProgress() {
+    if (scheduledKnownRules == 0) {
+      estimatedBuildTimeRemainingMillis.set(-1);
+      return Optional.absent();
+    }
+
+    double averageCostMillis = scheduledKnownCostMillis / scheduledKnownRules;
+    int unscheduledRules =
+        Math.max(numberOfRules.get() - scheduledKnownRules - scheduledUnknownRules, 0);
+    double totalCostMillis = scheduledKnownCostMillis +
+        (scheduledUnknownRules + unscheduledRules) * averageCostMillis;
+    double finishedCostMillis = finishedKnownCostMillis +
+        finishedUnknownRules * averageCostMillis;
+
+    long elapsedMillis = lastRuleEventMillis - firstRuleStartedMillis;
+    if (finishedCostMillis > 0 && elapsedMillis > 0) {
+      double millisPerCostMillis = elapsedMillis / finishedCostMillis;
+      estimatedBuildTimeRemainingMillis.set(
+          Math.round((totalCostMillis - finishedCostMillis) * millisPerCostMillis));
+      estimatedBuildTimeRemainingAtMillis = lastRuleEventMillis;
+    }
+
+    return Optional.of(Math.min(finishedCostMillis / totalCostMillis, 1.0));
+  }
+
+  private static class RuleState {
+    private final Optional<Double> expectedCostMillis;
+    private long activeSinceMillis = -1;
+    private long activeMillis = 0;
+    private boolean finished = false;
+
+    RuleState(Optional<Double> expectedCostMillis) {
+      this.expectedCostMillis = expectedCostMillis;
+    }
+
+    void stopActivity(long timestampMillis) {
+      if (activeSinceMillis != -1) {
+        activeMillis += Math.max(timestampMillis - activeSinceMillis, 0);
+        activeSinceMillis = -1;
+      }
+    }
+  }
 }
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * How long each build rule has taken in previous builds, so build progress can be weighted by
+ * what's left to do rather than by how many rules are left.
+ * <p>
+ * For each build target this keeps exponentially weighted averages of how long it took when it
+ * had to be built locally, how long it took when it didn't (it was fetched from the cache or was
+ * already up to date), and how often it didn't. Together these give the rule's expected cost in
+ * the next build. They're stored in a small binary file rather than JSON, as there's an entry for
+ * every rule that's been built recently. Rules which haven't been built for {@link #MAX_AGE_DAYS}
+ * days are forgotten when the history is saved, as are the least recently built rules beyond
+ * {@link #MAX_ENTRIES}.
+ */
+class RuleCostHistory {
+
+  private static final Logger LOG = Logger.get(RuleCostHistory.class);
+
+  private static final int FORMAT_VERSION = 2;
+
+  static final int MAX_AGE_DAYS = 30;
+  static final int MAX_ENTRIES = 200000;
+
+  /**
+   * How much the newest sample counts for in each average, so costs follow the rule as it changes
+   * without jumping about on one slow build.
+   */
+  private static final double NEW_SAMPLE_WEIGHT = 0.3;
+
+  private final Map<String, RuleCost> costs;
+  private boolean modified;
+
+  private RuleCostHistory(Map<String, RuleCost> costs) {
+    this.costs = costs;
+    this.modified = false;
+  }
+
+  static RuleCostHistory empty() {
+    return new RuleCostHistory(new HashMap<String, RuleCost>());
+  }
+
+  /**
+   * Loads the history saved at {@code path}, or returns an empty history if there isn't one or it
+   * can't be read.
+   */
+  static RuleCostHistory load(Path path) {
+    Map<String, RuleCost> costs = new HashMap<>();
+    try (DataInputStream input =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+      int version = input.readInt();
+      if (version != FORMAT_VERSION) {
+        LOG.debug("Ignoring rule costs saved in format %d.", version);
+        return empty();
+      }
+      int count = input.readInt();
+      for (int i = 0; i < count; i++) {
+        String buildTarget = input.readUTF();
+        costs.put(
+            buildTarget,
+            new RuleCost(
+                input.readFloat(),
+                input.readFloat(),
+                input.readFloat(),
+                input.readLong()));
+      }
+    } catch (NoSuchFileException e) {
+      return empty();
+    } catch (IOException e) {
+      LOG.warn("Unable to load rule costs from %s: %s", path, e.getMessage());
+      return empty();
+    }
+    return new RuleCostHistory(costs);
+  }
+
+  /**
+   * Saves the history to {@code path} if it has changed since it was loaded.
+   */
+  void save(Path path) {
+    save(path, System.currentTimeMillis());
+  }
+
+  @VisibleForTesting
+  synchronized void save(Path path, long nowMillis) {
+    if (!modified) {
+      return;
+    }
+    prune(nowMillis);
+    try {
+      Files.createDirectories(path.getParent());
+      // Concurrent builds in the same repo shouldn't see each other's half-written files.
+      Path tempPath =
+          Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+      try {
+        try (DataOutputStream output =
+                 new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+          output.writeInt(FORMAT_VERSION);
+          output.writeInt(costs.size());
+          for (Map.Entry<String, RuleCost> entry : costs.entrySet()) {
+            RuleCost cost = entry.getValue();
+            output.writeUTF(entry.getKey());
+            output.writeFloat(cost.builtMillis);
+            output.writeFloat(cost.skippedMillis);
+            output.writeFloat(cost.skipRate);
+            output.writeLong(cost.lastRecordedMillis);
+          }
+        }
+        Files.move(
+            tempPath,
+            path,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tempPath);
+      }
+      modified = false;
+    } catch (IOException e) {
+      LOG.warn("Unable to save rule costs to %s: %s", path, e.getMessage());
+    }
+  }
+
+  private void prune(long nowMillis) {
+    long oldestMillis = nowMillis - TimeUnit.DAYS.toMillis(MAX_AGE_DAYS);
+    Iterator<RuleCost> iterator = costs.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().lastRecordedMillis < oldestMillis) {
+        iterator.remove();
+      }
+    }
+    if (costs.size() <= MAX_ENTRIES) {
+      return;
+    }
+    List<Map.Entry<String, RuleCost>> entries = new ArrayList<>(costs.entrySet());
+    Collections.sort(
+        entries,
+        new Comparator<Map.Entry<String, RuleCost>>() {
+          @Override
+          public int compare(Map.Entry<String, RuleCost> a, Map.Entry<String, RuleCost> b) {
+            return Long.compare(b.getValue().lastRecordedMillis, a.getValue().lastRecordedMillis);
+          }
+        });
+    for (Map.Entry<String, RuleCost> entry : entries.subList(MAX_ENTRIES, entries.size())) {
+      costs.remove(entry.getKey());
+    }
+  }
+
+  /**
+   * @return how long {@code buildTarget} is expected to take in milliseconds, or absent if it
+   *     hasn't been built before.
+   */
+  synchronized Optional<Double> getExpectedCostMillis(String buildTarget) {
+    RuleCost cost = costs.get(buildTarget);
+    if (cost == null) {
+      return Optional.absent();
+    }
+    return Optional.of(cost.getExpectedMillis());
+  }
+
+  /**
+   * Records how long {@code buildTarget} took this time, and whether it had to be built locally.
+   */
+  synchronized void record(String buildTarget, long millis, boolean builtLocally) {
+    costs.put(
+        buildTarget,
+        RuleCost.withSample(
+            costs.get(buildTarget),
+            millis,
+            builtLocally,
+            System.currentTimeMillis()));
+    modified = true;
+  }
+
+  private static class RuleCost {
+    /** Average time to build locally, or -1 if it's never been built locally. */
+    private final float builtMillis;
+    /** Average time when it didn't need building, or -1 if it's always needed building. */
+    private final float skippedMillis;
+    /** The proportion of builds in which it didn't need building. */
+    private final float skipRate;
+    /** When it was last built, or found not to need building. */
+    private final long lastRecordedMillis;
+
+    RuleCost(float builtMillis, float skippedMillis, float skipRate, long lastRecordedMillis) {
+      this.builtMillis = builtMillis;
+      this.skippedMillis = skippedMillis;
+      this.skipRate = skipRate;
+      this.lastRecordedMillis = lastRecordedMillis;
+    }
+
+    static RuleCost withSample(
+        @Nullable RuleCost previous,
+        long millis,
+        boolean builtLocally,
+        long nowMillis) {
+      if (previous == null) {
+        return builtLocally ?
+            new RuleCost(millis, -1, 0, nowMillis) :
+            new RuleCost(-1, millis, 1, nowMillis);
+      }
+      float skipRate = average(previous.skipRate, builtLocally ? 0 : 1);
+      if (builtLocally) {
+        return new RuleCost(
+            previous.builtMillis < 0 ? millis : average(previous.builtMillis, millis),
+            previous.skippedMillis,
+            skipRate,
+            nowMillis);
+      } else {
+        return new RuleCost(
+            previous.builtMillis,
+            previous.skippedMillis < 0 ? millis : average(previous.skippedMillis, millis),
+            skipRate,
+            nowMillis);
+      }
+    }
+
+    double getExpectedMillis() {
+      double expected;
+      if (builtMillis < 0) {
+        expected = skippedMillis;
+      } else if (skippedMillis < 0) {
+        expected = builtMillis;
+      } else {
+        expected = skipRate * skippedMillis + (1 - skipRate) * builtMillis;
+      }
+      // Anything we schedule costs something, even if it's too quick to measure.
+      return Math.max(expected, 1.0);
+    }
+
+    private static float average(float previous, float sample) {
+      return (float) ((1 - NEW_SAMPLE_WEIGHT) * previous + NEW_SAMPLE_WEIGHT * sample);
+    }
+  }
+}
@@ -34,9 +34,11 @@ import com.facebook.buck.test.TestResultSummary;
 import com.facebook.buck.test.TestResultSummaryVerbosity;
 import com.facebook.buck.test.TestResults;
 import com.facebook.buck.test.TestRuleEvent;
+import com.facebook.buck.timing.AbsolutePerfTime;
 import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultPerfTimer;
+import com.facebook.buck.timing.PerfTimer;
 import com.facebook.buck.util.Console;
-import com.facebook.buck.util.MoreIterables;
 import com.facebook.buck.util.environment.ExecutionEnvironment;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
@@ -46,7 +48,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -75,6 +77,19 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
    */
   private static final int EXPECTED_MAXIMUM_RENDERED_LINE_LENGTH = 128;
 
+  /**
+   * CPU time a scheduled frame may take before later frames are skipped to make up for it. Where
+   * the JVM cannot measure the CPU time of a thread, the wall time of the frame is used instead.
+   */
+  @VisibleForTesting
+  static final long FRAME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+  /**
+   * Upper bound on consecutive skipped frames, so a single slow frame cannot freeze the console.
+   */
+  @VisibleForTesting
+  static final int MAX_SKIPPED_FRAMES = 10;
+
   private static final Logger LOG = Logger.get(SuperConsoleEventBusListener.class);
 
   private final Locale locale;
@@ -113,7 +128,21 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
   private final ImmutableList.Builder<String> testReportBuilder = ImmutableList.builder();
 
-  private int lastNumLinesPrinted;
+  private final IncrementalFrameRenderer frameRenderer;
+
+  private final PerfTimer perfTimer;
+
+  private int framesToSkip;
+
+  /**
+   * Bumped after every event that changes what a thread is running, so that frames only take a
+   * new {@link ThreadStateSnapshot} when something changed since the last one.
+   */
+  private final AtomicLong threadStateVersion = new AtomicLong(0);
+
+  // Guarded by this.
+  private long snapshotThreadStateVersion = -1;
+  private ThreadStateSnapshot threadStateSnapshot;
 
   public SuperConsoleEventBusListener(
       Console console,
@@ -123,7 +152,29 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
       Optional<WebServer> webServer,
       Locale locale,
       Path testLogPath) {
+    this(
+        console,
+        clock,
+        new DefaultPerfTimer(),
+        summaryVerbosity,
+        executionEnvironment,
+        webServer,
+        locale,
+        testLogPath);
+  }
+
+  @VisibleForTesting
+  SuperConsoleEventBusListener(
+      Console console,
+      Clock clock,
+      PerfTimer perfTimer,
+      TestResultSummaryVerbosity summaryVerbosity,
+      ExecutionEnvironment executionEnvironment,
+      Optional<WebServer> webServer,
+      Locale locale,
+      Path testLogPath) {
     super(console, clock, locale);
+    this.perfTimer = perfTimer;
     this.locale = locale;
     this.formatTimeFunction = new Function<Long, String>(){
         @Override
@@ -153,6 +204,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
         Optional.of(testLogPath));
     this.testRunStarted = new AtomicReference<>();
     this.testRunFinished = new AtomicReference<>();
+    this.frameRenderer = new IncrementalFrameRenderer(console.getAnsi());
   }
 
   /**
@@ -163,7 +215,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     renderScheduler.scheduleAtFixedRate(new Runnable() {
       @Override
       public void run() {
-        SuperConsoleEventBusListener.this.render();
+        SuperConsoleEventBusListener.this.renderScheduledFrame();
       }
     }, /* initialDelay */ renderInterval, /* period */ renderInterval, timeUnit);
   }
@@ -176,12 +228,43 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     renderScheduler.shutdownNow();
   }
 
+  /**
+   * Renders a frame on behalf of the render scheduler, unless earlier frames went over
+   * {@link #FRAME_BUDGET_NANOS}. A frame that costs N budgets causes the following N ticks to be
+   * skipped; events keep updating the listener's state meanwhile, so the next frame that is
+   * rendered is still current.
+   *
+   * @return whether a frame was rendered.
+   */
+  @VisibleForTesting
+  synchronized boolean renderScheduledFrame() {
+    if (framesToSkip > 0) {
+      framesToSkip--;
+      return false;
+    }
+    long threadId = Thread.currentThread().getId();
+    AbsolutePerfTime startCpuTime = perfTimer.getCurrentPerfTimeForThreadId(threadId);
+    long startNanos = clock.nanoTime();
+    render();
+    long frameNanos;
+    if (startCpuTime.hasCpuTime()) {
+      AbsolutePerfTime endCpuTime = perfTimer.getCurrentPerfTimeForThreadId(threadId);
+      frameNanos = getCpuTimeNanos(endCpuTime) - getCpuTimeNanos(startCpuTime);
+    } else {
+      frameNanos = clock.nanoTime() - startNanos;
+    }
+    framesToSkip = (int) Math.min(MAX_SKIPPED_FRAMES, frameNanos / FRAME_BUDGET_NANOS);
+    return true;
+  }
+
+  private static long getCpuTimeNanos(AbsolutePerfTime perfTime) {
+    return perfTime.getUserCpuTimeNs() + perfTime.getSystemCpuTimeNs();
+  }
+
   @VisibleForTesting
   synchronized void render() {
-    String lastRenderClear = clearLastRender();
     ImmutableList<String> lines = createRenderLinesAtTime(clock.currentTimeMillis());
     ImmutableList<String> logLines = createLogRenderLines();
-    lastNumLinesPrinted = lines.size();
 
     // Synchronize on the DirtyPrintStreamDecorator to prevent interlacing of output.
     synchronized (console.getStdOut()) {
@@ -195,25 +278,12 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
               "Stopping console output (stdout dirty %s, stderr dirty %s).",
               stdoutDirty, stderrDirty);
           stopRenderScheduler();
-        } else if (!lastRenderClear.isEmpty() || !lines.isEmpty() || !logLines.isEmpty()) {
-          Iterable<String> renderedLines = Iterables.concat(
-              MoreIterables.zipAndConcat(
-                  logLines,
-                  Iterables.cycle("\n")),
-              ansi.asNoWrap(
-                  MoreIterables.zipAndConcat(
-                      lines,
-                      Iterables.cycle("\n"))));
-          int bufferSize = lastRenderClear.length();
-          for (String part : renderedLines) {
-            bufferSize += part.length();
+        } else {
+          // Only the lines that differ from the last frame are written out.
+          String frame = frameRenderer.renderFrame(logLines, lines);
+          if (!frame.isEmpty()) {
+            console.getStdErr().getRawStream().print(frame);
           }
-          StringBuilder fullFrame = new StringBuilder(bufferSize);
-          fullFrame.append(lastRenderClear);
-          for (String part : renderedLines) {
-            fullFrame.append(part);
-          }
-          console.getStdErr().getRawStream().print(fullFrame);
         }
       }
     }
@@ -288,6 +358,12 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
                     100 * (double) cacheErrors.get() / updated.get()));
           }
         }
+        if (buildFinished == null) {
+          Optional<Long> remainingMillis = getEstimatedBuildTimeRemainingMillis(currentTimeMillis);
+          if (remainingMillis.isPresent()) {
+            columns.add("ETA " + formatElapsedTime(remainingMillis.get()));
+          }
+        }
         jobSummary = "(" + Joiner.on(", ").join(columns) + ")";
       }
 
@@ -319,14 +395,16 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
           getApproximateBuildProgress(),
           lines);
 
+      ThreadStateSnapshot snapshot = null;
       if (buildTime == UNFINISHED_EVENT_PAIR) {
+        snapshot = getThreadStateSnapshot();
         ThreadStateRenderer renderer = new BuildThreadStateRenderer(
             ansi,
             formatTimeFunction,
             currentTimeMillis,
-            threadsToRunningBuildRuleEvent,
-            threadsToRunningStep,
-            accumulatedRuleTime);
+            snapshot.buildRuleEvents,
+            snapshot.runningSteps,
+            snapshot.accumulatedRuleTime);
         renderLines(renderer, lines);
       }
 
@@ -341,14 +419,17 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
           lines);
 
       if (testRunTime == UNFINISHED_EVENT_PAIR) {
+        if (snapshot == null) {
+          snapshot = getThreadStateSnapshot();
+        }
         ThreadStateRenderer renderer = new TestThreadStateRenderer(
             ansi,
             formatTimeFunction,
             currentTimeMillis,
-            threadsToRunningTestRuleEvent,
-            threadsToRunningTestSummaryEvent,
-            threadsToRunningStep,
-            accumulatedRuleTime);
+            snapshot.testRuleEvents,
+            snapshot.testSummaryEvents,
+            snapshot.runningSteps,
+            snapshot.accumulatedRuleTime);
         renderLines(renderer, lines);
       }
 
@@ -373,6 +454,26 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     return lines.build();
   }
 
+  /**
+   * @return what each thread was running as of the last event, copying the per-thread maps only
+   *     if an event changed them since the previous frame.
+   */
+  private synchronized ThreadStateSnapshot getThreadStateSnapshot() {
+    // Read the version before copying, so that events racing with the copy are picked up by the
+    // next frame.
+    long version = threadStateVersion.get();
+    if (threadStateSnapshot == null || version != snapshotThreadStateVersion) {
+      threadStateSnapshot = new ThreadStateSnapshot(
+          ImmutableMap.copyOf(threadsToRunningBuildRuleEvent),
+          ImmutableMap.copyOf(threadsToRunningTestRuleEvent),
+          ImmutableMap.copyOf(threadsToRunningTestSummaryEvent),
+          ImmutableMap.copyOf(threadsToRunningStep),
+          ImmutableMap.copyOf(accumulatedRuleTime));
+      snapshotThreadStateVersion = version;
+    }
+    return threadStateSnapshot;
+  }
+
   /**
    * Adds log messages for rendering.
    */
@@ -417,25 +518,13 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     }
   }
 
-  /**
-   * @return A string of ansi characters that will clear the last set of lines printed by
-   *     {@link SuperConsoleEventBusListener#createRenderLinesAtTime(long)}.
-   */
-  private String clearLastRender() {
-    StringBuilder result = new StringBuilder();
-    for (int i = 0; i < lastNumLinesPrinted; ++i) {
-      result.append(ansi.cursorPreviousLine(1));
-      result.append(ansi.clearLine());
-    }
-    return result.toString();
-  }
-
   @Override
   @Subscribe
   public void buildRuleStarted(BuildRuleEvent.Started started) {
     super.buildRuleStarted(started);
     threadsToRunningBuildRuleEvent.put(started.getThreadId(), Optional.of(started));
     accumulatedRuleTime.put(started.getBuildRule().getBuildTarget(), new AtomicLong(0));
+    threadStateVersion.incrementAndGet();
   }
 
   @Override
@@ -444,6 +533,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     super.buildRuleFinished(finished);
     threadsToRunningBuildRuleEvent.put(finished.getThreadId(), Optional.<BuildRuleEvent>absent());
     accumulatedRuleTime.remove(finished.getBuildRule().getBuildTarget());
+    threadStateVersion.incrementAndGet();
     if (finished.getStatus() == BuildRuleStatus.SUCCESS) {
       CacheResult cacheResult = finished.getCacheResult();
       if (cacheResult.getType() != CacheResultType.LOCAL_KEY_UNCHANGED_HIT) {
@@ -473,6 +563,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     // while we're processing this one, so we have to check that the current counter exists.
     if (current != null) {
       current.getAndAdd(suspended.getTimestamp() - started.get().getTimestamp());
+      threadStateVersion.incrementAndGet();
     }
   }
 
@@ -481,22 +572,26 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   public void buildRuleResumed(BuildRuleEvent.Resumed resumed) {
     super.buildRuleResumed(resumed);
     threadsToRunningBuildRuleEvent.put(resumed.getThreadId(), Optional.of(resumed));
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
     threadsToRunningStep.put(started.getThreadId(), Optional.of(started));
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void stepFinished(StepEvent.Finished finished) {
     threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void artifactCacheStarted(ArtifactCacheEvent.Started started) {
     if (started.getInvocationType() == ArtifactCacheEvent.InvocationType.SYNCHRONOUS) {
       threadsToRunningStep.put(started.getThreadId(), Optional.of(started));
+      threadStateVersion.incrementAndGet();
     }
   }
 
@@ -504,17 +599,20 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   public void artifactCacheFinished(ArtifactCacheEvent.Finished finished) {
     if (finished.getInvocationType() == ArtifactCacheEvent.InvocationType.SYNCHRONOUS) {
       threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
+      threadStateVersion.incrementAndGet();
     }
   }
 
   @Subscribe
   public void artifactCompressionStarted(ArtifactCompressionEvent.Started started) {
     threadsToRunningStep.put(started.getThreadId(), Optional.of(started));
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void artifactCompressionFinished(ArtifactCompressionEvent.Finished finished) {
     threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
@@ -559,17 +657,20 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
   public void testRuleStarted(TestRuleEvent.Started started) {
     threadsToRunningTestRuleEvent.put(started.getThreadId(), Optional.of(started));
     accumulatedRuleTime.put(started.getBuildTarget(), new AtomicLong(0));
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void testRuleFinished(TestRuleEvent.Finished finished) {
     threadsToRunningTestRuleEvent.put(finished.getThreadId(), Optional.<TestRuleEvent>absent());
     accumulatedRuleTime.remove(finished.getBuildTarget());
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
   public void testSummaryStarted(TestSummaryEvent.Started started) {
     threadsToRunningTestSummaryEvent.put(started.getThreadId(), Optional.of(started));
+    threadStateVersion.incrementAndGet();
   }
 
   @Subscribe
@@ -577,6 +678,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     threadsToRunningTestSummaryEvent.put(
         finished.getThreadId(),
         Optional.<TestSummaryEvent>absent());
+    threadStateVersion.incrementAndGet();
     TestResultSummary testResult = finished.getTestResultSummary();
     switch (testResult.getType()) {
       case SUCCESS:
@@ -609,6 +711,31 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     logEvents.add(event);
   }
 
+  /**
+   * What each thread was running as of some event. The accumulated times of suspended rules are
+   * shared with the listener, as they are only ever read together with an elapsed time.
+   */
+  private static class ThreadStateSnapshot {
+    private final ImmutableMap<Long, Optional<? extends BuildRuleEvent>> buildRuleEvents;
+    private final ImmutableMap<Long, Optional<? extends TestRuleEvent>> testRuleEvents;
+    private final ImmutableMap<Long, Optional<? extends TestSummaryEvent>> testSummaryEvents;
+    private final ImmutableMap<Long, Optional<? extends LeafEvent>> runningSteps;
+    private final ImmutableMap<BuildTarget, AtomicLong> accumulatedRuleTime;
+
+    ThreadStateSnapshot(
+        ImmutableMap<Long, Optional<? extends BuildRuleEvent>> buildRuleEvents,
+        ImmutableMap<Long, Optional<? extends TestRuleEvent>> testRuleEvents,
+        ImmutableMap<Long, Optional<? extends TestSummaryEvent>> testSummaryEvents,
+        ImmutableMap<Long, Optional<? extends LeafEvent>> runningSteps,
+        ImmutableMap<BuildTarget, AtomicLong> accumulatedRuleTime) {
+      this.buildRuleEvents = buildRuleEvents;
+      this.testRuleEvents = testRuleEvents;
+      this.testSummaryEvents = testSummaryEvents;
+      this.runningSteps = runningSteps;
+      this.accumulatedRuleTime = accumulatedRuleTime;
+    }
+  }
+
   @Override
   public synchronized void close() throws IOException {
     stopRenderScheduler();
@@ -26,6 +26,7 @@ import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ToolchainDiscoveryCache;
 import com.google.common.base.CharMatcher;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -50,7 +51,14 @@ public class GoBuckConfig {
   private Supplier<Path> goRootSupplier;
   private Supplier<Path> goToolDirSupplier;
 
-  public GoBuckConfig(final BuckConfig delegate, final ProcessExecutor processExecutor) {
+  public GoBuckConfig(BuckConfig delegate, ProcessExecutor processExecutor) {
+    this(delegate, processExecutor, ToolchainDiscoveryCache.inMemory());
+  }
+
+  public GoBuckConfig(
+      final BuckConfig delegate,
+      final ProcessExecutor processExecutor,
+      final ToolchainDiscoveryCache discoveryCache) {
     this.delegate = delegate;
 
     goRootSupplier = Suppliers.memoize(
@@ -62,7 +70,7 @@ public class GoBuckConfig {
               return configValue.get();
             }
 
-            return Paths.get(getGoEnvFromTool(processExecutor, "GOROOT"));
+            return Paths.get(getGoEnvFromTool(processExecutor, discoveryCache, "GOROOT"));
           }
         });
 
@@ -70,7 +78,7 @@ public class GoBuckConfig {
         new Supplier<Path>() {
           @Override
           public Path get() {
-            return Paths.get(getGoEnvFromTool(processExecutor, "GOTOOLDIR"));
+            return Paths.get(getGoEnvFromTool(processExecutor, discoveryCache, "GOTOOLDIR"));
           }
         });
   }
@@ -135,7 +143,10 @@ public class GoBuckConfig {
     return new ExecutableFinder().getExecutable(DEFAULT_GO_TOOL, delegate.getEnvironment());
   }
 
-  private String getGoEnvFromTool(ProcessExecutor processExecutor, String env) {
+  private String getGoEnvFromTool(
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
+      String env) {
     Path goTool = getGoToolPath();
     Optional<Map<String, String>> goRootEnv = delegate.getPath("go", "root").transform(
         new Function<Path, Map<String, String>>() {
@@ -145,13 +156,12 @@ public class GoBuckConfig {
           }
         });
     try {
-      ProcessExecutor.Result goToolResult = processExecutor.launchAndExecute(
+      ProcessExecutor.Result goToolResult = discoveryCache.launchAndExecute(
+          processExecutor,
+          goTool,
           ProcessExecutorParams.builder().addCommand(
               goTool.toString(), "env", env).setEnvironment(goRootEnv).build(),
-          EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_ERR),
-                    /* stdin */ Optional.<String>absent(),
-                    /* timeOutMs */ Optional.<Long>absent(),
-                    /* timeoutHandler */ Optional.<Function<Process, Void>>absent());
+          EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_ERR));
       if (goToolResult.getExitCode() == 0) {
         return CharMatcher.WHITESPACE.trimFrom(goToolResult.getStdout().get());
       } else {
@@ -18,6 +18,7 @@ package com.facebook.buck.httpserver;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.DirArtifactCache;
 import com.facebook.buck.artifact_cache.HttpArtifactCacheBinaryProtocol;
 import com.facebook.buck.artifact_cache.StoreResponseReadResult;
 import com.facebook.buck.io.ProjectFilesystem;
@@ -25,9 +26,12 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.BuckConstant;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.io.ByteSource;
 
+import org.eclipse.jetty.server.HttpOutput;
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
@@ -35,57 +39,96 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
+import javax.servlet.WriteListener;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
  * Implements a really simple cache server on top of the local dircache.
+ *
+ * When the served cache is a {@link DirArtifactCache}, artifacts are sent straight from the
+ * cache directory: the file is memory-mapped and handed to Jetty as a non-blocking write, so
+ * neither a copy of the artifact nor a request thread is tied up while a slow client reads it.
+ * Fetches and stores beyond the configured limits are turned away with a 503, which clients
+ * treat as a cache error and build locally instead.
  */
 public class ArtifactCacheHandler extends AbstractHandler {
   private static final Logger LOG = Logger.get(ArtifactCacheHandler.class);
 
+  /** Returned by a request handler once it has arranged for the response to be sent later. */
+  private static final int RESPONDING_ASYNCHRONOUSLY = -1;
+
+  /** Largest region of an artifact mapped at once. */
+  private static final long MAX_MAPPED_REGION_BYTES = 1L << 30;
+
   private final ProjectFilesystem projectFilesystem;
-  private Optional<ArtifactCache> artifactCache;
+  private volatile Optional<ArtifactCache> artifactCache;
+  private volatile Semaphore fetchPermits;
+  private volatile Semaphore storePermits;
 
   public ArtifactCacheHandler(
       ProjectFilesystem projectFilesystem) {
     this.artifactCache = Optional.absent();
     this.projectFilesystem = projectFilesystem;
+    this.fetchPermits = new Semaphore(Integer.MAX_VALUE);
+    this.storePermits = new Semaphore(Integer.MAX_VALUE);
   }
 
   public void setArtifactCache(Optional<ArtifactCache> artifactCache) {
     this.artifactCache = artifactCache;
   }
 
+  /**
+   * Limits how many fetches and stores are handled at once. Requests already in flight are not
+   * affected.
+   */
+  public void setAdmissionLimits(int maxConcurrentFetches, int maxConcurrentStores) {
+    this.fetchPermits = new Semaphore(maxConcurrentFetches);
+    this.storePermits = new Semaphore(maxConcurrentStores);
+  }
+
   @Override
   public void handle(String target,
       Request baseRequest,
       HttpServletRequest request,
       HttpServletResponse response)
       throws IOException, ServletException {
+    int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
     try {
-      int status = HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
       String method = baseRequest.getMethod();
       if (method.equals("GET")) {
         status = handleGet(baseRequest, response);
       } else if (method.equals("PUT")) {
         status = handlePut(baseRequest, response);
       }
-      response.setStatus(status);
+      if (status != RESPONDING_ASYNCHRONOUSLY) {
+        response.setStatus(status);
+      }
     } catch (Exception e) {
       LOG.error(e, "Exception when handling request %s", target);
       e.printStackTrace(response.getWriter());
       response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
     } finally {
-      response.flushBuffer();
+      if (status != RESPONDING_ASYNCHRONOUSLY) {
+        response.flushBuffer();
+      }
       baseRequest.setHandled(true);
     }
   }
 
   private int handleGet(Request baseRequest, HttpServletResponse response) throws IOException {
+    Optional<ArtifactCache> artifactCache = this.artifactCache;
     if (!artifactCache.isPresent()) {
       response.getWriter().write("Serving local cache is disabled for this instance.");
       return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
@@ -100,6 +143,61 @@ public class ArtifactCacheHandler extends AbstractHandler {
 
     RuleKey ruleKey = RuleKey.TO_RULE_KEY.apply(pathElements[3]);
 
+    Semaphore permits = fetchPermits;
+    if (!permits.tryAcquire()) {
+      response.getWriter().write("Too many concurrent fetches.");
+      return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    }
+    boolean permitHandedOff = false;
+    try {
+      if (!(artifactCache.get() instanceof DirArtifactCache)) {
+        return fetchIntoTempFile(artifactCache.get(), ruleKey, response);
+      }
+
+      DirArtifactCache dirCache = (DirArtifactCache) artifactCache.get();
+      // Map the artifact before reading its metadata, so that a concurrent trim of the cache
+      // turns this into a miss rather than a response with metadata but no payload.
+      Optional<List<ByteBuffer>> payload = mapArtifact(dirCache.getArtifactPath(ruleKey));
+      if (!payload.isPresent()) {
+        return HttpServletResponse.SC_NOT_FOUND;
+      }
+      CacheResult fetchResult = dirCache.fetchMetadata(ruleKey);
+      if (!fetchResult.getType().isSuccess()) {
+        return HttpServletResponse.SC_NOT_FOUND;
+      }
+
+      HttpArtifactCacheBinaryProtocol.FetchResponse fetchResponse =
+          new HttpArtifactCacheBinaryProtocol.FetchResponse(
+              ImmutableSet.of(ruleKey),
+              fetchResult.getMetadata(),
+              asByteSource(payload.get()));
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.setContentLengthLong(fetchResponse.getContentLength());
+
+      AsyncContext asyncContext = baseRequest.startAsync();
+      // Large artifacts can take a while to reach slow clients; the connector's idle timeout
+      // still catches clients which stop reading altogether.
+      asyncContext.setTimeout(0);
+      HttpOutput output = baseRequest.getResponse().getHttpOutput();
+      permitHandedOff = true;
+      output.setWriteListener(
+          new PayloadWriter(
+              asyncContext,
+              output,
+              Iterables.concat(ImmutableList.of(fetchResponse.getHeader()), payload.get()),
+              permits));
+      return RESPONDING_ASYNCHRONOUSLY;
+    } finally {
+      if (!permitHandedOff) {
+        permits.release();
+      }
+    }
+  }
+
+  private int fetchIntoTempFile(
+      ArtifactCache artifactCache,
+      RuleKey ruleKey,
+      HttpServletResponse response) throws IOException {
     Path temp = null;
     try {
       projectFilesystem.mkdirs(BuckConstant.SCRATCH_PATH);
@@ -109,7 +207,7 @@ public class ArtifactCacheHandler extends AbstractHandler {
           ".tmp");
       CacheResult fetchResult;
       try {
-        fetchResult = artifactCache.get().fetch(ruleKey, temp);
+        fetchResult = artifactCache.fetch(ruleKey, temp);
       } catch (InterruptedException e) {
         LOG.error(e, "Interrupted when fetching from local cache.");
         e.printStackTrace(response.getWriter());
@@ -141,11 +239,17 @@ public class ArtifactCacheHandler extends AbstractHandler {
   }
 
   private int handlePut(Request baseRequest, HttpServletResponse response) throws IOException {
+    Optional<ArtifactCache> artifactCache = this.artifactCache;
     if (!artifactCache.isPresent()) {
       response.getWriter().write("Serving local cache is disabled for this instance.");
       return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
     }
 
+    Semaphore permits = storePermits;
+    if (!permits.tryAcquire()) {
+      response.getWriter().write("Too many concurrent stores.");
+      return HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+    }
     Path temp = null;
     try {
       projectFilesystem.mkdirs(BuckConstant.SCRATCH_PATH);
@@ -173,10 +277,127 @@ public class ArtifactCacheHandler extends AbstractHandler {
       response.getWriter().write("Interrupted while serving request.");
       return HttpServletResponse.SC_INTERNAL_SERVER_ERROR;
     } finally {
+      permits.release();
       if (temp != null) {
         projectFilesystem.deleteFileAtPathIfExists(temp);
       }
     }
+  }
+
+  /**
+   * @return the contents of the file at {@code path}, mapped into memory in regions small enough
+   *     to fit a {@link ByteBuffer}, or absent if there is no such file.
+   */
+  private static Optional<List<ByteBuffer>> mapArtifact(Path path) throws IOException {
+    // The mappings stay valid after the channel is closed, and after the file is replaced or
+    // deleted from the cache.
+    try (FileChannel channel = FileChannel.open(path)) {
+      long size = channel.size();
+      ImmutableList.Builder<ByteBuffer> regions = ImmutableList.builder();
+      for (long position = 0; position < size; position += MAX_MAPPED_REGION_BYTES) {
+        regions.add(
+            channel.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                Math.min(MAX_MAPPED_REGION_BYTES, size - position)));
+      }
+      return Optional.<List<ByteBuffer>>of(regions.build());
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    }
+  }
+
+  private static ByteSource asByteSource(List<ByteBuffer> buffers) {
+    ImmutableList.Builder<ByteSource> sources = ImmutableList.builder();
+    for (final ByteBuffer buffer : buffers) {
+      sources.add(
+          new ByteSource() {
+            @Override
+            public InputStream openStream() {
+              return new ByteBufferInputStream(buffer.duplicate());
+            }
 
+            @Override
+            public long size() {
+              return buffer.remaining();
+            }
+          });
+    }
+    return ByteSource.concat(sources.build());
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (length == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int read = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, read);
+      return read;
+    }
+  }
+
+  /**
+   * Writes a fetch response as the client is ready for it, then completes the request and gives
+   * back its fetch permit.
+   */
+  private static class PayloadWriter implements WriteListener {
+    private final AsyncContext asyncContext;
+    private final HttpOutput output;
+    private final Iterator<ByteBuffer> buffers;
+    private final Semaphore permits;
+    private final AtomicBoolean finished = new AtomicBoolean(false);
+
+    PayloadWriter(
+        AsyncContext asyncContext,
+        HttpOutput output,
+        Iterable<ByteBuffer> buffers,
+        Semaphore permits) {
+      this.asyncContext = asyncContext;
+      this.output = output;
+      this.buffers = buffers.iterator();
+      this.permits = permits;
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+      while (output.isReady()) {
+        if (!buffers.hasNext()) {
+          finish();
+          return;
+        }
+        // Jetty writes direct buffers, such as mapped files, to the socket without copying them
+        // onto the heap first.
+        output.write(buffers.next());
+      }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+      LOG.warn(t, "Error while sending artifact.");
+      finish();
+    }
+
+    private void finish() {
+      if (finished.compareAndSet(false, true)) {
+        permits.release();
+        asyncContext.complete();
+      }
+    }
   }
 }
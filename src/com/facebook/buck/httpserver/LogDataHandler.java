@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.log.IndexedLogReader;
+import com.google.common.base.Optional;
+import com.google.common.net.MediaType;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * HTTP handler for requests to the {@code /log} path, which streams the log records of a single
+ * command, optionally narrowed to those logged for the build target in the {@code target}
+ * parameter, e.g. {@code /log/<build id>?target=//foo:bar}.
+ */
+class LogDataHandler extends AbstractHandler {
+
+  static final Pattern ID_PATTERN = Pattern.compile("/([0-9a-zA-Z-]+)");
+
+  private final IndexedLogReader logReader;
+
+  LogDataHandler(IndexedLogReader logReader) {
+    this.logReader = logReader;
+  }
+
+  @Override
+  public void handle(String target,
+      Request baseRequest,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException, ServletException {
+    if ("GET".equals(baseRequest.getMethod())) {
+      doGet(baseRequest, response);
+    } else {
+      Responses.writeFailedResponse(baseRequest, response);
+    }
+  }
+
+  private void doGet(Request baseRequest, HttpServletResponse response)
+      throws ServletException, IOException {
+    String path = baseRequest.getPathInfo();
+    Matcher matcher = path == null ? null : ID_PATTERN.matcher(path);
+
+    if (matcher == null || !matcher.matches()) {
+      Responses.writeFailedResponse(baseRequest, response);
+      return;
+    }
+
+    String id = matcher.group(1);
+    Optional<String> buildTarget = Optional.fromNullable(baseRequest.getParameter("target"));
+
+    response.setContentType(MediaType.PLAIN_TEXT_UTF_8.toString());
+    response.setStatus(HttpServletResponse.SC_OK);
+
+    // The reader flushes as it goes, so large logs are streamed rather than buffered.
+    Writer responseWriter = response.getWriter();
+    logReader.copyRecords(id, buildTarget, responseWriter);
+
+    response.flushBuffer();
+    baseRequest.setHandled(true);
+  }
+}
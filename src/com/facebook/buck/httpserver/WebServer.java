@@ -18,6 +18,8 @@ package com.facebook.buck.httpserver;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.IndexedLogHandler;
+import com.facebook.buck.log.IndexedLogReader;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
@@ -53,6 +55,7 @@ import java.util.Map;
 public class WebServer {
 
   private static final String INDEX_CONTEXT_PATH = "/";
+  private static final String LOG_CONTEXT_PATH = "/log";
   private static final String ARTIFACTS_CONTEXT_PATH = "/artifacts";
   private static final String STATIC_CONTEXT_PATH = "/static";
   private static final String TRACE_CONTEXT_PATH = "/trace";
@@ -105,6 +108,23 @@ public class WebServer {
     return streamingWebSocketServlet;
   }
 
+  /**
+   * Update state, including how many requests to the served cache are handled at once, and
+   * start the server if necessary.
+   *
+   * @param artifactCache cache to serve.
+   * @param maxConcurrentFetches fetches from the cache beyond this many are turned away.
+   * @param maxConcurrentStores stores to the cache beyond this many are turned away.
+   * @throws WebServerException
+   */
+  public synchronized void updateAndStartIfNeeded(
+      Optional<ArtifactCache> artifactCache,
+      int maxConcurrentFetches,
+      int maxConcurrentStores) throws WebServerException {
+    artifactCacheHandler.setAdmissionLimits(maxConcurrentFetches, maxConcurrentStores);
+    updateAndStartIfNeeded(artifactCache);
+  }
+
   /**
    * Update state and start the server if necessary.
    *
@@ -151,6 +171,10 @@ public class WebServer {
         new TracesHandlerDelegate(tracesHelper)));
     contextPathToHandler.put(TRACE_DATA_CONTEXT_PATH, new TraceDataHandler(tracesHelper));
     contextPathToHandler.put(ARTIFACTS_CONTEXT_PATH, artifactCacheHandler);
+    contextPathToHandler.put(
+        LOG_CONTEXT_PATH,
+        new LogDataHandler(
+            new IndexedLogReader(projectFilesystem.resolve(IndexedLogHandler.getDirectory()))));
 
     ImmutableList.Builder<ContextHandler> handlers = ImmutableList.builder();
     for (Map.Entry<String, Handler> entry : contextPathToHandler.entrySet()) {
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import com.google.common.collect.ImmutableList;
+
+import java.nio.file.WatchEvent;
+
+/**
+ * A group of {@link WatchEvent}s posted to the file change EventBus as a single unit, so that
+ * subscribers can invalidate their caches in one pass rather than once per changed path.
+ */
+public class WatchEventBatch {
+
+  private final ImmutableList<WatchEvent<?>> events;
+
+  public WatchEventBatch(Iterable<? extends WatchEvent<?>> events) {
+    this.events = ImmutableList.copyOf(events);
+  }
+
+  public ImmutableList<WatchEvent<?>> getEvents() {
+    return events;
+  }
+
+  /**
+   * @return true if any event in this batch is not a path change (typically an overflow), in
+   *     which case subscribers should invalidate everything.
+   */
+  public boolean containsNonPathChangeEvent() {
+    for (WatchEvent<?> event : events) {
+      if (!WatchEvents.isPathChangeEvent(event)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  public int size() {
+    return events.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("WatchEventBatch of %d events", events.size());
+  }
+}
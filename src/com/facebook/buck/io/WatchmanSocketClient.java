@@ -21,6 +21,7 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 
 import com.facebook.buck.bser.BserDeserializer;
 import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.bser.BserStreamReader;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
@@ -31,6 +32,7 @@ import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.net.Socket;
+import java.nio.channels.Channels;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
@@ -49,18 +51,20 @@ class WatchmanSocketClient implements WatchmanClient, AutoCloseable {
   private final Socket watchmanSocket;
   private final Console console;
   private final BserSerializer bserSerializer;
-  private final BserDeserializer bserDeserializer;
+  private final BserStreamReader bserReader;
 
   public WatchmanSocketClient(
       Console console,
       Clock clock,
-      Socket watchmanSocket) {
+      Socket watchmanSocket) throws IOException {
     this.listeningExecutorService = listeningDecorator(newSingleThreadExecutor("Watchman"));
     this.console = console;
     this.clock = clock;
     this.watchmanSocket = watchmanSocket;
     this.bserSerializer = new BserSerializer();
-    this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    this.bserReader = new BserStreamReader(
+        Channels.newChannel(watchmanSocket.getInputStream()),
+        BserDeserializer.KeyOrdering.UNSORTED);
   }
 
   @Override
@@ -146,7 +150,7 @@ class WatchmanSocketClient implements WatchmanClient, AutoCloseable {
       throws IOException {
     LOG.debug("Sending query: %s", query);
     bserSerializer.serializeToStream(query, watchmanSocket.getOutputStream());
-    Object response = bserDeserializer.deserializeBserValue(watchmanSocket.getInputStream());
+    Object response = bserReader.readBserValue();
     LOG.verbose("Got response: %s", response);
     Map<String, Object> responseMap = (Map<String, Object>) response;
     if (responseMap == null) {
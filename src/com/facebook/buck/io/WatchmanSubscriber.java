@@ -0,0 +1,368 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import static com.facebook.buck.util.concurrent.MoreExecutors.newSingleThreadExecutor;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.bser.BserStreamReader;
+import com.facebook.buck.io.unixsocket.UnixDomainSocket;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Holds a persistent Watchman subscription open on a dedicated connection and coalesces the file
+ * changes Watchman streams to it in the background, so that they can be handed to the daemon in
+ * one batch when the next command starts.
+ *
+ * The connection cannot be shared with a {@link WatchmanClient}, as Watchman interleaves
+ * unilateral subscription PDUs with responses to regular queries.
+ */
+public class WatchmanSubscriber implements AutoCloseable {
+
+  private static final Logger LOG = Logger.get(WatchmanSubscriber.class);
+
+  private final String name;
+  private final OutputStream outputStream;
+  private final Closeable connection;
+  private final int overflowThreshold;
+  private final BserSerializer bserSerializer;
+  private final BserStreamReader bserReader;
+  private final ExecutorService readerExecutor;
+
+  /** Pending changes keyed by file name, in the order in which they were first reported. */
+  @GuardedBy("this")
+  private LinkedHashMap<String, PendingChange> pendingChanges = new LinkedHashMap<>();
+
+  @GuardedBy("this")
+  @Nullable
+  private String clock;
+
+  @GuardedBy("this")
+  private boolean overflow;
+
+  @GuardedBy("this")
+  private boolean alive;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  @VisibleForTesting
+  WatchmanSubscriber(
+      String name,
+      InputStream inputStream,
+      OutputStream outputStream,
+      Closeable connection,
+      int overflowThreshold) {
+    this.name = name;
+    this.outputStream = outputStream;
+    this.connection = connection;
+    this.overflowThreshold = overflowThreshold;
+    this.bserSerializer = new BserSerializer();
+    this.bserReader = new BserStreamReader(
+        Channels.newChannel(inputStream),
+        BserDeserializer.KeyOrdering.UNSORTED);
+    this.readerExecutor = newSingleThreadExecutor("Watchman subscription " + name);
+  }
+
+  /**
+   * Opens a new connection to the Watchman listening on {@code socketPath} and subscribes to
+   * changes under {@code watchRoot}.
+   *
+   * @param subscriptionParams the subscription parameters, which must include a {@code since}
+   *     clock so that Watchman does not start by reporting every file under the root.
+   * @param overflowThreshold the number of distinct pending paths above which the subscriber
+   *     gives up tracking individual changes and reports an overflow instead.
+   * @return the subscriber, or absent if the subscription could not be established.
+   */
+  public static Optional<WatchmanSubscriber> subscribe(
+      Path socketPath,
+      String watchRoot,
+      String name,
+      Map<String, Object> subscriptionParams,
+      int overflowThreshold) throws IOException {
+    Socket socket = UnixDomainSocket.createSocketWithPath(socketPath);
+    WatchmanSubscriber subscriber = new WatchmanSubscriber(
+        name,
+        socket.getInputStream(),
+        socket.getOutputStream(),
+        socket,
+        overflowThreshold);
+    if (!subscriber.start(watchRoot, subscriptionParams)) {
+      subscriber.close();
+      return Optional.absent();
+    }
+    return Optional.of(subscriber);
+  }
+
+  /**
+   * Sends the {@code subscribe} command, waits for Watchman to acknowledge it and starts
+   * streaming updates in the background.
+   *
+   * @return false if Watchman rejected the subscription.
+   */
+  @VisibleForTesting
+  @SuppressWarnings("unchecked")
+  boolean start(String watchRoot, Map<String, Object> subscriptionParams) throws IOException {
+    List<Object> command = ImmutableList.<Object>of(
+        "subscribe",
+        watchRoot,
+        name,
+        subscriptionParams);
+    LOG.debug("Sending subscription: %s", command);
+    bserSerializer.serializeToStream(command, outputStream);
+    Object response = bserReader.readBserValue();
+    if (!(response instanceof Map<?, ?>)) {
+      LOG.warn("Unrecognized Watchman subscription response: %s", response);
+      return false;
+    }
+    Map<String, Object> responseMap = (Map<String, Object>) response;
+    if (responseMap.containsKey("error") || !name.equals(responseMap.get("subscribe"))) {
+      LOG.warn("Watchman rejected subscription %s: %s", name, responseMap);
+      return false;
+    }
+
+    synchronized (this) {
+      clock = (String) responseMap.get("clock");
+      alive = true;
+    }
+    readerExecutor.submit(
+        new Runnable() {
+          @Override
+          public void run() {
+            readUpdates();
+          }
+        });
+    return true;
+  }
+
+  @SuppressWarnings("unchecked")
+  private void readUpdates() {
+    try {
+      while (true) {
+        Object update = bserReader.readBserValue();
+        if (!(update instanceof Map<?, ?>)) {
+          LOG.warn("Unrecognized Watchman subscription update: %s", update);
+          markDead();
+          return;
+        }
+        if (!handleUpdate((Map<String, Object>) update)) {
+          markDead();
+          return;
+        }
+      }
+    } catch (IOException e) {
+      synchronized (this) {
+        if (!closed) {
+          LOG.warn(e, "I/O error reading Watchman subscription %s", name);
+        }
+      }
+      markDead();
+    }
+  }
+
+  /**
+   * @return false if the subscription can no longer be trusted to report every change.
+   */
+  @VisibleForTesting
+  @SuppressWarnings("unchecked")
+  synchronized boolean handleUpdate(Map<String, Object> update) {
+    if (update.containsKey("error")) {
+      LOG.warn("Error in Watchman subscription %s: %s", name, update.get("error"));
+      return false;
+    }
+    if (!name.equals(update.get("subscription"))) {
+      // Log notifications and responses to other commands are of no interest here.
+      LOG.verbose("Ignoring Watchman PDU %s", update);
+      return true;
+    }
+
+    String updateClock = (String) update.get("clock");
+    if (updateClock != null) {
+      clock = updateClock;
+    }
+
+    Boolean isFreshInstance = (Boolean) update.get("is_fresh_instance");
+    if (isFreshInstance != null && isFreshInstance) {
+      // Watchman restarted or recrawled, so changes may have been lost.
+      setOverflow();
+      return true;
+    }
+
+    if (overflow) {
+      // Everything will be invalidated anyway, there's no point tracking individual files.
+      return true;
+    }
+
+    List<Map<String, Object>> files = (List<Map<String, Object>>) update.get("files");
+    if (files == null) {
+      return true;
+    }
+    for (Map<String, Object> file : files) {
+      String fileName = (String) file.get("name");
+      if (fileName == null) {
+        LOG.warn("Filename missing from Watchman subscription update %s", file);
+        setOverflow();
+        return true;
+      }
+      PendingChange change = pendingChanges.get(fileName);
+      if (change == null) {
+        change = new PendingChange();
+        pendingChanges.put(fileName, change);
+      }
+      change.merge(file);
+    }
+    if (pendingChanges.size() > overflowThreshold) {
+      LOG.warn(
+          "Too many pending changes in subscription %s (%d > %d), recording an overflow.",
+          name,
+          pendingChanges.size(),
+          overflowThreshold);
+      setOverflow();
+    }
+    return true;
+  }
+
+  @GuardedBy("this")
+  private void setOverflow() {
+    overflow = true;
+    pendingChanges = new LinkedHashMap<>();
+  }
+
+  private synchronized void markDead() {
+    alive = false;
+  }
+
+  /**
+   * @return false once the subscription has stopped receiving updates, after which the
+   *     changes returned by {@link #drain()} are no longer complete.
+   */
+  public synchronized boolean isAlive() {
+    return alive;
+  }
+
+  /**
+   * Hands over all changes coalesced since the last call and resets the pending state.
+   */
+  public synchronized Changes drain() {
+    ImmutableList.Builder<Map<String, Object>> files = ImmutableList.builder();
+    for (Map.Entry<String, PendingChange> entry : pendingChanges.entrySet()) {
+      files.add(entry.getValue().toWatchmanFile(entry.getKey()));
+    }
+    Changes changes = new Changes(Optional.fromNullable(clock), overflow, files.build());
+    pendingChanges = new LinkedHashMap<>();
+    overflow = false;
+    return changes;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized (this) {
+      closed = true;
+      alive = false;
+    }
+    LOG.debug("Closing Watchman subscription %s.", name);
+    try {
+      // Closing the connection unblocks the reader thread.
+      connection.close();
+    } finally {
+      readerExecutor.shutdownNow();
+    }
+  }
+
+  /**
+   * The changes coalesced by a subscriber between two calls to {@link #drain()}.
+   */
+  public static class Changes {
+    private final Optional<String> clock;
+    private final boolean overflow;
+    private final ImmutableList<Map<String, Object>> files;
+
+    Changes(Optional<String> clock, boolean overflow, ImmutableList<Map<String, Object>> files) {
+      this.clock = clock;
+      this.overflow = overflow;
+      this.files = files;
+    }
+
+    /**
+     * @return the Watchman clock up to which changes have been reported, suitable for use as
+     *     the {@code since} parameter of a query catching up with anything still in flight.
+     */
+    public Optional<String> getClock() {
+      return clock;
+    }
+
+    /**
+     * @return true if changes were lost and all caches must be invalidated.
+     */
+    public boolean isOverflow() {
+      return overflow;
+    }
+
+    /**
+     * @return the changed files, in the same format as the {@code files} of a Watchman query
+     *     response with the {@code name}, {@code exists} and {@code new} fields.
+     */
+    public ImmutableList<Map<String, Object>> getFiles() {
+      return files;
+    }
+  }
+
+  /**
+   * The combined effect of all updates reported for a single file.
+   */
+  private static class PendingChange {
+    private boolean isNew;
+    private boolean exists = true;
+
+    public void merge(Map<String, Object> file) {
+      Boolean fileNew = (Boolean) file.get("new");
+      if (fileNew != null && fileNew) {
+        isNew = true;
+      }
+      // The most recent update determines whether the file is still around.
+      Boolean fileExists = (Boolean) file.get("exists");
+      exists = fileExists == null || fileExists;
+    }
+
+    public Map<String, Object> toWatchmanFile(String name) {
+      return ImmutableMap.<String, Object>of(
+          "name", name,
+          "new", isNew,
+          "exists", exists);
+    }
+  }
+}
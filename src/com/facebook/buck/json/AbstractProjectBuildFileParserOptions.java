@@ -48,4 +48,9 @@ abstract class AbstractProjectBuildFileParserOptions {
   }
 
   abstract Optional<Long> getWatchmanQueryTimeoutMs();
+
+  /**
+   * When present, buck.py sends its globs back to us to be answered from this cache.
+   */
+  abstract Optional<GlobCache> getGlobCache();
 }
@@ -0,0 +1,483 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.io.WatchEvents;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates {@code glob()} calls for buck.py, keeping directory listings and the results of each
+ * glob until file change events say they may be out of date.
+ *
+ * Patterns are matched the way Watchman matches them for buck.py: symlinks are listed as files
+ * and never followed into, and unless dotfiles are asked for, wildcards do not match names which
+ * start with a dot.
+ */
+public class GlobCache {
+
+  private static final Logger LOG = Logger.get(GlobCache.class);
+
+  /** Bumped by every invalidation, so that results computed across one are not cached. */
+  private final AtomicLong generation = new AtomicLong();
+  private final Set<Path> roots = Sets.newConcurrentHashSet();
+  private final ConcurrentMap<Path, DirectoryListing> listings = new ConcurrentHashMap<>();
+  private final ConcurrentMap<GlobKey, ImmutableList<String>> results = new ConcurrentHashMap<>();
+  /** The cached globs which listed each directory. */
+  private final ConcurrentMap<Path, Set<GlobKey>> resultsByDirectory = new ConcurrentHashMap<>();
+  /**
+   * The directories with something cached under them, keyed by their parents, so that a directory
+   * which comes or goes can drop everything beneath it without scanning the whole cache.
+   */
+  private final ConcurrentMap<Path, Set<Path>> cachedSubdirectories = new ConcurrentHashMap<>();
+
+  /**
+   * @param root the root of the cell containing the build file.
+   * @param basePath the directory of the build file, relative to {@code root}.
+   * @return the files under {@code basePath} matching any of {@code includes} and none of
+   *     {@code excludes}, relative to {@code basePath}, in sorted order.
+   */
+  public ImmutableList<String> glob(
+      Path root,
+      Path basePath,
+      List<String> includes,
+      List<String> excludes,
+      boolean includeDotfiles) throws IOException {
+    Preconditions.checkArgument(root.isAbsolute());
+    Path directory = root.resolve(basePath).normalize();
+    GlobKey key = new GlobKey(directory, includes, excludes, includeDotfiles);
+    ImmutableList<String> result = results.get(key);
+    if (result != null) {
+      return result;
+    }
+
+    roots.add(root);
+    long startGeneration = generation.get();
+    SortedSet<String> files = new TreeSet<>();
+    Set<Path> visited = new HashSet<>();
+    for (String include : includes) {
+      List<Component> components = new ArrayList<>();
+      for (String part : include.split("/")) {
+        if (!part.isEmpty()) {
+          components.add(new Component(part, includeDotfiles));
+        }
+      }
+      if (!components.isEmpty()) {
+        match(directory, "", components, 0, files, visited, startGeneration);
+      }
+    }
+
+    if (!excludes.isEmpty()) {
+      List<Pattern> excludePatterns = new ArrayList<>(excludes.size());
+      for (String exclude : excludes) {
+        excludePatterns.add(Pattern.compile(globToRegex(exclude)));
+      }
+      Iterator<String> iterator = files.iterator();
+      while (iterator.hasNext()) {
+        String file = iterator.next();
+        for (Pattern excludePattern : excludePatterns) {
+          if (excludePattern.matcher(file).matches()) {
+            iterator.remove();
+            break;
+          }
+        }
+      }
+    }
+
+    result = ImmutableList.copyOf(files);
+    if (generation.get() == startGeneration) {
+      for (Path visitedDirectory : visited) {
+        track(visitedDirectory);
+        getOrCreate(resultsByDirectory, visitedDirectory).add(key);
+      }
+      results.put(key, result);
+    }
+    return result;
+  }
+
+  /**
+   * Drops whatever a change to the path in {@code event} may have made stale. Modifications
+   * leave listings, and so globs, unchanged, and are ignored.
+   */
+  public void invalidateBasedOn(WatchEvent<?> event) {
+    if (!WatchEvents.isPathChangeEvent(event)) {
+      LOG.debug("Invalidating all globs on %s", event.kind());
+      invalidateAll();
+      return;
+    }
+    if (event.kind() == StandardWatchEventKinds.ENTRY_MODIFY) {
+      return;
+    }
+
+    // The paths are relative to a cell root, but we don't know which, so invalidate them under
+    // all of the roots we have seen.
+    Path relativePath = (Path) event.context();
+    for (Path root : roots) {
+      invalidatePath(root.resolve(relativePath).normalize());
+    }
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    listings.clear();
+    results.clear();
+    resultsByDirectory.clear();
+    cachedSubdirectories.clear();
+  }
+
+  private void invalidatePath(Path path) {
+    generation.incrementAndGet();
+    Path parent = path.getParent();
+    if (parent != null) {
+      invalidateDirectory(parent);
+    }
+    // A directory which came or went takes everything cached under it along.
+    invalidateTree(path);
+  }
+
+  private void invalidateTree(Path directory) {
+    invalidateDirectory(directory);
+    Set<Path> subdirectories = cachedSubdirectories.remove(directory);
+    if (subdirectories != null) {
+      for (Path subdirectory : subdirectories) {
+        invalidateTree(subdirectory);
+      }
+    }
+  }
+
+  private void invalidateDirectory(Path directory) {
+    listings.remove(directory);
+    Set<GlobKey> keys = resultsByDirectory.remove(directory);
+    if (keys != null) {
+      for (GlobKey key : keys) {
+        results.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Links {@code directory} into {@link #cachedSubdirectories} all the way up, stopping at the
+   * first ancestor which already knows about it.
+   */
+  private void track(Path directory) {
+    Path child = directory;
+    Path parent = child.getParent();
+    while (parent != null && getOrCreate(cachedSubdirectories, parent).add(child)) {
+      child = parent;
+      parent = child.getParent();
+    }
+  }
+
+  private static <K, V> Set<V> getOrCreate(ConcurrentMap<K, Set<V>> map, K key) {
+    Set<V> values = map.get(key);
+    if (values == null) {
+      Set<V> newValues = Sets.newConcurrentHashSet();
+      values = map.putIfAbsent(key, newValues);
+      if (values == null) {
+        values = newValues;
+      }
+    }
+    return values;
+  }
+
+  private void match(
+      Path directory,
+      String relativeDirectory,
+      List<Component> components,
+      int index,
+      Set<String> matches,
+      Set<Path> visited,
+      long startGeneration) throws IOException {
+    visited.add(directory);
+    DirectoryListing listing = getListing(directory, startGeneration);
+    Component component = components.get(index);
+    boolean isLast = index == components.size() - 1;
+
+    if (component.isRecursive()) {
+      if (isLast) {
+        // A trailing ** matches every file beneath the directory.
+        for (String file : listing.files) {
+          if (component.matches(file)) {
+            matches.add(relativeDirectory + file);
+          }
+        }
+      } else {
+        match(directory, relativeDirectory, components, index + 1, matches, visited,
+            startGeneration);
+      }
+      for (String subdirectory : listing.directories) {
+        if (component.matches(subdirectory)) {
+          match(
+              directory.resolve(subdirectory),
+              relativeDirectory + subdirectory + "/",
+              components,
+              index,
+              matches,
+              visited,
+              startGeneration);
+        }
+      }
+      return;
+    }
+
+    if (isLast) {
+      if (component.isLiteral()) {
+        if (listing.files.contains(component.literal)) {
+          matches.add(relativeDirectory + component.literal);
+        }
+        return;
+      }
+      for (String file : listing.files) {
+        if (component.matches(file)) {
+          matches.add(relativeDirectory + file);
+        }
+      }
+      return;
+    }
+
+    Iterable<String> subdirectories = component.isLiteral() ?
+        (listing.directories.contains(component.literal) ?
+            ImmutableList.of(component.literal) :
+            ImmutableList.<String>of()) :
+        listing.directories;
+    for (String subdirectory : subdirectories) {
+      if (component.matches(subdirectory)) {
+        match(
+            directory.resolve(subdirectory),
+            relativeDirectory + subdirectory + "/",
+            components,
+            index + 1,
+            matches,
+            visited,
+            startGeneration);
+      }
+    }
+  }
+
+  private DirectoryListing getListing(Path directory, long startGeneration) throws IOException {
+    DirectoryListing listing = listings.get(directory);
+    if (listing == null) {
+      listing = DirectoryListing.read(directory);
+      if (generation.get() == startGeneration) {
+        track(directory);
+        listings.put(directory, listing);
+      }
+    }
+    return listing;
+  }
+
+  /**
+   * Translates a glob matching a whole relative path into a regular expression.
+   */
+  static String globToRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    while (i < glob.length()) {
+      char c = glob.charAt(i);
+      if (glob.startsWith("**/", i)) {
+        regex.append("(?:[^/]*/)*");
+        i += 3;
+        continue;
+      }
+      if (glob.startsWith("**", i)) {
+        regex.append(".*");
+        i += 2;
+        continue;
+      }
+      switch (c) {
+        case '*':
+          regex.append("[^/]*");
+          break;
+        case '?':
+          regex.append("[^/]");
+          break;
+        case '[':
+          int end = glob.indexOf(']', i + 2);
+          if (end == -1) {
+            regex.append("\\[");
+            break;
+          }
+          String contents = glob.substring(i + 1, end);
+          regex.append('[');
+          if (contents.startsWith("!")) {
+            regex.append('^');
+            contents = contents.substring(1);
+          }
+          regex.append(contents.replace("\\", "\\\\").replace("[", "\\["));
+          regex.append(']');
+          i = end;
+          break;
+        default:
+          regex.append(Pattern.quote(String.valueOf(c)));
+          break;
+      }
+      i++;
+    }
+    return regex.toString();
+  }
+
+  /**
+   * One {@code /}-separated part of an include pattern.
+   */
+  private static class Component {
+    private final String literal;
+    private final boolean isRecursive;
+    private final boolean includeDotfiles;
+    private final Pattern pattern;
+
+    Component(String glob, boolean includeDotfiles) {
+      this.literal = glob;
+      this.isRecursive = glob.equals("**");
+      this.includeDotfiles = includeDotfiles;
+      boolean hasWildcards = glob.contains("*") || glob.contains("?") || glob.contains("[");
+      this.pattern = hasWildcards && !isRecursive ? Pattern.compile(globToRegex(glob)) : null;
+    }
+
+    boolean isRecursive() {
+      return isRecursive;
+    }
+
+    boolean isLiteral() {
+      return !isRecursive && pattern == null;
+    }
+
+    boolean matches(String name) {
+      if (isLiteral()) {
+        return name.equals(literal);
+      }
+      // Like shells and Watchman, wildcards don't match hidden files unless asked to.
+      if (!includeDotfiles && name.startsWith(".")) {
+        return false;
+      }
+      return isRecursive || pattern.matcher(name).matches();
+    }
+  }
+
+  private static class DirectoryListing {
+    private static final DirectoryListing EMPTY =
+        new DirectoryListing(ImmutableSortedSet.<String>of(), ImmutableSortedSet.<String>of());
+
+    private final ImmutableSortedSet<String> files;
+    private final ImmutableSortedSet<String> directories;
+
+    DirectoryListing(
+        ImmutableSortedSet<String> files,
+        ImmutableSortedSet<String> directories) {
+      this.files = files;
+      this.directories = directories;
+    }
+
+    static DirectoryListing read(Path directory) throws IOException {
+      ImmutableSortedSet.Builder<String> files = ImmutableSortedSet.naturalOrder();
+      ImmutableSortedSet.Builder<String> directories = ImmutableSortedSet.naturalOrder();
+      try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory)) {
+        for (Path entry : entries) {
+          BasicFileAttributes attributes;
+          try {
+            attributes = Files.readAttributes(
+                entry,
+                BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          String name = entry.getFileName().toString();
+          if (attributes.isDirectory()) {
+            directories.add(name);
+          } else if (attributes.isRegularFile() || attributes.isSymbolicLink()) {
+            files.add(name);
+          }
+        }
+      } catch (NoSuchFileException | NotDirectoryException e) {
+        return EMPTY;
+      }
+      return new DirectoryListing(files.build(), directories.build());
+    }
+  }
+
+  private static class GlobKey {
+    private final Path directory;
+    private final ImmutableList<String> includes;
+    private final ImmutableList<String> excludes;
+    private final boolean includeDotfiles;
+
+    GlobKey(
+        Path directory,
+        List<String> includes,
+        List<String> excludes,
+        boolean includeDotfiles) {
+      this.directory = directory;
+      this.includes = ImmutableList.copyOf(includes);
+      this.excludes = ImmutableList.copyOf(excludes);
+      this.includeDotfiles = includeDotfiles;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof GlobKey)) {
+        return false;
+      }
+      GlobKey that = (GlobKey) other;
+      return directory.equals(that.directory) &&
+          includes.equals(that.includes) &&
+          excludes.equals(that.excludes) &&
+          includeDotfiles == that.includeDotfiles;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(directory, includes, excludes, includeDotfiles);
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s includes=%s excludes=%s",
+          directory,
+          Iterables.toString(includes),
+          Iterables.toString(excludes));
+    }
+  }
+}
@@ -19,6 +19,8 @@ package com.facebook.buck.json;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.bser.BserStreamReader;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.PerfEventId;
@@ -54,9 +56,13 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -84,18 +90,21 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
   private static final Logger LOG = Logger.get(ProjectBuildFileParser.class);
 
+  private static final int GLOB_RESPONSE_BUFFER_SIZE = 8192;
+
   private final ImmutableMap<String, String> environment;
 
   private Optional<Path> pathToBuckPy;
 
   @Nullable private ProcessExecutor.LaunchedProcess buckPyProcess;
+  @Nullable private OutputStream buckPyStdin;
   @Nullable private BufferedWriter buckPyStdinWriter;
+  @Nullable private BserStreamReader buckPyStdoutReader;
 
   private final ProjectBuildFileParserOptions options;
   private final ConstructorArgMarshaller marshaller;
   private final BuckEventBus buckEventBus;
   private final ProcessExecutor processExecutor;
-  private final BserDeserializer bserDeserializer;
 
   private boolean isInitialized;
   private boolean isClosed;
@@ -117,7 +126,6 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.environment = environment;
     this.buckEventBus = buckEventBus;
     this.processExecutor = processExecutor;
-    this.bserDeserializer = new BserDeserializer(BserDeserializer.KeyOrdering.SORTED);
   }
 
   public void setEnableProfiling(boolean enableProfiling) {
@@ -186,7 +194,11 @@ public class ProjectBuildFileParser implements AutoCloseable {
               }));
       stderrConsumer.start();
 
+      buckPyStdin = stdin;
       buckPyStdinWriter = new BufferedWriter(new OutputStreamWriter(stdin));
+      buckPyStdoutReader = new BserStreamReader(
+          Channels.newChannel(buckPyProcess.getInputStream()),
+          BserDeserializer.KeyOrdering.SORTED);
     }
   }
 
@@ -218,6 +230,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--use_watchman_glob");
     }
 
+    if (options.getGlobCache().isPresent()) {
+      argBuilder.add("--use_daemon_glob");
+    }
+
     if (options.getWatchman().getProjectPrefix().isPresent()) {
       argBuilder.add("--watchman_project_prefix", options.getWatchman().getProjectPrefix().get());
     }
@@ -291,6 +307,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
     // Check isInitialized implications (to avoid Eradicate warnings).
     Preconditions.checkNotNull(buckPyStdinWriter);
     Preconditions.checkNotNull(buckPyProcess);
+    Preconditions.checkNotNull(buckPyStdoutReader);
 
     ParseBuckFileEvent.Started parseBuckFileStarted = ParseBuckFileEvent.started(buildFile);
     int numRules = 0;
@@ -305,9 +322,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
       LOG.debug("Parsing output of process %s...", buckPyProcess);
       List<Map<String, Object>> result;
       try {
-        Object deserializedValue = bserDeserializer.deserializeBserValue(
-            buckPyProcess.getInputStream());
-        result = handleDeserializedValue(buildFile, deserializedValue, buckEventBus);
+        result = readParserOutput(buildFile, buckPyStdoutReader, buckEventBus);
       } catch (BserDeserializer.BserEofException e) {
         LOG.warn(e, "Parser exited while decoding BSER data");
         throw new IOException("Parser exited unexpectedly", e);
@@ -321,17 +336,66 @@ public class ProjectBuildFileParser implements AutoCloseable {
     }
   }
 
+  /**
+   * Reads the next result from buck.py. The result is consumed field by field, and each rule
+   * is decoded straight from the pipe, so the encoded output is never buffered as a whole.
+   *
+   * While evaluating the build file buck.py may instead send globs for us to answer, which it
+   * waits on before carrying on with the build file.
+   */
   @SuppressWarnings("unchecked")
-  private static List<Map<String, Object>> handleDeserializedValue(
+  private List<Map<String, Object>> readParserOutput(
       Path buildFile,
-      Object deserializedValue,
+      BserStreamReader reader,
       BuckEventBus buckEventBus) throws IOException, BuildFileParseException {
-    if (!(deserializedValue instanceof Map<?, ?>)) {
-      throw new IOException(
-          String.format("Invalid parser output (expected map, got %s)", deserializedValue));
-    }
-    Map<String, Object> decodedResult = (Map<String, Object>) deserializedValue;
-    Object diagnostics = decodedResult.get("diagnostics");
+    Object diagnostics = null;
+    Object values = null;
+    boolean isGlobRequest;
+    do {
+      if (!reader.nextPdu()) {
+        throw new BserDeserializer.BserEofException("Reached end of parser output");
+      }
+      BserStreamReader.Token token = reader.nextToken();
+      if (token != BserStreamReader.Token.START_OBJECT) {
+        throw new IOException(
+            String.format("Invalid parser output (expected map, got %s)", reader.readValue()));
+      }
+
+      isGlobRequest = false;
+      while (reader.nextToken() == BserStreamReader.Token.FIELD_NAME) {
+        String field = reader.getString();
+        token = reader.nextToken();
+        switch (field) {
+          case "glob":
+            answerGlobRequest(reader.readValue());
+            isGlobRequest = true;
+            break;
+          case "diagnostics":
+            diagnostics = reader.readValue();
+            break;
+          case "values":
+            if (token == BserStreamReader.Token.START_ARRAY) {
+              List<Map<String, Object>> rules = new ArrayList<>();
+              while (reader.nextToken() != BserStreamReader.Token.END_ARRAY) {
+                Object rule = reader.readValue();
+                if (!(rule instanceof Map<?, ?>)) {
+                  throw new IOException(
+                      String.format("Invalid parser rule (expected map, got %s)", rule));
+                }
+                rules.add((Map<String, Object>) rule);
+              }
+              values = rules;
+            } else {
+              values = reader.readValue();
+            }
+            break;
+          default:
+            reader.skipChildren();
+            break;
+        }
+      }
+    } while (isGlobRequest);
+
     if (diagnostics != null) {
       if (!(diagnostics instanceof List<?>)) {
         throw new IOException(
@@ -340,7 +404,6 @@ public class ProjectBuildFileParser implements AutoCloseable {
       List<Map<String, String>> diagnosticsList = (List<Map<String, String>>) diagnostics;
       handleDiagnostics(buildFile, diagnosticsList, buckEventBus);
     }
-    Object values = decodedResult.get("values");
     if (!(values instanceof List<?>)) {
       throw new IOException(
           String.format("Invalid parser values (expected list, got %s)", values));
@@ -348,6 +411,42 @@ public class ProjectBuildFileParser implements AutoCloseable {
     return (List<Map<String, Object>>) values;
   }
 
+  /**
+   * Evaluates a glob sent by buck.py and writes the matching files, or why there are none, back
+   * to its stdin.
+   */
+  @SuppressWarnings("unchecked")
+  private void answerGlobRequest(Object request) throws IOException {
+    Preconditions.checkNotNull(buckPyStdin);
+    Map<String, Object> response;
+    try {
+      if (!options.getGlobCache().isPresent()) {
+        throw new IOException("Parser was not started with a glob cache");
+      }
+      if (!(request instanceof Map<?, ?>)) {
+        throw new IOException(
+            String.format("Invalid glob request (expected map, got %s)", request));
+      }
+      Map<String, Object> glob = (Map<String, Object>) request;
+      ImmutableList<String> files = options.getGlobCache().get().glob(
+          options.getProjectRoot().toAbsolutePath(),
+          Paths.get((String) Preconditions.checkNotNull(glob.get("base_path"))),
+          (List<String>) Preconditions.checkNotNull(glob.get("includes")),
+          (List<String>) Preconditions.checkNotNull(glob.get("excludes")),
+          Boolean.TRUE.equals(glob.get("include_dotfiles")));
+      response = ImmutableMap.<String, Object>of("files", files);
+    } catch (IOException | RuntimeException e) {
+      LOG.warn(e, "Could not evaluate glob request %s", request);
+      response = ImmutableMap.<String, Object>of("error", String.valueOf(e.getMessage()));
+    }
+    // Serializing straight to the stream would close it once done.
+    ByteBuffer buffer = new BserSerializer().serializeToBuffer(
+        response,
+        ByteBuffer.allocate(GLOB_RESPONSE_BUFFER_SIZE).order(ByteOrder.nativeOrder()));
+    buckPyStdin.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    buckPyStdin.flush();
+  }
+
   private static void handleDiagnostics(
       Path buildFile,
       List<Map<String, String>> diagnosticsList,
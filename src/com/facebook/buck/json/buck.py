@@ -64,7 +64,7 @@ class BuildFileContext(object):
 
     def __init__(self, base_path, dirname, allow_empty_globs, watchman_client,
                  watchman_watch_root, watchman_project_prefix, sync_cookie_state,
-                 watchman_error):
+                 watchman_error, parent_globber=None):
         self.globals = {}
         self.includes = set()
         self.base_path = base_path
@@ -75,6 +75,7 @@ class BuildFileContext(object):
         self.watchman_project_prefix = watchman_project_prefix
         self.sync_cookie_state = sync_cookie_state
         self.watchman_error = watchman_error
+        self.parent_globber = parent_globber
         self.diagnostics = set()
         self.rules = {}
 
@@ -181,7 +182,20 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None, search_b
     results = None
     if not includes:
         results = []
-    elif build_env.watchman_client:
+    elif build_env.parent_globber and search_base is None:
+        try:
+            results = build_env.parent_globber.glob(
+                build_env.base_path,
+                includes,
+                excludes,
+                include_dotfiles)
+        except ParentGlobError, e:
+            build_env.diagnostics.add(
+                DiagnosticMessageAndLevel(
+                    message='Glob through buck failed, falling back to slow glob: {0}'.format(e),
+                    level='warning'))
+
+    if results is None and build_env.watchman_client:
         try:
             results = glob_watchman(
                 includes,
@@ -337,6 +351,56 @@ def glob_watchman(includes, excludes, include_dotfiles, base_path, watchman_watc
     return sorted(result)
 
 
+class ParentGlobError(Exception):
+    pass
+
+
+class ParentGlobber(object):
+    """
+    Asks the buck process which started us to evaluate globs, so that they can
+    be answered from the listings it has cached between builds.
+
+    A request is written to the parent as a BSER map with a single 'glob'
+    field, and the parent answers on our stdin with a BSER map holding either
+    the matching 'files' or an 'error'.
+    """
+
+    # Sizes of the BSER integer types which can encode the length of a PDU.
+    _INT_SIZES = {'\x03': 1, '\x04': 2, '\x05': 4, '\x06': 8}
+
+    def __init__(self, to_parent, from_parent):
+        self._to_parent = to_parent
+        self._from_parent = from_parent
+
+    def glob(self, base_path, includes, excludes, include_dotfiles):
+        self._to_parent.write(bser.dumps({
+            'glob': {
+                'base_path': base_path,
+                'includes': includes,
+                'excludes': excludes,
+                'include_dotfiles': include_dotfiles,
+            },
+        }))
+        self._to_parent.flush()
+        response = self._read_pdu()
+        if 'error' in response:
+            raise ParentGlobError(response['error'])
+        return response['files']
+
+    def _read_pdu(self):
+        # The header is the two byte magic, then the length as a BSER int.
+        header = self._read(3)
+        header += self._read(self._INT_SIZES.get(header[2], 0))
+        remaining = bser.pdu_len(header) - len(header)
+        return bser.loads(header + self._read(remaining))
+
+    def _read(self, size):
+        data = self._from_parent.read(size)
+        if len(data) != size:
+            raise ParentGlobError('Parent closed the connection')
+        return data
+
+
 def glob_internal(includes, excludes, include_dotfiles, search_base):
 
     def includes_iterator():
@@ -408,7 +472,7 @@ class BuildFileProcessor(object):
 
     def __init__(self, project_root, watchman_watch_root, watchman_project_prefix, build_file_name,
                  allow_empty_globs, watchman_client, watchman_error, implicit_includes=[],
-                 extra_funcs=[]):
+                 extra_funcs=[], parent_globber=None):
         self._cache = {}
         self._build_env_stack = []
         self._sync_cookie_state = SyncCookieState()
@@ -421,6 +485,7 @@ class BuildFileProcessor(object):
         self._allow_empty_globs = allow_empty_globs
         self._watchman_client = watchman_client
         self._watchman_error = watchman_error
+        self._parent_globber = parent_globber
 
         lazy_functions = {}
         for func in BUILD_FUNCTIONS + extra_funcs:
@@ -607,7 +672,8 @@ class BuildFileProcessor(object):
             self._watchman_watch_root,
             self._watchman_project_prefix,
             self._sync_cookie_state,
-            self._watchman_error)
+            self._watchman_error,
+            self._parent_globber)
 
         return self._process(
             build_env,
@@ -735,6 +801,11 @@ def main():
         action='store_true',
         dest='use_watchman_glob',
         help='Invokes `watchman query` to get lists of files instead of globbing in-process.')
+    parser.add_option(
+        '--use_daemon_glob',
+        action='store_true',
+        dest='use_daemon_glob',
+        help='Sends globs to the parent process on stdout and reads their results from stdin.')
     parser.add_option(
         '--watchman_watch_root',
         action='store',
@@ -795,6 +866,10 @@ def main():
         watchman_client = pywatchman.client(**client_args)
         watchman_error = pywatchman.WatchmanError
 
+    parent_globber = None
+    if options.use_daemon_glob:
+        parent_globber = ParentGlobber(to_parent, sys.stdin)
+
     buildFileProcessor = BuildFileProcessor(
         project_root,
         options.watchman_watch_root,
@@ -803,7 +878,8 @@ def main():
         options.allow_empty_globs,
         watchman_client,
         watchman_error,
-        implicit_includes=options.include or [])
+        implicit_includes=options.include or [],
+        parent_globber=parent_globber)
 
     buildFileProcessor.install_builtins(__builtin__.__dict__)
 
@@ -1,6 +1,8 @@
 from buck import format_watchman_query_params, glob_internal, LazyBuildEnvPartial
-from buck import subdir_glob, BuildFileContext
+from buck import subdir_glob, BuildFileContext, ParentGlobber, ParentGlobError, glob
 from pathlib import Path, PurePosixPath, PureWindowsPath
+from pywatchman import bser
+from StringIO import StringIO
 import os
 import shutil
 import tempfile
@@ -325,6 +327,51 @@ class TestBuck(unittest.TestCase):
             },
             query_params)
 
+    def test_parent_globber_round_trip(self):
+        to_parent = StringIO()
+        from_parent = StringIO(bser.dumps({'files': ['A.java', 'bar/B.java']}))
+        globber = ParentGlobber(to_parent, from_parent)
+        self.assertEquals(
+            ['A.java', 'bar/B.java'],
+            globber.glob('foo', ['**/*.java'], ['**/*Test.java'], False))
+        self.assertEquals(
+            {
+                'glob': {
+                    'base_path': 'foo',
+                    'includes': ['**/*.java'],
+                    'excludes': ['**/*Test.java'],
+                    'include_dotfiles': False,
+                },
+            },
+            bser.loads(to_parent.getvalue()))
+
+    def test_parent_globber_reads_one_response_per_request(self):
+        from_parent = StringIO(
+            bser.dumps({'files': ['A.java']}) +
+            bser.dumps({'files': ['B.java']}))
+        globber = ParentGlobber(StringIO(), from_parent)
+        self.assertEquals(['A.java'], globber.glob('foo', ['A.*'], [], False))
+        self.assertEquals(['B.java'], globber.glob('foo', ['B.*'], [], False))
+
+    def test_parent_globber_raises_errors_and_closed_connections(self):
+        globber = ParentGlobber(StringIO(), StringIO(bser.dumps({'error': 'No such cell'})))
+        self.assertRaises(ParentGlobError, globber.glob, 'foo', ['*'], [], False)
+        globber = ParentGlobber(StringIO(), StringIO())
+        self.assertRaises(ParentGlobError, globber.glob, 'foo', ['*'], [], False)
+
+    def test_glob_falls_back_when_parent_glob_fails(self):
+        d = tempfile.mkdtemp()
+        try:
+            open(os.path.join(d, 'A.java'), 'w').close()
+            globber = ParentGlobber(StringIO(), StringIO(bser.dumps({'error': 'boom'})))
+            build_env = BuildFileContext(
+                'foo', d, True, None, None, None, None, None, parent_globber=globber)
+            self.assertEquals(['A.java'], glob(['*.java'], build_env=build_env))
+            self.assertEquals(1, len(build_env.diagnostics))
+            self.assertEquals('warning', list(build_env.diagnostics)[0].level)
+        finally:
+            shutil.rmtree(d)
+
 
-if __name__ == '__main__':
+if __name__) == '__main__':
     unittest.main()
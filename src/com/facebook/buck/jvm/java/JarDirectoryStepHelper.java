@@ -26,6 +26,7 @@ import com.facebook.buck.model.Pair;
 import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.zip.CustomZipOutputStream;
 import com.facebook.buck.zip.ZipOutputStreams;
+import com.facebook.buck.zip.ZipReader;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
@@ -40,7 +41,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Enumeration;
 import java.util.Map;
 import java.util.Set;
 import java.util.jar.Attributes;
@@ -51,7 +51,6 @@ import java.util.logging.Level;
 import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
-import java.util.zip.ZipFile;
 
 public class JarDirectoryStepHelper {
 
@@ -154,7 +153,7 @@ public class JarDirectoryStepHelper {
       ExecutionContext context) throws IOException {
 
     Path absoluteOutputPath = filesystem.getPathForRelativePath(pathToOutputFile);
-    try (CustomZipOutputStream outputFile = ZipOutputStreams.newOutputStream(
+    try (CustomZipOutputStream outputFile = ZipOutputStreams.newParallelOutputStream(
         absoluteOutputPath, APPEND_TO_ZIP)) {
       return createJarFile(filesystem,
           pathToOutputFile,
@@ -196,10 +195,9 @@ public class JarDirectoryStepHelper {
       Set<String> alreadyAddedEntries,
       BuckEventBus eventBus,
       Iterable<Pattern> blacklist) throws IOException {
-    try (ZipFile zip = new ZipFile(inputFile.toFile())) {
+    try (ZipReader zip = new ZipReader(inputFile)) {
       zipEntryLoop:
-      for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements(); ) {
-        ZipEntry entry = entries.nextElement();
+      for (ZipReader.Entry entry : zip.getEntries()) {
         String entryName = entry.getName();
 
         if (entryName.equals(JarFile.MANIFEST_NAME)) {
@@ -234,27 +232,9 @@ public class JarDirectoryStepHelper {
           }
         }
 
-        ZipEntry newEntry = new ZipEntry(entry);
-
-        // For deflated entries, the act of re-"putting" this entry means we're re-compressing
-        // the data that we've just uncompressed.  Due to various environmental issues (e.g. a
-        // newer version of zlib, changed compression settings), we may end up with a different
-        // compressed size.  This causes an issue in java's `java.util.zip.ZipOutputStream`
-        // implementation, as it only updates the compressed size field if one of `crc`,
-        // `compressedSize`, or `size` is -1.  When we copy the entry as-is, none of these are
-        // -1, and we may end up with an incorrect compressed size, in which case, we'll get an
-        // exception.  So, for deflated entries, reset the compressed size to -1 (as the
-        // ZipEntry(String) would).
-        // See https://github.com/spearce/buck/commit/8338c1c3d4a546f577eed0c9941d9f1c2ba0a1b7.
-        if (entry.getMethod() == ZipEntry.DEFLATED) {
-          newEntry.setCompressedSize(-1);
-        }
-
-        jar.putNextEntry(newEntry);
-        try (InputStream inputStream = zip.getInputStream(entry)) {
-          ByteStreams.copy(inputStream, jar);
-        }
-        jar.closeEntry();
+        // Entries are copied still compressed where the output stream allows it, since inflating
+        // and deflating them again is most of the work of merging jars.
+        jar.copyEntry(zip, entry);
       }
     } catch (ZipException e) {
       throw new IOException(
@@ -266,7 +246,8 @@ public class JarDirectoryStepHelper {
     return entry.isDirectory() ? Level.FINE : Level.INFO;
   }
 
-  private static Manifest readManifest(ZipFile zip, ZipEntry manifestMfEntry) throws IOException {
+  private static Manifest readManifest(ZipReader zip, ZipReader.Entry manifestMfEntry)
+      throws IOException {
     try (
         ByteArrayOutputStream output = new ByteArrayOutputStream((int) manifestMfEntry.getSize());
         InputStream stream = zip.getInputStream(manifestMfEntry)
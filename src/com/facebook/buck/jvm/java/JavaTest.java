@@ -47,6 +47,7 @@ import com.facebook.buck.test.XmlTestResultParser;
 import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.ZipReader;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.base.Optional;
@@ -74,8 +75,6 @@ import java.util.Random;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.logging.Level;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 
@@ -557,7 +556,7 @@ public class JavaTest
       ZipFileTraversal traversal = new ZipFileTraversal(jarFile) {
 
         @Override
-        public void visit(ZipFile zipFile, ZipEntry zipEntry) {
+        public void visit(ZipReader zipFile, ZipReader.Entry zipEntry) {
           final String name = new File(zipEntry.getName()).getName();
 
           // Ignore non-.class files.
@@ -100,7 +100,7 @@ public class JavacDirectToJarStep implements Step {
 
     try {
 
-      jarOutputStream = ZipOutputStreams.newOutputStream(
+      jarOutputStream = ZipOutputStreams.newParallelOutputStream(
           filesystem.getPathForRelativePath(outputJar),
           ZipOutputStreams.HandleDuplicates.APPEND_TO_ZIP);
 
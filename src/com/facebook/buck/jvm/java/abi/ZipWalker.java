@@ -16,19 +16,15 @@
 
 package com.facebook.buck.jvm.java.abi;
 
+import com.facebook.buck.zip.ZipReader;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Sets;
 
-import java.io.BufferedInputStream;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Set;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipInputStream;
 
 /**
  * A {@link Walker} which iterates over entries of a ZIP file in sorted (name) order.
@@ -42,31 +38,22 @@ class ZipWalker implements Walker {
 
   @Override
   public void walk(FileAction onFile) throws IOException {
-    Set<String> names = Sets.newTreeSet();
-
-    // Get the set of all names and sort them, so that we get a deterministic iteration order.
-    try (
-        FileInputStream fis = new FileInputStream(zipFile.toFile());
-        BufferedInputStream bis = new BufferedInputStream(fis);
-        ZipInputStream zis = new ZipInputStream(bis)) {
-      for (ZipEntry entry = zis.getNextEntry(); entry != null; entry = zis.getNextEntry()) {
-        if (entry.isDirectory()) {
-          continue;
+    try (ZipReader zip = new ZipReader(zipFile)) {
+      // Get the set of all names from the central directory and sort them, so that we get a
+      // deterministic iteration order.
+      Set<String> names = Sets.newTreeSet();
+      for (ZipReader.Entry entry : zip.getEntries()) {
+        if (!entry.isDirectory()) {
+          names.add(entry.getName());
         }
-        names.add(entry.getName());
       }
-    }
 
-    // Iterate over the file entries, calling the action on each one.
-    if (!names.isEmpty()) {
-      try (ZipFile zip = new ZipFile(zipFile.toFile())) {
-        for (String name : names) {
-          try (InputStream is = zip.getInputStream(zip.getEntry(name))) {
-            onFile.visit(Paths.get(name), is);
-          }
+      // Iterate over the file entries, calling the action on each one.
+      for (String name : names) {
+        try (InputStream is = zip.getInputStream(zip.getEntry(name))) {
+          onFile.visit(Paths.get(name), is);
         }
       }
     }
   }
 }
-
@@ -20,14 +20,13 @@ import com.facebook.buck.io.DirectoryTraversal;
 import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.util.ZipFileTraversal;
+import com.facebook.buck.zip.ZipReader;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collection;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import javax.annotation.Nullable;
 
@@ -92,7 +91,7 @@ public abstract class ClasspathTraversal {
     public void traverse(final ClasspathTraversal traversal) throws IOException {
       ZipFileTraversal impl = new ZipFileTraversal(file) {
         @Override
-        public void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException {
+        public void visit(ZipReader zipFile, ZipReader.Entry zipEntry) throws IOException {
           traversal.visit(new FileLikeInZip(file, zipFile, zipEntry));
         }
       };
@@ -101,10 +100,10 @@ public abstract class ClasspathTraversal {
 
     private static class FileLikeInZip extends AbstractFileLike {
       private final Path container;
-      private final ZipFile zipFile;
-      private final ZipEntry entry;
+      private final ZipReader zipFile;
+      private final ZipReader.Entry entry;
 
-      public FileLikeInZip(Path container, ZipFile zipFile, ZipEntry entry) {
+      public FileLikeInZip(Path container, ZipReader zipFile, ZipReader.Entry entry) {
         this.container = container;
         this.zipFile = zipFile;
         this.entry = entry;
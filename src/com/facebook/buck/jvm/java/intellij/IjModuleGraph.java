@@ -27,16 +27,25 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
+import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 
@@ -143,8 +152,9 @@ public class IjModuleGraph {
    */
   private static ImmutableMap<BuildTarget, IjModule> createModules(
       TargetGraph targetGraph,
-      IjModuleFactory moduleFactory,
-      final Function<Path, Path> basePathTransform) {
+      final IjModuleFactory moduleFactory,
+      final Function<Path, Path> basePathTransform,
+      ListeningExecutorService executorService) {
     ImmutableSet<TargetNode<?>> supportedTargets = FluentIterable.from(targetGraph.getNodes())
         .filter(IjModuleFactory.SUPPORTED_MODULE_TYPES_PREDICATE)
         .toSet();
@@ -157,15 +167,31 @@ public class IjModuleGraph {
               }
             });
 
-    ImmutableMap.Builder<BuildTarget, IjModule> moduleMapBuilder = new ImmutableMap.Builder<>();
-
-    for (Path baseTargetPath : baseTargetPathMultimap.keySet()) {
-      ImmutableSet<TargetNode<?>> targets =
+    // Each module only looks at its own targets, so they can all be created at the same time.
+    List<ListenableFuture<IjModule>> moduleFutures = new ArrayList<>();
+    for (final Path baseTargetPath : baseTargetPathMultimap.keySet()) {
+      final ImmutableSet<TargetNode<?>> targets =
           FluentIterable.from(baseTargetPathMultimap.get(baseTargetPath)).toSet();
+      moduleFutures.add(
+          executorService.submit(
+              new Callable<IjModule>() {
+                @Override
+                public IjModule call() {
+                  return moduleFactory.createModule(baseTargetPath, targets);
+                }
+              }));
+    }
 
-      IjModule module = moduleFactory.createModule(baseTargetPath, targets);
+    List<IjModule> modules;
+    try {
+      modules = Futures.getUnchecked(Futures.allAsList(moduleFutures));
+    } catch (UncheckedExecutionException e) {
+      throw Throwables.propagate(e.getCause());
+    }
 
-      for (TargetNode<?> target : targets) {
+    ImmutableMap.Builder<BuildTarget, IjModule> moduleMapBuilder = new ImmutableMap.Builder<>();
+    for (IjModule module : modules) {
+      for (TargetNode<?> target : module.getTargets()) {
         moduleMapBuilder.put(target.getBuildTarget(), module);
       }
     }
@@ -183,16 +209,38 @@ public class IjModuleGraph {
    * exists between two modules (Ma, Mb) if a TargetGraph edge existed between a pair of
    * nodes (Ta, Tb) and Ma contains Ta and Mb contains Tb.
    */
+  public static IjModuleGraph from(
+      TargetGraph targetGraph,
+      IjLibraryFactory libraryFactory,
+      IjModuleFactory moduleFactory,
+      AggregationMode aggregationMode) {
+    return from(
+        targetGraph,
+        libraryFactory,
+        moduleFactory,
+        aggregationMode,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  /**
+   * Same as {@link #from(TargetGraph, IjLibraryFactory, IjModuleFactory, AggregationMode)}, but
+   * creates the modules on the given executor, so the {@link IjModuleFactory} and its
+   * {@link IjModuleFactory.IjModuleFactoryResolver} must be safe to use from several threads.
+   *
+   * @param executorService executor to create modules on.
+   */
   public static IjModuleGraph from(
       final TargetGraph targetGraph,
       final IjLibraryFactory libraryFactory,
       final IjModuleFactory moduleFactory,
-      AggregationMode aggregationMode) {
+      AggregationMode aggregationMode,
+      ListeningExecutorService executorService) {
     final ImmutableMap<BuildTarget, IjModule> rulesToModules =
         createModules(
             targetGraph,
             moduleFactory,
-            aggregationMode.getBasePathTransform(targetGraph.getNodes().size()));
+            aggregationMode.getBasePathTransform(targetGraph.getNodes().size()),
+            executorService);
     final ExportedDepsClosureResolver exportedDepsClosureResolver =
         new ExportedDepsClosureResolver(targetGraph);
     ImmutableMap.Builder<IjProjectElement, ImmutableMap<IjProjectElement, DependencyType>>
@@ -35,9 +35,12 @@ import com.facebook.buck.rules.TargetNode;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Set;
 
 /**
  * Top-level class for IntelliJ project generation.
@@ -51,7 +54,14 @@ public class IjProject {
   private final SourcePathResolver sourcePathResolver;
   private final ProjectFilesystem projectFilesystem;
   private final IjModuleGraph.AggregationMode aggregationMode;
+  private final ListeningExecutorService executorService;
+  private final boolean incremental;
 
+  /**
+   * @param executorService executor to create and write modules and libraries on.
+   * @param incremental whether to only regenerate the modules whose targets or dependencies
+   *   changed since the project was last written, see {@link IjProjectWriter}.
+   */
   public IjProject(
       TargetGraphAndTargets targetGraphAndTargets,
       JavaPackageFinder javaPackageFinder,
@@ -59,7 +69,9 @@ public class IjProject {
       BuildRuleResolver buildRuleResolver,
       SourcePathResolver sourcePathResolver,
       ProjectFilesystem projectFilesystem,
-      IjModuleGraph.AggregationMode aggregationMode) {
+      IjModuleGraph.AggregationMode aggregationMode,
+      ListeningExecutorService executorService,
+      boolean incremental) {
     this.targetGraphAndTargets = targetGraphAndTargets;
     this.javaPackageFinder = javaPackageFinder;
     this.javaFileParser = javaFileParser;
@@ -67,6 +79,8 @@ public class IjProject {
     this.sourcePathResolver = sourcePathResolver;
     this.projectFilesystem = projectFilesystem;
     this.aggregationMode = aggregationMode;
+    this.executorService = executorService;
+    this.incremental = incremental;
   }
 
   /**
@@ -76,8 +90,9 @@ public class IjProject {
    *   correctly.
    * @throws IOException
    */
-  public ImmutableSet<BuildTarget> write() throws IOException {
-    final ImmutableSet.Builder<BuildTarget> requiredBuildTargets = ImmutableSet.builder();
+  public ImmutableSet<BuildTarget> write() throws IOException, InterruptedException {
+    // Modules are created on several threads, all of which record the targets they need.
+    final Set<BuildTarget> requiredBuildTargets = Sets.newConcurrentHashSet();
     IjLibraryFactory libraryFactory = new DefaultIjLibraryFactory(
         new DefaultIjLibraryFactory.IjLibraryFactoryResolver() {
           @Override
@@ -168,7 +183,8 @@ public class IjProject {
         targetGraphAndTargets.getTargetGraph(),
         libraryFactory,
         new IjModuleFactory(moduleFactoryResolver),
-        aggregationMode);
+        aggregationMode,
+        executorService);
     JavaPackageFinder parsingJavaPackageFinder = ParsingJavaPackageFinder.preparse(
         javaFileParser,
         projectFilesystem,
@@ -176,9 +192,11 @@ public class IjProject {
         javaPackageFinder);
     IjProjectWriter writer = new IjProjectWriter(
         new IjProjectTemplateDataPreparer(parsingJavaPackageFinder, moduleGraph, projectFilesystem),
-        projectFilesystem);
+        projectFilesystem,
+        executorService,
+        incremental);
     writer.write();
-    return requiredBuildTargets.build();
+    return ImmutableSet.copyOf(requiredBuildTargets);
   }
 
 }
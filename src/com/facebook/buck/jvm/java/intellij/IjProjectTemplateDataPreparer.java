@@ -25,22 +25,29 @@ import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 
 import org.immutables.value.Value;
 
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import javax.annotation.Nullable;
 
@@ -215,6 +222,49 @@ public class IjProjectTemplateDataPreparer {
     return librariesToBeWritten;
   }
 
+  /**
+   * Hashes everything the contents of a module's .iml file are derived from: the module's targets,
+   * folders and dependencies, and where the other modules are. The one thing not covered is the
+   * layout of the directories under the module, which decides what gets excluded.
+   *
+   * @param module the module to hash.
+   * @return a hash which changes whenever the module needs to be written again.
+   */
+  public HashCode getModuleKey(IjModule module) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putString(module.getModuleBasePath().toString(), StandardCharsets.UTF_8);
+    hasher.putString(module.getModuleImlFilePath().toString(), StandardCharsets.UTF_8);
+
+    SortedSet<String> targets = new TreeSet<>();
+    for (TargetNode<?> targetNode : module.getTargets()) {
+      targets.add(targetNode.getBuildTarget() + " " + targetNode.getRawInputsHashCode());
+    }
+    SortedSet<String> folders = new TreeSet<>();
+    for (IjFolder folder : module.getFolders()) {
+      folders.add(
+          folder.getIjName() + " " + folder.getPath() + " " + folder.getWantsPackagePrefix() +
+          " " + folder.getInputs());
+    }
+    SortedSet<String> dependencies = new TreeSet<>();
+    for (Map.Entry<IjProjectElement, IjModuleGraph.DependencyType> entry :
+        moduleGraph.getDepsFor(module).entrySet()) {
+      dependencies.add(entry.getKey().getName() + " " + entry.getValue());
+    }
+    SortedSet<String> boundaries = new TreeSet<>();
+    for (Path path : filesystemTraversalBoundaryPaths) {
+      boundaries.add(path.toString());
+    }
+
+    for (Set<String> strings : ImmutableList.of(targets, folders, dependencies, boundaries)) {
+      hasher.putInt(strings.size());
+      for (String string : strings) {
+        hasher.putString(string, StandardCharsets.UTF_8);
+        hasher.putByte((byte) 0);
+      }
+    }
+    return hasher.hash();
+  }
+
   private IjSourceFolder createSourceFolder(IjFolder folder, Path moduleLocationBasePath) {
     return IjSourceFolder.builder()
         .setType(folder.getIjName())
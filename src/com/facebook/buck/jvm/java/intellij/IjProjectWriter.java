@@ -17,24 +17,41 @@
 package com.facebook.buck.jvm.java.intellij;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.MoreFutures;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
 import com.google.common.hash.Hashing;
 import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
-import org.stringtemplate.v4.AutoIndentWriter;
 import org.stringtemplate.v4.ST;
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
 
 /**
  * Writes the serialized representations of IntelliJ project components to disk.
+ *
+ * Modules and libraries are rendered and written on the given executor, and files whose contents
+ * haven't changed are left alone, so that IntelliJ doesn't have to reload them. The hash of what
+ * went into each module is recorded in {@link #MODULE_KEYS_FILE}; in incremental mode, modules
+ * whose hash is unchanged are not even rendered.
  */
 public class IjProjectWriter {
 
@@ -42,6 +59,7 @@ public class IjProjectWriter {
   public static final Path IDEA_CONFIG_DIR_PREFIX = Paths.get(".idea");
   public static final Path LIBRARIES_PREFIX = IDEA_CONFIG_DIR_PREFIX.resolve("libraries");
   public static final Path MODULES_PREFIX = IDEA_CONFIG_DIR_PREFIX.resolve("modules");
+  public static final Path MODULE_KEYS_FILE = IDEA_CONFIG_DIR_PREFIX.resolve("buck-modules.keys");
 
   private enum StringTemplateFile {
     MODULE_TEMPLATE("ij-module.st"),
@@ -49,37 +67,125 @@ public class IjProjectWriter {
     LIBRARY_TEMPLATE("ij-library.st");
 
     private final String fileName;
+    @Nullable
+    private volatile String template;
+
     StringTemplateFile(String fileName) {
       this.fileName = fileName;
     }
 
-    public String getFileName() {
-      return fileName;
+    public String getTemplate() throws IOException {
+      String result = template;
+      if (result == null) {
+        URL templateUrl = Resources.getResource(IjProjectWriter.class, fileName);
+        result = Resources.toString(templateUrl, StandardCharsets.UTF_8);
+        template = result;
+      }
+      return result;
     }
   }
 
   private IjProjectTemplateDataPreparer projectDataPreparer;
   private ProjectFilesystem projectFilesystem;
+  private ListeningExecutorService executorService;
+  private boolean incremental;
 
+  /**
+   * @param executorService executor to render and write modules and libraries on.
+   * @param incremental whether to skip modules whose key matches the one recorded when they were
+   *   last written. This misses directories being added or removed under a module, which change
+   *   what it excludes.
+   */
   public IjProjectWriter(
       IjProjectTemplateDataPreparer projectDataPreparer,
-      ProjectFilesystem projectFilesystem) {
+      ProjectFilesystem projectFilesystem,
+      ListeningExecutorService executorService,
+      boolean incremental) {
     this.projectDataPreparer = projectDataPreparer;
     this.projectFilesystem = projectFilesystem;
+    this.executorService = executorService;
+    this.incremental = incremental;
   }
 
-  public void write() throws IOException {
-    for (IjModule module : projectDataPreparer.getModulesToBeWritten()) {
-      writeModule(module);
+  public void write() throws IOException, InterruptedException {
+    projectFilesystem.mkdirs(MODULES_PREFIX);
+    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
+
+    ImmutableMap<String, String> previousModuleKeys = incremental ?
+        readModuleKeys() :
+        ImmutableMap.<String, String>of();
+    ImmutableSortedMap.Builder<String, String> moduleKeys = ImmutableSortedMap.naturalOrder();
+    ImmutableList.Builder<Callable<Void>> writes = ImmutableList.builder();
+
+    String moduleTemplateHash = Hashing.sha1()
+        .hashString(StringTemplateFile.MODULE_TEMPLATE.getTemplate(), StandardCharsets.UTF_8)
+        .toString();
+    for (final IjModule module : projectDataPreparer.getModulesToBeWritten()) {
+      Path path = module.getModuleImlFilePath();
+      String key = Hashing.sha1().newHasher()
+          .putString(moduleTemplateHash, StandardCharsets.UTF_8)
+          .putBytes(projectDataPreparer.getModuleKey(module).asBytes())
+          .hash()
+          .toString();
+      moduleKeys.put(path.toString(), key);
+      if (key.equals(previousModuleKeys.get(path.toString())) && projectFilesystem.exists(path)) {
+        continue;
+      }
+      writes.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              writeModule(module);
+              return null;
+            }
+          });
+    }
+    for (final IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
+      writes.add(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+              writeLibrary(library);
+              return null;
+            }
+          });
     }
-    for (IjLibrary library : projectDataPreparer.getLibrariesToBeWritten()) {
-      writeLibrary(library);
+
+    try {
+      MoreFutures.getAll(executorService, writes.build());
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
     }
+
     writeModulesIndex();
+    writeModuleKeys(moduleKeys.build());
+  }
+
+  private ImmutableMap<String, String> readModuleKeys() {
+    Optional<String> contents = projectFilesystem.readFileIfItExists(MODULE_KEYS_FILE);
+    if (!contents.isPresent()) {
+      return ImmutableMap.of();
+    }
+    ImmutableMap.Builder<String, String> moduleKeys = ImmutableMap.builder();
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(contents.get())) {
+      List<String> keyAndPath = Splitter.on(' ').limit(2).splitToList(line);
+      if (keyAndPath.size() == 2) {
+        moduleKeys.put(keyAndPath.get(1), keyAndPath.get(0));
+      }
+    }
+    return moduleKeys.build();
+  }
+
+  private void writeModuleKeys(ImmutableSortedMap<String, String> moduleKeys) throws IOException {
+    StringBuilder contents = new StringBuilder();
+    for (Map.Entry<String, String> entry : moduleKeys.entrySet()) {
+      contents.append(entry.getValue()).append(' ').append(entry.getKey()).append('\n');
+    }
+    writeToFile(contents.toString(), MODULE_KEYS_FILE);
   }
 
   private void writeModule(IjModule module) throws IOException {
-    projectFilesystem.mkdirs(MODULES_PREFIX);
     Path path = module.getModuleImlFilePath();
 
     ST moduleContents = getST(StringTemplateFile.MODULE_TEMPLATE);
@@ -93,7 +199,6 @@ public class IjProjectWriter {
   }
 
   private void writeLibrary(IjLibrary library) throws IOException {
-    projectFilesystem.mkdirs(LIBRARIES_PREFIX);
     Path path = LIBRARIES_PREFIX.resolve(library.getName() + ".xml");
 
     ST contents = getST(StringTemplateFile.LIBRARY_TEMPLATE);
@@ -118,17 +223,16 @@ public class IjProjectWriter {
   }
 
   private static ST getST(StringTemplateFile file) throws IOException {
-    URL templateUrl = Resources.getResource(IjProjectWriter.class, file.getFileName());
-    String template = Resources.toString(templateUrl, StandardCharsets.UTF_8);
-    return new ST(template, DELIMITER, DELIMITER);
+    return new ST(file.getTemplate(), DELIMITER, DELIMITER);
   }
 
   @VisibleForTesting
   protected void writeToFile(ST contents, Path path) throws IOException {
-    StringWriter stringWriter = new StringWriter();
-    AutoIndentWriter noIndentWriter = new AutoIndentWriter(stringWriter);
-    contents.write(noIndentWriter);
-    byte[] renderedContentsBytes = noIndentWriter.toString().getBytes(StandardCharsets.UTF_8);
+    writeToFile(contents.render(), path);
+  }
+
+  private void writeToFile(String contents, Path path) throws IOException {
+    byte[] renderedContentsBytes = contents.getBytes(StandardCharsets.UTF_8);
     if (projectFilesystem.exists(path)) {
       String fileSha1 = projectFilesystem.computeSha1(path);
       String contentsSha1 = Hashing.sha1().hashBytes(renderedContentsBytes).toString();
@@ -145,7 +249,7 @@ public class IjProjectWriter {
     try {
       danglingTempFile = true;
       try (OutputStream outputStream = projectFilesystem.newFileOutputStream(tempFile)) {
-        outputStream.write(contents.render().getBytes());
+        outputStream.write(renderedContentsBytes);
       }
       projectFilesystem.createParentDirs(path);
       projectFilesystem.move(tempFile, path, StandardCopyOption.REPLACE_EXISTING);
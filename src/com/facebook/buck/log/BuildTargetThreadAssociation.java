@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.log;
+
+import com.google.common.annotations.VisibleForTesting;
+
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * An association between the current thread and the build target it's doing work for, so records
+ * it logs in the meantime can be looked up by target.
+ */
+public class BuildTargetThreadAssociation {
+
+  private final long threadId;
+  @Nullable private final String previousBuildTarget;
+  private final ConcurrentMap<Long, String> threadIdToBuildTarget;
+
+  public BuildTargetThreadAssociation(String buildTarget) {
+    this(buildTarget, GlobalState.THREAD_ID_TO_BUILD_TARGET);
+  }
+
+  @VisibleForTesting
+  BuildTargetThreadAssociation(
+      String buildTarget,
+      ConcurrentMap<Long, String> threadIdToBuildTarget) {
+    this.threadId = Thread.currentThread().getId();
+    this.threadIdToBuildTarget = threadIdToBuildTarget;
+    // Rules can build other rules' steps inline, so remember who we're standing in for.
+    this.previousBuildTarget = threadIdToBuildTarget.put(threadId, buildTarget);
+  }
+
+  public void stop() {
+    if (previousBuildTarget == null) {
+      threadIdToBuildTarget.remove(threadId);
+    } else {
+      threadIdToBuildTarget.put(threadId, previousBuildTarget);
+    }
+  }
+}
@@ -26,14 +26,19 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.UnsupportedEncodingException;
 import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.LogRecord;
 
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.Nullable;
 
 /**
  * Implementation of Handler which writes to the console (System.err by default).
@@ -55,17 +60,29 @@ import javax.annotation.concurrent.GuardedBy;
  *
  * Also unlike {@link java.util.logging.ConsoleHandler}, this does not
  * close the registered {@link OutputStream}s.
+ *
+ * Publishing a record only routes and formats it and adds it to a lock-free queue, so build
+ * threads logging at the same time don't wait on each other. A background thread writes queued
+ * records in the order they were published, so each thread's records stay in order. Records
+ * queued for an {@link OutputStream} which has since been unregistered are dropped.
+ * {@link #flush()}, and publishing a {@link Level#SEVERE} record, write out everything queued
+ * so far before returning.
  */
 public class ConsoleHandler extends Handler {
   private static final Level DEFAULT_LEVEL = Level.SEVERE;
+  private static final int SEVERE_LEVEL = Level.SEVERE.intValue();
 
   private final OutputStreamWriter defaultOutputStreamWriter;
   private final ConcurrentMap<Long, String> threadIdToCommandId;
   private final ConcurrentMap<String, OutputStreamWriter> commandIdToConsoleWriter;
   private final ConcurrentMap<String, Level> commandIdToLevel;
 
-  @GuardedBy("this")
-  private boolean closed;
+  private final Queue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+  private final AtomicReference<IOException> writerException = new AtomicReference<>();
+  private final Object writeLock = new Object();
+  private final Thread writerThread;
+  private volatile boolean writerIdle;
+  private volatile boolean closed;
 
   public ConsoleHandler() {
     this(
@@ -91,6 +108,16 @@ public class ConsoleHandler extends Handler {
     this.threadIdToCommandId = threadIdToCommandId;
     this.commandIdToConsoleWriter = commandIdToConsoleWriter;
     this.commandIdToLevel = commandIdToLevel;
+    this.writerThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            writeUntilClosed();
+          }
+        },
+        "ConsoleHandler writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
   }
 
   /**
@@ -98,7 +125,7 @@ public class ConsoleHandler extends Handler {
    * messages issued by threads for {@code commandId} until
    * {@link #unregisterOutputStream(String)} is called.
    */
-  public synchronized void registerOutputStream(String commandId, OutputStream outputStream) {
+  public void registerOutputStream(String commandId, OutputStream outputStream) {
 
     flush();
     commandIdToConsoleWriter.put(commandId, utf8OutputStreamWriter(outputStream));
@@ -108,10 +135,14 @@ public class ConsoleHandler extends Handler {
    * Flushes pending output, then ensures further log messages are no longer
    * written to the most recent {@link OutputStream} registered for {@code commandId}.
    */
-  public synchronized void unregisterOutputStream(String commandId) {
+  public void unregisterOutputStream(String commandId) {
 
     flush();
-    OutputStreamWriter oldWriter = commandIdToConsoleWriter.remove(commandId);
+    OutputStreamWriter oldWriter;
+    // Once this returns the stream may be closed, so it mustn't be in the middle of a write.
+    synchronized (writeLock) {
+      oldWriter = commandIdToConsoleWriter.remove(commandId);
+    }
 
     // We better have removed something, or commandId was invalid.
     Preconditions.checkState(oldWriter != null);
@@ -122,7 +153,7 @@ public class ConsoleHandler extends Handler {
    * or equal to {@code logLevel} are written to the most recent {@link OutputStream}
    * registered for {@code commandId}.
    */
-  public synchronized void registerLogLevel(String commandId, Level logLevel) {
+  public void registerLogLevel(String commandId, Level logLevel) {
 
     flush();
     commandIdToLevel.put(commandId, logLevel);
@@ -133,7 +164,7 @@ public class ConsoleHandler extends Handler {
    * logger's configured level when writing to the most recent {@link OutputStream}
    * registered for {@code commandId}.
    */
-  public synchronized void unregisterLogLevel(String commandId) {
+  public void unregisterLogLevel(String commandId) {
 
     flush();
     Level oldLevel = commandIdToLevel.remove(commandId);
@@ -143,50 +174,131 @@ public class ConsoleHandler extends Handler {
   }
 
   @Override
-  public synchronized void publish(LogRecord record) {
-    if (closed || !(isLoggable(record) || isLoggableWithRegisteredLogLevel(record))) {
+  public void publish(LogRecord record) {
+    if (closed) {
+      return;
+    }
+    // Route the record now, as its thread may belong to another command by the time it's written.
+    @Nullable String commandId = threadIdToCommandId.get((long) record.getThreadID());
+    if (!(isLoggable(record) || isLoggableWithRegisteredLogLevel(commandId, record))) {
       return;
     }
 
-    Iterable<OutputStreamWriter> outputStreamWriters = getOutputStreamWritersForRecord(record);
-
+    // Format it now too, as the record may format its message lazily from objects which the
+    // logging thread goes on to change.
+    String formatted;
     try {
-      String formatted = getFormatter().format(record);
-
-      for (OutputStreamWriter outputStreamWriter : outputStreamWriters) {
-        outputStreamWriter.write(formatted);
-        if (record.getLevel().intValue() >= Level.SEVERE.intValue()) {
-          outputStreamWriter.flush();
-        }
+      formatted = format(record, commandId);
+    } catch (RuntimeException e) {
+      reportError(null, e, ErrorManager.FORMAT_FAILURE);
+      return;
+    }
+    boolean severe = record.getLevel().intValue() >= SEVERE_LEVEL;
+    pendingRecords.add(
+        new PendingRecord(formatted, severe, getOutputStreamWritersForRecord(commandId)));
+    if (severe) {
+      // Errors may be the last thing we get to log, so don't leave them to the writer thread.
+      try {
+        writePendingRecords();
+      } catch (IOException e) {
+        throw new IOError(e);
       }
-    } catch (IOException e) {
-      throw new IOError(e);
+    } else if (writerIdle) {
+      LockSupport.unpark(writerThread);
     }
   }
 
   @Override
-  public synchronized void close() {
-    flush();
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writerThread);
     // We explicitly do not close any registered writers, so we don't close
     // System.err accidentally.
-    closed = true;
+    try {
+      writePendingRecords();
+      flushWriters();
+    } catch (IOException e) {
+      throw new IOError(e);
+    }
   }
 
   @Override
-  public synchronized void flush() {
+  public void flush() {
     if (closed) {
       return;
     }
     try {
+      writePendingRecords();
+      flushWriters();
+      IOException e = writerException.getAndSet(null);
+      if (e != null) {
+        throw e;
+      }
+    } catch (IOException e) {
+      throw new IOError(e);
+    }
+  }
+
+  private void writeUntilClosed() {
+    while (!closed) {
+      try {
+        writePendingRecords();
+      } catch (IOException e) {
+        // Rethrown by the next flush(), as there's no caller to throw it to here.
+        writerException.compareAndSet(null, e);
+      } catch (RuntimeException e) {
+        // Nothing else would notice the writer thread dying, and logging would silently stop.
+        reportError(null, e, ErrorManager.WRITE_FAILURE);
+      }
+      writerIdle = true;
+      // publish() adds before checking writerIdle and we set it before checking the queue, so
+      // either we see the new record here or publish() sees us idle and unparks us.
+      if (pendingRecords.isEmpty() && !closed) {
+        LockSupport.park(this);
+      }
+      writerIdle = false;
+    }
+  }
+
+  private void writePendingRecords() throws IOException {
+    synchronized (writeLock) {
+      PendingRecord pendingRecord;
+      while ((pendingRecord = pendingRecords.poll()) != null) {
+        for (OutputStreamWriter outputStreamWriter : pendingRecord.outputStreamWriters) {
+          if (!isRegistered(outputStreamWriter)) {
+            continue;
+          }
+          outputStreamWriter.write(pendingRecord.formatted);
+          if (pendingRecord.severe) {
+            outputStreamWriter.flush();
+          }
+        }
+      }
+    }
+  }
+
+  private void flushWriters() throws IOException {
+    synchronized (writeLock) {
       for (OutputStreamWriter outputStreamWriter : commandIdToConsoleWriter.values()) {
         outputStreamWriter.flush();
       }
       defaultOutputStreamWriter.flush();
-    } catch (IOException e) {
-      throw new IOError(e);
     }
   }
 
+  private boolean isRegistered(OutputStreamWriter outputStreamWriter) {
+    return outputStreamWriter == defaultOutputStreamWriter ||
+        commandIdToConsoleWriter.containsValue(outputStreamWriter);
+  }
+
+  private String format(LogRecord record, @Nullable String commandId) {
+    Formatter formatter = getFormatter();
+    if (formatter instanceof LogFormatter) {
+      return ((LogFormatter) formatter).format(record, commandId);
+    }
+    return formatter.format(record);
+  }
+
   private static Level getLogLevelFromProperty(LogManager logManager, Level defaultLevel) {
     String levelStr = logManager.getProperty(ConsoleHandler.class.getName() + ".level");
     if (levelStr != null) {
@@ -205,9 +317,9 @@ public class ConsoleHandler extends Handler {
     }
   }
 
-  private boolean isLoggableWithRegisteredLogLevel(LogRecord record) {
-    long recordThreadId = record.getThreadID();
-    String logRecordCommandId = threadIdToCommandId.get(recordThreadId);
+  private boolean isLoggableWithRegisteredLogLevel(
+      @Nullable String logRecordCommandId,
+      LogRecord record) {
     if (logRecordCommandId == null) {
       // An unregistered thread created this LogRecord, so we don't want to force logging it.
       return false;
@@ -223,10 +335,9 @@ public class ConsoleHandler extends Handler {
       commandIdLogLevel.intValue() >= record.getLevel().intValue();
   }
 
-  private Iterable<OutputStreamWriter> getOutputStreamWritersForRecord(LogRecord record) {
+  private ImmutableSet<OutputStreamWriter> getOutputStreamWritersForRecord(
+      @Nullable String logRecordCommandId) {
     ImmutableSet.Builder<OutputStreamWriter> builder = ImmutableSet.builder();
-    long recordThreadId = record.getThreadID();
-    String logRecordCommandId = threadIdToCommandId.get(recordThreadId);
     if (logRecordCommandId != null) {
       OutputStreamWriter consoleWriter = commandIdToConsoleWriter.get(logRecordCommandId);
       if (consoleWriter != null) {
@@ -245,4 +356,22 @@ public class ConsoleHandler extends Handler {
 
     return builder.build();
   }
+
+  /**
+   * A formatted record waiting for the writer thread, with where it's going.
+   */
+  private static class PendingRecord {
+    private final String formatted;
+    private final boolean severe;
+    private final ImmutableSet<OutputStreamWriter> outputStreamWriters;
+
+    PendingRecord(
+        String formatted,
+        boolean severe,
+        ImmutableSet<OutputStreamWriter> outputStreamWriters) {
+      this.formatted = formatted;
+      this.severe = severe;
+      this.outputStreamWriters = outputStreamWriters;
+    }
+  }
 }
@@ -49,4 +49,10 @@ class GlobalState {
    */
   public static final ConcurrentMap<String, Level>
       COMMAND_ID_TO_LEVEL = new ConcurrentHashMap<>();
+
+  /**
+   * Map of (thread ID: build target) pairs, for threads running steps on behalf of a build rule.
+   */
+  public static final ConcurrentMap<Long, String> THREAD_ID_TO_BUILD_TARGET =
+    new ConcurrentHashMap<>();
 }
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.log;
+
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.annotations.VisibleForTesting;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.ErrorManager;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Implementation of Handler which writes to a rolling, block-compressed log store (see
+ * {@link IndexedLogWriter}) indexed by command and build target, so a single command's
+ * output can be read back with {@link IndexedLogReader} without scanning every log file.
+ * <p>
+ * Configured from the {@link LogManager} properties:
+ * <ul>
+ *   <li>{@code com.facebook.buck.log.IndexedLogHandler.directory}: where to write segments
+ *       (defaults to {@code buck-out/log/indexed}).</li>
+ *   <li>{@code com.facebook.buck.log.IndexedLogHandler.block_size}: uncompressed bytes to
+ *       buffer before compressing them as a block (defaults to 64 KiB).</li>
+ *   <li>{@code com.facebook.buck.log.IndexedLogHandler.segment_size}: compressed bytes to
+ *       write to a segment before starting the next one (defaults to 8 MiB).</li>
+ *   <li>{@code com.facebook.buck.log.IndexedLogHandler.count}: segments to keep (defaults to
+ *       25).</li>
+ *   <li>{@code com.facebook.buck.log.IndexedLogHandler.level}: (defaults to ALL).</li>
+ * </ul>
+ * <p>
+ * Records are formatted by the thread logging them, but compressed and written by a background
+ * thread, so logging threads neither compress blocks nor wait on each other to. If that thread
+ * falls too far behind, logging threads write out the backlog themselves rather than letting it
+ * grow without bound.
+ */
+public class IndexedLogHandler extends Handler {
+
+  public static final Path DEFAULT_DIRECTORY = BuckConstant.LOG_PATH.resolve("indexed");
+
+  private static final String PROPERTY_PREFIX = IndexedLogHandler.class.getName();
+  private static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+  private static final long DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+  private static final int DEFAULT_SEGMENT_COUNT = 25;
+  private static final int MAX_PENDING_RECORDS = 10000;
+
+  @GuardedBy("this")
+  private final IndexedLogWriter writer;
+  private final ConcurrentMap<Long, String> threadIdToCommandId;
+  private final ConcurrentMap<Long, String> threadIdToBuildTarget;
+
+  private final Queue<PendingRecord> pendingRecords = new ConcurrentLinkedQueue<>();
+  private final AtomicInteger pendingRecordCount = new AtomicInteger();
+  private final Thread writerThread;
+  private volatile boolean writerIdle;
+  private volatile boolean closed;
+
+  public IndexedLogHandler() {
+    this(
+        new IndexedLogWriter(
+            getDirectory(),
+            getIntProperty(LogManager.getLogManager(), "block_size", DEFAULT_BLOCK_SIZE),
+            getLongProperty(LogManager.getLogManager(), "segment_size", DEFAULT_SEGMENT_SIZE),
+            getIntProperty(LogManager.getLogManager(), "count", DEFAULT_SEGMENT_COUNT)),
+        new LogFormatter(),
+        getLevelProperty(LogManager.getLogManager(), Level.ALL),
+        GlobalState.THREAD_ID_TO_COMMAND_ID,
+        GlobalState.THREAD_ID_TO_BUILD_TARGET);
+  }
+
+  @VisibleForTesting
+  IndexedLogHandler(
+      IndexedLogWriter writer,
+      Formatter formatter,
+      Level level,
+      ConcurrentMap<Long, String> threadIdToCommandId,
+      ConcurrentMap<Long, String> threadIdToBuildTarget) {
+    this.writer = writer;
+    setFormatter(formatter);
+    setLevel(level);
+    this.threadIdToCommandId = threadIdToCommandId;
+    this.threadIdToBuildTarget = threadIdToBuildTarget;
+    this.writerThread = new Thread(
+        new Runnable() {
+          @Override
+          public void run() {
+            writeUntilClosed();
+          }
+        },
+        "IndexedLogHandler writer");
+    this.writerThread.setDaemon(true);
+    this.writerThread.start();
+  }
+
+  /**
+   * Returns the directory this process's {@link IndexedLogHandler} writes to, relative to the
+   * project root unless it's been configured as an absolute path.
+   */
+  public static Path getDirectory() {
+    String directory = LogManager.getLogManager().getProperty(PROPERTY_PREFIX + ".directory");
+    if (directory == null) {
+      return DEFAULT_DIRECTORY;
+    }
+    return Paths.get(directory);
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+
+    long threadId = record.getThreadID();
+    @Nullable String commandId = threadIdToCommandId.get(threadId);
+    @Nullable String buildTarget = threadIdToBuildTarget.get(threadId);
+    String formatted;
+    try {
+      Formatter formatter = getFormatter();
+      if (formatter instanceof LogFormatter) {
+        formatted = ((LogFormatter) formatter).format(record, commandId);
+      } else {
+        formatted = formatter.format(record);
+      }
+    } catch (RuntimeException e) {
+      reportError(null, e, ErrorManager.FORMAT_FAILURE);
+      return;
+    }
+
+    pendingRecords.add(new PendingRecord(commandId, buildTarget, formatted));
+    if (pendingRecordCount.incrementAndGet() > MAX_PENDING_RECORDS) {
+      writePendingRecords();
+    } else if (writerIdle) {
+      LockSupport.unpark(writerThread);
+    }
+  }
+
+  @Override
+  public synchronized void flush() {
+    writePendingRecords();
+    try {
+      writer.flush();
+    } catch (IOException e) {
+      reportError(null, e, ErrorManager.FLUSH_FAILURE);
+    }
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    LockSupport.unpark(writerThread);
+    synchronized (this) {
+      writePendingRecords();
+      try {
+        writer.close();
+      } catch (IOException e) {
+        reportError(null, e, ErrorManager.CLOSE_FAILURE);
+      }
+    }
+  }
+
+  private void writeUntilClosed() {
+    while (!closed) {
+      try {
+        writePendingRecords();
+      } catch (RuntimeException e) {
+        reportError(null, e, ErrorManager.WRITE_FAILURE);
+      }
+      writerIdle = true;
+      // publish() adds before checking writerIdle and we set it before checking the queue, so
+      // either we see the new record here or publish() sees us idle and unparks us.
+      if (pendingRecords.isEmpty() && !closed) {
+        LockSupport.park(this);
+      }
+      writerIdle = false;
+    }
+  }
+
+  private synchronized void writePendingRecords() {
+    PendingRecord pendingRecord;
+    while ((pendingRecord = pendingRecords.poll()) != null) {
+      pendingRecordCount.decrementAndGet();
+      try {
+        writer.write(pendingRecord.commandId, pendingRecord.buildTarget, pendingRecord.formatted);
+      } catch (IOException e) {
+        reportError(null, e, ErrorManager.WRITE_FAILURE);
+      }
+    }
+  }
+
+  private static Level getLevelProperty(LogManager logManager, Level defaultLevel) {
+    String levelStr = logManager.getProperty(PROPERTY_PREFIX + ".level");
+    if (levelStr != null) {
+      return Level.parse(levelStr);
+    } else {
+      return defaultLevel;
+    }
+  }
+
+  private static int getIntProperty(LogManager logManager, String name, int defaultValue) {
+    return (int) getLongProperty(logManager, name, defaultValue);
+  }
+
+  private static long getLongProperty(LogManager logManager, String name, long defaultValue) {
+    String value = logManager.getProperty(PROPERTY_PREFIX + "." + name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Long.parseLong(value.trim());
+    } catch (NumberFormatException e) {
+      return defaultValue;
+    }
+  }
+
+  /**
+   * A formatted record waiting for the writer thread, with what it's indexed by.
+   */
+  private static class PendingRecord {
+    @Nullable private final String commandId;
+    @Nullable private final String buildTarget;
+    private final String formatted;
+
+    PendingRecord(@Nullable String commandId, @Nullable String buildTarget, String formatted) {
+      this.commandId = commandId;
+      this.buildTarget = buildTarget;
+      this.formatted = formatted;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.log;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads back the records {@link IndexedLogWriter} wrote, decompressing only the blocks whose
+ * index entries say they hold records for the command or build target being looked up.
+ * <p>
+ * Segments may be written and deleted while they're read. Blocks whose segment has since been
+ * deleted are skipped, as is any trailing index line which has only been partly written.
+ */
+public class IndexedLogReader {
+
+  private static final Splitter INDEX_LINE_SPLITTER = Splitter.on('\t');
+
+  private final Path directory;
+
+  public IndexedLogReader(Path directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Writes the records logged by {@code commandId}, oldest first. If {@code buildTarget} is
+   * present, only records logged while running steps for that target are written. The writer is
+   * flushed after each block, so output can be streamed as it's found.
+   *
+   * @return the number of records written.
+   */
+  public int copyRecords(
+      String commandId,
+      Optional<String> buildTarget,
+      Writer writer) throws IOException {
+    String commandIdKey = IndexedLogWriter.COMMAND_ID_KEY_PREFIX + commandId;
+    Optional<String> buildTargetKey = buildTarget.isPresent() ?
+        Optional.of(IndexedLogWriter.BUILD_TARGET_KEY_PREFIX + buildTarget.get()) :
+        Optional.<String>absent();
+
+    int recordCount = 0;
+    for (long segmentNumber : listSegments().keySet()) {
+      Path segment = directory.resolve(IndexedLogWriter.getSegmentFileName(segmentNumber));
+      for (List<String> entry : readIndex(segmentNumber)) {
+        List<String> keys = entry.subList(2, entry.size());
+        if (!keys.contains(commandIdKey) ||
+            (buildTargetKey.isPresent() && !keys.contains(buildTargetKey.get()))) {
+          continue;
+        }
+        Optional<byte[]> block = readBlock(
+            segment,
+            Long.parseLong(entry.get(0)),
+            Integer.parseInt(entry.get(1)));
+        if (!block.isPresent()) {
+          // The segment was deleted from under us, so the rest of its blocks are gone too.
+          break;
+        }
+        recordCount += copyRecordsFromBlock(block.get(), commandId, buildTarget, writer);
+        writer.flush();
+      }
+    }
+    return recordCount;
+  }
+
+  /**
+   * Returns the ID of the most recent command that logged anything, other than
+   * {@code excludedCommandId}.
+   */
+  public Optional<String> getLastCommandId(Optional<String> excludedCommandId) throws IOException {
+    for (long segmentNumber : listSegments().descendingKeySet()) {
+      for (List<String> entry : Lists.reverse(readIndex(segmentNumber))) {
+        for (String key : Lists.reverse(entry.subList(2, entry.size()))) {
+          if (!key.startsWith(IndexedLogWriter.COMMAND_ID_KEY_PREFIX)) {
+            continue;
+          }
+          String commandId = key.substring(IndexedLogWriter.COMMAND_ID_KEY_PREFIX.length());
+          if (!excludedCommandId.equals(Optional.of(commandId))) {
+            return Optional.of(commandId);
+          }
+        }
+      }
+    }
+    return Optional.absent();
+  }
+
+  private ImmutableSortedMap<Long, Path> listSegments() throws IOException {
+    ImmutableSortedMap.Builder<Long, Path> segments = ImmutableSortedMap.naturalOrder();
+    if (!Files.isDirectory(directory)) {
+      return segments.build();
+    }
+    try (DirectoryStream<Path> files =
+             Files.newDirectoryStream(directory, "*" + IndexedLogWriter.INDEX_SUFFIX)) {
+      for (Path file : files) {
+        long segmentNumber = IndexedLogWriter.parseSegmentNumber(file.getFileName().toString());
+        if (segmentNumber >= 0) {
+          segments.put(segmentNumber, file);
+        }
+      }
+    }
+    return segments.build();
+  }
+
+  /**
+   * Returns the complete entries in a segment's index, each split into its offset, length, and
+   * keys.
+   */
+  private ImmutableList<List<String>> readIndex(long segmentNumber) throws IOException {
+    ImmutableList.Builder<List<String>> entries = ImmutableList.builder();
+    Path index = directory.resolve(IndexedLogWriter.getIndexFileName(segmentNumber));
+    try (BufferedReader reader = Files.newBufferedReader(index, Charsets.UTF_8)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        List<String> entry = INDEX_LINE_SPLITTER.splitToList(line);
+        if (entry.size() < 2 || !isNumber(entry.get(0)) || !isNumber(entry.get(1))) {
+          break;
+        }
+        entries.add(entry);
+      }
+    } catch (NoSuchFileException e) {
+      // Rolled away since we listed the directory.
+    }
+    return entries.build();
+  }
+
+  private static boolean isNumber(String field) {
+    if (field.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < field.length(); i++) {
+      if (!Character.isDigit(field.charAt(i))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Optional<byte[]> readBlock(
+      Path segment,
+      long offset,
+      int length) throws IOException {
+    ByteBuffer compressed = ByteBuffer.allocate(length);
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+      while (compressed.hasRemaining()) {
+        if (channel.read(compressed, offset + compressed.position()) < 0) {
+          throw new EOFException(
+              String.format("Log segment %s ends inside the block at %d.", segment, offset));
+        }
+      }
+    } catch (NoSuchFileException e) {
+      return Optional.absent();
+    }
+    try (InputStream inputStream =
+             new GZIPInputStream(new ByteArrayInputStream(compressed.array()))) {
+      return Optional.of(ByteStreams.toByteArray(inputStream));
+    }
+  }
+
+  private static int copyRecordsFromBlock(
+      byte[] block,
+      String commandId,
+      Optional<String> buildTarget,
+      Writer writer) throws IOException {
+    int recordCount = 0;
+    DataInputStream records = new DataInputStream(new ByteArrayInputStream(block));
+    while (records.available() > 0) {
+      String recordCommandId = records.readUTF();
+      String recordBuildTarget = records.readUTF();
+      byte[] record = new byte[records.readInt()];
+      records.readFully(record);
+      if (recordCommandId.equals(commandId) &&
+          (!buildTarget.isPresent() || recordBuildTarget.equals(buildTarget.get()))) {
+        writer.write(new String(record, Charsets.UTF_8));
+        recordCount++;
+      }
+    }
+    return recordCount;
+  }
+}
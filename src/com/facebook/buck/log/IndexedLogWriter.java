@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.log;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Writes log records to a rolling set of block-compressed segment files, each with an index of
+ * the commands and build targets whose records are in each block.
+ * <p>
+ * Records are buffered into blocks of roughly {@code blockSize} bytes. A full block, or whatever
+ * is buffered when {@link #flush()} is called, is written to the current segment as a standalone
+ * gzip member, then a line is appended to the segment's index:
+ * <pre>
+ * offset TAB length [TAB c:commandId]... [TAB t:buildTarget]...
+ * </pre>
+ * Uncompressed, a block is a sequence of records, each written as the UTF command ID and build
+ * target (empty if unknown), then the length of the formatted record in bytes, then the formatted
+ * record itself in UTF-8. Readers can skip every block whose index line doesn't mention what
+ * they're looking for, and trust that a block is complete once its index line has been written.
+ * <p>
+ * Each writer starts a new segment rather than appending to another process's. Once a segment
+ * grows past {@code segmentSize} bytes it's closed and the next one started, and only the newest
+ * {@code segmentCount} segments are kept.
+ */
+class IndexedLogWriter implements Closeable {
+
+  static final String SEGMENT_SUFFIX = ".seg";
+  static final String INDEX_SUFFIX = ".idx";
+  static final Pattern SEGMENT_FILE_PATTERN =
+      Pattern.compile("buck-(\\d+)(" + Pattern.quote(SEGMENT_SUFFIX) + "|" +
+          Pattern.quote(INDEX_SUFFIX) + ")");
+  static final String COMMAND_ID_KEY_PREFIX = "c:";
+  static final String BUILD_TARGET_KEY_PREFIX = "t:";
+
+  private final Path directory;
+  private final int blockSize;
+  private final long segmentSize;
+  private final int segmentCount;
+
+  private final ByteArrayOutputStream blockBytes;
+  private final DataOutputStream block;
+  private final Set<String> blockKeys = new LinkedHashSet<>();
+
+  private long segmentNumber = -1;
+  @Nullable private OutputStream segment;
+  @Nullable private Writer index;
+  private long segmentOffset;
+
+  IndexedLogWriter(Path directory, int blockSize, long segmentSize, int segmentCount) {
+    Preconditions.checkArgument(blockSize > 0);
+    Preconditions.checkArgument(segmentSize > 0);
+    Preconditions.checkArgument(segmentCount > 0);
+    this.directory = directory;
+    this.blockSize = blockSize;
+    this.segmentSize = segmentSize;
+    this.segmentCount = segmentCount;
+    this.blockBytes = new ByteArrayOutputStream(blockSize + blockSize / 4);
+    this.block = new DataOutputStream(blockBytes);
+  }
+
+  static String getSegmentFileName(long segmentNumber) {
+    return "buck-" + segmentNumber + SEGMENT_SUFFIX;
+  }
+
+  static String getIndexFileName(long segmentNumber) {
+    return "buck-" + segmentNumber + INDEX_SUFFIX;
+  }
+
+  /**
+   * Returns the segment number of a segment or index file name, or -1 if it's neither.
+   */
+  static long parseSegmentNumber(String fileName) {
+    Matcher matcher = SEGMENT_FILE_PATTERN.matcher(fileName);
+    if (!matcher.matches()) {
+      return -1;
+    }
+    try {
+      return Long.parseLong(matcher.group(1));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  public void write(
+      @Nullable String commandId,
+      @Nullable String buildTarget,
+      String formattedRecord) throws IOException {
+    byte[] recordBytes = formattedRecord.getBytes(Charsets.UTF_8);
+    block.writeUTF(commandId == null ? "" : commandId);
+    block.writeUTF(buildTarget == null ? "" : buildTarget);
+    block.writeInt(recordBytes.length);
+    block.write(recordBytes);
+    if (commandId != null) {
+      blockKeys.add(COMMAND_ID_KEY_PREFIX + commandId);
+    }
+    if (buildTarget != null) {
+      blockKeys.add(BUILD_TARGET_KEY_PREFIX + buildTarget);
+    }
+
+    if (blockBytes.size() >= blockSize) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Writes out the records buffered so far as a block of their own, so readers can find them.
+   */
+  public void flush() throws IOException {
+    writeBlock();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeBlock();
+    } finally {
+      closeSegment();
+    }
+  }
+
+  private void writeBlock() throws IOException {
+    if (blockBytes.size() == 0) {
+      return;
+    }
+
+    ByteArrayOutputStream compressedBytes = new ByteArrayOutputStream(blockBytes.size() / 4);
+    try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(compressedBytes)) {
+      blockBytes.writeTo(gzipOutputStream);
+    }
+
+    if (segment == null) {
+      openNextSegment();
+    }
+    Preconditions.checkNotNull(segment);
+    Preconditions.checkNotNull(index);
+
+    StringBuilder indexLine = new StringBuilder()
+        .append(segmentOffset)
+        .append('\t')
+        .append(compressedBytes.size());
+    for (String key : blockKeys) {
+      indexLine.append('\t').append(key);
+    }
+    indexLine.append('\n');
+    blockBytes.reset();
+    blockKeys.clear();
+
+    // The block has to be on disk before the index line that points readers at it.
+    compressedBytes.writeTo(segment);
+    segment.flush();
+    index.write(indexLine.toString());
+    index.flush();
+    segmentOffset += compressedBytes.size();
+
+    if (segmentOffset >= segmentSize) {
+      closeSegment();
+    }
+  }
+
+  private void openNextSegment() throws IOException {
+    Files.createDirectories(directory);
+    long nextSegmentNumber = Math.max(segmentNumber, findLastSegmentNumber()) + 1;
+    while (true) {
+      try {
+        // Another process may be starting a segment at the same time, so claim ours atomically.
+        segment = Files.newOutputStream(
+            directory.resolve(getSegmentFileName(nextSegmentNumber)),
+            StandardOpenOption.CREATE_NEW,
+            StandardOpenOption.WRITE);
+        break;
+      } catch (FileAlreadyExistsException e) {
+        nextSegmentNumber++;
+      }
+    }
+    segmentNumber = nextSegmentNumber;
+    segmentOffset = 0;
+    index = Files.newBufferedWriter(
+        directory.resolve(getIndexFileName(segmentNumber)),
+        Charsets.UTF_8);
+    deleteOldSegments();
+  }
+
+  private void closeSegment() throws IOException {
+    try {
+      if (segment != null) {
+        segment.close();
+      }
+    } finally {
+      segment = null;
+      try {
+        if (index != null) {
+          index.close();
+        }
+      } finally {
+        index = null;
+      }
+    }
+  }
+
+  private long findLastSegmentNumber() throws IOException {
+    long lastSegmentNumber = -1;
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        lastSegmentNumber = Math.max(
+            lastSegmentNumber,
+            parseSegmentNumber(file.getFileName().toString()));
+      }
+    }
+    return lastSegmentNumber;
+  }
+
+  private void deleteOldSegments() throws IOException {
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        long fileSegmentNumber = parseSegmentNumber(file.getFileName().toString());
+        if (fileSegmentNumber >= 0 && fileSegmentNumber <= segmentNumber - segmentCount) {
+          Files.deleteIfExists(file);
+        }
+      }
+    }
+  }
+}
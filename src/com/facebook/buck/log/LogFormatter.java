@@ -66,12 +66,19 @@ public class LogFormatter extends java.util.logging.Formatter {
 
   @Override
   public String format(LogRecord record) {
+    return format(record, threadIdToCommandId.get((long) record.getThreadID()));
+  }
+
+  /**
+   * Formats {@code record} as issued for {@code command}, for when the thread which issued it may
+   * no longer be associated with the command by the time it's formatted.
+   */
+  String format(LogRecord record, @Nullable String command) {
     String timestamp = simpleDateFormat.get().format(new Date(record.getMillis()));
 
     // We explicitly don't use String.format here because this code is very
     // performance-critical: http://stackoverflow.com/a/1281651
     long tid = record.getThreadID();
-    @Nullable String command = threadIdToCommandId.get(tid);
     StringBuilder sb = new StringBuilder(255)
       .append(timestamp)
       .append(formatRecordLevel(record.getLevel()))
@@ -23,7 +23,6 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.base.Joiner;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Ordering;
 
@@ -169,10 +168,11 @@ abstract class AbstractBuildTarget
       return 0;
     }
 
-    return ComparisonChain.start()
-        .compare(getUnflavoredBuildTarget(), o.getUnflavoredBuildTarget())
-        .compare(getFlavors(), o.getFlavors(), LEXICOGRAPHICAL_ORDERING)
-        .result();
+    int result = getUnflavoredBuildTarget().compareTo(o.getUnflavoredBuildTarget());
+    if (result != 0 || (getFlavors().isEmpty() && o.getFlavors().isEmpty())) {
+      return result;
+    }
+    return LEXICOGRAPHICAL_ORDERING.compare(getFlavors(), o.getFlavors());
   }
 
   @Override
@@ -20,14 +20,13 @@ import com.facebook.buck.io.MorePaths;
 import com.facebook.buck.util.immutables.BuckStyleImmutable;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ComparisonChain;
 
 import org.immutables.value.Value;
 
 import java.nio.file.Path;
 
 @BuckStyleImmutable
-@Value.Immutable
+@Value.Immutable(prehash = true)
 abstract class AbstractUnflavoredBuildTarget implements Comparable<AbstractUnflavoredBuildTarget> {
 
   public static final String BUILD_TARGET_PREFIX = "//";
@@ -151,15 +150,22 @@ abstract class AbstractUnflavoredBuildTarget implements Comparable<AbstractUnfla
       return 0;
     }
 
-    ComparisonChain comparison = ComparisonChain.start()
-        .compareTrueFirst(getCell().isPresent(), o.getCell().isPresent());
-    if (getCell().isPresent() && o.getCell().isPresent()) {
-      comparison = comparison.compare(getCell().get(), o.getCell().get());
+    // Targets with a cell name sort first.
+    if (getCell().isPresent() != o.getCell().isPresent()) {
+      return getCell().isPresent() ? -1 : 1;
     }
-    return comparison
-        .compare(getBaseName(), o.getBaseName())
-        .compare(getShortName(), o.getShortName())
-        .result();
+    int result;
+    if (getCell().isPresent()) {
+      result = getCell().get().compareTo(o.getCell().get());
+      if (result != 0) {
+        return result;
+      }
+    }
+    result = getBaseName().compareTo(o.getBaseName());
+    if (result != 0) {
+      return result;
+    }
+    return getShortName().compareTo(o.getShortName());
   }
 
 }
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.model;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares a single instance between equal build targets, and between equal parts of their names.
+ *
+ * The same target is typically parsed once for every rule which depends on it, and the copies end
+ * up held by target nodes, build rules and the graphs' maps for as long as the daemon lives.
+ * Interning them saves that memory and lets {@code equals} and {@code compareTo} succeed on the
+ * identity check. The interners only hold weak references, so targets which drop out of every
+ * graph can still be collected.
+ */
+public class BuildTargetInterner {
+
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+  private static final Interner<UnflavoredBuildTarget> UNFLAVORED_TARGETS =
+      Interners.newWeakInterner();
+  private static final Interner<BuildTarget> TARGETS = Interners.newWeakInterner();
+
+  /** Utility class: do not instantiate. */
+  private BuildTargetInterner() {}
+
+  /**
+   * @return the canonical copy of a base name, short name, cell name or flavor name.
+   */
+  public static String internName(String name) {
+    return NAMES.intern(name);
+  }
+
+  public static UnflavoredBuildTarget intern(UnflavoredBuildTarget target) {
+    return UNFLAVORED_TARGETS.intern(target);
+  }
+
+  /**
+   * @return the canonical copy of {@code target}, whose unflavored part is canonical too.
+   */
+  public static BuildTarget intern(BuildTarget target) {
+    UnflavoredBuildTarget unflavored = intern(target.getUnflavoredBuildTarget());
+    if (unflavored != target.getUnflavoredBuildTarget()) {
+      target = target.withUnflavoredBuildTarget(unflavored);
+    }
+    return TARGETS.intern(target);
+  }
+}
@@ -17,6 +17,7 @@
 package com.facebook.buck.parser;
 
 import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetInterner;
 import com.facebook.buck.model.FlavorParser;
 import com.facebook.buck.model.ImmutableFlavor;
 import com.facebook.buck.model.UnflavoredBuildTarget;
@@ -114,8 +115,12 @@ public class BuildTargetParser {
     baseName = baseName.replace("\\", "/");
     checkBaseName(baseName, buildTargetName);
 
+    // The same targets get parsed over and over, once for each of their dependents, so share the
+    // names and the targets themselves rather than keeping a copy per dependent.
     UnflavoredBuildTarget.Builder unflavoredBuilder =
-        UnflavoredBuildTarget.builder(baseName, shortName)
+        UnflavoredBuildTarget.builder(
+            BuildTargetInterner.internName(baseName),
+            BuildTargetInterner.internName(shortName))
             // Set the cell path correctly. Because the cellNames comes from the owning cell we can
             // be sure that if this doesn't throw an exception the target cell is visible to the
             // owning cell.
@@ -125,9 +130,9 @@ public class BuildTargetParser {
 
     BuildTarget.Builder builder = BuildTarget.builder(unflavoredBuilder.build());
     for (String flavor : flavorNames) {
-      builder.addFlavors(ImmutableFlavor.of(flavor));
+      builder.addFlavors(ImmutableFlavor.of(BuildTargetInterner.internName(flavor)));
     }
-    return builder.build();
+    return BuildTargetInterner.intern(builder.build());
   }
 
   private static void checkBaseName(String baseName, String buildTargetName) {
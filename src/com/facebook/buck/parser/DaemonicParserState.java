@@ -17,7 +17,9 @@
 package com.facebook.buck.parser;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.GlobCache;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.Cell;
@@ -51,5 +53,17 @@ public interface DaemonicParserState {
 
   void invalidateBasedOn(WatchEvent<?> event) throws InterruptedException;
 
+  /**
+   * Invalidates everything affected by {@code batch} in one pass, looking up and invalidating each
+   * affected build file once however many events in the batch touch it.
+   */
+  void invalidateBasedOn(WatchEventBatch batch) throws InterruptedException;
+
   void invalidatePath(Path path) throws InterruptedException;
+
+  /**
+   * @return the directory listings and glob results kept for buck.py, invalidated along with the
+   *     rest of this state.
+   */
+  GlobCache getGlobCache();
 }
@@ -22,8 +22,10 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.GlobCache;
 import com.facebook.buck.json.JsonObjectHashing;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
@@ -73,6 +75,7 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -139,14 +142,20 @@ class ParallelDaemonicParserState implements DaemonicParserState {
    */
   private final Set<Cell> knownCells;
 
+  private final GlobCache globCache;
+
+  private final Optional<SavedRawNodes> savedRawNodes;
+
   private final AutoCloseableReadWriteUpdateLock cachedStateLock;
 
   public ParallelDaemonicParserState(
       TypeCoercerFactory typeCoercerFactory,
       ConstructorArgMarshaller marshaller,
-      int parsingThreads) {
+      int parsingThreads,
+      Optional<SavedRawNodes> savedRawNodes) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.marshaller = marshaller;
+    this.savedRawNodes = savedRawNodes;
     this.allRawNodes = new OptimisticLoadingCache<>(parsingThreads);
     this.targetsCornucopia = HashMultimap.create();
     this.allTargetNodes = new OptimisticLoadingCache<>(parsingThreads);
@@ -167,6 +176,7 @@ class ParallelDaemonicParserState implements DaemonicParserState {
     this.cachedEnvironment = ImmutableMap.of();
     this.cachedIncludes = new ConcurrentHashMap<>();
     this.knownCells = Collections.synchronizedSet(new HashSet<Cell>());
+    this.globCache = new GlobCache();
 
     this.cachedStateLock = new AutoCloseableReadWriteUpdateLock();
   }
@@ -305,7 +315,9 @@ class ParallelDaemonicParserState implements DaemonicParserState {
           @SuppressWarnings("unchecked")
           @Override
           public ImmutableList<Map<String, Object>> call() throws Exception {
-            List<Map<String, Object>> rawNodes = parser.getAllRulesAndMetaRules(buildFile);
+            List<Map<String, Object>> rawNodes = savedRawNodes.isPresent() ?
+                savedRawNodes.get().getAllRulesAndMetaRules(cell, parser, buildFile) :
+                parser.getAllRulesAndMetaRules(buildFile);
             ImmutableSet<Path> dependentsOfEveryNode = ImmutableSet.of();
             ImmutableList.Builder<Map<String, Object>> toReturn = ImmutableList.builder();
             for (Map<String, Object> rawNode : rawNodes) {
@@ -484,6 +496,8 @@ class ParallelDaemonicParserState implements DaemonicParserState {
 
   @Override
   public void invalidateBasedOn(WatchEvent<?> event) throws InterruptedException {
+    globCache.invalidateBasedOn(event);
+
     if (!WatchEvents.isPathChangeEvent(event)) {
       // Non-path change event, likely an overflow due to many change events: invalidate everything.
       LOG.debug("Parser invalidating entire cache on overflow.");
@@ -524,6 +538,62 @@ class ParallelDaemonicParserState implements DaemonicParserState {
     invalidatePath(path);
   }
 
+  @Override
+  public void invalidateBasedOn(WatchEventBatch batch) throws InterruptedException {
+    if (batch.containsNonPathChangeEvent()) {
+      LOG.debug("Parser invalidating entire cache on overflow in %s.", batch);
+      globCache.invalidateAll();
+      invalidateAllCaches();
+      return;
+    }
+    for (WatchEvent<?> event : batch.getEvents()) {
+      globCache.invalidateBasedOn(event);
+    }
+
+    // A batch often holds several events for the same path, so collapse those first.
+    Set<Path> changedPaths = new LinkedHashSet<>();
+    Set<Path> createdOrDeletedPaths = new LinkedHashSet<>();
+    for (WatchEvent<?> event : batch.getEvents()) {
+      Path path = (Path) event.context();
+      changedPaths.add(path);
+      if (isPathCreateOrDeleteEvent(event)) {
+        createdOrDeletedPaths.add(path);
+      }
+    }
+
+    for (Cell cell : knownCells) {
+      Set<Path> pathsToInvalidate = new LinkedHashSet<>();
+      try {
+        if (!createdOrDeletedPaths.isEmpty()) {
+          // Look up containing packages in the tree as it was before the batch, then drop the
+          // tree once if any build file came or went.
+          BuildFileTree buildFiles = buildFileTrees.get(cell);
+          boolean buildFileTreeChanged = false;
+          for (Path path : createdOrDeletedPaths) {
+            buildFileTreeChanged |= path.endsWith(cell.getBuildFileName());
+            if (!isTempFile(cell, path)) {
+              addContainingBuildFiles(cell, buildFiles, path, pathsToInvalidate);
+            }
+          }
+          if (buildFileTreeChanged) {
+            buildFileTrees.invalidate(cell);
+          }
+        }
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        try {
+          throw propagate(e);
+        } catch (BuildFileParseException bfpe) {
+          LOG.warn("Unable to parse already parsed build file.", bfpe);
+        }
+      }
+      pathsToInvalidate.addAll(changedPaths);
+      LOG.verbose("Invalidating %d paths for %s", pathsToInvalidate.size(), batch);
+      for (Path path : pathsToInvalidate) {
+        invalidatePath(cell, path);
+      }
+    }
+  }
+
   @Override
   public void invalidatePath(Path path) throws InterruptedException {
     // The paths from watchman are not absolute. Because of this, we adopt a conservative approach
@@ -544,6 +614,22 @@ class ParallelDaemonicParserState implements DaemonicParserState {
       BuildFileTree buildFiles,
       Path path) {
     Set<Path> packageBuildFiles = new HashSet<>();
+    addContainingBuildFiles(cell, buildFiles, path, packageBuildFiles);
+    for (Path buildFile : packageBuildFiles) {
+      invalidatePath(cell, buildFile);
+    }
+  }
+
+  /**
+   * Adds the build files of the packages "containing" {@code path} to
+   * {@code buildFilesToInvalidate}.
+   */
+  private void addContainingBuildFiles(
+      Cell cell,
+      BuildFileTree buildFiles,
+      Path path,
+      Set<Path> buildFilesToInvalidate) {
+    Set<Path> packageBuildFiles = new HashSet<>();
 
     // Find the closest ancestor package for the input path.  We'll definitely need to invalidate
     // that.
@@ -561,9 +647,8 @@ class ParallelDaemonicParserState implements DaemonicParserState {
       }
     }
 
-    // Invalidate all the packages we found.
     for (Path buildFile : packageBuildFiles) {
-      invalidatePath(cell, buildFile.resolve(cell.getBuildFileName()));
+      buildFilesToInvalidate.add(buildFile.resolve(cell.getBuildFileName()));
     }
   }
 
@@ -663,6 +748,12 @@ class ParallelDaemonicParserState implements DaemonicParserState {
     allRawNodes.invalidateAll();
     buildFileDependents.clear();
     knownCells.clear();
+    globCache.invalidateAll();
+  }
+
+  @Override
+  public GlobCache getGlobCache() {
+    return globCache;
   }
 
   @Override
@@ -244,7 +244,11 @@ class ParallelPerBuildState implements PerBuildState, AutoCloseable {
       return threadLocalParsers.get(cell);
     }
 
-    final ProjectBuildFileParser parser = cell.createBuildFileParser(marshaller, console, eventBus);
+    final ProjectBuildFileParser parser = cell.createBuildFileParser(
+        marshaller,
+        console,
+        eventBus,
+        permState.getGlobCache());
     parser.setEnableProfiling(enableProfiling);
     threadLocalParsers.put(cell, parser);
     closer.register(new Closeable() {
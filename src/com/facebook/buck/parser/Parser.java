@@ -22,6 +22,7 @@ import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.graph.AbstractAcyclicDepthFirstPostOrderTraversal;
 import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.log.Logger;
@@ -75,12 +76,25 @@ public class Parser {
       ParserConfig parserConfig,
       TypeCoercerFactory typeCoercerFactory,
       ConstructorArgMarshaller marshaller) {
+    this(parserConfig, typeCoercerFactory, marshaller, Optional.<SavedRawNodes>absent());
+  }
+
+  /**
+   * @param savedRawNodes where to look for raw nodes restored from an earlier daemon before
+   *     running buck.py, and to record the ones it produces, if anywhere.
+   */
+  public Parser(
+      ParserConfig parserConfig,
+      TypeCoercerFactory typeCoercerFactory,
+      ConstructorArgMarshaller marshaller,
+      Optional<SavedRawNodes> savedRawNodes) {
     this.permState = parserConfig.getEnableParallelParsing() ?
         new ParallelDaemonicParserState(
             typeCoercerFactory,
             marshaller,
-            parserConfig.getNumParsingThreads()) :
-        new SerialDaemonicParserState(typeCoercerFactory, marshaller);
+            parserConfig.getNumParsingThreads(),
+            savedRawNodes) :
+        new SerialDaemonicParserState(typeCoercerFactory, marshaller, savedRawNodes);
     this.marshaller = marshaller;
   }
 
@@ -609,6 +623,12 @@ public class Parser {
     permState.invalidateBasedOn(event);
   }
 
+  @Subscribe
+  public void onFileSystemChanges(WatchEventBatch batch) throws InterruptedException {
+    LOG.debug("Parser processing %s", batch);
+    permState.invalidateBasedOn(batch);
+  }
+
   public void recordParseStartTime(BuckEventBus eventBus) {
     LOG.debug(eventBus.toString());
     // Does nothing
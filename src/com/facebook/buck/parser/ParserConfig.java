@@ -35,9 +35,28 @@ public class ParserConfig {
   public static final String BUILDFILE_SECTION_NAME = "buildfile";
   public static final String INCLUDES_PROPERTY_NAME = "includes";
 
+  /**
+   * Config sections which are never read while evaluating build files or turning them into target
+   * nodes, so changing them leaves any cached parser state valid. The {@code [cache]} section's
+   * directory is part of the {@link com.facebook.buck.io.ProjectFilesystem} instead.
+   */
+  private static final ImmutableSet<String> SECTIONS_IGNORED_BY_PARSER = ImmutableSet.of(
+      "adb",
+      "alias",
+      "cache",
+      "color",
+      "daemon",
+      "extensions",
+      "httpserver",
+      "intellij",
+      "log",
+      "test_summary",
+      "version_control");
+
   public enum GlobHandler {
     PYTHON,
     WATCHMAN,
+    DAEMON,
     ;
   }
 
@@ -111,6 +130,14 @@ public class ParserConfig {
     return delegate.getLong("project", "watchman_query_timeout_ms");
   }
 
+  /**
+   * Whether the daemon should keep a persistent Watchman subscription that streams file changes
+   * in the background, rather than querying Watchman for them at the start of every command.
+   */
+  public boolean getUseWatchmanSubscription() {
+    return delegate.getBooleanValue("project", "watchman_subscription", false);
+  }
+
   public boolean getEnableParallelParsing() {
     return delegate.getBooleanValue("project", "parallel_parsing", false);
   }
@@ -122,4 +149,18 @@ public class ParserConfig {
     }
     return delegate.getNumThreads();
   }
+
+  /**
+   * @return the entries of every config section which parsing, including the descriptions that
+   *     create target nodes, may depend on.
+   */
+  public ImmutableMap<String, ImmutableMap<String, String>> getSectionsReadByParser() {
+    ImmutableMap.Builder<String, ImmutableMap<String, String>> sections = ImmutableMap.builder();
+    for (String section : delegate.getSections()) {
+      if (!SECTIONS_IGNORED_BY_PARSER.contains(section)) {
+        sections.put(section, delegate.getEntriesForSection(section));
+      }
+    }
+    return sections.build();
+  }
 }
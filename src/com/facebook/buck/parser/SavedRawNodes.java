@@ -0,0 +1,373 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.ProjectBuildFileParser;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.cache.FileStamp;
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The raw nodes of the build files parsed by a daemon, which can be saved to a snapshot when the
+ * daemon goes away so that the next one restores them rather than running buck.py again.
+ *
+ * Each build file's raw nodes are recorded along with the {@link FileStamp}s of what buck.py read
+ * to produce them: the build file, the files it includes, and every directory beneath it, which
+ * its globs may have listed. Restored raw nodes are only used if all of those stamps still match
+ * and the cell's environment and parser configuration are unchanged. As with saved file hashes,
+ * build files with an input modified shortly before they were parsed aren't saved.
+ */
+public class SavedRawNodes {
+
+  private static final Logger LOG = Logger.get(SavedRawNodes.class);
+
+  private static final int SNAPSHOT_MAGIC = 0x42524e53;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  /**
+   * Build files with more directories than this beneath them aren't saved, as checking the stamps
+   * of every directory their globs may have listed would cost about as much as parsing them.
+   */
+  private static final int MAX_DIRECTORIES_PER_BUILD_FILE = 1000;
+
+  /** See {@link SerialDaemonicParserState}. */
+  private static final String INCLUDES_META_RULE = "__includes";
+
+  private final Path rootPath;
+
+  private final LoadingCache<Cell, HashCode> configurationHashes =
+      CacheBuilder.newBuilder()
+          .weakKeys()
+          .build(
+              new CacheLoader<Cell, HashCode>() {
+                @Override
+                public HashCode load(Cell cell) {
+                  return hashConfiguration(cell);
+                }
+              });
+
+  /** The raw nodes which can be saved, by absolute build file path. */
+  private final ConcurrentMap<Path, StampedRawNodes> rawNodes = new ConcurrentHashMap<>();
+
+  /** Raw nodes restored from a snapshot which haven't been asked for yet. */
+  private final ConcurrentMap<Path, StampedRawNodes> restoredRawNodes =
+      new ConcurrentHashMap<>();
+
+  /**
+   * @param rootPath the root of the project whose daemon parses the build files.
+   */
+  public SavedRawNodes(Path rootPath) {
+    this.rootPath = rootPath;
+  }
+
+  /**
+   * @return the rules and meta rules of {@code buildFile}, restored if none of their inputs have
+   *     changed and otherwise parsed by {@code parser}.
+   */
+  List<Map<String, Object>> getAllRulesAndMetaRules(
+      Cell cell,
+      ProjectBuildFileParser parser,
+      Path buildFile) throws BuildFileParseException, InterruptedException {
+    HashCode configurationHash = configurationHashes.getUnchecked(cell);
+
+    StampedRawNodes restored = restoredRawNodes.remove(buildFile);
+    if (restored != null &&
+        restored.configurationHash.equals(configurationHash) &&
+        isUnchanged(restored.stamps)) {
+      rawNodes.put(buildFile, restored);
+      return restored.rawNodes;
+    }
+
+    long startMillis = System.currentTimeMillis();
+    List<Map<String, Object>> parsed = parser.getAllRulesAndMetaRules(buildFile);
+    Optional<ImmutableMap<Path, FileStamp>> stamps = stampInputs(cell, buildFile, parsed);
+    if (stamps.isPresent() && !isAnyRacy(stamps.get(), startMillis)) {
+      rawNodes.put(buildFile, new StampedRawNodes(configurationHash, stamps.get(), parsed));
+    } else {
+      rawNodes.remove(buildFile);
+    }
+    return parsed;
+  }
+
+  /**
+   * Writes the raw nodes of the parsed build files to {@code snapshot}, replacing it.
+   */
+  public void saveSnapshot(Path snapshot) throws IOException {
+    Files.createDirectories(snapshot.getParent());
+    // A unique name, so that two saves at once can't interleave their writes.
+    Path tmp = Files.createTempFile(
+        snapshot.getParent(),
+        snapshot.getFileName().toString(),
+        ".tmp");
+    int count = 0;
+    try {
+      try (DataOutputStream out =
+               new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(rootPath.toString());
+        BserSerializer serializer = new BserSerializer();
+        ByteBuffer buffer = ByteBuffer.allocate(8192).order(ByteOrder.nativeOrder());
+        for (Map.Entry<Path, StampedRawNodes> entry : rawNodes.entrySet()) {
+          buffer = writeEntry(out, serializer, buffer, entry.getKey(), entry.getValue());
+          count++;
+        }
+        // Raw nodes restored but never asked for are still as good as they were, unless their
+        // build file has since been deleted.
+        for (Map.Entry<Path, StampedRawNodes> entry : restoredRawNodes.entrySet()) {
+          if (!rawNodes.containsKey(entry.getKey()) && Files.exists(entry.getKey())) {
+            buffer = writeEntry(out, serializer, buffer, entry.getKey(), entry.getValue());
+            count++;
+          }
+        }
+        // Entries are followed by an empty path, so that the count needn't be known up front.
+        out.writeUTF("");
+      }
+      Files.move(
+          tmp,
+          snapshot,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    LOG.debug("Saved the raw nodes of %d build files to %s", count, snapshot);
+  }
+
+  /**
+   * Restores the raw nodes saved by {@link #saveSnapshot(Path)}. Nothing is checked until a build
+   * file is asked for, at which point its restored raw nodes are used if the stamps of all of
+   * their inputs still match.
+   */
+  @SuppressWarnings("unchecked")
+  public void loadSnapshot(Path snapshot) throws IOException {
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        LOG.debug("Ignoring raw node snapshot %s in an unknown format", snapshot);
+        return;
+      }
+      if (!in.readUTF().equals(rootPath.toString())) {
+        LOG.debug("Ignoring raw node snapshot %s for a different project root", snapshot);
+        return;
+      }
+      BserDeserializer deserializer =
+          new BserDeserializer(BserDeserializer.KeyOrdering.SORTED);
+      int count = 0;
+      for (String buildFile = in.readUTF(); !buildFile.isEmpty(); buildFile = in.readUTF()) {
+        byte[] configurationHash = new byte[in.readUnsignedByte()];
+        in.readFully(configurationHash);
+        ImmutableMap.Builder<Path, FileStamp> stamps = ImmutableMap.builder();
+        for (int i = in.readInt(); i > 0; i--) {
+          stamps.put(Paths.get(in.readUTF()), FileStamp.readFrom(in));
+        }
+        // Decoded just as buck.py's output is, so that the restored raw nodes are made of the
+        // same types as freshly parsed ones.
+        Object nodes = deserializer.deserializeBserValue(in);
+        if (!(nodes instanceof List<?>)) {
+          throw new IOException(String.format("Invalid raw nodes for %s", buildFile));
+        }
+        restoredRawNodes.put(
+            Paths.get(buildFile),
+            new StampedRawNodes(
+                HashCode.fromBytes(configurationHash),
+                stamps.build(),
+                (List<Map<String, Object>>) nodes));
+        count++;
+      }
+      LOG.debug("Restored the raw nodes of %d build files from %s", count, snapshot);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No raw node snapshot at %s", snapshot);
+    }
+  }
+
+  private static ByteBuffer writeEntry(
+      DataOutputStream out,
+      BserSerializer serializer,
+      ByteBuffer buffer,
+      Path buildFile,
+      StampedRawNodes entry) throws IOException {
+    out.writeUTF(buildFile.toString());
+    byte[] configurationHash = entry.configurationHash.asBytes();
+    out.writeByte(configurationHash.length);
+    out.write(configurationHash);
+    out.writeInt(entry.stamps.size());
+    for (Map.Entry<Path, FileStamp> stamp : entry.stamps.entrySet()) {
+      out.writeUTF(stamp.getKey().toString());
+      stamp.getValue().writeTo(out);
+    }
+    buffer.clear();
+    buffer = serializer.serializeToBuffer(entry.rawNodes, buffer);
+    out.write(buffer.array(), 0, buffer.position());
+    return buffer;
+  }
+
+  private static boolean isUnchanged(ImmutableMap<Path, FileStamp> stamps) {
+    try {
+      for (Map.Entry<Path, FileStamp> stamp : stamps.entrySet()) {
+        if (!FileStamp.of(stamp.getKey()).equals(stamp.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    } catch (IOException e) {
+      // Most likely an input which has since been deleted.
+      return false;
+    }
+  }
+
+  private static boolean isAnyRacy(ImmutableMap<Path, FileStamp> stamps, long startMillis) {
+    for (FileStamp stamp : stamps.values()) {
+      if (stamp.isRacy(startMillis)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the stamps of the files and directories buck.py may have read to produce
+   *     {@code rules}, or absent if there are too many of them to be worth saving.
+   */
+  @SuppressWarnings("unchecked")
+  private static Optional<ImmutableMap<Path, FileStamp>> stampInputs(
+      Cell cell,
+      Path buildFile,
+      List<Map<String, Object>> rules) {
+    final Map<Path, FileStamp> stamps = new HashMap<>();
+    try {
+      stamps.put(buildFile, FileStamp.of(buildFile));
+      for (Map<String, Object> rule : rules) {
+        if (rule.containsKey(INCLUDES_META_RULE)) {
+          for (String include : (List<String>) rule.get(INCLUDES_META_RULE)) {
+            Path path = cell.getFilesystem().resolve(Paths.get(include));
+            stamps.put(path, FileStamp.of(path));
+          }
+        }
+      }
+
+      // Adding or removing a file changes the modification time of its directory, so stamping
+      // every directory beneath the build file covers whatever its globs could have matched.
+      final int[] directories = {0};
+      Files.walkFileTree(
+          buildFile.getParent(),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+              if (++directories[0] > MAX_DIRECTORIES_PER_BUILD_FILE) {
+                return FileVisitResult.TERMINATE;
+              }
+              stamps.put(dir, FileStamp.of(attrs));
+              return FileVisitResult.CONTINUE;
+            }
+          });
+      if (directories[0] > MAX_DIRECTORIES_PER_BUILD_FILE) {
+        LOG.verbose("Not saving %s, which has too many directories beneath it", buildFile);
+        return Optional.absent();
+      }
+    } catch (IOException e) {
+      LOG.debug(e, "Could not stamp the inputs of %s", buildFile);
+      return Optional.absent();
+    }
+    return Optional.of(ImmutableMap.copyOf(stamps));
+  }
+
+  /**
+   * @return a hash of everything besides files which the raw nodes of the cell's build files
+   *     depend on.
+   */
+  private static HashCode hashConfiguration(Cell cell) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    putString(hasher, BuckVersion.getVersion());
+    putString(hasher, cell.getRoot().toString());
+    ImmutableSortedMap<String, ImmutableMap<String, String>> sections = ImmutableSortedMap.copyOf(
+        new ParserConfig(cell.getBuckConfig()).getSectionsReadByParser());
+    for (Map.Entry<String, ImmutableMap<String, String>> section : sections.entrySet()) {
+      putString(hasher, section.getKey());
+      putMap(hasher, section.getValue());
+    }
+    putString(hasher, "");
+    putMap(hasher, cell.getBuckConfig().getEnvironment());
+    return hasher.hash();
+  }
+
+  private static void putMap(Hasher hasher, Map<String, String> map) {
+    for (Map.Entry<String, String> entry : ImmutableSortedMap.copyOf(map).entrySet()) {
+      putString(hasher, entry.getKey());
+      putString(hasher, entry.getValue());
+    }
+    putString(hasher, "");
+  }
+
+  private static void putString(Hasher hasher, String string) {
+    byte[] bytes = string.getBytes(UTF_8);
+    hasher.putInt(bytes.length);
+    hasher.putBytes(bytes);
+  }
+
+  private static class StampedRawNodes {
+    private final HashCode configurationHash;
+    private final ImmutableMap<Path, FileStamp> stamps;
+    private final List<Map<String, Object>> rawNodes;
+
+    StampedRawNodes(
+        HashCode configurationHash,
+        ImmutableMap<Path, FileStamp> stamps,
+        List<Map<String, Object>> rawNodes) {
+      this.configurationHash = configurationHash;
+      this.stamps = stamps;
+      this.rawNodes = rawNodes;
+    }
+  }
+}
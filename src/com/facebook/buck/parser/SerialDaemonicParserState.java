@@ -22,8 +22,10 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.PerfEventId;
 import com.facebook.buck.event.SimplePerfEvent;
 import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.json.BuildFileParseException;
+import com.facebook.buck.json.GlobCache;
 import com.facebook.buck.json.JsonObjectHashing;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
@@ -71,6 +73,7 @@ import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -128,11 +131,17 @@ class SerialDaemonicParserState implements DaemonicParserState {
    */
   private final Set<Cell> knownCells;
 
+  private final GlobCache globCache;
+
+  private final Optional<SavedRawNodes> savedRawNodes;
+
   public SerialDaemonicParserState(
       TypeCoercerFactory typeCoercerFactory,
-      ConstructorArgMarshaller marshaller) {
+      ConstructorArgMarshaller marshaller,
+      Optional<SavedRawNodes> savedRawNodes) {
     this.typeCoercerFactory = typeCoercerFactory;
     this.marshaller = marshaller;
+    this.savedRawNodes = savedRawNodes;
     this.allRawNodes = new OptimisticLoadingCache<>(1);
     this.targetsCornucopia = HashMultimap.create();
     this.allTargetNodes = new OptimisticLoadingCache<>(1);
@@ -147,6 +156,7 @@ class SerialDaemonicParserState implements DaemonicParserState {
     this.cachedEnvironment = ImmutableMap.of();
     this.cachedIncludes = new ConcurrentHashMap<>();
     this.knownCells = Collections.synchronizedSet(new HashSet<Cell>());
+    this.globCache = new GlobCache();
   }
 
   @Override
@@ -275,7 +285,9 @@ class SerialDaemonicParserState implements DaemonicParserState {
           @SuppressWarnings("unchecked")
           @Override
           public ImmutableList<Map<String, Object>> call() throws Exception {
-            List<Map<String, Object>> rawNodes = parser.getAllRulesAndMetaRules(buildFile);
+            List<Map<String, Object>> rawNodes = savedRawNodes.isPresent() ?
+                savedRawNodes.get().getAllRulesAndMetaRules(cell, parser, buildFile) :
+                parser.getAllRulesAndMetaRules(buildFile);
             ImmutableSet<Path> dependentsOfEveryNode = ImmutableSet.of();
             ImmutableList.Builder<Map<String, Object>> toReturn = ImmutableList.builder();
             for (Map<String, Object> rawNode : rawNodes) {
@@ -447,6 +459,8 @@ class SerialDaemonicParserState implements DaemonicParserState {
 
   @Override
   public void invalidateBasedOn(WatchEvent<?> event) throws InterruptedException {
+    globCache.invalidateBasedOn(event);
+
     if (!WatchEvents.isPathChangeEvent(event)) {
       // Non-path change event, likely an overflow due to many change events: invalidate everything.
       LOG.debug("Parser invalidating entire cache on overflow.");
@@ -487,6 +501,62 @@ class SerialDaemonicParserState implements DaemonicParserState {
     invalidatePath(path);
   }
 
+  @Override
+  public void invalidateBasedOn(WatchEventBatch batch) throws InterruptedException {
+    if (batch.containsNonPathChangeEvent()) {
+      LOG.debug("Parser invalidating entire cache on overflow in %s.", batch);
+      globCache.invalidateAll();
+      invalidateAllCaches();
+      return;
+    }
+    for (WatchEvent<?> event : batch.getEvents()) {
+      globCache.invalidateBasedOn(event);
+    }
+
+    // A batch often holds several events for the same path, so collapse those first.
+    Set<Path> changedPaths = new LinkedHashSet<>();
+    Set<Path> createdOrDeletedPaths = new LinkedHashSet<>();
+    for (WatchEvent<?> event : batch.getEvents()) {
+      Path path = (Path) event.context();
+      changedPaths.add(path);
+      if (isPathCreateOrDeleteEvent(event)) {
+        createdOrDeletedPaths.add(path);
+      }
+    }
+
+    for (Cell cell : knownCells) {
+      Set<Path> pathsToInvalidate = new LinkedHashSet<>();
+      try {
+        if (!createdOrDeletedPaths.isEmpty()) {
+          // Look up containing packages in the tree as it was before the batch, then drop the
+          // tree once if any build file came or went.
+          BuildFileTree buildFiles = buildFileTrees.get(cell);
+          boolean buildFileTreeChanged = false;
+          for (Path path : createdOrDeletedPaths) {
+            buildFileTreeChanged |= path.endsWith(cell.getBuildFileName());
+            if (!isTempFile(cell, path)) {
+              addContainingBuildFiles(cell, buildFiles, path, pathsToInvalidate);
+            }
+          }
+          if (buildFileTreeChanged) {
+            buildFileTrees.invalidate(cell);
+          }
+        }
+      } catch (ExecutionException | UncheckedExecutionException e) {
+        try {
+          throw propagate(e);
+        } catch (BuildFileParseException bfpe) {
+          LOG.warn("Unable to parse already parsed build file.", bfpe);
+        }
+      }
+      pathsToInvalidate.addAll(changedPaths);
+      LOG.verbose("Invalidating %d paths for %s", pathsToInvalidate.size(), batch);
+      for (Path path : pathsToInvalidate) {
+        invalidatePath(cell, path);
+      }
+    }
+  }
+
   @Override
   public void invalidatePath(Path path) throws InterruptedException {
     // The paths from watchman are not absolute. Because of this, we adopt a conservative approach
@@ -507,6 +577,22 @@ class SerialDaemonicParserState implements DaemonicParserState {
       BuildFileTree buildFiles,
       Path path) {
     Set<Path> packageBuildFiles = new HashSet<>();
+    addContainingBuildFiles(cell, buildFiles, path, packageBuildFiles);
+    for (Path buildFile : packageBuildFiles) {
+      invalidatePath(cell, buildFile);
+    }
+  }
+
+  /**
+   * Adds the build files of the packages "containing" {@code path} to
+   * {@code buildFilesToInvalidate}.
+   */
+  private void addContainingBuildFiles(
+      Cell cell,
+      BuildFileTree buildFiles,
+      Path path,
+      Set<Path> buildFilesToInvalidate) {
+    Set<Path> packageBuildFiles = new HashSet<>();
 
     // Find the closest ancestor package for the input path.  We'll definitely need to invalidate
     // that.
@@ -524,9 +610,8 @@ class SerialDaemonicParserState implements DaemonicParserState {
       }
     }
 
-    // Invalidate all the packages we found.
     for (Path buildFile : packageBuildFiles) {
-      invalidatePath(cell, buildFile.resolve(cell.getBuildFileName()));
+      buildFilesToInvalidate.add(buildFile.resolve(cell.getBuildFileName()));
     }
   }
 
@@ -621,6 +706,12 @@ class SerialDaemonicParserState implements DaemonicParserState {
     allRawNodes.invalidateAll();
     buildFileDependents.clear();
     knownCells.clear();
+    globCache.invalidateAll();
+  }
+
+  @Override
+  public GlobCache getGlobCache() {
+    return globCache;
   }
 
   @Override
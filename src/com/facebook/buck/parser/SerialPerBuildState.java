@@ -152,7 +152,8 @@ class SerialPerBuildState implements PerBuildState, AutoCloseable {
       parser = cell.createBuildFileParser(
           marshaller,
           console,
-          eventBus);
+          eventBus,
+          permState.getGlobCache());
       parser.setEnableProfiling(enableProfiling);
       parsers.put(cell, parser);
     }
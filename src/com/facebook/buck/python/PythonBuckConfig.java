@@ -33,9 +33,9 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.PackagedResource;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.util.ToolchainDiscoveryCache;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.CharMatcher;
-import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -97,8 +97,16 @@ public class PythonBuckConfig {
   @VisibleForTesting
   protected PythonPlatform getDefaultPythonPlatform(ProcessExecutor executor)
       throws InterruptedException {
+    return getDefaultPythonPlatform(executor, ToolchainDiscoveryCache.inMemory());
+  }
+
+  private PythonPlatform getDefaultPythonPlatform(
+      ProcessExecutor executor,
+      ToolchainDiscoveryCache discoveryCache)
+      throws InterruptedException {
     return getPythonPlatform(
         executor,
+        discoveryCache,
         DEFAULT_PYTHON_PLATFORM,
         delegate.getValue(SECTION, "interpreter"),
         delegate.getBuildTarget(SECTION, "library"));
@@ -111,10 +119,21 @@ public class PythonBuckConfig {
   public ImmutableList<PythonPlatform> getPythonPlatforms(
       ProcessExecutor processExecutor)
       throws InterruptedException {
+    return getPythonPlatforms(processExecutor, ToolchainDiscoveryCache.inMemory());
+  }
+
+  /**
+   * Like {@link #getPythonPlatforms(ProcessExecutor)}, but the interpreters are only asked for
+   * their versions when {@code discoveryCache} doesn't already know them.
+   */
+  public ImmutableList<PythonPlatform> getPythonPlatforms(
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache)
+      throws InterruptedException {
     ImmutableList.Builder<PythonPlatform> builder = ImmutableList.builder();
 
     // Add the python platform described in the top-level section first.
-    builder.add(getDefaultPythonPlatform(processExecutor));
+    builder.add(getDefaultPythonPlatform(processExecutor, discoveryCache));
 
     // Then add all additional python platform described in the extended sections.
     for (String section : delegate.getSections()) {
@@ -122,6 +141,7 @@ public class PythonBuckConfig {
         builder.add(
             getPythonPlatform(
                 processExecutor,
+                discoveryCache,
                 ImmutableFlavor.of(section.substring(PYTHON_PLATFORM_SECTION_PREFIX.length())),
                 delegate.getValue(section, "interpreter"),
                 delegate.getBuildTarget(section, "library")));
@@ -133,13 +153,14 @@ public class PythonBuckConfig {
 
   private PythonPlatform getPythonPlatform(
       ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
       Flavor flavor,
       Optional<String> interpreter,
       Optional<BuildTarget> library)
       throws InterruptedException {
     return PythonPlatform.of(
         flavor,
-        getPythonEnvironment(processExecutor, interpreter),
+        getPythonEnvironment(processExecutor, discoveryCache, interpreter),
         library);
   }
 
@@ -194,8 +215,16 @@ public class PythonBuckConfig {
       ProcessExecutor processExecutor,
       Optional<String> configPath)
       throws InterruptedException {
+    return getPythonEnvironment(processExecutor, ToolchainDiscoveryCache.inMemory(), configPath);
+  }
+
+  private PythonEnvironment getPythonEnvironment(
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
+      Optional<String> configPath)
+      throws InterruptedException {
     Path pythonPath = Paths.get(getPythonInterpreter(configPath));
-    PythonVersion pythonVersion = getPythonVersion(processExecutor, pythonPath);
+    PythonVersion pythonVersion = getPythonVersion(processExecutor, discoveryCache, pythonPath);
     return new PythonEnvironment(pythonPath, pythonVersion);
   }
 
@@ -242,15 +271,17 @@ public class PythonBuckConfig {
     return delegate.getValue(SECTION, "pex_extension").or(".pex");
   }
 
-  private static PythonVersion getPythonVersion(ProcessExecutor processExecutor, Path pythonPath)
+  private static PythonVersion getPythonVersion(
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
+      Path pythonPath)
       throws InterruptedException {
     try {
-      ProcessExecutor.Result versionResult = processExecutor.launchAndExecute(
+      ProcessExecutor.Result versionResult = discoveryCache.launchAndExecute(
+          processExecutor,
+          pythonPath,
           ProcessExecutorParams.builder().addCommand(pythonPath.toString(), "-V").build(),
-          EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_ERR),
-          /* stdin */ Optional.<String>absent(),
-          /* timeOutMs */ Optional.<Long>absent(),
-          /* timeoutHandler */ Optional.<Function<Process, Void>>absent());
+          EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_ERR));
       return extractPythonVersion(pythonPath, versionResult);
     } catch (IOException e) {
       throw new HumanReadableException(
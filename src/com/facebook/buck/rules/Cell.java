@@ -24,6 +24,7 @@ import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
+import com.facebook.buck.json.GlobCache;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.json.ProjectBuildFileParserOptions;
@@ -276,16 +277,42 @@ public class Cell {
       ConstructorArgMarshaller marshaller,
       Console console,
       BuckEventBus eventBus) {
+    return createBuildFileParser(marshaller, console, eventBus, Optional.<GlobCache>absent());
+  }
+
+  /**
+   * Like {@link #createBuildFileParser(ConstructorArgMarshaller, Console, BuckEventBus)}, but
+   * globs are answered from {@code globCache} when the glob handler is configured to do so.
+   */
+  public ProjectBuildFileParser createBuildFileParser(
+      ConstructorArgMarshaller marshaller,
+      Console console,
+      BuckEventBus eventBus,
+      GlobCache globCache) {
+    return createBuildFileParser(marshaller, console, eventBus, Optional.of(globCache));
+  }
+
+  private ProjectBuildFileParser createBuildFileParser(
+      ConstructorArgMarshaller marshaller,
+      Console console,
+      BuckEventBus eventBus,
+      Optional<GlobCache> globCache) {
     ParserConfig parserConfig = new ParserConfig(getBuckConfig());
     boolean useWatchmanGlob =
         parserConfig.getGlobHandler() == ParserConfig.GlobHandler.WATCHMAN &&
         watchman.hasWildmatchGlob();
-    ProjectBuildFileParserFactory factory = createBuildFileParserFactory(useWatchmanGlob);
+    if (parserConfig.getGlobHandler() != ParserConfig.GlobHandler.DAEMON) {
+      globCache = Optional.absent();
+    }
+    ProjectBuildFileParserFactory factory =
+        createBuildFileParserFactory(useWatchmanGlob, globCache);
     return factory.createParser(marshaller, console, config.getEnvironment(), eventBus);
   }
 
   @VisibleForTesting
-  protected ProjectBuildFileParserFactory createBuildFileParserFactory(boolean useWatchmanGlob) {
+  protected ProjectBuildFileParserFactory createBuildFileParserFactory(
+      boolean useWatchmanGlob,
+      Optional<GlobCache> globCache) {
     ParserConfig parserConfig = new ParserConfig(getBuckConfig());
 
     return new DefaultProjectBuildFileParserFactory(
@@ -299,6 +326,7 @@ public class Cell {
             .setUseWatchmanGlob(useWatchmanGlob)
             .setWatchman(watchman)
             .setWatchmanQueryTimeoutMs(parserConfig.getWatchmanQueryTimeoutMs())
+            .setGlobCache(globCache)
             .build());
   }
 
@@ -328,6 +356,18 @@ public class Cell {
     return hashCodeSupplier.get();
   }
 
+  /**
+   * @return a key which is equal for cells whose build files parse to the same target nodes, so
+   *     that they can share parser state. Unlike the cell itself, it ignores the config sections
+   *     which parsing never reads.
+   */
+  public ParserCacheKey getParserCacheKey() {
+    return new ParserCacheKey(
+        filesystem,
+        new ParserConfig(config).getSectionsReadByParser(),
+        directoryResolver);
+  }
+
   public Iterable<Pattern> getTempFilePatterns() {
     return tempFilePatterns;
   }
@@ -349,4 +389,43 @@ public class Cell {
       return getMessage();
     }
   }
+
+  /**
+   * See {@link #getParserCacheKey()}.
+   */
+  public static final class ParserCacheKey {
+    private final ProjectFilesystem filesystem;
+    private final ImmutableMap<String, ImmutableMap<String, String>> sections;
+    private final AndroidDirectoryResolver directoryResolver;
+
+    private ParserCacheKey(
+        ProjectFilesystem filesystem,
+        ImmutableMap<String, ImmutableMap<String, String>> sections,
+        AndroidDirectoryResolver directoryResolver) {
+      this.filesystem = filesystem;
+      this.sections = sections;
+      this.directoryResolver = directoryResolver;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ParserCacheKey)) {
+        return false;
+      }
+      ParserCacheKey that = (ParserCacheKey) o;
+      return filesystem.equals(that.filesystem) &&
+          sections.equals(that.sections) &&
+          directoryResolver.equals(that.directoryResolver);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(filesystem, sections, directoryResolver);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("filesystem=%s sections=%s", filesystem, sections.keySet());
+    }
+  }
 }
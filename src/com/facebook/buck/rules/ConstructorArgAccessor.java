@@ -0,0 +1,245 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.commons.GeneratorAdapter;
+import org.objectweb.asm.commons.Method;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads and writes the fields of a constructor arg by index.
+ *
+ * For public arg classes, {@link #forFields} generates a subclass whose methods switch on the
+ * index and access the field directly, so that populating an arg costs the same as hand-written
+ * code would. Anything the generated code would not be allowed to see falls back to reflection.
+ */
+public abstract class ConstructorArgAccessor {
+
+  private static final Logger LOG = Logger.get(ConstructorArgAccessor.class);
+
+  private static final AtomicInteger generatedClassCount = new AtomicInteger();
+
+  protected ConstructorArgAccessor() {
+  }
+
+  public abstract Object get(Object dto, int index);
+
+  public abstract void set(Object dto, int index, Object value);
+
+  /**
+   * @return an accessor for {@code fields} of {@code argClass}, which are addressed by their
+   *     position in the list.
+   */
+  public static ConstructorArgAccessor forFields(Class<?> argClass, List<Field> fields) {
+    if (canGenerate(argClass, fields)) {
+      try {
+        return generate(argClass, fields);
+      } catch (ReflectiveOperationException | LinkageError e) {
+        LOG.debug(e, "Falling back to reflection to access fields of %s", argClass);
+      }
+    }
+    return reflective(fields);
+  }
+
+  @VisibleForTesting
+  static ConstructorArgAccessor reflective(List<Field> fields) {
+    return new ReflectiveAccessor(fields);
+  }
+
+  private static boolean canGenerate(Class<?> argClass, List<Field> fields) {
+    if (!isAccessible(argClass)) {
+      return false;
+    }
+    for (Field field : fields) {
+      int modifiers = field.getModifiers();
+      if (!Modifier.isPublic(modifiers) ||
+          Modifier.isStatic(modifiers) ||
+          Modifier.isFinal(modifiers) ||
+          !isAccessible(field.getType())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isAccessible(Class<?> clazz) {
+    while (clazz.isArray()) {
+      clazz = clazz.getComponentType();
+    }
+    return clazz.isPrimitive() || Modifier.isPublic(clazz.getModifiers());
+  }
+
+  private static ConstructorArgAccessor generate(Class<?> argClass, List<Field> fields)
+      throws ReflectiveOperationException {
+    String className = String.format(
+        "%s$$BuckAccessor%d",
+        argClass.getName(),
+        generatedClassCount.incrementAndGet());
+    byte[] bytes = generateClass(className.replace('.', '/'), argClass, fields);
+    Class<?> accessorClass =
+        new AccessorClassLoader(argClass.getClassLoader()).define(className, bytes);
+    return (ConstructorArgAccessor) accessorClass.getConstructor().newInstance();
+  }
+
+  private static byte[] generateClass(
+      String internalName,
+      Class<?> argClass,
+      List<Field> fields) {
+    Type superType = Type.getType(ConstructorArgAccessor.class);
+    Type argType = Type.getType(argClass);
+
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+    writer.visit(
+        Opcodes.V1_7,
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER | Opcodes.ACC_SYNTHETIC,
+        internalName,
+        null,
+        superType.getInternalName(),
+        null);
+
+    Method constructor = Method.getMethod("void <init> ()");
+    GeneratorAdapter init =
+        new GeneratorAdapter(Opcodes.ACC_PUBLIC, constructor, null, null, writer);
+    init.loadThis();
+    init.invokeConstructor(superType, constructor);
+    init.returnValue();
+    init.endMethod();
+
+    Method get = Method.getMethod("Object get (Object, int)");
+    GeneratorAdapter getter = new GeneratorAdapter(Opcodes.ACC_PUBLIC, get, null, null, writer);
+    Label getterOutOfRange = getter.newLabel();
+    Label[] getLabels = switchOnIndex(getter, fields.size(), getterOutOfRange);
+    for (int i = 0; i < fields.size(); i++) {
+      Field field = fields.get(i);
+      Type fieldType = Type.getType(field.getType());
+      getter.mark(getLabels[i]);
+      getter.loadArg(0);
+      getter.checkCast(argType);
+      getter.getField(argType, field.getName(), fieldType);
+      getter.box(fieldType);
+      getter.returnValue();
+    }
+    getter.mark(getterOutOfRange);
+    throwBadIndex(getter);
+    getter.endMethod();
+
+    Method set = Method.getMethod("void set (Object, int, Object)");
+    GeneratorAdapter setter = new GeneratorAdapter(Opcodes.ACC_PUBLIC, set, null, null, writer);
+    Label setterOutOfRange = setter.newLabel();
+    Label[] setLabels = switchOnIndex(setter, fields.size(), setterOutOfRange);
+    for (int i = 0; i < fields.size(); i++) {
+      Field field = fields.get(i);
+      Type fieldType = Type.getType(field.getType());
+      setter.mark(setLabels[i]);
+      setter.loadArg(0);
+      setter.checkCast(argType);
+      setter.loadArg(2);
+      // Unboxing goes through Number for numeric fields, which widens like Field.set does.
+      setter.unbox(fieldType);
+      setter.putField(argType, field.getName(), fieldType);
+      setter.returnValue();
+    }
+    setter.mark(setterOutOfRange);
+    throwBadIndex(setter);
+    setter.endMethod();
+
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  /**
+   * Emits a jump on the index argument to one of the returned labels, one per field, or to
+   * {@code outOfRange}.
+   */
+  private static Label[] switchOnIndex(GeneratorAdapter generator, int count, Label outOfRange) {
+    Label[] labels = new Label[count];
+    for (int i = 0; i < count; i++) {
+      labels[i] = generator.newLabel();
+    }
+    if (count > 0) {
+      generator.loadArg(1);
+      generator.visitTableSwitchInsn(0, count - 1, outOfRange, labels);
+    }
+    return labels;
+  }
+
+  private static void throwBadIndex(GeneratorAdapter generator) {
+    generator.throwException(
+        Type.getType(IndexOutOfBoundsException.class),
+        "No field with that index");
+  }
+
+  /**
+   * Loads each generated class into its own loader below the arg class's loader, so that the
+   * generated code can see the arg class and is unloaded along with it.
+   */
+  private static class AccessorClassLoader extends ClassLoader {
+    AccessorClassLoader(ClassLoader parent) {
+      super(parent);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+      if (name.equals(ConstructorArgAccessor.class.getName())) {
+        return ConstructorArgAccessor.class;
+      }
+      return super.loadClass(name, resolve);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private static class ReflectiveAccessor extends ConstructorArgAccessor {
+    private final ImmutableList<Field> fields;
+
+    ReflectiveAccessor(List<Field> fields) {
+      this.fields = ImmutableList.copyOf(fields);
+    }
+
+    @Override
+    public Object get(Object dto, int index) {
+      try {
+        return fields.get(index).get(dto);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    @Override
+    public void set(Object dto, int index, Object value) {
+      try {
+        fields.get(index).set(dto, value);
+      } catch (IllegalAccessException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableSet;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -111,41 +112,29 @@ public class ConstructorArgMarshaller {
       Map<String, ?> instance,
       boolean onlyOptional) throws ConstructorArgMarshalException {
     Set<ParamInfo<?>> allInfo = getAllParamInfo(dto);
+    ParamInfo.Traversal collectDeclaredDeps = new ParamInfo.Traversal() {
+      @Override
+      public void traverse(Object object) {
+        if (object instanceof BuildTarget) {
+          declaredDeps.add((BuildTarget) object);
+        }
+      }
+    };
 
     for (ParamInfo<?> info : allInfo) {
       if (onlyOptional && !info.isOptional()) {
         continue;
       }
       try {
-        info.setFromParams(cellRoots, filesystem, params, dto, instance);
+        if (info.isDep() && info.getName().equals("deps")) {
+          // Collect the deps from the coerced value rather than reading them back from the dto.
+          info.setFromParams(cellRoots, filesystem, params, dto, instance, collectDeclaredDeps);
+        } else {
+          info.setFromParams(cellRoots, filesystem, params, dto, instance);
+        }
       } catch (ParamInfoException e) {
         throw new ConstructorArgMarshalException(e.getMessage(), e);
       }
-      if (info.getName().equals("deps")) {
-        populateDeclaredDeps(info, declaredDeps, dto);
-      }
-    }
-  }
-
-  @SuppressWarnings("unchecked")
-  private <T> void populateDeclaredDeps(
-      ParamInfo<T> paramInfo,
-      final ImmutableSet.Builder<BuildTarget> declaredDeps,
-      Object dto) {
-
-    if (paramInfo.isDep()) {
-      paramInfo.traverse(
-          new ParamInfo.Traversal() {
-            @Override
-            public void traverse(Object object) {
-              if (!(object instanceof BuildTarget)) {
-                return;
-              }
-              declaredDeps.add((BuildTarget) object);
-            }
-          },
-          (T) dto);
-
     }
   }
 
@@ -174,13 +163,18 @@ public class ConstructorArgMarshaller {
       return coercedTypes.get(argClass, new Callable<ImmutableSet<ParamInfo<?>>>() {
             @Override
             public ImmutableSet<ParamInfo<?>> call() {
-              ImmutableSet.Builder<ParamInfo<?>> allInfo = ImmutableSet.builder();
-
+              List<Field> fields = new ArrayList<>();
               for (Field field : argClass.getFields()) {
                 if (Modifier.isFinal(field.getModifiers())) {
                   continue;
                 }
-                allInfo.add(new ParamInfo<>(typeCoercerFactory, field));
+                fields.add(field);
+              }
+
+              ConstructorArgAccessor accessor = ConstructorArgAccessor.forFields(argClass, fields);
+              ImmutableSet.Builder<ParamInfo<?>> allInfo = ImmutableSet.builder();
+              for (int i = 0; i < fields.size(); i++) {
+                allInfo.add(new ParamInfo<>(typeCoercerFactory, fields.get(i), accessor, i));
               }
 
               return allInfo.build();
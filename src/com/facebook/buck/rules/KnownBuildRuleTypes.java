@@ -132,6 +132,7 @@ import com.facebook.buck.thrift.ThriftLibraryDescription;
 import com.facebook.buck.thrift.ThriftPythonEnhancer;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ToolchainDiscoveryCache;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.zip.ZipDescription;
 import com.google.common.annotations.VisibleForTesting;
@@ -213,9 +214,28 @@ public class KnownBuildRuleTypes {
       ProcessExecutor processExecutor,
       AndroidDirectoryResolver androidDirectoryResolver,
       Optional<Path> testTempDirOverride) throws InterruptedException, IOException {
+    return createInstance(
+        config,
+        processExecutor,
+        ToolchainDiscoveryCache.inMemory(),
+        androidDirectoryResolver,
+        testTempDirOverride);
+  }
+
+  /**
+   * @param discoveryCache remembers what the toolchains printed when probed, so that they are
+   *     only run again once they change.
+   */
+  public static KnownBuildRuleTypes createInstance(
+      BuckConfig config,
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
+      AndroidDirectoryResolver androidDirectoryResolver,
+      Optional<Path> testTempDirOverride) throws InterruptedException, IOException {
     return createBuilder(
         config,
         processExecutor,
+        discoveryCache,
         androidDirectoryResolver,
         testTempDirOverride).build();
   }
@@ -273,6 +293,20 @@ public class KnownBuildRuleTypes {
       ProcessExecutor processExecutor,
       AndroidDirectoryResolver androidDirectoryResolver,
       Optional<Path> testTempDirOverride) throws InterruptedException, IOException {
+    return createBuilder(
+        config,
+        processExecutor,
+        ToolchainDiscoveryCache.inMemory(),
+        androidDirectoryResolver,
+        testTempDirOverride);
+  }
+
+  private static Builder createBuilder(
+      BuckConfig config,
+      ProcessExecutor processExecutor,
+      ToolchainDiscoveryCache discoveryCache,
+      AndroidDirectoryResolver androidDirectoryResolver,
+      Optional<Path> testTempDirOverride) throws InterruptedException, IOException {
 
     Platform platform = Platform.detect();
 
@@ -384,7 +418,7 @@ public class KnownBuildRuleTypes {
 
     RustBuckConfig rustBuckConfig = new RustBuckConfig(config);
 
-    GoBuckConfig goBuckConfig = new GoBuckConfig(config, processExecutor);
+    GoBuckConfig goBuckConfig = new GoBuckConfig(config, processExecutor, discoveryCache);
 
     HalideBuckConfig halideBuckConfig = new HalideBuckConfig(config);
 
@@ -392,7 +426,7 @@ public class KnownBuildRuleTypes {
 
     PythonBuckConfig pyConfig = new PythonBuckConfig(config, new ExecutableFinder());
     ImmutableList<PythonPlatform> pythonPlatformsList =
-        pyConfig.getPythonPlatforms(processExecutor);
+        pyConfig.getPythonPlatforms(processExecutor, discoveryCache);
     ImmutableMap.Builder<Flavor, PythonPlatform> pythonPlatformsMapBuilder = ImmutableMap.builder();
     for (PythonPlatform pythonPlatform : pythonPlatformsList) {
       pythonPlatformsMapBuilder.put(pythonPlatform.getFlavor(), pythonPlatform);
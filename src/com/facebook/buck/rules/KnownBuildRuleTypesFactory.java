@@ -20,6 +20,7 @@ package com.facebook.buck.rules;
 import com.facebook.buck.android.AndroidDirectoryResolver;
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ToolchainDiscoveryCache;
 import com.google.common.base.Optional;
 
 import java.io.IOException;
@@ -32,6 +33,7 @@ import java.nio.file.Path;
 public class KnownBuildRuleTypesFactory {
 
   private final ProcessExecutor executor;
+  private final ToolchainDiscoveryCache discoveryCache;
   private final AndroidDirectoryResolver directoryResolver;
   private final Optional<Path> testTempDirOverride;
 
@@ -39,8 +41,17 @@ public class KnownBuildRuleTypesFactory {
       ProcessExecutor executor,
       AndroidDirectoryResolver directoryResolver,
       Optional<Path> testTempDirOverride) {
+    this(executor, ToolchainDiscoveryCache.inMemory(), directoryResolver, testTempDirOverride);
+  }
+
+  public KnownBuildRuleTypesFactory(
+      ProcessExecutor executor,
+      ToolchainDiscoveryCache discoveryCache,
+      AndroidDirectoryResolver directoryResolver,
+      Optional<Path> testTempDirOverride) {
 
     this.executor = executor;
+    this.discoveryCache = discoveryCache;
     this.directoryResolver = directoryResolver;
     this.testTempDirOverride = testTempDirOverride;
   }
@@ -49,6 +60,7 @@ public class KnownBuildRuleTypesFactory {
     return KnownBuildRuleTypes.createInstance(
         config,
         executor,
+        discoveryCache,
         directoryResolver,
         testTempDirOverride);
   }
@@ -24,6 +24,7 @@ import com.facebook.buck.util.Types;
 import com.google.common.base.CaseFormat;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
 import java.lang.reflect.Field;
 import java.nio.file.Path;
@@ -40,10 +41,27 @@ public class ParamInfo<T> implements Comparable<ParamInfo<T>> {
   private final String pythonName;
   private final boolean isDep;
   private final boolean isInput;
-  private final Field field;
+  private final ConstructorArgAccessor accessor;
+  private final int index;
 
   public ParamInfo(TypeCoercerFactory typeCoercerFactory, Field field) {
-    this.field = field;
+    this(
+        typeCoercerFactory,
+        field,
+        ConstructorArgAccessor.reflective(ImmutableList.of(field)),
+        0);
+  }
+
+  /**
+   * @param accessor used to read and write the field, as the {@code index}th of those it covers.
+   */
+  ParamInfo(
+      TypeCoercerFactory typeCoercerFactory,
+      Field field,
+      ConstructorArgAccessor accessor,
+      int index) {
+    this.accessor = accessor;
+    this.index = index;
     this.name = field.getName();
     Hint hint = field.getAnnotation(Hint.class);
     this.pythonName = determinePythonName(this.name, hint);
@@ -83,21 +101,19 @@ public class ParamInfo<T> implements Comparable<ParamInfo<T>> {
   }
 
   public void traverse(Traversal traversal, T dto) {
-    traverseHelper(typeCoercer, traversal, dto);
+    traverseValue(typeCoercer, traversal, accessor.get(dto, index));
   }
 
   @SuppressWarnings("unchecked")
-  private <U> void traverseHelper(TypeCoercer<U> typeCoercer, Traversal traversal, T dto) {
+  private <U> void traverseValue(
+      TypeCoercer<U> typeCoercer,
+      Traversal traversal,
+      @Nullable Object value) {
     U object;
-    try {
-      if (isOptional) {
-        Optional<U> optional = (Optional<U>) field.get(dto);
-        object = optional.orNull();
-      } else {
-        object = (U) field.get(dto);
-      }
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
+    if (isOptional) {
+      object = ((Optional<U>) value).orNull();
+    } else {
+      object = (U) value;
     }
 
     if (object != null) {
@@ -124,6 +140,23 @@ public class ParamInfo<T> implements Comparable<ParamInfo<T>> {
         instance.get(name));
   }
 
+  /**
+   * Like {@link #setFromParams(Function, ProjectFilesystem, BuildRuleFactoryParams, Object, Map)},
+   * but also walks the value that was set with {@code traversal}, without reading it back from
+   * {@code arg}.
+   */
+  void setFromParams(
+      Function<Optional<String>, Path> cellRoots,
+      ProjectFilesystem filesystem,
+      BuildRuleFactoryParams params,
+      Object arg,
+      Map<String, ?> instance,
+      Traversal traversal) throws ParamInfoException {
+    Object result = coerce(cellRoots, filesystem, params.target.getBasePath(), instance.get(name));
+    accessor.set(arg, index, result);
+    traverseValue(typeCoercer, traversal, result);
+  }
+
   /**
    * Sets a single property of the {@code dto}, coercing types as necessary.
    * @param filesystem {@link com.facebook.buck.io.ProjectFilesystem} used to ensure
@@ -138,6 +171,14 @@ public class ParamInfo<T> implements Comparable<ParamInfo<T>> {
       Path pathRelativeToProjectRoot,
       Object dto,
       @Nullable Object value) throws ParamInfoException {
+    accessor.set(dto, index, coerce(cellRoots, filesystem, pathRelativeToProjectRoot, value));
+  }
+
+  private Object coerce(
+      Function<Optional<String>, Path> cellRoots,
+      ProjectFilesystem filesystem,
+      Path pathRelativeToProjectRoot,
+      @Nullable Object value) throws ParamInfoException {
     Object result;
 
     if (value == null) {
@@ -164,12 +205,7 @@ public class ParamInfo<T> implements Comparable<ParamInfo<T>> {
         result = Optional.of(result);
       }
     }
-
-    try {
-      field.set(dto, result);
-    } catch (ReflectiveOperationException e) {
-      throw new RuntimeException(e);
-    }
+    return result;
   }
 
   /**
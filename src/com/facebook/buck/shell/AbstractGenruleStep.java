@@ -164,5 +164,17 @@ public abstract class AbstractGenruleStep extends ShellStep {
       }
       return new ExecutionArgsAndCommand(original.executionArgs, expandedCommand);
     }
+
+    /**
+     * @return the command for {@code platform} with the {@code environmentVariablesToExpand}
+     *     substituted in, for running without a shell.
+     */
+    public String getExpandedCommand(
+        Platform platform,
+        ImmutableMap<String, String> environmentVariablesToExpand,
+        BuildTarget target) {
+      return getExpandedCommandAndExecutionArgs(platform, environmentVariablesToExpand, target)
+          .command;
+    }
   }
 }
@@ -29,6 +29,7 @@ import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildableContext;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.Tool;
 import com.facebook.buck.rules.args.Arg;
 import com.facebook.buck.rules.keys.SupportsInputBasedRuleKey;
 import com.facebook.buck.shell.AbstractGenruleStep.CommandString;
@@ -49,6 +50,7 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
 
 import java.nio.file.Path;
@@ -102,6 +104,9 @@ import java.util.Set;
  * to the appropriate build command for that platform.
  * <p>
  * Note that the <code>SRCDIR</code> is populated by symlinking the sources.
+ * <p>
+ * If a {@code worker_tool} is given, the command, with the above variables substituted in, is
+ * instead sent as a job to a long running {@link WorkerProcess} started with that tool's command.
  */
 public class Genrule extends AbstractBuildRule implements HasOutputName, SupportsInputBasedRuleKey {
 
@@ -117,6 +122,8 @@ public class Genrule extends AbstractBuildRule implements HasOutputName, Support
   protected final Optional<Arg> bash;
   @AddToRuleKey
   protected final Optional<Arg> cmdExe;
+  @AddToRuleKey
+  private final Optional<Tool> workerTool;
 
   @AddToRuleKey
   private final String out;
@@ -135,11 +142,24 @@ public class Genrule extends AbstractBuildRule implements HasOutputName, Support
       Optional<Arg> bash,
       Optional<Arg> cmdExe,
       String out) {
+    this(params, resolver, srcs, cmd, bash, cmdExe, Optional.<Tool>absent(), out);
+  }
+
+  protected Genrule(
+      BuildRuleParams params,
+      SourcePathResolver resolver,
+      List<SourcePath> srcs,
+      Optional<Arg> cmd,
+      Optional<Arg> bash,
+      Optional<Arg> cmdExe,
+      Optional<Tool> workerTool,
+      String out) {
     super(params, resolver);
     this.srcs = ImmutableList.copyOf(srcs);
     this.cmd = cmd;
     this.bash = bash;
     this.cmdExe = cmdExe;
+    this.workerTool = workerTool;
 
     this.out = out;
     BuildTarget target = params.getBuildTarget();
@@ -295,6 +315,29 @@ public class Genrule extends AbstractBuildRule implements HasOutputName, Support
     };
   }
 
+  @VisibleForTesting
+  WorkerShellStep createWorkerShellStep(Tool workerTool) {
+    final CommandString commandString = new CommandString(
+        flattenToSpaceSeparatedString(cmd),
+        flattenToSpaceSeparatedString(bash),
+        flattenToSpaceSeparatedString(cmdExe));
+    return new WorkerShellStep(
+        getProjectFilesystem().getRootPath(),
+        workerTool.getCommandPrefix(getResolver()),
+        workerTool.getEnvironment(getResolver()),
+        ImmutableSet.copyOf(getResolver().getAllAbsolutePaths(workerTool.getInputs()))) {
+      @Override
+      protected String getJobArgs(ExecutionContext context) {
+        ImmutableMap.Builder<String, String> environmentVariablesBuilder = ImmutableMap.builder();
+        addEnvironmentVariables(context, environmentVariablesBuilder);
+        return commandString.getExpandedCommand(
+            context.getPlatform(),
+            environmentVariablesBuilder.build(),
+            getBuildTarget());
+      }
+    };
+  }
+
   @Override
   @VisibleForTesting
   public ImmutableList<Step> getBuildSteps(
@@ -322,8 +365,12 @@ public class Genrule extends AbstractBuildRule implements HasOutputName, Support
 
     addSymlinkCommands(commands);
 
-    // Create a shell command that corresponds to this.cmd.
-    commands.add(createGenruleStep());
+    // Create a shell command that corresponds to this.cmd, or hand it to a worker.
+    if (workerTool.isPresent()) {
+      commands.add(createWorkerShellStep(workerTool.get()));
+    } else {
+      commands.add(createGenruleStep());
+    }
 
     buildableContext.recordArtifact(pathToOutFile);
     return commands.build();
@@ -16,16 +16,21 @@
 
 package com.facebook.buck.shell;
 
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BinaryBuildRule;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleParams;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.Tool;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.infer.annotation.SuppressFieldNotInitialized;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 
-public class GenruleDescription extends AbstractGenruleDescription<AbstractGenruleDescription.Arg> {
+public class GenruleDescription extends AbstractGenruleDescription<GenruleDescription.Arg> {
 
   public static final BuildRuleType TYPE = BuildRuleType.of("genrule");
 
@@ -49,14 +54,34 @@ public class GenruleDescription extends AbstractGenruleDescription<AbstractGenru
       Optional<com.facebook.buck.rules.args.Arg> bash,
       Optional<com.facebook.buck.rules.args.Arg> cmdExe,
       String out) {
+    SourcePathResolver pathResolver = new SourcePathResolver(resolver);
+    Optional<Tool> workerTool = Optional.absent();
+    if (args.workerTool.isPresent()) {
+      BuildRule workerToolRule = resolver.getRule(args.workerTool.get());
+      if (!(workerToolRule instanceof BinaryBuildRule)) {
+        throw new HumanReadableException(
+            "The 'worker_tool' argument of %s, %s, must correspond to a binary rule, such as " +
+                "sh_binary() or java_binary().",
+            params.getBuildTarget(),
+            args.workerTool.get().getFullyQualifiedName());
+      }
+      workerTool = Optional.of(((BinaryBuildRule) workerToolRule).getExecutableCommand());
+      params = params.appendExtraDeps(workerTool.get().getDeps(pathResolver));
+    }
     return new Genrule(
         params,
-        new SourcePathResolver(resolver),
+        pathResolver,
         srcs,
         cmd,
         bash,
         cmdExe,
+        workerTool,
         out);
   }
 
+  @SuppressFieldNotInitialized
+  public static class Arg extends AbstractGenruleDescription.Arg {
+    public Optional<BuildTarget> workerTool;
+  }
+
 }
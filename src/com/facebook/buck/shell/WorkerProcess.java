@@ -0,0 +1,300 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A long running tool process which runs jobs sent to it one at a time, so that the cost of
+ * starting the tool is paid once rather than once per job.
+ * <p>
+ * Buck and the worker exchange JSON messages, one per line, over the worker's stdin and stdout.
+ * Anything the worker writes to stderr is only logged. After starting the worker, Buck
+ * handshakes:
+ * <pre>
+ *   {"id": 0, "type": "handshake", "protocol_version": "0"}
+ * </pre>
+ * and the worker replies with the same message. After that Buck sends one job at a time:
+ * <pre>
+ *   {"id": 1, "type": "command", "args": "..."}
+ * </pre>
+ * and waits for the worker to reply with its result before sending the next one:
+ * <pre>
+ *   {"id": 1, "type": "result", "exit_code": 0, "stdout": "...", "stderr": "..."}
+ * </pre>
+ * where {@code stdout} and {@code stderr} are optional. Once Buck no longer needs a worker, or a
+ * worker replies with anything else, doesn't reply in time, or is waited on by a thread which gets
+ * interrupted, Buck closes the worker's stdin and kills it.
+ */
+public class WorkerProcess implements Closeable {
+
+  private static final Logger LOG = Logger.get(WorkerProcess.class);
+
+  static final String PROTOCOL_VERSION = "0";
+
+  /**
+   * Replies are read on these threads rather than the caller's, since reading a pipe can neither
+   * time out nor be interrupted.
+   */
+  private static final ExecutorService REPLY_READERS = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder().setNameFormat("worker-reply-reader-%d").setDaemon(true).build());
+
+  private final ProcessExecutor executor;
+  private final ProcessExecutorParams params;
+  private final HashCode inputsHash;
+  private final ObjectMapper objectMapper;
+  private final Optional<Long> replyTimeoutMs;
+  private final ProcessExecutor.LaunchedProcess launchedProcess;
+  private final Writer stdin;
+  private final BufferedReader stdout;
+  private int nextMessageId = 0;
+
+  private WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams params,
+      HashCode inputsHash,
+      ObjectMapper objectMapper,
+      Optional<Long> replyTimeoutMs,
+      ProcessExecutor.LaunchedProcess launchedProcess) {
+    this.executor = executor;
+    this.params = params;
+    this.inputsHash = inputsHash;
+    this.objectMapper = objectMapper;
+    this.replyTimeoutMs = replyTimeoutMs;
+    this.launchedProcess = launchedProcess;
+    this.stdin = new OutputStreamWriter(launchedProcess.getOutputStream(), StandardCharsets.UTF_8);
+    this.stdout = new BufferedReader(
+        new InputStreamReader(launchedProcess.getInputStream(), StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Starts a worker and handshakes with it.
+   *
+   * @param inputsHash a hash of the files the worker runs, so that it can be told apart from
+   *     workers started from other versions of them.
+   * @param replyTimeoutMs how long to wait for each reply before giving up on the worker, if at
+   *     all.
+   */
+  public static WorkerProcess launch(
+      ProcessExecutor executor,
+      ProcessExecutorParams params,
+      HashCode inputsHash,
+      ObjectMapper objectMapper,
+      Optional<Long> replyTimeoutMs) throws IOException, InterruptedException {
+    LOG.debug("Starting worker %s", params.getCommand());
+    WorkerProcess workerProcess = new WorkerProcess(
+        executor,
+        params,
+        inputsHash,
+        objectMapper,
+        replyTimeoutMs,
+        executor.launchProcess(params));
+    try {
+      int id = workerProcess.send(
+          ImmutableMap.<String, Object>of(
+              "type", "handshake",
+              "protocol_version", PROTOCOL_VERSION));
+      JsonNode reply = workerProcess.receive(id, "handshake");
+      String version = reply.path("protocol_version").asText();
+      if (!PROTOCOL_VERSION.equals(version)) {
+        throw new IOException(
+            String.format(
+                "Worker %s speaks protocol version %s, expected %s.",
+                params.getCommand(),
+                version,
+                PROTOCOL_VERSION));
+      }
+    } catch (IOException e) {
+      workerProcess.close();
+      throw e;
+    }
+    return workerProcess;
+  }
+
+  public ProcessExecutorParams getParams() {
+    return params;
+  }
+
+  public HashCode getInputsHash() {
+    return inputsHash;
+  }
+
+  /**
+   * Sends a job to the worker and blocks until it replies.
+   *
+   * @throws IOException if the worker couldn't be talked to or broke the protocol, after which it
+   *     should be closed rather than reused.
+   * @throws InterruptedException if interrupted while waiting for the reply, after which the
+   *     worker has already been closed.
+   */
+  public synchronized JobResult submitAndWaitForJob(String args)
+      throws IOException, InterruptedException {
+    int id = send(ImmutableMap.<String, Object>of("type", "command", "args", args));
+    JsonNode reply = receive(id, "result");
+    JsonNode exitCode = reply.get("exit_code");
+    if (exitCode == null || !exitCode.canConvertToInt()) {
+      throw new IOException(
+          String.format("Worker %s replied without an exit code.", params.getCommand()));
+    }
+    return new JobResult(
+        exitCode.asInt(),
+        getOptionalText(reply, "stdout"),
+        getOptionalText(reply, "stderr"));
+  }
+
+  private int send(ImmutableMap<String, Object> message) throws IOException {
+    int id = nextMessageId++;
+    stdin.write(
+        objectMapper.writeValueAsString(
+            ImmutableMap.<String, Object>builder()
+                .put("id", id)
+                .putAll(message)
+                .build()));
+    stdin.write('\n');
+    stdin.flush();
+    return id;
+  }
+
+  private JsonNode receive(int expectedId, String expectedType)
+      throws IOException, InterruptedException {
+    String line = readReply(expectedId);
+    if (line == null) {
+      throw new IOException(
+          String.format(
+              "Worker %s exited before replying to message %d.",
+              params.getCommand(),
+              expectedId));
+    }
+    JsonNode reply = objectMapper.readTree(line);
+    if (reply == null ||
+        reply.path("id").asInt(-1) != expectedId ||
+        !expectedType.equals(reply.path("type").asText())) {
+      throw new IOException(
+          String.format(
+              "Worker %s replied to message %d of type %s with: %s",
+              params.getCommand(),
+              expectedId,
+              expectedType,
+              line));
+    }
+    return reply;
+  }
+
+  private String readReply(int expectedId) throws IOException, InterruptedException {
+    Future<String> reply = REPLY_READERS.submit(
+        new Callable<String>() {
+          @Override
+          public String call() throws IOException {
+            return stdout.readLine();
+          }
+        });
+    try {
+      if (replyTimeoutMs.isPresent()) {
+        return reply.get(replyTimeoutMs.get(), TimeUnit.MILLISECONDS);
+      }
+      return reply.get();
+    } catch (TimeoutException e) {
+      // Killing the worker ends the read, and leaves it unusable by anyone else.
+      close();
+      throw new IOException(
+          String.format(
+              "Worker %s didn't reply to message %d within %d ms.",
+              params.getCommand(),
+              expectedId,
+              replyTimeoutMs.get()));
+    } catch (InterruptedException e) {
+      close();
+      throw e;
+    } catch (ExecutionException e) {
+      Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private static Optional<String> getOptionalText(JsonNode reply, String field) {
+    JsonNode value = reply.get(field);
+    if (value == null || value.isNull()) {
+      return Optional.absent();
+    }
+    return Optional.of(value.asText());
+  }
+
+  /**
+   * Closes the worker's stdin and kills it. Closing a worker more than once is harmless.
+   */
+  @Override
+  public void close() {
+    LOG.debug("Stopping worker %s", params.getCommand());
+    try {
+      stdin.close();
+    } catch (IOException e) {
+      LOG.debug(e, "Couldn't close the stdin of worker %s", params.getCommand());
+    }
+    executor.destroyLaunchedProcess(launchedProcess);
+  }
+
+  /**
+   * What a worker replied to a job.
+   */
+  public static class JobResult {
+    private final int exitCode;
+    private final Optional<String> stdout;
+    private final Optional<String> stderr;
+
+    public JobResult(int exitCode, Optional<String> stdout, Optional<String> stderr) {
+      this.exitCode = exitCode;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public Optional<String> getStdout() {
+      return stdout;
+    }
+
+    public Optional<String> getStderr() {
+      return stderr;
+    }
+  }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.ProcessExecutor;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Ordering;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps idle {@link WorkerProcess}es around between jobs, keyed by how they were started and by a
+ * hash of the files their tool is made of. A worker is started whenever a job needs one and none
+ * is idle, so there are never more workers for a tool than jobs running it at once.
+ * <p>
+ * A buck daemon keeps its pool until it exits, so that workers are reused between builds. Once
+ * the files of a tool change, its workers running the old version are stopped rather than handed
+ * to jobs which expect the new one, and workers idle for longer than the idle timeout are stopped
+ * too, so that ones started for environments which never come back don't linger.
+ */
+public final class WorkerProcessPool implements AutoCloseable {
+
+  private static final long DEFAULT_IDLE_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(10);
+
+  /**
+   * Files modified less than this long before being hashed could change again without their size
+   * or modification time changing, so their hashes aren't reused.
+   */
+  private static final long RACY_MODIFICATION_WINDOW_MS = 2000;
+
+  private final Clock clock;
+  private final Optional<Long> replyTimeoutMs;
+  private final long idleTimeoutMs;
+
+  /** Idle workers, least recently used first. Guarded by this. */
+  private final Map<WorkerKey, Deque<IdleWorker>> idleWorkers = new HashMap<>();
+  /** The hash of the files of each tool when a job last asked for it. Guarded by this. */
+  private final Map<ImmutableList<String>, HashCode> latestInputsHashes = new HashMap<>();
+  private final ConcurrentMap<Path, StampedHashCode> fileHashes = new ConcurrentHashMap<>();
+
+  private int referenceCount = 1;
+  private boolean closed = false;
+
+  public WorkerProcessPool() {
+    this(Optional.<Long>absent());
+  }
+
+  /**
+   * @param replyTimeoutMs how long to wait for each reply from a worker before killing it, if at
+   *     all.
+   */
+  public WorkerProcessPool(Optional<Long> replyTimeoutMs) {
+    this(new DefaultClock(), replyTimeoutMs, DEFAULT_IDLE_TIMEOUT_MS);
+  }
+
+  @VisibleForTesting
+  WorkerProcessPool(Clock clock, Optional<Long> replyTimeoutMs, long idleTimeoutMs) {
+    this.clock = clock;
+    this.replyTimeoutMs = replyTimeoutMs;
+    this.idleTimeoutMs = idleTimeoutMs;
+  }
+
+  /**
+   * @param inputs the absolute paths of the files and directories the worker's tool is made of.
+   * @return the most recently used idle worker started with {@code params} from the current
+   *     version of {@code inputs}, or a newly started one if there are none. Pass it back to
+   *     {@link #returnWorkerProcess} once the job is done with it, or close it if it failed.
+   */
+  public WorkerProcess borrowWorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams params,
+      ImmutableSet<Path> inputs,
+      ObjectMapper objectMapper) throws IOException, InterruptedException {
+    HashCode inputsHash = hashInputs(inputs);
+    WorkerKey key = new WorkerKey(params, inputsHash);
+    List<WorkerProcess> toClose;
+    IdleWorker idleWorker = null;
+    synchronized (this) {
+      toClose = removeExpiredWorkers();
+      HashCode previousHash = latestInputsHashes.put(params.getCommand(), inputsHash);
+      if (previousHash != null && !previousHash.equals(inputsHash)) {
+        toClose.addAll(removeOutdatedWorkers(params.getCommand(), inputsHash));
+      }
+      Deque<IdleWorker> workers = idleWorkers.get(key);
+      if (workers != null) {
+        idleWorker = workers.pollLast();
+        if (workers.isEmpty()) {
+          idleWorkers.remove(key);
+        }
+      }
+    }
+    closeAll(toClose);
+
+    if (idleWorker != null) {
+      return idleWorker.workerProcess;
+    }
+    return WorkerProcess.launch(executor, params, inputsHash, objectMapper, replyTimeoutMs);
+  }
+
+  public void returnWorkerProcess(WorkerProcess workerProcess) {
+    List<WorkerProcess> toClose;
+    synchronized (this) {
+      toClose = removeExpiredWorkers();
+      HashCode latestHash = latestInputsHashes.get(workerProcess.getParams().getCommand());
+      if (closed || !workerProcess.getInputsHash().equals(latestHash)) {
+        toClose.add(workerProcess);
+      } else {
+        WorkerKey key = new WorkerKey(workerProcess.getParams(), workerProcess.getInputsHash());
+        Deque<IdleWorker> workers = idleWorkers.get(key);
+        if (workers == null) {
+          workers = new ArrayDeque<>();
+          idleWorkers.put(key, workers);
+        }
+        workers.addLast(new IdleWorker(workerProcess, clock.currentTimeMillis()));
+      }
+    }
+    closeAll(toClose);
+  }
+
+  public WorkerProcessPool addRef() {
+    List<WorkerProcess> toClose;
+    synchronized (this) {
+      referenceCount += 1;
+      // Each command takes a reference, so this is where a daemon between builds notices workers
+      // which have been idle for too long.
+      toClose = removeExpiredWorkers();
+    }
+    closeAll(toClose);
+    return this;
+  }
+
+  @Override
+  public void close() {
+    List<WorkerProcess> toClose = new ArrayList<>();
+    synchronized (this) {
+      if (referenceCount > 1) {
+        referenceCount -= 1;
+        return;
+      }
+      closed = true;
+      for (Deque<IdleWorker> workers : idleWorkers.values()) {
+        for (IdleWorker idleWorker : workers) {
+          toClose.add(idleWorker.workerProcess);
+        }
+      }
+      idleWorkers.clear();
+    }
+    closeAll(toClose);
+  }
+
+  private synchronized List<WorkerProcess> removeExpiredWorkers() {
+    long idleSinceCutoffMillis = clock.currentTimeMillis() - idleTimeoutMs;
+    List<WorkerProcess> expired = new ArrayList<>();
+    Iterator<Deque<IdleWorker>> iterator = idleWorkers.values().iterator();
+    while (iterator.hasNext()) {
+      Deque<IdleWorker> workers = iterator.next();
+      while (!workers.isEmpty() && workers.peekFirst().idleSinceMillis <= idleSinceCutoffMillis) {
+        expired.add(workers.pollFirst().workerProcess);
+      }
+      if (workers.isEmpty()) {
+        iterator.remove();
+      }
+    }
+    return expired;
+  }
+
+  private synchronized List<WorkerProcess> removeOutdatedWorkers(
+      ImmutableList<String> command,
+      HashCode latestHash) {
+    List<WorkerProcess> outdated = new ArrayList<>();
+    Iterator<Map.Entry<WorkerKey, Deque<IdleWorker>>> iterator =
+        idleWorkers.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<WorkerKey, Deque<IdleWorker>> entry = iterator.next();
+      if (entry.getKey().params.getCommand().equals(command) &&
+          !entry.getKey().inputsHash.equals(latestHash)) {
+        for (IdleWorker idleWorker : entry.getValue()) {
+          outdated.add(idleWorker.workerProcess);
+        }
+        iterator.remove();
+      }
+    }
+    return outdated;
+  }
+
+  private static void closeAll(List<WorkerProcess> workerProcesses) {
+    for (WorkerProcess workerProcess : workerProcesses) {
+      workerProcess.close();
+    }
+  }
+
+  private HashCode hashInputs(ImmutableSet<Path> inputs) throws IOException {
+    final List<Path> files = new ArrayList<>();
+    for (Path input : inputs) {
+      Files.walkFileTree(
+          input,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              files.add(file);
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+    Hasher hasher = Hashing.sha1().newHasher();
+    for (Path file : Ordering.usingToString().sortedCopy(files)) {
+      hasher.putString(file.toString(), Charsets.UTF_8);
+      hasher.putBytes(hashFile(file).asBytes());
+    }
+    return hasher.hash();
+  }
+
+  /**
+   * Tools are usually the same from one job to the next, so their files are only hashed again
+   * once their size or modification time changes.
+   */
+  private HashCode hashFile(Path file) throws IOException {
+    long startMillis = System.currentTimeMillis();
+    BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+    long size = attributes.size();
+    long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+
+    StampedHashCode cached = fileHashes.get(file);
+    if (cached != null &&
+        cached.size == size &&
+        cached.lastModifiedMillis == lastModifiedMillis) {
+      return cached.hashCode;
+    }
+    HashCode hashCode = com.google.common.io.Files.asByteSource(file.toFile())
+        .hash(Hashing.sha1());
+    if (startMillis - lastModifiedMillis >= RACY_MODIFICATION_WINDOW_MS) {
+      fileHashes.put(file, new StampedHashCode(size, lastModifiedMillis, hashCode));
+    } else {
+      fileHashes.remove(file);
+    }
+    return hashCode;
+  }
+
+  private static class WorkerKey {
+    private final ProcessExecutorParams params;
+    private final HashCode inputsHash;
+
+    WorkerKey(ProcessExecutorParams params, HashCode inputsHash) {
+      this.params = params;
+      this.inputsHash = inputsHash;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof WorkerKey)) {
+        return false;
+      }
+      WorkerKey that = (WorkerKey) other;
+      return params.equals(that.params) && inputsHash.equals(that.inputsHash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(params, inputsHash);
+    }
+  }
+
+  private static class IdleWorker {
+    private final WorkerProcess workerProcess;
+    private final long idleSinceMillis;
+
+    IdleWorker(WorkerProcess workerProcess, long idleSinceMillis) {
+      this.workerProcess = workerProcess;
+      this.idleSinceMillis = idleSinceMillis;
+    }
+  }
+
+  private static class StampedHashCode {
+    private final long size;
+    private final long lastModifiedMillis;
+    private final HashCode hashCode;
+
+    StampedHashCode(long size, long lastModifiedMillis, HashCode hashCode) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.hashCode = hashCode;
+    }
+  }
+}
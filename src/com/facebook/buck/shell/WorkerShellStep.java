@@ -0,0 +1,154 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import com.facebook.buck.event.ConsoleEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * Runs a job on a {@link WorkerProcess} from the {@link ExecutionContext}'s
+ * {@link WorkerProcessPool}, rather than starting a new process for it.
+ */
+public abstract class WorkerShellStep implements Step {
+
+  private static final Logger LOG = Logger.get(WorkerShellStep.class);
+
+  /**
+   * Where the stderr of every worker goes, relative to the working directory.
+   */
+  public static final Path WORKER_LOG = BuckConstant.LOG_PATH.resolve("workers.log");
+
+  private final Path workingDirectory;
+  private final ImmutableList<String> startupCommand;
+  private final ImmutableMap<String, String> startupEnvironment;
+  private final ImmutableSet<Path> startupInputs;
+
+  /**
+   * @param workingDirectory the absolute directory workers are started in.
+   * @param startupCommand the command which starts a worker.
+   * @param startupEnvironment environment variables to start workers with, on top of the
+   *     {@link ExecutionContext}'s.
+   * @param startupInputs the absolute paths of the files the worker runs, so that workers running
+   *     an older version of them aren't used.
+   */
+  protected WorkerShellStep(
+      Path workingDirectory,
+      ImmutableList<String> startupCommand,
+      ImmutableMap<String, String> startupEnvironment,
+      ImmutableSet<Path> startupInputs) {
+    this.workingDirectory = workingDirectory;
+    this.startupCommand = startupCommand;
+    this.startupEnvironment = startupEnvironment;
+    this.startupInputs = startupInputs;
+  }
+
+  /**
+   * @return the arguments of the job to send to the worker.
+   */
+  protected abstract String getJobArgs(ExecutionContext context);
+
+  @Override
+  public int execute(ExecutionContext context) throws InterruptedException {
+    String args = getJobArgs(context);
+    WorkerProcessPool pool = context.getWorkerProcessPool();
+    WorkerProcess workerProcess;
+    try {
+      workerProcess = borrowWorkerProcess(context);
+    } catch (IOException e) {
+      context.logError(e, "Couldn't start worker %s.", startupCommand);
+      return 1;
+    }
+
+    WorkerProcess.JobResult result;
+    try {
+      result = workerProcess.submitAndWaitForJob(args);
+    } catch (IOException e) {
+      // The worker is in an unknown state, so replace it rather than handing it to the next job.
+      workerProcess.close();
+      context.logError(
+          e,
+          "Worker %s failed while running %s, see %s.",
+          startupCommand,
+          args,
+          WORKER_LOG);
+      return 1;
+    }
+    pool.returnWorkerProcess(workerProcess);
+
+    LOG.debug(
+        "%s: exit code: %d.\nstdout:\n%s\nstderr:\n%s\n",
+        args,
+        result.getExitCode(),
+        result.getStdout().or(""),
+        result.getStderr().or(""));
+    if (result.getStdout().isPresent() &&
+        !result.getStdout().get().isEmpty() &&
+        context.getVerbosity().shouldPrintOutput()) {
+      context.postEvent(ConsoleEvent.info("%s", result.getStdout().get()));
+    }
+    if (result.getStderr().isPresent() && !result.getStderr().get().isEmpty()) {
+      context.postEvent(ConsoleEvent.warning("%s", result.getStderr().get()));
+    }
+    return result.getExitCode();
+  }
+
+  WorkerProcess borrowWorkerProcess(ExecutionContext context)
+      throws IOException, InterruptedException {
+    Files.createDirectories(workingDirectory.resolve(WORKER_LOG).getParent());
+    return context.getWorkerProcessPool().borrowWorkerProcess(
+        context.getProcessExecutor(),
+        getWorkerParams(context),
+        startupInputs,
+        context.getObjectMapper());
+  }
+
+  private ProcessExecutorParams getWorkerParams(ExecutionContext context) {
+    Map<String, String> environment = Maps.newHashMap(context.getEnvironment());
+    environment.putAll(startupEnvironment);
+    return ProcessExecutorParams.builder()
+        .setCommand(startupCommand)
+        .setEnvironment(ImmutableMap.copyOf(environment))
+        .setDirectory(workingDirectory.toFile())
+        .setRedirectError(
+            ProcessBuilder.Redirect.appendTo(workingDirectory.resolve(WORKER_LOG).toFile()))
+        .build();
+  }
+
+  @Override
+  public String getShortName() {
+    return "worker";
+  }
+
+  @Override
+  public String getDescription(ExecutionContext context) {
+    return String.format("%s <<< %s", Joiner.on(' ').join(startupCommand), getJobArgs(context));
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.util.immutables.BuckStyleImmutable;
+import com.google.common.base.Preconditions;
+
+import org.immutables.value.Value;
+
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Controls when {@link HedgedLoadBalancedService} sends a second copy of a request.
+ */
+@Value.Immutable
+@BuckStyleImmutable
+abstract class AbstractHedgingConfig {
+
+  // Defaults
+  public static final float LATENCY_PERCENTILE = 95;
+  public static final int MIN_DELAY_MILLIS = 10;
+  public static final int MIN_LATENCY_SAMPLES = 20;
+
+  /**
+   * Used to send the second request once the hedging delay is up. Shut down when the
+   * {@link HedgedLoadBalancedService} using this config is closed.
+   */
+  public abstract ScheduledExecutorService getSchedulerService();
+
+  /**
+   * The second request is sent once the first has taken longer than this percentile of recent
+   * request latencies.
+   */
+  @Value.Default
+  public float getLatencyPercentile() {
+    return LATENCY_PERCENTILE;
+  }
+
+  /** The second request is never sent sooner than this after the first. */
+  @Value.Default
+  public int getMinDelayMillis() {
+    return MIN_DELAY_MILLIS;
+  }
+
+  /** No second requests are sent until this many latencies have been observed. */
+  @Value.Default
+  public int getMinLatencySamples() {
+    return MIN_LATENCY_SAMPLES;
+  }
+
+  @Value.Check
+  protected void check() {
+    Preconditions.checkArgument(
+        getLatencyPercentile() >= 0 && getLatencyPercentile() <= 100,
+        "The hedging latency percentile must be between 0 and 100 instead of [%s].",
+        getLatencyPercentile());
+  }
+}
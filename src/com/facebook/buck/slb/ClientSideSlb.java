@@ -75,6 +75,11 @@ public class ClientSideSlb implements HttpLoadBalancer {
     return healthManager.getBestServer(clock.currentTimeMillis());
   }
 
+  @Override
+  public ImmutableList<URI> getBestServers() throws IOException {
+    return healthManager.getBestServers(clock.currentTimeMillis());
+  }
+
   @Override
   public void reportException(URI server) {
     healthManager.reportError(server, clock.currentTimeMillis());
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.slb;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Like {@link LoadBalancedService}, but if the best server is slow to respond, sends the same
+ * request to the next best server as well and uses whichever response comes back first.
+ *
+ * The delay before the second request is a high percentile of recently observed latencies, so
+ * only the slowest few percent of requests are ever sent twice. Only use this for requests which
+ * are safe to repeat.
+ */
+public class HedgedLoadBalancedService implements HttpService {
+  private static final Logger LOG = Logger.get(HedgedLoadBalancedService.class);
+
+  private static final int MAX_LATENCY_SAMPLES = 100;
+
+  private final HttpLoadBalancer slb;
+  private final OkHttpClient client;
+  private final HedgingConfig config;
+
+  @GuardedBy("latencySamples")
+  private final long[] latencySamples = new long[MAX_LATENCY_SAMPLES];
+  @GuardedBy("latencySamples")
+  private int latencySampleCount;
+
+  public HedgedLoadBalancedService(
+      HttpLoadBalancer slb,
+      OkHttpClient client,
+      HedgingConfig config) {
+    this.slb = slb;
+    this.client = client;
+    this.config = config;
+  }
+
+  @Override
+  public Response makeRequest(String path, Request.Builder requestBuilder) throws IOException {
+    ImmutableList<URI> servers = slb.getBestServers();
+    URI primaryServer = servers.get(0);
+    Request primaryRequest = requestBuilder.url(primaryServer.resolve(path).toURL()).build();
+    Optional<Long> hedgeDelayMillis = getHedgeDelayMillis();
+    if (servers.size() < 2 || !hedgeDelayMillis.isPresent()) {
+      return execute(primaryServer, client.newCall(primaryRequest));
+    }
+
+    URI backupServer = servers.get(1);
+    Request backupRequest = requestBuilder.url(backupServer.resolve(path).toURL()).build();
+    return new HedgedRequest(
+        primaryServer,
+        client.newCall(primaryRequest),
+        backupServer,
+        client.newCall(backupRequest)).execute(hedgeDelayMillis.get());
+  }
+
+  @Override
+  public void close() {
+    slb.close();
+    config.getSchedulerService().shutdownNow();
+  }
+
+  /**
+   * @return how long to wait for the best server before also asking the next best, or absent if
+   *     too few requests have been made to tell.
+   */
+  @VisibleForTesting
+  Optional<Long> getHedgeDelayMillis() {
+    long[] samples;
+    synchronized (latencySamples) {
+      if (latencySampleCount < config.getMinLatencySamples()) {
+        return Optional.absent();
+      }
+      samples = Arrays.copyOf(
+          latencySamples,
+          Math.min(latencySampleCount, MAX_LATENCY_SAMPLES));
+    }
+    long percentileMillis = 0;
+    if (samples.length > 0) {
+      Arrays.sort(samples);
+      int index = (int) Math.ceil(config.getLatencyPercentile() / 100 * samples.length) - 1;
+      percentileMillis = samples[Math.max(0, Math.min(samples.length - 1, index))];
+    }
+    return Optional.of(Math.max(config.getMinDelayMillis(), percentileMillis));
+  }
+
+  @VisibleForTesting
+  int getLatencySampleCount() {
+    synchronized (latencySamples) {
+      return latencySampleCount;
+    }
+  }
+
+  @VisibleForTesting
+  void reportLatency(long latencyMillis) {
+    synchronized (latencySamples) {
+      latencySamples[latencySampleCount % MAX_LATENCY_SAMPLES] = latencyMillis;
+      latencySampleCount++;
+    }
+  }
+
+  private Response execute(URI server, Call call) throws IOException {
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    try {
+      Response response = call.execute();
+      reportLatency(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+      return response;
+    } catch (IOException e) {
+      slb.reportException(server);
+      throw new IOException(e);
+    }
+  }
+
+  private static void closeQuietly(Response response) {
+    try {
+      response.body().close();
+    } catch (IOException e) {
+      LOG.debug(e, "Failed to close unused response.");
+    }
+  }
+
+  /**
+   * Runs the primary call on the calling thread, and starts the backup call on the hedging
+   * scheduler if the primary hasn't answered in time. Whichever call answers first wins, and the
+   * other is cancelled.
+   */
+  private class HedgedRequest implements Runnable, Callback {
+    private final URI primaryServer;
+    private final Call primaryCall;
+    private final URI backupServer;
+    private final Call backupCall;
+    private final SettableFuture<Response> backupResponse = SettableFuture.create();
+    private final Stopwatch stopwatch = Stopwatch.createUnstarted();
+
+    @GuardedBy("this")
+    @Nullable
+    private Call winner;
+    @GuardedBy("this")
+    private boolean backupStarted;
+
+    HedgedRequest(URI primaryServer, Call primaryCall, URI backupServer, Call backupCall) {
+      this.primaryServer = primaryServer;
+      this.primaryCall = primaryCall;
+      this.backupServer = backupServer;
+      this.backupCall = backupCall;
+    }
+
+    Response execute(long hedgeDelayMillis) throws IOException {
+      stopwatch.start();
+      ScheduledFuture<?> hedge = config.getSchedulerService().schedule(
+          this,
+          hedgeDelayMillis,
+          TimeUnit.MILLISECONDS);
+      try {
+        Response response = primaryCall.execute();
+        if (claim(primaryCall)) {
+          reportLatency(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+          return response;
+        }
+        // The backup answered first, and this response only made it through the cancellation.
+        closeQuietly(response);
+      } catch (IOException e) {
+        boolean backupInFlight;
+        synchronized (this) {
+          backupInFlight = backupStarted;
+          if (!backupInFlight) {
+            // Make sure the backup doesn't start now; there's nobody left to wait for it.
+            winner = primaryCall;
+          }
+        }
+        // The primary call is only cancelled when the backup has answered first.
+        if (!primaryCall.isCanceled()) {
+          slb.reportException(primaryServer);
+        }
+        if (!backupInFlight) {
+          throw new IOException(e);
+        }
+      } finally {
+        hedge.cancel(false);
+      }
+      return waitForBackup();
+    }
+
+    /** Starts the backup call once the hedging delay is up. */
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (winner != null) {
+          return;
+        }
+        backupStarted = true;
+      }
+      LOG.debug("No response from %s after %d ms, also asking %s.",
+          primaryServer,
+          stopwatch.elapsed(TimeUnit.MILLISECONDS),
+          backupServer);
+      backupCall.enqueue(this);
+    }
+
+    @Override
+    public void onResponse(Response response) {
+      if (claim(backupCall)) {
+        // The primary is cancelled without ever answering, so record how long it had been going
+        // as a lower bound on its latency. Leaving it out would bias the percentile low and make
+        // hedging ever more eager.
+        reportLatency(stopwatch.elapsed(TimeUnit.MILLISECONDS));
+        backupResponse.set(response);
+        primaryCall.cancel();
+      } else {
+        closeQuietly(response);
+      }
+    }
+
+    @Override
+    public void onFailure(Request request, IOException e) {
+      if (!backupCall.isCanceled()) {
+        slb.reportException(backupServer);
+      }
+      backupResponse.setException(e);
+    }
+
+    /** @return whether {@code call} is the first to answer. */
+    private boolean claim(Call call) {
+      synchronized (this) {
+        if (winner == null) {
+          winner = call;
+        }
+        if (winner != call) {
+          return false;
+        }
+      }
+      (call == primaryCall ? backupCall : primaryCall).cancel();
+      return true;
+    }
+
+    private Response waitForBackup() throws IOException {
+      try {
+        return Uninterruptibles.getUninterruptibly(backupResponse);
+      } catch (ExecutionException e) {
+        Preconditions.checkState(e.getCause() instanceof IOException);
+        throw new IOException(e.getCause());
+      }
+    }
+  }
+}
@@ -16,12 +16,19 @@
 
 package com.facebook.buck.slb;
 
+import com.google.common.collect.ImmutableList;
+
 import java.io.IOException;
 import java.net.URI;
 
 public interface HttpLoadBalancer extends AutoCloseable {
   URI getBestServer() throws IOException;
 
+  /**
+   * @return all the servers which are currently healthy, best first.
+   */
+  ImmutableList<URI> getBestServers() throws IOException;
+
   void reportException(URI server);
 
   @Override
@@ -76,6 +76,13 @@ public class ServerHealthManager {
   }
 
   public URI getBestServer(long epochMillis) throws IOException {
+    return getBestServers(epochMillis).get(0);
+  }
+
+  /**
+   * @return all the healthy servers, fastest first.
+   */
+  public ImmutableList<URI> getBestServers(long epochMillis) throws IOException {
     // TODO(ruibm): Computations in this method could be cached and only refreshed every 10 seconds
     // to avoid call bursts causing unnecessary CPU consumption.
 
@@ -97,7 +104,11 @@ public class ServerHealthManager {
     }
 
     Collections.sort(serverLatencies, LATENCY_COMPARATOR);
-    return serverLatencies.get(0).getFirst();
+    ImmutableList.Builder<URI> bestServers = ImmutableList.builder();
+    for (Pair<URI, Long> serverLatency : serverLatencies) {
+      bestServers.add(serverLatency.getFirst());
+    }
+    return bestServers.build();
   }
 
   public String toString(long epochMillis) {
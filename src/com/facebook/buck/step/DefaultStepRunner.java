@@ -16,6 +16,7 @@
 
 package com.facebook.buck.step;
 
+import com.facebook.buck.log.BuildTargetThreadAssociation;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.concurrent.MoreFutures;
@@ -34,6 +35,8 @@ import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
+import javax.annotation.Nullable;
+
 public final class DefaultStepRunner implements StepRunner {
 
   private static final Logger LOG = Logger.get(DefaultStepRunner.class);
@@ -52,26 +55,38 @@ public final class DefaultStepRunner implements StepRunner {
       context.getStdErr().println(step.getDescription(context));
     }
 
-    String stepShortName = step.getShortName();
-    String stepDescription = step.getDescription(context);
-    UUID stepUuid = UUID.randomUUID();
-    StepEvent.Started started = StepEvent.started(stepShortName, stepDescription, stepUuid);
-    context.getBuckEventBus().logDebugAndPost(
-        LOG, started);
-    int exitCode = 1;
+    // Tag what the step logs with its target, so it can be looked up in the indexed logs.
+    @Nullable BuildTargetThreadAssociation buildTargetThreadAssociation = null;
+    if (buildTarget.isPresent()) {
+      buildTargetThreadAssociation =
+          new BuildTargetThreadAssociation(buildTarget.get().getFullyQualifiedName());
+    }
     try {
-      exitCode = step.execute(context);
-    } catch (IOException | RuntimeException e) {
-      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
-    } finally {
+      String stepShortName = step.getShortName();
+      String stepDescription = step.getDescription(context);
+      UUID stepUuid = UUID.randomUUID();
+      StepEvent.Started started = StepEvent.started(stepShortName, stepDescription, stepUuid);
       context.getBuckEventBus().logDebugAndPost(
-          LOG, StepEvent.finished(started, exitCode));
-    }
-    if (exitCode != 0) {
-      throw StepFailedException.createForFailingStepWithExitCode(step,
-          context,
-          exitCode,
-          buildTarget);
+          LOG, started);
+      int exitCode = 1;
+      try {
+        exitCode = step.execute(context);
+      } catch (IOException | RuntimeException e) {
+        throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+      } finally {
+        context.getBuckEventBus().logDebugAndPost(
+            LOG, StepEvent.finished(started, exitCode));
+      }
+      if (exitCode != 0) {
+        throw StepFailedException.createForFailingStepWithExitCode(step,
+            context,
+            exitCode,
+            buildTarget);
+      }
+    } finally {
+      if (buildTargetThreadAssociation != null) {
+        buildTargetThreadAssociation.stop();
+      }
     }
   }
 
@@ -23,6 +23,7 @@ import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ThrowableConsoleEvent;
 import com.facebook.buck.jvm.core.JavaPackageFinder;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.util.Ansi;
 import com.facebook.buck.util.ClassLoaderCache;
 import com.facebook.buck.util.Console;
@@ -105,6 +106,9 @@ public abstract class ExecutionContext implements Closeable {
   @Value.Parameter
   public abstract Optional<TargetDeviceOptions> getTargetDeviceOptions();
 
+  @Value.Parameter
+  public abstract WorkerProcessPool getWorkerProcessPool();
+
 
   @Value.Derived
   public Verbosity getVerbosity() {
@@ -125,7 +129,8 @@ public abstract class ExecutionContext implements Closeable {
     return ImmutableExecutionContext.copyOf(this)
         .withConsole(console)
         .withProcessExecutor(new ProcessExecutor(console))
-        .withClassLoaderCache(getClassLoaderCache().addRef());
+        .withClassLoaderCache(getClassLoaderCache().addRef())
+        .withWorkerProcessPool(getWorkerProcessPool().addRef());
   }
 
   public void logError(Throwable error, String msg, Object... formatArgs) {
@@ -172,6 +177,7 @@ public abstract class ExecutionContext implements Closeable {
 
   @Override
   public void close() throws IOException {
+    getWorkerProcessPool().close();
     getClassLoaderCache().close();
   }
 
@@ -202,6 +208,7 @@ public abstract class ExecutionContext implements Closeable {
             /* loadLimit */ Double.POSITIVE_INFINITY);
     private Optional<AdbOptions> adbOptions = Optional.absent();
     private Optional<TargetDeviceOptions> targetDeviceOptions = Optional.absent();
+    private WorkerProcessPool workerProcessPool = new WorkerProcessPool();
 
     private Builder() {}
 
@@ -223,7 +230,8 @@ public abstract class ExecutionContext implements Closeable {
           Preconditions.checkNotNull(classLoaderCache),
           Preconditions.checkNotNull(concurrencyLimit),
           adbOptions,
-          targetDeviceOptions);
+          targetDeviceOptions,
+          Preconditions.checkNotNull(workerProcessPool));
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -337,5 +345,10 @@ public abstract class ExecutionContext implements Closeable {
       this.targetDeviceOptions = targetDeviceOptions;
       return this;
     }
+
+    public Builder setWorkerProcessPool(WorkerProcessPool workerProcessPool) {
+      this.workerProcessPool = workerProcessPool;
+      return this;
+    }
   }
 }
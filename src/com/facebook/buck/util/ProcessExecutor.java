@@ -16,14 +16,17 @@
 
 package com.facebook.buck.util;
 
+import com.facebook.buck.io.ExecutableFinder;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Enums;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 
@@ -32,7 +35,15 @@ import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Executes a {@link Process} and blocks until it is finished.
@@ -41,6 +52,48 @@ public class ProcessExecutor {
 
   private static final Logger LOG = Logger.get(ProcessExecutor.class);
 
+  /**
+   * System property naming the {@link Launcher} used by executors which aren't given one.
+   */
+  private static final String LAUNCHER_PROPERTY = "buck.process_launcher";
+
+  private static final ListeningProcessExecutor LISTENING_PROCESS_EXECUTOR =
+      new ListeningProcessExecutor();
+
+  /**
+   * How {@link #launchAndExecute(ProcessExecutorParams, Set, Optional, Optional, Optional)}
+   * starts processes and reads their output.
+   */
+  public enum Launcher {
+    /**
+     * Forks with a {@link ProcessBuilder}, and starts a thread each to read stdout and stderr.
+     */
+    PROCESS_BUILDER,
+
+    /**
+     * Spawns with {@code posix_spawn} (or {@code CreateProcess} on Windows) through NuProcess,
+     * which reads the output of every process from a single event loop thread, so launching
+     * neither copies the address space of the JVM nor starts any threads. Processes which
+     * redirect their I/O or which are given a time out handler, which needs a {@link Process},
+     * are still launched with a {@link ProcessBuilder}.
+     */
+    SPAWN,
+    ;
+
+    private static Launcher fromSystemProperties() {
+      String launcher = System.getProperty(LAUNCHER_PROPERTY);
+      if (launcher == null) {
+        return PROCESS_BUILDER;
+      }
+      Optional<Launcher> value = Enums.getIfPresent(Launcher.class, launcher.toUpperCase());
+      if (!value.isPresent()) {
+        LOG.warn("Unknown %s %s, using %s", LAUNCHER_PROPERTY, launcher, PROCESS_BUILDER);
+        return PROCESS_BUILDER;
+      }
+      return value.get();
+    }
+  }
+
   /**
    * Options for {@link ProcessExecutor#execute(Process, Set, Optional, Optional, Optional)}.
    */
@@ -101,15 +154,22 @@ public class ProcessExecutor {
   private final PrintStream stdOutStream;
   private final PrintStream stdErrStream;
   private final Ansi ansi;
+  private final Launcher launcher;
 
   /**
    * Creates a new {@link ProcessExecutor} with the specified parameters used for writing the output
-   * of the process.
+   * of the process, which launches processes as the {@code buck.process_launcher} system property
+   * says to.
    */
   public ProcessExecutor(Console console) {
+    this(console, Launcher.fromSystemProperties());
+  }
+
+  public ProcessExecutor(Console console, Launcher launcher) {
     this.stdOutStream = console.getStdOut();
     this.stdErrStream = console.getStdErr();
     this.ansi = console.getAnsi();
+    this.launcher = launcher;
   }
 
   /**
@@ -145,9 +205,79 @@ public class ProcessExecutor {
       Optional<Long> timeOutMs,
       Optional<Function<Process, Void>> timeOutHandler)
       throws InterruptedException, IOException {
+    if (launcher == Launcher.SPAWN &&
+        !timeOutHandler.isPresent() &&
+        !params.getRedirectInput().isPresent() &&
+        !params.getRedirectOutput().isPresent() &&
+        !params.getRedirectError().isPresent()) {
+      return spawnAndExecute(params, options, stdin, timeOutMs);
+    }
     return execute(launchProcessInternal(params), options, stdin, timeOutMs, timeOutHandler);
   }
 
+  /**
+   * Like {@link #execute(Process, Set, Optional, Optional, Optional)}, but for a process spawned
+   * by the {@link ListeningProcessExecutor}.
+   */
+  private Result spawnAndExecute(
+      ProcessExecutorParams params,
+      Set<Option> options,
+      Optional<String> stdin,
+      Optional<Long> timeOutMs) throws InterruptedException, IOException {
+    checkProgramExists(params);
+
+    boolean shouldPrintStdOut = options.contains(Option.PRINT_STD_OUT);
+    boolean expectingStdOut = options.contains(Option.EXPECTING_STD_OUT);
+    PrintStream stdOutToWriteTo = shouldPrintStdOut ?
+        stdOutStream : new CapturingPrintStream();
+
+    boolean shouldPrintStdErr = options.contains(Option.PRINT_STD_ERR);
+    boolean expectingStdErr = options.contains(Option.EXPECTING_STD_ERR);
+    PrintStream stdErrToWriteTo = shouldPrintStdErr ?
+        stdErrStream : new CapturingPrintStream();
+
+    LineHandlingProcessListener listener = new LineHandlingProcessListener(
+        stdin,
+        InputStreamConsumer.createAnsiHighlightingHandler(
+            /* flagOutputWrittenToStream */ !shouldPrintStdOut && !expectingStdOut,
+            stdOutToWriteTo,
+            ansi),
+        InputStreamConsumer.createAnsiHighlightingHandler(
+            /* flagOutputWrittenToStream */ !shouldPrintStdErr && !expectingStdErr,
+            stdErrToWriteTo,
+            ansi));
+    ListeningProcessExecutor.LaunchedProcess process =
+        LISTENING_PROCESS_EXECUTOR.launchProcess(params, listener);
+
+    boolean timedOut = false;
+    int exitCode;
+    try {
+      // A timeout of zero waits for as long as the process runs.
+      exitCode = LISTENING_PROCESS_EXECUTOR.waitForProcess(
+          process,
+          timeOutMs.or(0L),
+          TimeUnit.MILLISECONDS);
+      if (exitCode == Integer.MIN_VALUE) {
+        timedOut = true;
+        LISTENING_PROCESS_EXECUTOR.destroyProcess(process, /* force */ false);
+        exitCode = LISTENING_PROCESS_EXECUTOR.waitForProcess(process, 0, TimeUnit.MILLISECONDS);
+      }
+      listener.awaitExit();
+    } catch (InterruptedException e) {
+      LISTENING_PROCESS_EXECUTOR.destroyProcess(process, /* force */ true);
+      throw e;
+    }
+
+    return createResult(
+        exitCode,
+        timedOut,
+        options,
+        stdOutToWriteTo,
+        shouldPrintStdOut,
+        stdErrToWriteTo,
+        shouldPrintStdErr);
+  }
+
   /**
    * Launches a {@link java.lang.Process} given {@link ProcessExecutorParams}.
    */
@@ -352,12 +482,28 @@ public class ProcessExecutor {
       process.waitFor();
     }
 
+    // Report the exit code of the Process.
+    return createResult(
+        process.exitValue(),
+        timedOut,
+        options,
+        stdOutToWriteTo,
+        shouldPrintStdOut,
+        stdErrToWriteTo,
+        shouldPrintStdErr);
+  }
+
+  private Result createResult(
+      int exitCode,
+      boolean timedOut,
+      Set<Option> options,
+      PrintStream stdOutToWriteTo,
+      boolean shouldPrintStdOut,
+      PrintStream stdErrToWriteTo,
+      boolean shouldPrintStdErr) {
     Optional<String> stdoutText = getDataIfNotPrinted(stdOutToWriteTo, shouldPrintStdOut);
     Optional<String> stderrText = getDataIfNotPrinted(stdErrToWriteTo, shouldPrintStdErr);
 
-    // Report the exit code of the Process.
-    int exitCode = process.exitValue();
-
     // If the command has failed and we're not being explicitly quiet, ensure everything gets
     // printed.
     if (exitCode != 0 && !options.contains(Option.IS_SILENT)) {
@@ -385,6 +531,154 @@ public class ProcessExecutor {
     }
   }
 
+  /**
+   * Some libcs' {@code posix_spawn} report a successful launch of a program which doesn't exist,
+   * which would then look like it exited cleanly, so look for it first and fail as
+   * {@link ProcessBuilder#start()} would.
+   */
+  private static void checkProgramExists(ProcessExecutorParams params) throws IOException {
+    if (Platform.detect() == Platform.WINDOWS) {
+      return;
+    }
+    String program = params.getCommand().get(0);
+    boolean exists;
+    if (program.contains("/")) {
+      Path path = Paths.get(program);
+      if (params.getDirectory().isPresent()) {
+        path = params.getDirectory().get().toPath().resolve(path);
+      }
+      exists = Files.isExecutable(path) && !Files.isDirectory(path);
+    } else {
+      // Which PATH a bare name is looked up on differs between spawners, so look on both the
+      // PATH the program is given and ours, and only fail when neither has it.
+      ExecutableFinder finder = new ExecutableFinder();
+      exists = finder
+          .getOptionalExecutable(Paths.get(program), ImmutableMap.copyOf(System.getenv()))
+          .isPresent();
+      if (!exists && params.getEnvironment().isPresent()) {
+        exists = finder
+            .getOptionalExecutable(
+                Paths.get(program),
+                ImmutableMap.copyOf(params.getEnvironment().get()))
+            .isPresent();
+      }
+    }
+    if (!exists) {
+      throw new IOException(
+          String.format("Cannot run program \"%s\": No such file or directory", program));
+    }
+  }
+
+  /**
+   * Splits the output of a spawned process into lines for {@link InputStreamConsumer.Handler}s,
+   * as the threads reading a {@link Process} do, and writes its stdin.
+   */
+  private static class LineHandlingProcessListener extends AbstractCharsetProcessListener {
+    private final Optional<CharBuffer> stdin;
+    private final LineSplitter stdout;
+    private final LineSplitter stderr;
+    private final CountDownLatch exited = new CountDownLatch(1);
+    private ListeningProcessExecutor.LaunchedProcess process;
+
+    LineHandlingProcessListener(
+        Optional<String> stdin,
+        InputStreamConsumer.Handler stdoutHandler,
+        InputStreamConsumer.Handler stderrHandler) {
+      super(Charset.defaultCharset());
+      this.stdin = stdin.isPresent() ?
+          Optional.of(CharBuffer.wrap(stdin.get())) :
+          Optional.<CharBuffer>absent();
+      this.stdout = new LineSplitter(stdoutHandler);
+      this.stderr = new LineSplitter(stderrHandler);
+    }
+
+    @Override
+    public void onStart(ListeningProcessExecutor.LaunchedProcess process) {
+      this.process = process;
+      if (stdin.isPresent()) {
+        process.wantWrite();
+      } else {
+        process.closeStdin(/* force */ true);
+      }
+    }
+
+    @Override
+    protected boolean onStdinCharsReady(CharBuffer buffer) {
+      CharBuffer toWrite = stdin.get();
+      boolean wantMore = toWrite.remaining() > buffer.remaining();
+      int oldLimit = toWrite.limit();
+      toWrite.limit(toWrite.position() + Math.min(toWrite.remaining(), buffer.remaining()));
+      buffer.put(toWrite);
+      toWrite.limit(oldLimit);
+      buffer.flip();
+      if (!wantMore) {
+        process.closeStdin(/* force */ false);
+      }
+      return wantMore;
+    }
+
+    @Override
+    public void onExit(int exitCode) {
+      stdout.flush();
+      stderr.flush();
+      exited.countDown();
+    }
+
+    @Override
+    protected void onStdoutChars(CharBuffer buffer, boolean closed, CoderResult coderResult) {
+      stdout.append(buffer, closed);
+    }
+
+    @Override
+    protected void onStderrChars(CharBuffer buffer, boolean closed, CoderResult coderResult) {
+      stderr.append(buffer, closed);
+    }
+
+    void awaitExit() throws InterruptedException {
+      exited.await();
+    }
+  }
+
+  /**
+   * Breaks characters into lines the way {@link java.io.BufferedReader#readLine()} does.
+   */
+  private static class LineSplitter {
+    private final InputStreamConsumer.Handler handler;
+    private final StringBuilder line = new StringBuilder();
+    private boolean skipLineFeed;
+
+    LineSplitter(InputStreamConsumer.Handler handler) {
+      this.handler = handler;
+    }
+
+    void append(CharBuffer buffer, boolean closed) {
+      while (buffer.hasRemaining()) {
+        char c = buffer.get();
+        if (c == '\n' && skipLineFeed) {
+          skipLineFeed = false;
+          continue;
+        }
+        skipLineFeed = c == '\r';
+        if (c == '\n' || c == '\r') {
+          handler.handleLine(line.toString());
+          line.setLength(0);
+        } else {
+          line.append(c);
+        }
+      }
+      if (closed) {
+        flush();
+      }
+    }
+
+    void flush() {
+      if (line.length() > 0) {
+        handler.handleLine(line.toString());
+        line.setLength(0);
+      }
+    }
+  }
+
   /**
    * Values from the result of
    * {@link ProcessExecutor#execute(Process, Set, Optional, Optional, Optional)}.
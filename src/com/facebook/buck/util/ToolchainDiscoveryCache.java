@@ -0,0 +1,341 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util;
+
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Function;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Remembers what toolchain probes, such as asking an interpreter for its version, printed, so
+ * that they needn't be run again until the tool they ran changes.
+ *
+ * Results are keyed by the probe's command and the environment it runs with, whether set or
+ * inherited, and are only used while the tool's contents hash to what they did when it was probed.
+ * Each tool's size and modification time are kept alongside its hash, so the tool is only read
+ * again once either of them changes. Only probes which exit successfully are remembered.
+ */
+public class ToolchainDiscoveryCache {
+
+  private static final Logger LOG = Logger.get(ToolchainDiscoveryCache.class);
+
+  private static final int CACHE_MAGIC = 0x42544443;
+  private static final int CACHE_VERSION = 2;
+
+  private final Optional<Path> storage;
+
+  @GuardedBy("this")
+  @Nullable
+  private Map<String, Probe> probes;
+
+  private ToolchainDiscoveryCache(Optional<Path> storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * @return a cache which forgets its results when it goes away.
+   */
+  public static ToolchainDiscoveryCache inMemory() {
+    return new ToolchainDiscoveryCache(Optional.<Path>absent());
+  }
+
+  /**
+   * @return a cache which reads and writes its results from {@code storage}, so that they are
+   *     shared by every cache using the same file.
+   */
+  public static ToolchainDiscoveryCache persistedAt(Path storage) {
+    return new ToolchainDiscoveryCache(Optional.of(storage));
+  }
+
+  /**
+   * Runs {@code params} with {@code processExecutor}, unless it has already been run against the
+   * same contents of {@code tool}, in which case the result of that run is returned.
+   *
+   * @param tool the binary whose output the probe reports on, typically the first element of
+   *     the command.
+   */
+  public ProcessExecutor.Result launchAndExecute(
+      ProcessExecutor processExecutor,
+      Path tool,
+      ProcessExecutorParams params,
+      Set<ProcessExecutor.Option> options) throws IOException, InterruptedException {
+    Optional<ToolStamp> stamp = ToolStamp.of(tool);
+    if (!stamp.isPresent()) {
+      // Let the executor report the missing tool however it normally would.
+      return execute(processExecutor, params, options);
+    }
+
+    String key = getKey(params);
+    Probe probe = getProbe(key);
+    if (probe != null && probe.stamp.realPath.equals(stamp.get().realPath)) {
+      if (probe.stamp.equals(stamp.get())) {
+        return probe.getResult();
+      }
+      if (probe.stamp.size == stamp.get().size &&
+          probe.toolHash.equals(hashTool(stamp.get().realPath))) {
+        // The tool was touched but not changed.
+        putProbe(key, new Probe(stamp.get(), probe.toolHash, probe.stdout, probe.stderr));
+        return probe.getResult();
+      }
+    }
+
+    LOG.debug("Probing %s with %s", tool, params.getCommand());
+    ProcessExecutor.Result result = execute(processExecutor, params, options);
+    if (result.getExitCode() == 0 && !result.isTimedOut()) {
+      putProbe(
+          key,
+          new Probe(
+              stamp.get(),
+              hashTool(stamp.get().realPath),
+              result.getStdout().or(""),
+              result.getStderr().or("")));
+    }
+    return result;
+  }
+
+  private static ProcessExecutor.Result execute(
+      ProcessExecutor processExecutor,
+      ProcessExecutorParams params,
+      Set<ProcessExecutor.Option> options) throws IOException, InterruptedException {
+    return processExecutor.launchAndExecute(
+        params,
+        options,
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+  }
+
+  private static String getKey(ProcessExecutorParams params) {
+    StringBuilder key = new StringBuilder();
+    Joiner.on('\0').appendTo(key, params.getCommand());
+    key.append('\1');
+    if (params.getDirectory().isPresent()) {
+      key.append(params.getDirectory().get());
+    }
+    key.append('\1');
+    // Probes which don't set an environment inherit ours, which can change what they print (GOROOT
+    // for go, PYTHONPATH for python...) just as much as one they set.
+    Joiner.on('\0').withKeyValueSeparator("=").appendTo(
+        key,
+        ImmutableSortedMap.copyOf(params.getEnvironment().or(System.getenv())));
+    // Whole environments can be longer than the stored keys are allowed to be.
+    return Hashing.sha1().hashString(key, StandardCharsets.UTF_8).toString();
+  }
+
+  private static HashCode hashTool(Path realPath) throws IOException {
+    return com.google.common.io.Files.asByteSource(realPath.toFile()).hash(Hashing.sha1());
+  }
+
+  @Nullable
+  private synchronized Probe getProbe(String key) {
+    return getProbes().get(key);
+  }
+
+  private synchronized void putProbe(String key, Probe probe) {
+    getProbes().put(key, probe);
+    if (storage.isPresent()) {
+      try {
+        save(storage.get(), probes);
+      } catch (IOException e) {
+        LOG.warn(e, "Could not save toolchain probes to %s.", storage.get());
+      }
+    }
+  }
+
+  @GuardedBy("this")
+  private Map<String, Probe> getProbes() {
+    if (probes == null) {
+      probes = new HashMap<>();
+      if (storage.isPresent()) {
+        load(storage.get(), probes);
+      }
+    }
+    return probes;
+  }
+
+  private static void load(Path storage, Map<String, Probe> probes) {
+    Map<String, Probe> loaded = new HashMap<>();
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(storage)))) {
+      if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION) {
+        LOG.debug("Ignoring toolchain probes in %s in an unknown format", storage);
+        return;
+      }
+      for (int count = checkLength(in, in.readInt()); count > 0; count--) {
+        String key = in.readUTF();
+        Path toolPath = storage.getFileSystem().getPath(in.readUTF());
+        ToolStamp stamp = new ToolStamp(toolPath, in.readLong(), in.readLong());
+        byte[] toolHash = new byte[in.readUnsignedByte()];
+        in.readFully(toolHash);
+        loaded.put(
+            key,
+            new Probe(stamp, HashCode.fromBytes(toolHash), readString(in), readString(in)));
+      }
+    } catch (NoSuchFileException e) {
+      LOG.debug("No toolchain probes at %s", storage);
+      return;
+    } catch (IOException | RuntimeException e) {
+      // A truncated or corrupt file just means probing again.
+      LOG.warn(e, "Ignoring corrupt toolchain probes in %s", storage);
+      return;
+    }
+    probes.putAll(loaded);
+  }
+
+  private static void save(Path storage, Map<String, Probe> probes) throws IOException {
+    Files.createDirectories(storage.getParent());
+    Path tmp = Files.createTempFile(storage.getParent(), storage.getFileName().toString(), ".tmp");
+    try {
+      try (DataOutputStream out =
+               new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(CACHE_MAGIC);
+        out.writeInt(CACHE_VERSION);
+        out.writeInt(probes.size());
+        for (Map.Entry<String, Probe> entry : probes.entrySet()) {
+          Probe probe = entry.getValue();
+          out.writeUTF(entry.getKey());
+          out.writeUTF(probe.stamp.realPath.toString());
+          out.writeLong(probe.stamp.size);
+          out.writeLong(probe.stamp.lastModifiedMillis);
+          byte[] toolHash = probe.toolHash.asBytes();
+          out.writeByte(toolHash.length);
+          out.write(toolHash);
+          writeString(out, probe.stdout);
+          writeString(out, probe.stderr);
+        }
+      }
+      Files.move(
+          tmp,
+          storage,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+  }
+
+  /**
+   * Unlike {@link DataOutputStream#writeUTF(String)}, handles strings of any length, which the
+   * output of a probe isn't guaranteed to be.
+   */
+  private static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[checkLength(in, in.readInt())];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Rejects lengths which can't be right, before anything is allocated for them: nothing stored
+   * takes up less than a byte, so no count can be larger than what is left of the file.
+   */
+  private static int checkLength(DataInputStream in, int length) throws IOException {
+    if (length < 0 || length > in.available()) {
+      throw new IOException(String.format("Invalid length %d", length));
+    }
+    return length;
+  }
+
+  private static class ToolStamp {
+    private final Path realPath;
+    private final long size;
+    private final long lastModifiedMillis;
+
+    ToolStamp(Path realPath, long size, long lastModifiedMillis) {
+      this.realPath = realPath;
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+    }
+
+    static Optional<ToolStamp> of(Path tool) {
+      try {
+        // Tools are often symlinks to a versioned binary, which is what really changes.
+        Path realPath = tool.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(realPath, BasicFileAttributes.class);
+        if (!attributes.isRegularFile()) {
+          return Optional.absent();
+        }
+        return Optional.of(
+            new ToolStamp(realPath, attributes.size(), attributes.lastModifiedTime().toMillis()));
+      } catch (IOException e) {
+        return Optional.absent();
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof ToolStamp)) {
+        return false;
+      }
+      ToolStamp that = (ToolStamp) other;
+      return realPath.equals(that.realPath) &&
+          size == that.size &&
+          lastModifiedMillis == that.lastModifiedMillis;
+    }
+
+    @Override
+    public int hashCode() {
+      return realPath.hashCode() * 31 + (int) (size * 31 + lastModifiedMillis);
+    }
+  }
+
+  private static class Probe {
+    private final ToolStamp stamp;
+    private final HashCode toolHash;
+    private final String stdout;
+    private final String stderr;
+
+    Probe(ToolStamp stamp, HashCode toolHash, String stdout, String stderr) {
+      this.stamp = stamp;
+      this.toolHash = toolHash;
+      this.stdout = stdout;
+      this.stderr = stderr;
+    }
+
+    ProcessExecutor.Result getResult() {
+      return new ProcessExecutor.Result(0, stdout, stderr);
+    }
+  }
+}
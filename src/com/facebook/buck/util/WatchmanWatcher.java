@@ -20,14 +20,18 @@ package com.facebook.buck.util;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.io.WatchmanClient;
 import com.facebook.buck.io.Watchman.Capability;
+import com.facebook.buck.io.WatchmanSubscriber;
 import com.facebook.buck.log.Logger;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.eventbus.EventBus;
 
@@ -55,6 +59,12 @@ public class WatchmanWatcher {
   private static final int DEFAULT_OVERFLOW_THRESHOLD = 10000;
   private static final long DEFAULT_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
 
+  /**
+   * Changes delivered through a subscription are invalidated as a single batch, which is cheap
+   * enough that the overflow threshold can be much higher than for individually posted events.
+   */
+  private static final int DEFAULT_SUBSCRIPTION_OVERFLOW_THRESHOLD = 200000;
+
   private final EventBus fileChangeEventBus;
   private final List<Object> query;
   private final WatchmanClient watchmanClient;
@@ -69,6 +79,12 @@ public class WatchmanWatcher {
    */
   private final int overflow;
 
+  /**
+   * The maximum number of distinct changed files to process in a single batch when changes are
+   * delivered through a {@link WatchmanSubscriber}.
+   */
+  private final int subscriptionOverflow;
+
   private final long timeoutMillis;
 
   public WatchmanWatcher(
@@ -81,6 +97,7 @@ public class WatchmanWatcher {
     this(fileChangeEventBus,
         watchman.getWatchmanClient().get(),
         DEFAULT_OVERFLOW_THRESHOLD,
+        DEFAULT_SUBSCRIPTION_OVERFLOW_THRESHOLD,
         DEFAULT_TIMEOUT_MILLIS,
         createQuery(
             watchRoot,
@@ -97,9 +114,26 @@ public class WatchmanWatcher {
                   int overflow,
                   long timeoutMillis,
                   List<Object> query) {
+    this(
+        fileChangeEventBus,
+        watchmanClient,
+        overflow,
+        DEFAULT_SUBSCRIPTION_OVERFLOW_THRESHOLD,
+        timeoutMillis,
+        query);
+  }
+
+  @VisibleForTesting
+  WatchmanWatcher(EventBus fileChangeEventBus,
+                  WatchmanClient watchmanClient,
+                  int overflow,
+                  int subscriptionOverflow,
+                  long timeoutMillis,
+                  List<Object> query) {
     this.fileChangeEventBus = fileChangeEventBus;
     this.watchmanClient = watchmanClient;
     this.overflow = overflow;
+    this.subscriptionOverflow = subscriptionOverflow;
     this.timeoutMillis = timeoutMillis;
     this.query = query;
   }
@@ -189,81 +223,95 @@ public class WatchmanWatcher {
    *
    * Any warnings posted by Watchman are added to watchmanWarningsBuilder.
    */
-  @SuppressWarnings("unchecked")
   public void postEvents(
       BuckEventBus buckEventBus,
       ImmutableSet.Builder<String> watchmanWarningsBuilder
   ) throws IOException, InterruptedException {
     try {
-      Optional<? extends Map<String, ? extends Object>> queryResponse =
-          watchmanClient.queryWithTimeout(
-              TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
-              query.toArray());
-      if (!queryResponse.isPresent()) {
+      Optional<List<Map<String, Object>>> files =
+          queryChangedFiles(query, buckEventBus, watchmanWarningsBuilder);
+      if (!files.isPresent()) {
+        return;
+      }
+      if (files.get().size() > overflow) {
         LOG.warn(
-            "Could get response from Watchman for query %s within %d ms",
-            query,
-            timeoutMillis);
+            "Too many changed files (%d > %d), giving up and posting overflow event.",
+            files.get().size(), overflow);
         postWatchEvent(createOverflowEvent());
         return;
       }
 
-      Map<String, ? extends Object> response = queryResponse.get();
-      String error = (String) response.get("error");
-      if (error != null) {
-        WatchmanWatcherException e = new WatchmanWatcherException(error);
-        LOG.error(
-            e,
-            "Error in Watchman output. Posting an overflow event to flush the caches");
+      Optional<List<WatchEvent<Path>>> events = createPathEvents(files.get());
+      if (!events.isPresent()) {
         postWatchEvent(createOverflowEvent());
-        throw e;
+        return;
       }
-
-      String warning = (String) response.get("warning");
-      if (warning != null) {
-        buckEventBus.post(
-            ConsoleEvent.warning("Watchman has produced a warning: %s", warning));
-        LOG.warn("Watchman has produced a warning: %s", warning);
-        watchmanWarningsBuilder.add(warning);
+      for (WatchEvent<Path> event : events.get()) {
+        postWatchEvent(event);
       }
+      LOG.debug("Posted %d Watchman events.", events.get().size());
+    } catch (InterruptedException e) {
+      LOG.warn(e, "Interrupted while talking to Watchman");
+      postWatchEvent(createOverflowEvent()); // Events may have been lost, signal overflow.
+      Thread.currentThread().interrupt();
+      throw e;
+    } catch (IOException e) {
+      LOG.error(e, "I/O error talking to Watchman");
+      postWatchEvent(createOverflowEvent()); // Events may have been lost, signal overflow.
+      throw e;
+    }
+  }
 
-      Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
-      if (isFreshInstance != null && isFreshInstance) {
+  /**
+   * Posts the changes streamed to {@code subscriber} since the previous call as a single
+   * {@link WatchEventBatch}, after catching up with any changes Watchman had not yet delivered
+   * to the subscription. Because the batch is processed in one pass, far more changes can be
+   * handled this way than by {@link #postEvents(BuckEventBus, ImmutableSet.Builder)} before an
+   * overflow is needed.
+   */
+  public void postEvents(
+      BuckEventBus buckEventBus,
+      ImmutableSet.Builder<String> watchmanWarningsBuilder,
+      WatchmanSubscriber subscriber) throws IOException, InterruptedException {
+    try {
+      WatchmanSubscriber.Changes changes = subscriber.drain();
+      if (!subscriber.isAlive() || changes.isOverflow() || !changes.getClock().isPresent()) {
+        LOG.warn("Watchman subscription lost changes, posting overflow event.");
         postWatchEvent(createOverflowEvent());
         return;
       }
 
-      List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
-      if (files != null) {
-        if (files.size() > overflow) {
-          LOG.warn(
-              "Too many changed files (%d > %d), giving up and posting overflow event.",
-              files.size(), overflow);
-          postWatchEvent(createOverflowEvent());
-          return;
-        }
+      Optional<List<Map<String, Object>>> catchUpFiles = queryChangedFiles(
+          createQuerySince(changes.getClock().get()),
+          buckEventBus,
+          watchmanWarningsBuilder);
+      if (!catchUpFiles.isPresent()) {
+        return;
+      }
 
-        for (Map<String, Object> file : files) {
-          String fileName = (String) file.get("name");
-          if (fileName == null) {
-            LOG.warn("Filename missing from Watchman file response %s", file);
-            postWatchEvent(createOverflowEvent());
-            return;
-          }
-          PathEventBuilder builder = new PathEventBuilder();
-          builder.setPath(Paths.get(fileName));
-          Boolean fileNew = (Boolean) file.get("new");
-          if (fileNew != null && fileNew) {
-            builder.setCreationEvent();
-          }
-          Boolean fileExists = (Boolean) file.get("exists");
-          if (fileExists != null && !fileExists) {
-            builder.setDeletionEvent();
-          }
-          postWatchEvent(builder.build());
-        }
+      // Later reports for the same file supersede earlier ones.
+      Map<String, Map<String, Object>> filesByName = new LinkedHashMap<>();
+      for (Map<String, Object> file : Iterables.concat(changes.getFiles(), catchUpFiles.get())) {
+        filesByName.put((String) file.get("name"), file);
+      }
+      if (filesByName.size() > subscriptionOverflow) {
+        LOG.warn(
+            "Too many changed files (%d > %d), giving up and posting overflow event.",
+            filesByName.size(), subscriptionOverflow);
+        postWatchEvent(createOverflowEvent());
+        return;
+      }
 
-        LOG.debug("Posted %d Watchman events.", files.size());
+      Optional<List<WatchEvent<Path>>> events =
+          createPathEvents(ImmutableList.copyOf(filesByName.values()));
+      if (!events.isPresent()) {
+        postWatchEvent(createOverflowEvent());
+        return;
+      }
+      if (!events.get().isEmpty()) {
+        WatchEventBatch batch = new WatchEventBatch(events.get());
+        LOG.debug("Posting %s", batch);
+        fileChangeEventBus.post(batch);
       }
     } catch (InterruptedException e) {
       LOG.warn(e, "Interrupted while talking to Watchman");
@@ -277,6 +325,129 @@ public class WatchmanWatcher {
     }
   }
 
+  /**
+   * Starts a persistent subscription to the changes matched by this watcher's query, over a new
+   * connection to the Watchman listening on {@code socketPath}. The subscription starts at the
+   * current Watchman clock, so callers must still call
+   * {@link #postEvents(BuckEventBus, ImmutableSet.Builder)} once to pick up earlier changes.
+   */
+  public Optional<WatchmanSubscriber> subscribe(Path socketPath, String name)
+      throws IOException, InterruptedException {
+    String watchRoot = (String) query.get(1);
+    Optional<? extends Map<String, ? extends Object>> clockResponse =
+        watchmanClient.queryWithTimeout(
+            TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+            "clock",
+            watchRoot);
+    if (!clockResponse.isPresent() || !(clockResponse.get().get("clock") instanceof String)) {
+      LOG.warn("Could not get the Watchman clock for %s, not subscribing.", watchRoot);
+      return Optional.absent();
+    }
+    String clock = (String) clockResponse.get().get("clock");
+    return WatchmanSubscriber.subscribe(
+        socketPath,
+        watchRoot,
+        name,
+        createParamsSince(clock),
+        subscriptionOverflow);
+  }
+
+  /**
+   * Runs {@code query}, posting an overflow event and returning absent if its response can't
+   * be trusted to contain every change.
+   */
+  @SuppressWarnings("unchecked")
+  private Optional<List<Map<String, Object>>> queryChangedFiles(
+      List<Object> query,
+      BuckEventBus buckEventBus,
+      ImmutableSet.Builder<String> watchmanWarningsBuilder)
+      throws IOException, InterruptedException {
+    Optional<? extends Map<String, ? extends Object>> queryResponse =
+        watchmanClient.queryWithTimeout(
+            TimeUnit.MILLISECONDS.toNanos(timeoutMillis),
+            query.toArray());
+    if (!queryResponse.isPresent()) {
+      LOG.warn(
+          "Could get response from Watchman for query %s within %d ms",
+          query,
+          timeoutMillis);
+      postWatchEvent(createOverflowEvent());
+      return Optional.absent();
+    }
+
+    Map<String, ? extends Object> response = queryResponse.get();
+    String error = (String) response.get("error");
+    if (error != null) {
+      WatchmanWatcherException e = new WatchmanWatcherException(error);
+      LOG.error(
+          e,
+          "Error in Watchman output. Posting an overflow event to flush the caches");
+      postWatchEvent(createOverflowEvent());
+      throw e;
+    }
+
+    String warning = (String) response.get("warning");
+    if (warning != null) {
+      buckEventBus.post(
+          ConsoleEvent.warning("Watchman has produced a warning: %s", warning));
+      LOG.warn("Watchman has produced a warning: %s", warning);
+      watchmanWarningsBuilder.add(warning);
+    }
+
+    Boolean isFreshInstance = (Boolean) response.get("is_fresh_instance");
+    if (isFreshInstance != null && isFreshInstance) {
+      postWatchEvent(createOverflowEvent());
+      return Optional.absent();
+    }
+
+    List<Map<String, Object>> files = (List<Map<String, Object>>) response.get("files");
+    if (files == null) {
+      return Optional.<List<Map<String, Object>>>of(ImmutableList.<Map<String, Object>>of());
+    }
+    return Optional.of(files);
+  }
+
+  /**
+   * @return the path events for {@code files}, or absent if any of them could not be
+   *     interpreted.
+   */
+  private static Optional<List<WatchEvent<Path>>> createPathEvents(
+      List<Map<String, Object>> files) {
+    List<WatchEvent<Path>> events = new ArrayList<>(files.size());
+    for (Map<String, Object> file : files) {
+      String fileName = (String) file.get("name");
+      if (fileName == null) {
+        LOG.warn("Filename missing from Watchman file response %s", file);
+        return Optional.absent();
+      }
+      PathEventBuilder builder = new PathEventBuilder();
+      builder.setPath(Paths.get(fileName));
+      Boolean fileNew = (Boolean) file.get("new");
+      if (fileNew != null && fileNew) {
+        builder.setCreationEvent();
+      }
+      Boolean fileExists = (Boolean) file.get("exists");
+      if (fileExists != null && !fileExists) {
+        builder.setDeletionEvent();
+      }
+      events.add(builder.build());
+    }
+    return Optional.of(events);
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> createParamsSince(String clock) {
+    Map<String, Object> params = new LinkedHashMap<>((Map<String, Object>) query.get(2));
+    params.put("since", clock);
+    return params;
+  }
+
+  private List<Object> createQuerySince(String clock) {
+    List<Object> querySince = new ArrayList<>(query);
+    querySince.set(2, createParamsSince(clock));
+    return querySince;
+  }
+
   private void postWatchEvent(WatchEvent<?> event) {
     LOG.warn("Posting WatchEvent: %s", event);
     fileChangeEventBus.post(event);
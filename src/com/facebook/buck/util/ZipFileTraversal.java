@@ -16,11 +16,10 @@
 
 package com.facebook.buck.util;
 
+import com.facebook.buck.zip.ZipReader;
+
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Enumeration;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 public abstract class ZipFileTraversal {
   private final Path file;
@@ -29,13 +28,11 @@ public abstract class ZipFileTraversal {
     this.file = file;
   }
 
-  public abstract void visit(ZipFile zipFile, ZipEntry zipEntry) throws IOException;
+  public abstract void visit(ZipReader zipFile, ZipReader.Entry zipEntry) throws IOException;
 
   public final void traverse() throws IOException {
-    try (ZipFile zipFile = new ZipFile(file.toFile())) {
-      Enumeration<? extends ZipEntry> entries = zipFile.entries();
-      while (entries.hasMoreElements()) {
-        ZipEntry entry = entries.nextElement();
+    try (ZipReader zipFile = new ZipReader(file)) {
+      for (ZipReader.Entry entry : zipFile.getEntries()) {
         visit(zipFile, entry);
       }
     }
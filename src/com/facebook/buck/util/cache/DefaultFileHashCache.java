@@ -71,7 +71,7 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
     }
   }
 
-  private HashCode getFileHashCode(final Path path) throws IOException {
+  protected HashCode getFileHashCode(final Path path) throws IOException {
     ByteSource source =
         new ByteSource() {
           @Override
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * The size and modification time of a file or directory, used to tell whether something computed
+ * from it by an earlier daemon is still good without reading it again.
+ */
+public final class FileStamp {
+
+  /**
+   * Files modified this recently before something was computed from them may be modified again
+   * without their modification time changing, on filesystems with coarse timestamps, so what was
+   * computed from them isn't saved.
+   */
+  public static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+  private final long size;
+  private final long lastModifiedMillis;
+
+  private FileStamp(long size, long lastModifiedMillis) {
+    this.size = size;
+    this.lastModifiedMillis = lastModifiedMillis;
+  }
+
+  public static FileStamp of(Path path) throws IOException {
+    return of(Files.readAttributes(path, BasicFileAttributes.class));
+  }
+
+  public static FileStamp of(BasicFileAttributes attributes) {
+    return new FileStamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  public static FileStamp readFrom(DataInput in) throws IOException {
+    return new FileStamp(in.readLong(), in.readLong());
+  }
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeLong(size);
+    out.writeLong(lastModifiedMillis);
+  }
+
+  /**
+   * @return whether the file was modified within {@link #RACY_MODIFICATION_WINDOW_MILLIS} before
+   *     {@code startMillis}, when something started being computed from it.
+   */
+  public boolean isRacy(long startMillis) {
+    return startMillis - lastModifiedMillis < RACY_MODIFICATION_WINDOW_MILLIS;
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (!(other instanceof FileStamp)) {
+      return false;
+    }
+    FileStamp that = (FileStamp) other;
+    return size == that.size && lastModifiedMillis == that.lastModifiedMillis;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (size * 31 + lastModifiedMillis);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("size=%d lastModifiedMillis=%d", size, lastModifiedMillis);
+  }
+}
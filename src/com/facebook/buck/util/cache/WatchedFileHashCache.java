@@ -17,25 +17,171 @@
 package com.facebook.buck.util.cache;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.io.WatchEvents;
 import com.facebook.buck.log.Logger;
 import com.google.common.base.Predicate;
 import com.google.common.collect.Maps;
 import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.HashCode;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.WatchEvent;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+/**
+ * A {@link DefaultFileHashCache} which is kept up to date by file change events, and so can live
+ * for as long as the daemon does.
+ *
+ * The hashes of files can also be saved to a snapshot when the daemon goes away and restored by
+ * the next one. Each file's size and modification time are recorded before it is hashed, and a
+ * restored hash is only used if they still match when the file is next asked for.
+ */
 public class WatchedFileHashCache extends DefaultFileHashCache {
 
   private static final Logger LOG = Logger.get(WatchedFileHashCache.class);
 
+  private static final int SNAPSHOT_MAGIC = 0x42464843;
+  private static final int SNAPSHOT_VERSION = 1;
+
+  /** The stamps of files whose cached hashes can be saved to a snapshot. */
+  private final ConcurrentMap<Path, FileStamp> stamps = new ConcurrentHashMap<>();
+
+  /** Hashes restored from a snapshot which haven't been asked for yet. */
+  private final ConcurrentMap<Path, StampedHashCode> restoredHashCodes =
+      new ConcurrentHashMap<>();
+
   public WatchedFileHashCache(ProjectFilesystem projectFilesystem) {
     super(projectFilesystem);
   }
 
+  @Override
+  protected HashCode getFileHashCode(Path path) throws IOException {
+    long startMillis = System.currentTimeMillis();
+    FileStamp stamp = FileStamp.of(getFilesystem().resolve(path));
+
+    StampedHashCode restored = restoredHashCodes.remove(path);
+    if (restored != null && restored.stamp.equals(stamp)) {
+      stamps.put(path, stamp);
+      return restored.hashCode;
+    }
+
+    HashCode hashCode = super.getFileHashCode(path);
+    if (!stamp.isRacy(startMillis)) {
+      stamps.put(path, stamp);
+    } else {
+      stamps.remove(path);
+    }
+    return hashCode;
+  }
+
+  /**
+   * Writes the hashes of the cached files to {@code snapshot}, replacing it.
+   */
+  public void saveSnapshot(Path snapshot) throws IOException {
+    Files.createDirectories(snapshot.getParent());
+    // A unique name, so that two saves at once can't interleave their writes.
+    Path tmp = Files.createTempFile(
+        snapshot.getParent(),
+        snapshot.getFileName().toString(),
+        ".tmp");
+    int count = 0;
+    try {
+      try (DataOutputStream out =
+               new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        out.writeInt(SNAPSHOT_MAGIC);
+        out.writeInt(SNAPSHOT_VERSION);
+        out.writeUTF(getFilesystem().getRootPath().toString());
+        for (Map.Entry<Path, HashCodeAndFileType> entry : loadingCache.asMap().entrySet()) {
+          FileStamp stamp = stamps.get(entry.getKey());
+          if (stamp == null || entry.getValue().getType() != HashCodeAndFileType.Type.FILE) {
+            continue;
+          }
+          writeEntry(out, entry.getKey(), stamp, entry.getValue().getHashCode());
+          count++;
+        }
+        // Hashes restored by this cache but never asked for are still as good as they were.
+        for (Map.Entry<Path, StampedHashCode> entry : restoredHashCodes.entrySet()) {
+          if (loadingCache.getIfPresent(entry.getKey()) == null) {
+            writeEntry(out, entry.getKey(), entry.getValue().stamp, entry.getValue().hashCode);
+            count++;
+          }
+        }
+        // Entries are followed by an empty path, so that the count needn't be known up front.
+        out.writeUTF("");
+      }
+      Files.move(
+          tmp,
+          snapshot,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+    LOG.debug("Saved %d file hashes to %s", count, snapshot);
+  }
+
+  /**
+   * Restores the hashes saved by {@link #saveSnapshot(Path)}. Nothing is read from the files
+   * themselves until they are asked for, at which point a restored hash is used if the file's
+   * size and modification time haven't changed.
+   */
+  public void loadSnapshot(Path snapshot) throws IOException {
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshot)))) {
+      if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+        LOG.debug("Ignoring file hash snapshot %s in an unknown format", snapshot);
+        return;
+      }
+      if (!in.readUTF().equals(getFilesystem().getRootPath().toString())) {
+        LOG.debug("Ignoring file hash snapshot %s for a different project root", snapshot);
+        return;
+      }
+      int count = 0;
+      for (String path = in.readUTF(); !path.isEmpty(); path = in.readUTF()) {
+        FileStamp stamp = FileStamp.readFrom(in);
+        byte[] hashCode = new byte[in.readUnsignedByte()];
+        in.readFully(hashCode);
+        Path relativePath = Paths.get(path);
+        if (!getFilesystem().isIgnored(relativePath)) {
+          restoredHashCodes.put(
+              relativePath,
+              new StampedHashCode(stamp, HashCode.fromBytes(hashCode)));
+          count++;
+        }
+      }
+      LOG.debug("Restored %d file hashes from %s", count, snapshot);
+    } catch (NoSuchFileException e) {
+      LOG.debug("No file hash snapshot at %s", snapshot);
+    }
+  }
+
+  private static void writeEntry(
+      DataOutputStream out,
+      Path path,
+      FileStamp stamp,
+      HashCode hashCode) throws IOException {
+    out.writeUTF(path.toString());
+    stamp.writeTo(out);
+    byte[] bytes = hashCode.asBytes();
+    out.writeByte(bytes.length);
+    out.write(bytes);
+  }
+
   /**
    * Called when file change events are posted to the file change EventBus to invalidate cached
    * build rules if required. {@link Path}s contained within events must all be relative to the
@@ -72,4 +218,59 @@ public class WatchedFileHashCache extends DefaultFileHashCache {
     }
   }
 
+  /**
+   * Invalidates every path in {@code batch} with a single pass over the cache, rather than one
+   * pass per changed path as {@link #onFileSystemChange(WatchEvent)} does.
+   */
+  @Subscribe
+  public synchronized void onFileSystemChanges(WatchEventBatch batch) {
+    if (batch.containsNonPathChangeEvent()) {
+      LOG.debug("Invalidating all");
+      loadingCache.invalidateAll();
+      return;
+    }
+
+    final Set<Path> changedPaths = new HashSet<>();
+    // A cached directory hash is stale if any changed path lives beneath it, so record every
+    // ancestor of every changed path up front to make the directory check a set lookup.
+    final Set<Path> changedPathsAndAncestors = new HashSet<>();
+    for (WatchEvent<?> event : batch.getEvents()) {
+      Path path = ((Path) event.context()).normalize();
+      changedPaths.add(path);
+      Path ancestor = path;
+      while (ancestor != null && changedPathsAndAncestors.add(ancestor)) {
+        ancestor = ancestor.getParent();
+      }
+    }
+
+    Iterable<Path> pathsToInvalidate =
+        Maps.filterEntries(
+            loadingCache.asMap(),
+            new Predicate<Map.Entry<Path, HashCodeAndFileType>>() {
+              @Override
+              public boolean apply(Map.Entry<Path, HashCodeAndFileType> entry) {
+                switch (entry.getValue().getType()) {
+                  case FILE:
+                    return changedPaths.contains(entry.getKey());
+                  case DIRECTORY:
+                    return changedPathsAndAncestors.contains(entry.getKey());
+                }
+                return false;
+              }
+            }
+        ).keySet();
+    LOG.verbose("Paths to invalidate: %s", pathsToInvalidate);
+    loadingCache.invalidateAll(pathsToInvalidate);
+  }
+
+
+  private static class StampedHashCode {
+    private final FileStamp stamp;
+    private final HashCode hashCode;
+
+    StampedHashCode(FileStamp stamp, HashCode hashCode) {
+      this.stamp = stamp;
+      this.hashCode = hashCode;
+    }
+  }
 }
@@ -22,6 +22,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.List;
 import java.util.Set;
@@ -78,6 +79,18 @@ class AppendingZipOutputStream extends CustomZipOutputStream {
     currentOffset += currentEntry.writeLocalFileHeader(delegate);
   }
 
+  @Override
+  protected void actuallyPutRawEntry(ZipEntry entry, InputStream compressedData)
+      throws IOException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+    EntryAccounting accounting = new EntryAccounting(clock, entry, currentOffset);
+    entries.add(accounting);
+    currentOffset += accounting.writeLocalFileHeader(delegate);
+    currentOffset += accounting.writeCompressed(delegate, compressedData);
+  }
+
   @Override
   protected void actuallyCloseEntry() throws IOException {
     if (currentEntry == null) {
@@ -17,8 +17,10 @@
 package com.facebook.buck.zip;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
@@ -56,6 +58,47 @@ public abstract class CustomZipOutputStream extends OutputStream {
    */
   protected abstract void actuallyPutNextEntry(ZipEntry entry) throws IOException;
 
+  /**
+   * Copies {@code entry} from {@code zip} into this archive as a complete entry. Where the stream
+   * supports it, the entry's data is copied as it is stored, without being inflated and deflated
+   * again.
+   */
+  public final void copyEntry(ZipReader zip, ZipReader.Entry entry) throws IOException {
+    Preconditions.checkState(state != State.CLOSED, "Stream has been closed.");
+    if (!entry.isReadable()) {
+      throw new ZipException(
+          String.format("%s: unsupported compression method or encryption", entry.getName()));
+    }
+    state = State.OPEN;
+    closeEntry();
+    try (InputStream compressed = zip.getRawInputStream(entry)) {
+      actuallyPutRawEntry(new ZipEntry(entry), compressed);
+    }
+  }
+
+  /**
+   * Called by {@link #copyEntry(ZipReader, ZipReader.Entry)} to write a complete entry whose data
+   * is already compressed with the entry's method, and whose CRC and sizes are already set. It is
+   * guaranteed that there's no current entry open.
+   * <p>
+   * By default, the data is uncompressed and written as usual. Subclasses which can, should copy
+   * it as it is instead.
+   */
+  protected void actuallyPutRawEntry(ZipEntry entry, InputStream compressedData)
+      throws IOException {
+    // For deflated entries, the act of re-"putting" this entry means we're re-compressing the data
+    // that we've just uncompressed, and we may end up with a different compressed size. So reset
+    // the compressed size to -1 (as the ZipEntry(String) would).
+    if (entry.getMethod() == ZipEntry.DEFLATED) {
+      entry.setCompressedSize(-1);
+    }
+    putNextEntry(entry);
+    try (InputStream input = ZipReader.uncompress(entry.getMethod(), compressedData)) {
+      ByteStreams.copy(input, this);
+    }
+    closeEntry();
+  }
+
   public final void closeEntry() throws IOException {
     Preconditions.checkState(state != State.CLOSED, "Stream has been closed");
     if (!entryOpen) {
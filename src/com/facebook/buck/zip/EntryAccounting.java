@@ -21,15 +21,18 @@ import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
 
 /**
  * A wrapper containing the {@link ZipEntry} and additional book keeping information required to
@@ -304,6 +307,27 @@ class EntryAccounting {
   }
 
 
+  /**
+   * Writes data which has already been compressed with this entry's method, such as an entry being
+   * copied from another archive, followed by the data descriptor if one is needed. The CRC, size
+   * and compressed size of the entry must already be set.
+   */
+  public long writeCompressed(OutputStream out, InputStream compressed) throws IOException {
+    deflater.end();
+    long written = ByteStreams.copy(compressed, out);
+    if (written != entry.getCompressedSize()) {
+      throw new ZipException(
+          String.format(
+              "%s: expected %d bytes of compressed data but got %d",
+              entry.getName(),
+              entry.getCompressedSize(),
+              written));
+    }
+    byte[] closeBytes = close();
+    out.write(closeBytes);
+    return written + closeBytes.length;
+  }
+
   private static enum Method {
     DEFLATE(ZipEntry.DEFLATED, 20, 8),
     STORE(ZipEntry.STORED, 10, 0),
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link CustomZipOutputStream} which compresses entries on a pool of threads shared by all
+ * such streams, each into its own buffer, and writes them out in the order they were added. The
+ * archive is byte for byte the same as {@link AppendingZipOutputStream} would write.
+ * <p>
+ * The data of each entry is held in memory until it has been compressed and written out, and at
+ * most {@link #MAX_PENDING_BYTES} of uncompressed data is held at once. Entries larger than
+ * {@link #STREAMING_THRESHOLD_BYTES} aren't held at all: once one grows past it, the entries
+ * ahead of it are written out and it's compressed as it's written, as
+ * {@link AppendingZipOutputStream} would.
+ */
+class ParallelZipOutputStream extends CustomZipOutputStream {
+
+  private static final long MAX_PENDING_BYTES = 64 * 1024 * 1024;
+  private static final int MAX_PENDING_ENTRIES = 1024;
+  private static final long STREAMING_THRESHOLD_BYTES = 8 * 1024 * 1024;
+
+  private static final Supplier<ListeningExecutorService> COMPRESSION_EXECUTOR = Suppliers.memoize(
+      new Supplier<ListeningExecutorService>() {
+        @Override
+        public ListeningExecutorService get() {
+          return MoreExecutors.listeningDecorator(
+              Executors.newFixedThreadPool(
+                  Runtime.getRuntime().availableProcessors(),
+                  new ThreadFactoryBuilder()
+                      .setNameFormat("zip-compression-%d")
+                      .setDaemon(true)
+                      .build()));
+        }
+      });
+
+  private final boolean throwExceptionsOnDuplicate;
+  private final Clock clock;
+  private final long streamingThresholdBytes;
+  private final Deque<PendingEntry> pending = new ArrayDeque<>();
+  private final List<EntryAccounting> entries = new ArrayList<>();
+  private final Set<String> seenNames = new HashSet<>();
+  private long pendingBytes = 0;
+  private long currentOffset = 0;
+  @Nullable private EntryAccounting currentEntry = null;
+  /** The data of the current entry so far, or null if it's being written straight out. */
+  @Nullable private ExposedByteArrayOutputStream currentData = null;
+
+  public ParallelZipOutputStream(
+      Clock clock,
+      OutputStream stream,
+      boolean throwExceptionsOnDuplicate) {
+    this(clock, stream, throwExceptionsOnDuplicate, STREAMING_THRESHOLD_BYTES);
+  }
+
+  @VisibleForTesting
+  ParallelZipOutputStream(
+      Clock clock,
+      OutputStream stream,
+      boolean throwExceptionsOnDuplicate,
+      long streamingThresholdBytes) {
+    super(stream);
+    this.clock = clock;
+    this.throwExceptionsOnDuplicate = throwExceptionsOnDuplicate;
+    this.streamingThresholdBytes = streamingThresholdBytes;
+  }
+
+  @Override
+  protected void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    checkDuplicate(entry);
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    currentData = new ExposedByteArrayOutputStream();
+  }
+
+  @Override
+  protected void actuallyWrite(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkNotNull(currentEntry);
+    if (currentData != null && currentData.size() + (long) len > streamingThresholdBytes) {
+      startStreamingCurrentEntry();
+    }
+    if (currentData != null) {
+      currentData.write(b, off, len);
+    } else {
+      currentOffset += currentEntry.write(delegate, b, off, len);
+    }
+  }
+
+  @Override
+  protected void actuallyCloseEntry() throws IOException {
+    if (currentEntry == null) {
+      return;
+    }
+    if (currentData == null) {
+      currentOffset += currentEntry.close(delegate);
+      currentEntry = null;
+      return;
+    }
+    final EntryAccounting entry = currentEntry;
+    final ExposedByteArrayOutputStream data = currentData;
+    currentEntry = null;
+    currentData = null;
+
+    Future<byte[]> body = COMPRESSION_EXECUTOR.get().submit(
+        new Callable<byte[]>() {
+          @Override
+          public byte[] call() throws IOException {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.size() / 2 + 64);
+            entry.write(out, data.getBuffer(), 0, data.size());
+            entry.close(out);
+            return out.toByteArray();
+          }
+        });
+    enqueue(new PendingEntry(entry, body, data.size()));
+  }
+
+  @Override
+  protected void actuallyPutRawEntry(ZipEntry entry, InputStream compressedData)
+      throws IOException {
+    checkDuplicate(entry);
+    EntryAccounting accounting = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    if (entry.getCompressedSize() < 0 || entry.getCompressedSize() > streamingThresholdBytes) {
+      writePendingEntries(/* all */ true);
+      accounting.setOffset(currentOffset);
+      entries.add(accounting);
+      currentOffset += accounting.writeLocalFileHeader(delegate);
+      currentOffset += accounting.writeCompressed(delegate, compressedData);
+      return;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream((int) entry.getCompressedSize() + 16);
+    accounting.writeCompressed(out, compressedData);
+    enqueue(new PendingEntry(accounting, Futures.immediateFuture(out.toByteArray()), out.size()));
+  }
+
+  @Override
+  protected void actuallyClose() throws IOException {
+    try {
+      closeEntry();
+      writePendingEntries(/* all */ true);
+      new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+    } finally {
+      for (PendingEntry entry : pending) {
+        entry.body.cancel(false);
+      }
+      delegate.close();
+    }
+  }
+
+  private void checkDuplicate(ZipEntry entry) throws ZipException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+  }
+
+  /**
+   * Writes out the entries ahead of the current one, followed by what's been written of it so far,
+   * so the rest of it can be compressed straight into the archive rather than held in memory.
+   */
+  private void startStreamingCurrentEntry() throws IOException {
+    Preconditions.checkNotNull(currentEntry);
+    Preconditions.checkNotNull(currentData);
+    writePendingEntries(/* all */ true);
+    ExposedByteArrayOutputStream data = currentData;
+    currentData = null;
+    currentEntry.setOffset(currentOffset);
+    entries.add(currentEntry);
+    currentOffset += currentEntry.writeLocalFileHeader(delegate);
+    currentOffset += currentEntry.write(delegate, data.getBuffer(), 0, data.size());
+  }
+
+  private void enqueue(PendingEntry entry) throws IOException {
+    pending.add(entry);
+    pendingBytes += entry.size;
+    writePendingEntries(/* all */ false);
+  }
+
+  /**
+   * Writes out entries from the head of the queue which have been compressed, and waits for more
+   * to be compressed while too much data is pending, or if {@code all} is set.
+   */
+  private void writePendingEntries(boolean all) throws IOException {
+    while (!pending.isEmpty()) {
+      PendingEntry head = pending.peek();
+      if (!all &&
+          !head.body.isDone() &&
+          pendingBytes <= MAX_PENDING_BYTES &&
+          pending.size() <= MAX_PENDING_ENTRIES) {
+        return;
+      }
+      byte[] body;
+      try {
+        body = head.body.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while compressing " + head.entry.getName());
+      } catch (ExecutionException e) {
+        Throwables.propagateIfInstanceOf(e.getCause(), IOException.class);
+        throw Throwables.propagate(e.getCause());
+      }
+      pending.remove();
+      pendingBytes -= head.size;
+
+      head.entry.setOffset(currentOffset);
+      entries.add(head.entry);
+      currentOffset += head.entry.writeLocalFileHeader(delegate);
+      delegate.write(body);
+      currentOffset += body.length;
+    }
+  }
+
+  private static class PendingEntry {
+    private final EntryAccounting entry;
+    /** The entry's data as it goes into the archive, followed by its data descriptor. */
+    private final Future<byte[]> body;
+    private final long size;
+
+    PendingEntry(EntryAccounting entry, Future<byte[]> body, long size) {
+      this.entry = entry;
+      this.body = body;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Lets the buffered data of an entry be compressed without copying it first.
+   */
+  private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+    byte[] getBuffer() {
+      return buf;
+    }
+  }
+}
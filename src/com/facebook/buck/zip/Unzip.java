@@ -24,16 +24,12 @@ import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.ByteStreams;
 
-import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
-import org.apache.commons.compress.archivers.zip.ZipFile;
-
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermission;
-import java.util.Enumeration;
 import java.util.Set;
 
 public class Unzip {
@@ -56,10 +52,8 @@ public class Unzip {
       ExistingFileMode existingFileMode) throws IOException {
 
     ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
-    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
-      Enumeration<ZipArchiveEntry> entries = zip.getEntries();
-      while (entries.hasMoreElements()) {
-        ZipArchiveEntry entry = entries.nextElement();
+    try (ZipReader zip = new ZipReader(zipFile)) {
+      for (ZipReader.Entry entry : zip.getEntries()) {
         String fileName = entry.getName();
         Path target = relativePath.resolve(fileName);
         if (filesystem.exists(target)) {
@@ -19,6 +19,7 @@ package com.facebook.buck.zip;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Preconditions;
 
 import java.io.BufferedOutputStream;
 import java.io.IOException;
@@ -97,6 +98,39 @@ public class ZipOutputStreams {
     }
   }
 
+  /**
+   * Create a new {@link CustomZipOutputStream} that compresses entries on several threads, and
+   * otherwise writes the same archive as {@link #newOutputStream(Path, HandleDuplicates)}.
+   *
+   * @param zipFile The file to write to.
+   * @param mode How to handle duplicate entries. Overwriting existing entries is not supported.
+   */
+  public static CustomZipOutputStream newParallelOutputStream(Path zipFile, HandleDuplicates mode)
+      throws IOException {
+    return newParallelOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(zipFile)),
+        mode);
+  }
+
+  /**
+   * Create a new {@link CustomZipOutputStream} that compresses entries on several threads, and
+   * otherwise writes the same archive as {@link #newOutputStream(OutputStream, HandleDuplicates)}.
+   *
+   * @param out The output stream to write to.
+   * @param mode How to handle duplicate entries. Overwriting existing entries is not supported.
+   */
+  public static CustomZipOutputStream newParallelOutputStream(
+      OutputStream out,
+      HandleDuplicates mode) {
+    Preconditions.checkArgument(
+        mode != HandleDuplicates.OVERWRITE_EXISTING,
+        "Overwriting entries is not supported when compressing in parallel.");
+    return new ParallelZipOutputStream(
+        new DefaultClock(),
+        out,
+        mode == HandleDuplicates.THROW_EXCEPTION);
+  }
+
   public static enum HandleDuplicates {
     /** Duplicate entries are simply appended to the zip. */
     APPEND_TO_ZIP,
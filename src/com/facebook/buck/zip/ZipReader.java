@@ -0,0 +1,411 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Calendar;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads a zip file by parsing its central directory once, after which entries can be looked up by
+ * name and their data streamed with positional reads. The file is not memory-mapped, so an archive
+ * which is truncated or rewritten while open makes reads fail with an exception rather than crash
+ * the process, and nothing keeps the file in use once the reader is closed.
+ * Unlike {@link java.util.zip.ZipFile}, this gives access to the compressed bytes of each entry,
+ * so that they can be copied into another archive without being inflated and deflated again.
+ * <p>
+ * Readers are safe to use from several threads at once.
+ */
+public class ZipReader implements Closeable {
+
+  private static final int LOCAL_HEADER_SIZE = 30;
+  private static final int CENTRAL_HEADER_SIZE = 46;
+  private static final int END_HEADER_SIZE = 22;
+  private static final int ZIP64_LOCATOR_SIZE = 20;
+  private static final int ZIP64_END_HEADER_SIZE = 56;
+  private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+  private static final int ZIP64_END_SIG = 0x06064b50;
+  private static final int ZIP64_EXTRA_ID = 0x0001;
+  private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+  private static final int ENCRYPTED_FLAG = 1;
+
+  private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+    @Override
+    protected Calendar initialValue() {
+      // Zip timestamps are in the Gregorian calendar, as in EntryAccounting.
+      return Calendar.getInstance(Locale.US);
+    }
+  };
+
+  private final Path path;
+  private final FileChannel channel;
+  private final ImmutableList<Entry> entries;
+  private final ImmutableMap<String, Entry> entriesByName;
+
+  public ZipReader(Path path) throws IOException {
+    this.path = path;
+    this.channel = FileChannel.open(path, StandardOpenOption.READ);
+    try {
+      this.entries = readCentralDirectory(channel.size());
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+
+    Map<String, Entry> byName = new HashMap<>();
+    for (Entry entry : entries) {
+      if (!byName.containsKey(entry.getName())) {
+        byName.put(entry.getName(), entry);
+      }
+    }
+    this.entriesByName = ImmutableMap.copyOf(byName);
+  }
+
+  /**
+   * @return the entries of the archive, in the order of its central directory.
+   */
+  public ImmutableList<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return the entry called {@code name}, or the first of them if there are several, or null if
+   *     there is none.
+   */
+  @Nullable
+  public Entry getEntry(String name) {
+    return entriesByName.get(name);
+  }
+
+  /**
+   * @return a stream of the uncompressed contents of {@code entry}.
+   */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    if (!entry.isReadable()) {
+      throw new ZipException(
+          String.format("%s: unsupported compression method or encryption", entry.getName()));
+    }
+    return uncompress(entry.getMethod(), getRawInputStream(entry));
+  }
+
+  /**
+   * @return a stream of the uncompressed contents of data compressed with {@code method}.
+   */
+  static InputStream uncompress(int method, InputStream compressed) {
+    if (method == ZipEntry.STORED) {
+      return compressed;
+    }
+    Preconditions.checkArgument(method == ZipEntry.DEFLATED);
+    final Inflater inflater = new Inflater(/* nowrap */ true);
+    // Inflating without the zlib wrapper needs a dummy byte after the data, as ZipFile provides.
+    return new InflaterInputStream(
+        new SequenceInputStream(compressed, new ByteArrayInputStream(new byte[1])),
+        inflater,
+        8192) {
+      @Override
+      public void close() throws IOException {
+        super.close();
+        inflater.end();
+      }
+    };
+  }
+
+  /**
+   * @return a stream of the contents of {@code entry} exactly as they are stored in the archive,
+   *     that is, still compressed if the entry was deflated. The data is read from the file as the
+   *     stream is read, so entries of any size can be streamed, but only while the reader is open.
+   */
+  public InputStream getRawInputStream(Entry entry) throws IOException {
+    long dataOffset = getDataOffset(entry);
+    if (dataOffset + entry.getCompressedSize() > channel.size()) {
+      throw new ZipException(String.format("%s: truncated zip file", path));
+    }
+    return new ChannelRegionInputStream(dataOffset, entry.getCompressedSize());
+  }
+
+  /**
+   * @return the contents of {@code entry} exactly as they are stored in the archive. The buffer
+   *     is a read-only copy, so it stays valid after the reader is closed, but the entry must fit
+   *     in memory; use {@link #getRawInputStream(Entry)} for entries which may be large.
+   */
+  public ByteBuffer getRawBytes(Entry entry) throws IOException {
+    long dataOffset = getDataOffset(entry);
+    if (entry.getCompressedSize() > Integer.MAX_VALUE) {
+      throw new ZipException(String.format("%s: %s is too large", path, entry.getName()));
+    }
+    return slice(dataOffset, (int) entry.getCompressedSize());
+  }
+
+  private long getDataOffset(Entry entry) throws IOException {
+    ByteBuffer localHeader = slice(entry.localHeaderOffset, LOCAL_HEADER_SIZE);
+    if (localHeader.getInt(0) != (int) ZipEntry.LOCSIG) {
+      throw new ZipException(
+          String.format("%s: bad local header for %s", path, entry.getName()));
+    }
+    return entry.localHeaderOffset + LOCAL_HEADER_SIZE +
+        getUnsignedShort(localHeader, 26) +
+        getUnsignedShort(localHeader, 28);
+  }
+
+  /**
+   * Closes the file, after which no more entries can be read, including from streams already
+   * returned. Buffers already returned by {@link #getRawBytes(Entry)} are copies and stay valid.
+   */
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  private ImmutableList<Entry> readCentralDirectory(long fileSize) throws IOException {
+    int tailSize = (int) Math.min(fileSize, END_HEADER_SIZE + MAX_COMMENT_SIZE);
+    ByteBuffer tail = slice(fileSize - tailSize, tailSize);
+    int end = -1;
+    for (int i = tailSize - END_HEADER_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == (int) ZipEntry.ENDSIG &&
+          i + END_HEADER_SIZE + getUnsignedShort(tail, i + 20) == tailSize) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1) {
+      throw new ZipException(String.format("%s: not a zip file", path));
+    }
+    long entryCount = getUnsignedShort(tail, end + 10);
+    long directorySize = getUnsignedInt(tail, end + 12);
+    long directoryOffset = getUnsignedInt(tail, end + 16);
+
+    long endOffset = fileSize - tailSize + end;
+    if (endOffset >= ZIP64_LOCATOR_SIZE) {
+      ByteBuffer locator = slice(endOffset - ZIP64_LOCATOR_SIZE, ZIP64_LOCATOR_SIZE);
+      if (locator.getInt(0) == ZIP64_LOCATOR_SIG) {
+        ByteBuffer zip64End = slice(locator.getLong(8), ZIP64_END_HEADER_SIZE);
+        if (zip64End.getInt(0) != ZIP64_END_SIG) {
+          throw new ZipException(String.format("%s: bad zip64 end of central directory", path));
+        }
+        entryCount = zip64End.getLong(32);
+        directorySize = zip64End.getLong(40);
+        directoryOffset = zip64End.getLong(48);
+      }
+    }
+    if (directorySize > Integer.MAX_VALUE) {
+      throw new ZipException(String.format("%s: central directory too large", path));
+    }
+
+    ByteBuffer directory = slice(directoryOffset, (int) directorySize);
+    ImmutableList.Builder<Entry> builder = ImmutableList.builder();
+    int position = 0;
+    for (long i = 0; i < entryCount; i++) {
+      if (position + CENTRAL_HEADER_SIZE > directory.limit() ||
+          directory.getInt(position) != (int) ZipEntry.CENSIG) {
+        throw new ZipException(String.format("%s: bad central directory", path));
+      }
+      int nameLength = getUnsignedShort(directory, position + 28);
+      int extraLength = getUnsignedShort(directory, position + 30);
+      int commentLength = getUnsignedShort(directory, position + 32);
+      byte[] name = new byte[nameLength];
+      directory.position(position + CENTRAL_HEADER_SIZE);
+      directory.get(name);
+
+      long compressedSize = getUnsignedInt(directory, position + 20);
+      long size = getUnsignedInt(directory, position + 24);
+      long localHeaderOffset = getUnsignedInt(directory, position + 42);
+      if (compressedSize == ZIP64_MAGIC || size == ZIP64_MAGIC ||
+          localHeaderOffset == ZIP64_MAGIC) {
+        // The real values are in the zip64 extra field, in this order, but only those which
+        // didn't fit are there.
+        int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+        int extraEnd = extra + extraLength;
+        while (extra + 4 <= extraEnd) {
+          int id = getUnsignedShort(directory, extra);
+          int length = getUnsignedShort(directory, extra + 2);
+          if (id == ZIP64_EXTRA_ID) {
+            int field = extra + 4;
+            if (size == ZIP64_MAGIC) {
+              size = directory.getLong(field);
+              field += 8;
+            }
+            if (compressedSize == ZIP64_MAGIC) {
+              compressedSize = directory.getLong(field);
+              field += 8;
+            }
+            if (localHeaderOffset == ZIP64_MAGIC) {
+              localHeaderOffset = directory.getLong(field);
+            }
+            break;
+          }
+          extra += 4 + length;
+        }
+      }
+
+      Entry entry = new Entry(
+          new String(name, Charsets.UTF_8),
+          getUnsignedShort(directory, position + 8),
+          localHeaderOffset,
+          getUnsignedInt(directory, position + 38));
+      entry.setMethod(getUnsignedShort(directory, position + 10));
+      entry.setTime(dosToJavaTime(getUnsignedInt(directory, position + 12)));
+      entry.setCrc(getUnsignedInt(directory, position + 16));
+      entry.setCompressedSize(compressedSize);
+      entry.setSize(size);
+      builder.add(entry);
+
+      position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return a little-endian, read-only buffer holding {@code size} bytes of the file from
+   *     {@code offset}.
+   */
+  private ByteBuffer slice(long offset, int size) throws IOException {
+    if (offset < 0 || size < 0 || offset + size > channel.size()) {
+      throw new ZipException(String.format("%s: truncated zip file", path));
+    }
+    ByteBuffer slice = ByteBuffer.allocate(size);
+    while (slice.hasRemaining()) {
+      // Positional reads don't move the channel's position, so readers can share the channel.
+      if (channel.read(slice, offset + slice.position()) < 0) {
+        throw new ZipException(String.format("%s: truncated zip file", path));
+      }
+    }
+    slice.flip();
+    return slice.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  private static int getUnsignedShort(ByteBuffer buffer, int index) {
+    return buffer.getShort(index) & 0xFFFF;
+  }
+
+  private static long getUnsignedInt(ByteBuffer buffer, int index) {
+    return buffer.getInt(index) & 0xFFFFFFFFL;
+  }
+
+  private static long dosToJavaTime(long dosTime) {
+    Calendar calendar = CALENDAR.get();
+    calendar.clear();
+    calendar.set(
+        (int) ((dosTime >> 25) & 0x7F) + 1980,
+        (int) ((dosTime >> 21) & 0x0F) - 1,
+        (int) ((dosTime >> 16) & 0x1F),
+        (int) ((dosTime >> 11) & 0x1F),
+        (int) ((dosTime >> 5) & 0x3F),
+        (int) ((dosTime << 1) & 0x3E));
+    return calendar.getTimeInMillis();
+  }
+
+  /**
+   * An entry read from the central directory, which remembers where its data is in the archive.
+   */
+  public static class Entry extends ZipEntry {
+    private final int flags;
+    private final long localHeaderOffset;
+    private final long externalAttributes;
+
+    private Entry(String name, int flags, long localHeaderOffset, long externalAttributes) {
+      super(name);
+      this.flags = flags;
+      this.localHeaderOffset = localHeaderOffset;
+      this.externalAttributes = externalAttributes;
+    }
+
+    public long getExternalAttributes() {
+      return externalAttributes;
+    }
+
+    /**
+     * @return whether the data of this entry can be read, which is the case if it is stored or
+     *     deflated and not encrypted.
+     */
+    public boolean isReadable() {
+      return (getMethod() == STORED || getMethod() == DEFLATED) &&
+          (flags & ENCRYPTED_FLAG) == 0;
+    }
+  }
+
+  /**
+   * Reads a region of the file with positional reads, so that streams of several entries can be
+   * read at once, from any thread, without moving the channel's position.
+   */
+  private class ChannelRegionInputStream extends InputStream {
+    private long position;
+    private final long end;
+
+    ChannelRegionInputStream(long offset, long length) {
+      this.position = offset;
+      this.end = offset + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      ByteBuffer buffer = ByteBuffer.wrap(b, off, (int) Math.min(len, end - position));
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new ZipException(String.format("%s: truncated zip file", path));
+      }
+      position += read;
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, end - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+  }
+}
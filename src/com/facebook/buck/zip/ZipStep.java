@@ -16,7 +16,7 @@
 
 package com.facebook.buck.zip;
 
-import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.OVERWRITE_EXISTING;
+import static com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION;
 
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.MorePaths;
@@ -205,8 +205,9 @@ public class ZipStep implements Step {
     try (
       BufferedOutputStream baseOut =
           new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
+      // Entries are unique, since they come from the map above, so nothing can be overwritten.
       CustomZipOutputStream out =
-          ZipOutputStreams.newOutputStream(baseOut, OVERWRITE_EXISTING)) {
+          ZipOutputStreams.newParallelOutputStream(baseOut, THROW_EXCEPTION)) {
 
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.android;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+
+import com.android.dex.ClassDef;
+import com.android.dex.Dex;
+import com.android.dex.DexFormat;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.TestConsole;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.io.ByteStreams;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class IncrementalDexerTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private PrintStream stdErr;
+
+  @Before
+  public void setUp() {
+    IncrementalDexer.invalidateAll();
+    filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    stdErr = new PrintStream(new ByteArrayOutputStream());
+  }
+
+  @After
+  public void tearDown() {
+    IncrementalDexer.invalidateAll();
+  }
+
+  @Test
+  public void producesTheSameClassesAsDx() throws IOException {
+    Path jar = writeJar(
+        "lib.jar",
+        ImmutableMap.of(
+            "com/example/A.class", createClass("com/example/A", "one"),
+            "com/example/B.class", createClass("com/example/B", "two"),
+            "res/data.txt", "data".getBytes()));
+
+    assertEquals(0, newDexer().dex(filesystem, ImmutableList.of(jar), Paths.get("inc.dex.jar")));
+    assertEquals(
+        0,
+        new com.android.dx.command.dexer.Main().run(
+            new String[] {
+                "--no-optimize",
+                "--force-jumbo",
+                "--output",
+                filesystem.resolve("dx.dex.jar").toString(),
+                filesystem.resolve(jar).toString()},
+            System.out,
+            stdErr));
+
+    assertEquals(
+        readClassNames(Paths.get("dx.dex.jar")),
+        readClassNames(Paths.get("inc.dex.jar")));
+    assertEquals(
+        ImmutableSortedSet.of("Lcom/example/A;", "Lcom/example/B;"),
+        readClassNames(Paths.get("inc.dex.jar")));
+    assertEquals(
+        readEntryNames(Paths.get("dx.dex.jar")),
+        readEntryNames(Paths.get("inc.dex.jar")));
+  }
+
+  @Test
+  public void onlyChangedClassesAreDexedAgain() throws IOException {
+    byte[] unchanged = createClass("com/example/A", "one");
+    Path jar = writeJar(
+        "lib.jar",
+        ImmutableMap.of(
+            "com/example/A.class", unchanged,
+            "com/example/B.class", createClass("com/example/B", "two")));
+    assertEquals(0, newDexer().dex(filesystem, ImmutableList.of(jar), Paths.get("out.dex.jar")));
+    assertEquals(2, IncrementalDexer.getCachedClassCount());
+
+    writeJar(
+        "lib.jar",
+        ImmutableMap.of(
+            "com/example/A.class", unchanged,
+            "com/example/B.class", createClass("com/example/B", "three")));
+    assertEquals(0, newDexer().dex(filesystem, ImmutableList.of(jar), Paths.get("out.dex.jar")));
+    assertEquals(3, IncrementalDexer.getCachedClassCount());
+    assertEquals(
+        ImmutableSortedSet.of("Lcom/example/A;", "Lcom/example/B;"),
+        readClassNames(Paths.get("out.dex.jar")));
+  }
+
+  @Test
+  public void onlyBucketsOfChangedClassesAreMergedAgain() throws IOException {
+    Map<String, byte[]> classes = new TreeMap<>();
+    ImmutableSortedSet.Builder<String> classNames = ImmutableSortedSet.naturalOrder();
+    for (int i = 0; i < 4 * IncrementalDexer.MERGE_BUCKETS; i++) {
+      String name = "com/example/C" + i;
+      classes.put(name + ".class", createClass(name, "one"));
+      classNames.add("L" + name + ";");
+    }
+    Path jar = writeJar("lib.jar", classes);
+    assertEquals(0, newDexer().dex(filesystem, ImmutableList.of(jar), Paths.get("out.dex.jar")));
+    long bucketCount = IncrementalDexer.getCachedBucketCount();
+
+    classes.put("com/example/C0.class", createClass("com/example/C0", "two"));
+    writeJar("lib.jar", classes);
+    assertEquals(0, newDexer().dex(filesystem, ImmutableList.of(jar), Paths.get("out.dex.jar")));
+    assertEquals(bucketCount + 1, IncrementalDexer.getCachedBucketCount());
+    assertEquals(classNames.build(), readClassNames(Paths.get("out.dex.jar")));
+  }
+
+  @Test
+  public void duplicateClassesFailTheDxStep() throws IOException, InterruptedException {
+    Path first = writeJar(
+        "first.jar",
+        ImmutableMap.of("com/example/A.class", createClass("com/example/A", "one")));
+    Path second = writeJar(
+        "second.jar",
+        ImmutableMap.of("com/example/A.class", createClass("com/example/A", "two")));
+    TestConsole console = new TestConsole();
+    DxStep dx = new DxStep(
+        filesystem,
+        Paths.get("out.dex.jar"),
+        ImmutableList.of(first, second),
+        EnumSet.of(DxStep.Option.RUN_IN_PROCESS, DxStep.Option.USE_CUSTOM_DX_IF_AVAILABLE));
+
+    try (ExecutionContext context = TestExecutionContext.newBuilder()
+             .setConsole(console)
+             .build()) {
+      assertEquals(1, dx.execute(context));
+    }
+    assertThat(console.getTextWrittenToStdErr(), containsString("DexException"));
+  }
+
+  @Test
+  public void dexFilesInInputsAreMergedIn() throws IOException {
+    Path first = writeJar(
+        "first.jar",
+        ImmutableMap.of("com/example/A.class", createClass("com/example/A", "one")));
+    Path second = writeJar(
+        "second.jar",
+        ImmutableMap.of("com/example/B.class", createClass("com/example/B", "two")));
+    assertEquals(
+        0,
+        newDexer().dex(filesystem, ImmutableList.of(first), Paths.get("first.dex.jar")));
+    assertEquals(
+        0,
+        newDexer().dex(filesystem, ImmutableList.of(second), Paths.get("second.dex.jar")));
+
+    assertEquals(
+        0,
+        newDexer().dex(
+            filesystem,
+            ImmutableList.of(Paths.get("first.dex.jar"), Paths.get("second.dex.jar")),
+            Paths.get("classes.dex")));
+    try (InputStream input = filesystem.newFileInputStream(Paths.get("classes.dex"))) {
+      assertEquals(
+          ImmutableSortedSet.of("Lcom/example/A;", "Lcom/example/B;"),
+          getClassNames(new Dex(input)));
+    }
+  }
+
+  private IncrementalDexer newDexer() {
+    return new IncrementalDexer(
+        /* optimize */ false,
+        /* forceJumbo */ true,
+        System.out,
+        stdErr);
+  }
+
+  private Path writeJar(String name, Map<String, byte[]> entries) throws IOException {
+    Path jar = Paths.get(name);
+    try (JarOutputStream out = new JarOutputStream(filesystem.newFileOutputStream(jar))) {
+      for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+        out.putNextEntry(new ZipEntry(entry.getKey()));
+        out.write(entry.getValue());
+        out.closeEntry();
+      }
+    }
+    return jar;
+  }
+
+  private ImmutableSortedSet<String> readClassNames(Path dexJar) throws IOException {
+    byte[] dex = null;
+    try (ZipInputStream zip = new ZipInputStream(filesystem.newFileInputStream(dexJar))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        if (entry.getName().equals(DexFormat.DEX_IN_JAR_NAME)) {
+          dex = ByteStreams.toByteArray(zip);
+        }
+      }
+    }
+    assertNotNull("No classes.dex in " + dexJar, dex);
+    return getClassNames(new Dex(dex));
+  }
+
+  private ImmutableList<String> readEntryNames(Path jar) throws IOException {
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    try (ZipInputStream zip = new ZipInputStream(filesystem.newFileInputStream(jar))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        names.add(entry.getName());
+      }
+    }
+    return names.build();
+  }
+
+  private static ImmutableSortedSet<String> getClassNames(Dex dex) {
+    ImmutableSortedSet.Builder<String> names = ImmutableSortedSet.naturalOrder();
+    for (ClassDef classDef : dex.classDefs()) {
+      names.add(dex.typeNames().get(classDef.getTypeIndex()));
+    }
+    return names.build();
+  }
+
+  /** Creates a class with a method returning {@code value}. */
+  private static byte[] createClass(String name, String value) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    MethodVisitor method = writer.visitMethod(
+        Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC,
+        "get",
+        "()Ljava/lang/String;",
+        null,
+        null);
+    method.visitCode();
+    method.visitLdcInsn(value);
+    method.visitInsn(Opcodes.ARETURN);
+    method.visitMaxs(0, 0);
+    method.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+}
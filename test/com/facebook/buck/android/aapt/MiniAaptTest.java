@@ -17,8 +17,10 @@
 package com.facebook.buck.android.aapt;
 
 import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -27,13 +29,17 @@ import com.facebook.buck.android.aapt.RDotTxtEntry.IdType;
 import com.facebook.buck.android.aapt.RDotTxtEntry.RType;
 import com.facebook.buck.cli.BuildTargetNodeToBuildRuleTransformer;
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.FakeSourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.timing.FakeClock;
+import com.facebook.buck.util.concurrent.ConcurrencyLimit;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
@@ -41,10 +47,13 @@ import org.hamcrest.core.IsEqual;
 import org.hamcrest.junit.ExpectedException;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Set;
 
 import javax.xml.xpath.XPathExpressionException;
@@ -72,6 +81,9 @@ public class MiniAaptTest {
   @Rule
   public ExpectedException thrown = ExpectedException.none();
 
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
   @Test
   public void testFindingResourceIdsInXml()
       throws IOException, XPathExpressionException, ResourceParseException {
@@ -532,4 +544,72 @@ public class MiniAaptTest {
         ImmutableSet.<RDotTxtEntry>of(
             new FakeRDotTxtEntry(IdType.INT, RType.STRING, "com_buckbuild_taskname")));
   }
+
+  @Test
+  public void testResourceIdsDoNotDependOnScanOrder() throws IOException, InterruptedException {
+    // The fake filesystem cannot list directories by absolute path, as the step does.
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("res/layout"));
+    filesystem.mkdirs(Paths.get("res/drawable"));
+    filesystem.mkdirs(Paths.get("res/values"));
+    for (int i = 0; i < 20; i++) {
+      filesystem.writeContentsToPath(
+          String.format(
+              "<LinearLayout><Button android:id=\"@+id/button%d\" " +
+                  "android:text=\"@string/text\" /></LinearLayout>",
+              i % 7),
+          Paths.get(String.format("res/layout/layout_%02d.xml", i)));
+    }
+    filesystem.writeContentsToPath(
+        "<app-network></app-network>",
+        Paths.get("res/drawable/custom.xml"));
+    filesystem.writeContentsToPath(
+        "<resources><string name=\"text\">Hi</string>" +
+            "<declare-styleable name=\"Theme\"><attr name=\"color\" /></declare-styleable>" +
+            "</resources>",
+        Paths.get("res/values/strings.xml"));
+
+    // Cold and warm scan caches, and different numbers of threads, must all hand out the same ids.
+    List<String> expected = null;
+    for (int threads : new int[] {1, 8, 8}) {
+      if (expected == null) {
+        ResourceXmlScanner.invalidateAll();
+      }
+      MiniAapt aapt = new MiniAapt(
+          resolver,
+          filesystem,
+          new FakeSourcePath(filesystem, "res"),
+          Paths.get("R.txt"),
+          ImmutableSet.<Path>of());
+      ExecutionContext context = TestExecutionContext.newBuilder()
+          .setConcurrencyLimit(new ConcurrencyLimit(threads, Double.POSITIVE_INFINITY))
+          .build();
+      assertEquals(0, aapt.execute(context));
+      List<String> lines = filesystem.readLines(Paths.get("R.txt"));
+      if (expected == null) {
+        expected = lines;
+      } else {
+        assertEquals(expected, lines);
+      }
+    }
+
+    assertEquals(32, expected.size());
+    assertThat(expected.get(0), startsWith("int attr color "));
+    assertThat(expected.get(1), startsWith("int drawable custom "));
+    assertThat(expected.get(2), startsWith("int id button0 "));
+  }
+
+  @Test
+  public void testScanResultsAreSharedByFilesWithTheSameContents()
+      throws ResourceParseException {
+    byte[] contents = "<LinearLayout><Button android:id=\"@+id/button\" /></LinearLayout>"
+        .getBytes(StandardCharsets.UTF_8);
+    ResourceXmlScanner.XmlFile first =
+        ResourceXmlScanner.scanXmlFile(Paths.get("res/layout/first.xml"), contents);
+    ResourceXmlScanner.XmlFile second =
+        ResourceXmlScanner.scanXmlFile(Paths.get("res/layout-land/second.xml"), contents.clone());
+
+    assertSame(first, second);
+    assertEquals(ImmutableList.of("@+id/button"), first.getIdDefinitions());
+  }
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.apple.xcode;
+
+import static org.junit.Assert.assertEquals;
+
+import com.dd.plist.NSArray;
+import com.dd.plist.NSDate;
+import com.dd.plist.NSDictionary;
+import com.dd.plist.NSObject;
+import com.dd.plist.NSString;
+import com.facebook.buck.apple.xcode.xcodeproj.PBXGroup;
+import com.facebook.buck.apple.xcode.xcodeproj.PBXProject;
+import com.facebook.buck.apple.xcode.xcodeproj.PBXReference;
+import com.facebook.buck.apple.xcode.xcodeproj.SourceTreePath;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Date;
+
+public class XmlPropertyListWriterTest {
+
+  @Test
+  public void matchesDdPlistForAllValueTypes() throws IOException {
+    NSDictionary nested = new NSDictionary();
+    nested.put("empty", new NSDictionary());
+    nested.put("emptyArray", new NSArray(0));
+    nested.put("data", new byte[] {0, 1, 2, 3, (byte) 0xff});
+    nested.put("date", new NSDate(new Date(1234567890000L)));
+
+    NSDictionary root = new NSDictionary();
+    root.put("string", "plain");
+    root.put("escaped", "a < b && c > d ]]> e");
+    root.put("key with <brackets>", "value");
+    root.put("unicode", "\u00e9\u4e2d");
+    root.put("integer", 42);
+    root.put("real", 2.5);
+    root.put("yes", true);
+    root.put("no", false);
+    root.put("array", new NSArray(new NSString("one"), nested, new NSArray(new NSString("two"))));
+    root.put("nested", nested);
+
+    assertWritesSameAsDdPlist(root);
+    assertWritesSameAsDdPlist(new NSString("top level"));
+  }
+
+  @Test
+  public void matchesDdPlistForSerializedProject() throws IOException {
+    PBXProject project = new PBXProject("TestProject");
+    PBXGroup group = project.getMainGroup().getOrCreateChildGroupByName("Sources");
+    group.getOrCreateFileReferenceBySourceTreePath(
+        new SourceTreePath(
+            PBXReference.SourceTree.SOURCE_ROOT,
+            Paths.get("foo/Foo.m"),
+            Optional.<String>absent()));
+    NSDictionary rootObject = new XcodeprojSerializer(
+        new GidGenerator(ImmutableSet.<String>of()),
+        project).toPlist();
+
+    assertWritesSameAsDdPlist(rootObject);
+  }
+
+  private static void assertWritesSameAsDdPlist(NSObject root) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    XmlPropertyListWriter.write(root, out);
+    assertEquals(root.toXMLPropertyList(), new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+}
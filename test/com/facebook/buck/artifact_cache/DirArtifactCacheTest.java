@@ -553,6 +553,32 @@ public class DirArtifactCacheTest {
     cache.close();
   }
 
+  @Test
+  public void testFetchMetadataLeavesArtifactInPlace() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.newFolder());
+    dirArtifactCache = new DirArtifactCache(
+        "dir",
+        filesystem,
+        Paths.get("cache"),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    RuleKey ruleKey = new RuleKey("0000");
+    ImmutableMap<String, String> metadata = ImmutableMap.of("some", "metadata");
+    assertEquals(CacheResultType.MISS, dirArtifactCache.fetchMetadata(ruleKey).getType());
+
+    Path data = Paths.get("data");
+    filesystem.writeContentsToPath("contents", data);
+    dirArtifactCache.store(ImmutableSet.of(ruleKey), metadata, data);
+
+    CacheResult result = dirArtifactCache.fetchMetadata(ruleKey);
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(metadata, result.getMetadata());
+    assertEquals(
+        "contents",
+        new String(Files.readAllBytes(dirArtifactCache.getArtifactPath(ruleKey)), UTF_8));
+  }
+
   private static class BuildRuleForTest extends FakeBuildRule {
 
     @SuppressWarnings("PMD.UnusedPrivateField")
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares decoding a large Watchman query response with {@link BserDeserializer} against
+ * {@link BserStreamReader}, both when materializing the whole value and when only pulling out
+ * the file names.
+ */
+public class BserDeserializerBenchmark {
+  @Param({"1000", "10000", "100000"})
+  private int fileCount = 1000;
+
+  private byte[] response;
+
+  @Before
+  public void setUpTest() throws IOException {
+    fileCount = 1000;
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws IOException {
+    ImmutableList.Builder<Object> files = ImmutableList.builder();
+    for (int i = 0; i < fileCount; i++) {
+      files.add(
+          ImmutableMap.<String, Object>of(
+              "name", String.format("java/com/facebook/target_%d/A%d.java", i / 10, i),
+              "exists", i % 7 != 0,
+              "new", i % 5 == 0));
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(
+        ImmutableMap.<String, Object>of(
+            "version", "4.1.0",
+            "clock", "c:1453306464:25329:1:35",
+            "is_fresh_instance", false,
+            "files", files.build()),
+        out);
+    response = out.toByteArray();
+  }
+
+  @Test
+  public void decodersAgree() throws IOException {
+    Object expected = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+        .deserializeBserValue(new ByteArrayInputStream(response));
+    assertEquals(expected, newStreamReader().readBserValue());
+    assertEquals(fileCount, deserializerFileNames(1));
+    assertEquals(fileCount, streamReaderMaterialize(1));
+    assertEquals(fileCount, streamReaderFileNames(1));
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public int deserializerFileNames(int reps) throws IOException {
+    int names = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+      Map<String, Object> value = (Map<String, Object>) deserializer.deserializeBserValue(
+          new ByteArrayInputStream(response));
+      for (Map<String, Object> file : (List<Map<String, Object>>) value.get("files")) {
+        if (file.get("name") != null) {
+          names++;
+        }
+      }
+    }
+    return names / reps;
+  }
+
+  @Benchmark
+  @SuppressWarnings("unchecked")
+  public int streamReaderMaterialize(int reps) throws IOException {
+    int names = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      Map<String, Object> value = (Map<String, Object>) newStreamReader().readBserValue();
+      for (Map<String, Object> file : (List<Map<String, Object>>) value.get("files")) {
+        if (file.get("name") != null) {
+          names++;
+        }
+      }
+    }
+    return names / reps;
+  }
+
+  @Benchmark
+  public int streamReaderFileNames(int reps) throws IOException {
+    int names = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      BserStreamReader reader = newStreamReader();
+      reader.nextPdu();
+      BserStreamReader.Token token;
+      while ((token = reader.nextToken()) != null) {
+        if (token == BserStreamReader.Token.FIELD_NAME && reader.getString().equals("name")) {
+          reader.nextToken();
+          names++;
+        }
+      }
+    }
+    return names / reps;
+  }
+
+  private BserStreamReader newStreamReader() {
+    return new BserStreamReader(
+        Channels.newChannel(new ByteArrayInputStream(response)),
+        BserDeserializer.KeyOrdering.UNSORTED);
+  }
+}
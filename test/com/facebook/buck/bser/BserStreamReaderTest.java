@@ -0,0 +1,268 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.bser;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.BaseEncoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.hamcrest.Matchers;
+
+import org.junit.rules.ExpectedException;
+import org.junit.Rule;
+import org.junit.Test;
+
+@SuppressWarnings("unchecked")
+public class BserStreamReaderTest {
+  @Rule
+  public ExpectedException thrown = ExpectedException.none();
+
+  private static final Map<String, Object> WATCHMAN_RESPONSE =
+      ImmutableMap.<String, Object>of(
+          "version", "4.1.0",
+          "clock", "c:1453306464:25329:1:35",
+          "is_fresh_instance", false,
+          "files", ImmutableList.of(
+              ImmutableMap.<String, Object>of("name", "foo/BUCK", "exists", true, "new", false),
+              ImmutableMap.<String, Object>of("name", "foo/bar.java", "exists", false, "new", true),
+              ImmutableMap.<String, Object>of("name", Strings.repeat("x", 100), "size", 1L << 40)),
+          "real", 0.5);
+
+  private static byte[] serialize(Object... values) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BserSerializer serializer = new BserSerializer();
+    for (Object value : values) {
+      serializer.serializeToStream(value, out);
+    }
+    return out.toByteArray();
+  }
+
+  private static BserStreamReader createReader(byte[] bytes, int bufferSize) {
+    return new BserStreamReader(
+        Channels.newChannel(new ByteArrayInputStream(bytes)),
+        BserDeserializer.KeyOrdering.UNSORTED,
+        bufferSize);
+  }
+
+  /**
+   * A channel which returns at most one byte per read, like a slow socket.
+   */
+  private static ReadableByteChannel trickle(final byte[] bytes) {
+    return new ReadableByteChannel() {
+      private int position = 0;
+
+      @Override
+      public int read(ByteBuffer dst) {
+        if (position == bytes.length) {
+          return -1;
+        }
+        dst.put(bytes[position++]);
+        return 1;
+      }
+
+      @Override
+      public boolean isOpen() {
+        return true;
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+  }
+
+  @Test
+  public void readBserValueMatchesBserDeserializer() throws IOException {
+    byte[] bytes = serialize(WATCHMAN_RESPONSE);
+    Object expected = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED)
+        .deserializeBserValue(new ByteArrayInputStream(bytes));
+
+    assertThat(createReader(bytes, 1024).readBserValue(), equalTo(expected));
+    // Strings longer than the buffer, and values straddling buffer boundaries.
+    assertThat(createReader(bytes, 16).readBserValue(), equalTo(expected));
+    assertThat(
+        new BserStreamReader(trickle(bytes), BserDeserializer.KeyOrdering.UNSORTED, 16)
+            .readBserValue(),
+        equalTo(expected));
+  }
+
+  @Test
+  public void readsSortedMaps() throws IOException {
+    BserStreamReader reader = new BserStreamReader(
+        Channels.newChannel(
+            new ByteArrayInputStream(
+                BaseEncoding.base16().decode(
+                    "0001031B010303020303666F6F0323020303626172034202030362617A03F0"))),
+        BserDeserializer.KeyOrdering.SORTED);
+    Map<String, Object> value = (Map<String, Object>) reader.readBserValue();
+    assertThat(value.keySet(), contains("bar", "baz", "foo"));
+  }
+
+  @Test
+  public void readsTemplates() throws IOException {
+    BserStreamReader reader = createReader(
+        BaseEncoding.base16().decode(
+            "000103280B0003020203046E616D6502030361676503030203046672656403140203" +
+                "0470657465031E0C0319"),
+        64);
+    assertThat(
+        (List<Map<String, Object>>) reader.readBserValue(),
+        Matchers.<Map<String, Object>>contains(
+            ImmutableMap.<String, Object>of("name", "fred", "age", (byte) 20),
+            ImmutableMap.<String, Object>of("name", "pete", "age", (byte) 30),
+            ImmutableMap.<String, Object>of("age", (byte) 25)));
+  }
+
+  @Test
+  public void emptyContainersAreShared() throws IOException {
+    byte[] bytes = serialize(ImmutableList.of(), ImmutableMap.of());
+    BserStreamReader reader = createReader(bytes, 64);
+    BserDeserializer deserializer = new BserDeserializer(BserDeserializer.KeyOrdering.UNSORTED);
+    ByteArrayInputStream stream = new ByteArrayInputStream(bytes);
+
+    assertThat(reader.readBserValue(), is(sameInstance(deserializer.deserializeBserValue(stream))));
+    assertThat(reader.readBserValue(), is(sameInstance(deserializer.deserializeBserValue(stream))));
+  }
+
+  @Test
+  public void tokensFollowTheStructureOfTheValue() throws IOException {
+    BserStreamReader reader = createReader(
+        serialize(ImmutableMap.of("a", ImmutableList.of(1, "b", true), "c", 2.5)),
+        64);
+    assertThat(reader.nextPdu(), is(true));
+
+    List<BserStreamReader.Token> tokens = new ArrayList<>();
+    BserStreamReader.Token token;
+    while ((token = reader.nextToken()) != null) {
+      tokens.add(token);
+    }
+
+    assertThat(
+        tokens,
+        contains(
+            BserStreamReader.Token.START_OBJECT,
+            BserStreamReader.Token.FIELD_NAME,
+            BserStreamReader.Token.START_ARRAY,
+            BserStreamReader.Token.VALUE_NUMBER_INT,
+            BserStreamReader.Token.VALUE_STRING,
+            BserStreamReader.Token.VALUE_TRUE,
+            BserStreamReader.Token.END_ARRAY,
+            BserStreamReader.Token.FIELD_NAME,
+            BserStreamReader.Token.VALUE_NUMBER_REAL,
+            BserStreamReader.Token.END_OBJECT));
+    assertThat(reader.getCurrentToken(), is(nullValue()));
+  }
+
+  @Test
+  public void skipChildrenSkipsNestedContainers() throws IOException {
+    BserStreamReader reader = createReader(serialize(WATCHMAN_RESPONSE), 32);
+    assertThat(reader.nextPdu(), is(true));
+    assertThat(reader.nextToken(), equalTo(BserStreamReader.Token.START_OBJECT));
+
+    String clock = null;
+    List<String> keys = new ArrayList<>();
+    while (reader.nextToken() == BserStreamReader.Token.FIELD_NAME) {
+      String key = reader.getString();
+      keys.add(key);
+      reader.nextToken();
+      if (key.equals("clock")) {
+        clock = reader.getString();
+      } else {
+        reader.skipChildren();
+      }
+    }
+
+    assertThat(keys, contains("version", "clock", "is_fresh_instance", "files", "real"));
+    assertThat(clock, equalTo("c:1453306464:25329:1:35"));
+    assertThat(reader.getCurrentToken(), equalTo(BserStreamReader.Token.END_OBJECT));
+  }
+
+  @Test
+  public void nextPduSkipsUnreadRemainderOfPreviousPdu() throws IOException {
+    BserStreamReader reader = createReader(serialize(WATCHMAN_RESPONSE, "second"), 16);
+    assertThat(reader.nextPdu(), is(true));
+    reader.nextToken();
+    reader.nextToken();
+
+    assertThat(reader.readBserValue(), equalTo((Object) "second"));
+    assertThat(reader.nextPdu(), is(false));
+  }
+
+  @Test
+  public void numbersKeepTheirEncodedWidth() throws IOException {
+    BserStreamReader reader = createReader(
+        serialize(ImmutableList.of(0x23, 0x1122, 0x11223344, 0x11223344CCDDEEFFL)),
+        64);
+    assertThat(
+        (List<Object>) reader.readBserValue(),
+        contains(
+            (Object) (byte) 0x23,
+            (short) 0x1122,
+            0x11223344,
+            0x11223344CCDDEEFFL));
+  }
+
+  @Test
+  public void readBserValueThrowsAtEndOfStream() throws IOException {
+    thrown.expect(BserDeserializer.BserEofException.class);
+    thrown.expectMessage("Reached end of stream before BSER header");
+    createReader(new byte[0], 64).readBserValue();
+  }
+
+  @Test
+  public void throwIfPduTruncated() throws IOException {
+    thrown.expect(BserDeserializer.BserEofException.class);
+    thrown.expectMessage("Prematurely reached end of BSER stream");
+    createReader(BaseEncoding.base16().decode("0001031B010303020303666F6F0323"), 64)
+        .readBserValue();
+  }
+
+  @Test
+  public void throwIfValueOverrunsPdu() throws IOException {
+    thrown.expect(BserDeserializer.BserEofException.class);
+    thrown.expectMessage("Prematurely reached end of BSER PDU");
+    // The header claims 3 bytes, but the array holds one more element than that.
+    createReader(BaseEncoding.base16().decode("00010303000301030103"), 64).readBserValue();
+  }
+
+  @Test
+  public void throwIfMapKeyNotString() throws IOException {
+    thrown.expect(IOException.class);
+    thrown.expectMessage("Unrecognized BSER object key type 3, expected string");
+    createReader(BaseEncoding.base16().decode("0001030701030103030323"), 64).readBserValue();
+  }
+}
@@ -30,6 +30,7 @@ import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.BuckConstant;
@@ -139,7 +140,8 @@ public class CleanCommandTest extends EasyMockSupport {
         Optional.<ProcessManager>absent(),
         Optional.<WebServer>absent(),
         FakeBuckConfig.builder().build(),
-        new NullFileHashCache());
+        new NullFileHashCache(),
+        new WorkerProcessPool());
 
 
   }
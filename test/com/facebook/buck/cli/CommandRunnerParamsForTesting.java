@@ -32,6 +32,7 @@ import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.ConstructorArgMarshaller;
 import com.facebook.buck.rules.TestCellBuilder;
 import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.shell.WorkerProcessPool;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.Console;
@@ -83,7 +84,8 @@ public class CommandRunnerParamsForTesting {
         Optional.<ProcessManager>absent(),
         webServer,
         config,
-        new NullFileHashCache());
+        new NullFileHashCache(),
+        new WorkerProcessPool());
   }
 
   public static Builder builder() {
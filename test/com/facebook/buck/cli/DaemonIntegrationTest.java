@@ -21,6 +21,7 @@ import static java.util.concurrent.Executors.callable;
 import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -33,6 +34,8 @@ import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.io.Watchman;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.parser.Parser;
+import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TestCellBuilder;
 import com.facebook.buck.rules.TestRunEvent;
 import com.facebook.buck.testutil.TestConsole;
@@ -481,13 +484,13 @@ public class DaemonIntegrationTest {
       throws IOException, InterruptedException {
     ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
 
-    Object daemon = Main.getDaemon(
-        new TestCellBuilder().setBuckConfig(
-            FakeBuckConfig.builder().setSections(
-                ImmutableMap.of("somesection", ImmutableMap.of("somename", "somevalue"))).build())
-            .setFilesystem(filesystem)
-            .build(),
-        new ObjectMapper());
+    Cell cell = new TestCellBuilder().setBuckConfig(
+        FakeBuckConfig.builder().setSections(
+            ImmutableMap.of("somesection", ImmutableMap.of("somename", "somevalue"))).build())
+        .setFilesystem(filesystem)
+        .build();
+    Object daemon = Main.getDaemon(cell, new ObjectMapper());
+    Parser parser = Main.getDaemonParser(cell, new ObjectMapper());
     assertEquals(
         "Daemon should not be replaced when config equal.", daemon,
         Main.getDaemon(
@@ -500,14 +503,43 @@ public class DaemonIntegrationTest {
                 .build(),
             new ObjectMapper()));
 
+    Cell otherCell = new TestCellBuilder().setBuckConfig(
+        FakeBuckConfig.builder().setSections(
+            ImmutableMap.of(
+                "somesection",
+                ImmutableMap.of("somename", "someothervalue"))).build())
+        .setFilesystem(filesystem)
+        .build();
+    assertEquals(
+        "Daemon should not be replaced when only config changes.", daemon,
+        Main.getDaemon(otherCell, new ObjectMapper()));
     assertNotEquals(
-        "Daemon should be replaced when config not equal.", daemon,
-        Main.getDaemon(
+        "Parser should be replaced when config not equal.", parser,
+        Main.getDaemonParser(otherCell, new ObjectMapper()));
+    assertSame(
+        "Parser should be kept for the original config.", parser,
+        Main.getDaemonParser(cell, new ObjectMapper()));
+  }
+
+  @Test
+  public void whenConfigSectionNotReadByParserChangesParserKept()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+
+    Parser parser = Main.getDaemonParser(
+        new TestCellBuilder().setBuckConfig(
+            FakeBuckConfig.builder().setSections(
+                ImmutableMap.of("log", ImmutableMap.of("max_traces", "5"))).build())
+            .setFilesystem(filesystem)
+            .build(),
+        new ObjectMapper());
+
+    assertSame(
+        "Parser should be kept when only sections it doesn't read change.", parser,
+        Main.getDaemonParser(
             new TestCellBuilder().setBuckConfig(
                 FakeBuckConfig.builder().setSections(
-                    ImmutableMap.of(
-                        "somesection",
-                        ImmutableMap.of("somename", "someothervalue"))).build())
+                    ImmutableMap.of("log", ImmutableMap.of("max_traces", "10"))).build())
                 .setFilesystem(filesystem)
                 .build(),
             new ObjectMapper()));
@@ -541,7 +573,7 @@ public class DaemonIntegrationTest {
       throws IOException, InterruptedException {
     ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
 
-    Object daemon = Main.getDaemon(
+    Object parser = Main.getDaemonParser(
         new TestCellBuilder()
             .setAndroidDirectoryResolver(
                 new FakeAndroidDirectoryResolver(
@@ -553,8 +585,8 @@ public class DaemonIntegrationTest {
         new ObjectMapper());
 
     assertNotEquals(
-        "Daemon should be replaced when not equal.", daemon,
-        Main.getDaemon(
+        "Parser should be replaced when not equal.", parser,
+        Main.getDaemonParser(
             new TestCellBuilder()
                 .setAndroidDirectoryResolver(
                     new FakeAndroidDirectoryResolver(
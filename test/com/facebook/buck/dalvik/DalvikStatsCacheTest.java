@@ -0,0 +1,232 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.dalvik;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.jvm.java.classes.AbstractFileLike;
+import com.facebook.buck.jvm.java.classes.ClasspathTraversal;
+import com.facebook.buck.jvm.java.classes.DefaultClasspathTraverser;
+import com.facebook.buck.jvm.java.classes.FileLike;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+public class DalvikStatsCacheTest {
+  private static final int CLASS_COUNT = 50;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path jar;
+
+  @Before
+  public void setUp() throws IOException {
+    DalvikStatsCache.invalidateAll();
+    filesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    jar = tmpDir.getRoot().toPath().resolve("classes.jar");
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (int i = 0; i < CLASS_COUNT; i++) {
+        out.putNextEntry(new ZipEntry(String.format("test/Class%d.class", i)));
+        out.write(createClass(String.format("test/Class%d", i), i % 5));
+        out.closeEntry();
+      }
+      out.putNextEntry(new ZipEntry("META-INF/pom.properties"));
+      out.closeEntry();
+    }
+  }
+
+  @After
+  public void tearDown() {
+    DalvikStatsCache.invalidateAll();
+  }
+
+  @Test
+  public void missingStatsAreComputedUpFront() throws IOException {
+    DalvikStatsCache cache = new DalvikStatsCache();
+    cache.computeMissingStats(filesystem, ImmutableSet.of(jar), 4);
+    assertEquals(CLASS_COUNT, DalvikStatsCache.getSharedStatsCount());
+  }
+
+  @Test
+  public void statsSurviveSavingAndLoading() throws IOException {
+    Path store = tmpDir.getRoot().toPath().resolve("buck-out/bin/dalvik_stats.cache");
+    DalvikStatsCache cache = new DalvikStatsCache(Optional.of(store));
+    Map<String, DalvikStatsTool.Stats> computed = getAllStats(cache);
+    cache.save();
+
+    DalvikStatsCache.invalidateAll();
+    assertEquals(0, DalvikStatsCache.getSharedStatsCount());
+    DalvikStatsCache reloaded = new DalvikStatsCache(Optional.of(store));
+    assertEquals(CLASS_COUNT, DalvikStatsCache.getSharedStatsCount());
+
+    Map<String, DalvikStatsTool.Stats> loaded = getAllStats(reloaded);
+    assertEquals(CLASS_COUNT, DalvikStatsCache.getSharedStatsCount());
+    assertEquals(computed.keySet(), loaded.keySet());
+    for (String name : computed.keySet()) {
+      DalvikStatsTool.Stats expected = computed.get(name);
+      DalvikStatsTool.Stats actual = loaded.get(name);
+      assertEquals(expected.estimatedLinearAllocSize, actual.estimatedLinearAllocSize);
+      assertEquals(expected.methodReferences, actual.methodReferences);
+      assertEquals(expected.fieldReferences, actual.fieldReferences);
+    }
+  }
+
+  @Test
+  public void savingKeepsStatsSavedByOtherCaches() throws IOException {
+    Path store = tmpDir.getRoot().toPath().resolve("buck-out/bin/dalvik_stats.cache");
+    DalvikStatsCache first = new DalvikStatsCache(Optional.of(store));
+    getAllStats(first);
+    first.save();
+
+    DalvikStatsCache.invalidateAll();
+    DalvikStatsCache second = new DalvikStatsCache(Optional.of(store));
+    second.getStats(new InMemoryFileLike("other.jar", createClass("test/Other", 1)));
+    second.save();
+
+    DalvikStatsCache.invalidateAll();
+    new DalvikStatsCache(Optional.of(store));
+    assertEquals(CLASS_COUNT + 1, DalvikStatsCache.getSharedStatsCount());
+  }
+
+  @Test
+  public void corruptStoreIsIgnored() throws IOException {
+    Path store = tmpDir.getRoot().toPath().resolve("buck-out/bin/dalvik_stats.cache");
+    DalvikStatsCache cache = new DalvikStatsCache(Optional.of(store));
+    getAllStats(cache);
+    cache.save();
+
+    byte[] contents = Files.readAllBytes(store);
+    contents[contents.length / 2] ^= 0x5a;
+    Files.write(store, contents);
+    DalvikStatsCache.invalidateAll();
+    new DalvikStatsCache(Optional.of(store));
+    assertEquals(0, DalvikStatsCache.getSharedStatsCount());
+
+    Files.write(store, Arrays.copyOf(contents, contents.length / 3));
+    DalvikStatsCache.invalidateAll();
+    new DalvikStatsCache(Optional.of(store));
+    assertEquals(0, DalvikStatsCache.getSharedStatsCount());
+  }
+
+  @Test
+  public void classesWithTheSameContentsShareStats() {
+    byte[] contents = createClass("test/Same", 3);
+    DalvikStatsCache cache = new DalvikStatsCache();
+    DalvikStatsTool.Stats first = cache.getStats(new InMemoryFileLike("a.jar", contents));
+    DalvikStatsTool.Stats second =
+        new DalvikStatsCache().getStats(new InMemoryFileLike("b.jar", contents.clone()));
+
+    assertSame(first, second);
+    assertEquals(3, first.fieldReferences.size());
+  }
+
+  private Map<String, DalvikStatsTool.Stats> getAllStats(final DalvikStatsCache cache)
+      throws IOException {
+    final Map<String, DalvikStatsTool.Stats> stats = new HashMap<>();
+    new DefaultClasspathTraverser().traverse(
+        new ClasspathTraversal(ImmutableSet.of(jar), filesystem) {
+          @Override
+          public void visit(FileLike entry) {
+            stats.put(entry.getRelativePath(), cache.getStats(entry));
+          }
+        });
+    return stats;
+  }
+
+  /** Creates a class whose constructor reads {@code fieldCount} fields of its own. */
+  private static byte[] createClass(String name, int fieldCount) {
+    ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+    writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name, null, "java/lang/Object", null);
+    for (int i = 0; i < fieldCount; i++) {
+      writer.visitField(Opcodes.ACC_PUBLIC, "field" + i, "I", null, null).visitEnd();
+    }
+    MethodVisitor constructor =
+        writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+    constructor.visitCode();
+    constructor.visitVarInsn(Opcodes.ALOAD, 0);
+    constructor.visitMethodInsn(
+        Opcodes.INVOKESPECIAL,
+        "java/lang/Object",
+        "<init>",
+        "()V",
+        false);
+    for (int i = 0; i < fieldCount; i++) {
+      constructor.visitVarInsn(Opcodes.ALOAD, 0);
+      constructor.visitFieldInsn(Opcodes.GETFIELD, name, "field" + i, "I");
+      constructor.visitInsn(Opcodes.POP);
+    }
+    constructor.visitInsn(Opcodes.RETURN);
+    constructor.visitMaxs(0, 0);
+    constructor.visitEnd();
+    writer.visitEnd();
+    return writer.toByteArray();
+  }
+
+  private static class InMemoryFileLike extends AbstractFileLike {
+    private final Path container;
+    private final byte[] contents;
+
+    InMemoryFileLike(String container, byte[] contents) {
+      this.container = Paths.get(container);
+      this.contents = contents;
+    }
+
+    @Override
+    public Path getContainer() {
+      return container;
+    }
+
+    @Override
+    public String getRelativePath() {
+      return "test/Same.class";
+    }
+
+    @Override
+    public long getSize() {
+      return contents.length;
+    }
+
+    @Override
+    public InputStream getInput() {
+      return new ByteArrayInputStream(contents);
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+public class BinaryTraceWriterTest {
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private static final Map<String, String> NO_ARGS = ImmutableMap.of();
+
+  @Test
+  public void eventsSurviveConversion() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("build.bintrace");
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(path, options(0, 0))) {
+      writer.writeEvent("buck", "build", ChromeTraceEvent.Phase.BEGIN, 1, 1000, NO_ARGS);
+      writer.writeEvent(
+          "javac",
+          "build",
+          ChromeTraceEvent.Phase.IMMEDIATE,
+          12345678901L,
+          900,
+          ImmutableMap.of("unicode", "\u00e9\u4e2d", "empty", ""));
+      writer.writeEvent(
+          "buck",
+          "build",
+          ChromeTraceEvent.Phase.END,
+          1,
+          5000000000L,
+          ImmutableMap.of("success", "true"));
+    }
+
+    List<ChromeTraceEvent> events = convert(path);
+    assertEquals(3, events.size());
+    assertEvent(events.get(0), "buck", "build", ChromeTraceEvent.Phase.BEGIN, 1, 1000, NO_ARGS);
+    assertEvent(
+        events.get(1),
+        "javac",
+        "build",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        12345678901L,
+        900,
+        ImmutableMap.of("unicode", "\u00e9\u4e2d", "empty", ""));
+    assertEvent(
+        events.get(2),
+        "buck",
+        "build",
+        ChromeTraceEvent.Phase.END,
+        1,
+        5000000000L,
+        ImmutableMap.of("success", "true"));
+  }
+
+  @Test
+  public void traceCanGrowBeyondOneMappedWindow() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("build.bintrace");
+    Map<String, String> args = ImmutableMap.of("padding", Strings.repeat("x", 10000));
+    int eventCount = 500;
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(path, options(0, 0))) {
+      for (int i = 0; i < eventCount; i++) {
+        writer.writeEvent("buck", "step", ChromeTraceEvent.Phase.IMMEDIATE, 1, i, args);
+      }
+    }
+
+    List<ChromeTraceEvent> events = convert(path);
+    assertEquals(eventCount, events.size());
+    assertEquals(eventCount - 1, events.get(eventCount - 1).getMicroTime());
+  }
+
+  @Test
+  public void shortEventsAreAggregatedAndSampled() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("build.bintrace");
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(path, options(100, 3))) {
+      for (int i = 0; i < 7; i++) {
+        writer.writeShortEventBegin("buck", "tiny", 1, i * 1000, NO_ARGS);
+        writer.writeShortEventEnd("buck", "tiny", 1, i * 1000 + 10, NO_ARGS);
+      }
+      writer.writeShortEventBegin("buck", "long", 1, 10000, NO_ARGS);
+      writer.writeShortEventEnd("buck", "long", 1, 20000, ImmutableMap.of("exit_code", "0"));
+    }
+
+    List<ChromeTraceEvent> events = convert(path);
+    assertEquals(
+        ImmutableList.of(
+            "tiny B 2000",
+            "tiny E 2010",
+            "tiny B 5000",
+            "tiny E 5010",
+            "long B 10000",
+            "long E 20000",
+            "tiny (aggregated) I 6010"),
+        summarize(events));
+    assertEquals(
+        ImmutableMap.of("count", "7", "sampled", "2", "total_us", "70"),
+        events.get(6).getArgs());
+    assertEquals(ImmutableMap.of("exit_code", "0"), events.get(5).getArgs());
+  }
+
+  @Test
+  public void otherEventsOnTheSameThreadForceShortEventsOut() throws IOException {
+    Path path = tmpDir.getRoot().toPath().resolve("build.bintrace");
+    try (BinaryTraceWriter writer = new BinaryTraceWriter(path, options(100, 0))) {
+      writer.writeShortEventBegin("buck", "javac", 1, 1000, NO_ARGS);
+      writer.writeEvent("javac", "parse", ChromeTraceEvent.Phase.BEGIN, 2, 1001, NO_ARGS);
+      writer.writeEvent("javac", "analyze", ChromeTraceEvent.Phase.BEGIN, 1, 1002, NO_ARGS);
+      writer.writeEvent("javac", "analyze", ChromeTraceEvent.Phase.END, 1, 1003, NO_ARGS);
+      writer.writeShortEventEnd("buck", "javac", 1, 1004, NO_ARGS);
+      // Still pending when the trace is closed.
+      writer.writeShortEventBegin("buck", "unfinished", 3, 1005, NO_ARGS);
+    }
+
+    assertEquals(
+        ImmutableList.of(
+            "parse B 1001",
+            "javac B 1000",
+            "analyze B 1002",
+            "analyze E 1003",
+            "javac E 1004",
+            "unfinished B 1005"),
+        summarize(convert(path)));
+  }
+
+  private static BinaryTraceWriter.Options options(long thresholdMicros, int sampleInterval) {
+    return new BinaryTraceWriter.Options(thresholdMicros, sampleInterval);
+  }
+
+  private static List<ChromeTraceEvent> convert(Path path) throws IOException {
+    ObjectMapper mapper = new ObjectMapper();
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (InputStream input = Files.newInputStream(path)) {
+      BinaryTraceConverter.convert(input, json, mapper);
+    }
+    return mapper.readValue(
+        json.toByteArray(),
+        new TypeReference<List<ChromeTraceEvent>>() {});
+  }
+
+  private static List<String> summarize(List<ChromeTraceEvent> events) {
+    ImmutableList.Builder<String> summary = ImmutableList.builder();
+    for (ChromeTraceEvent event : events) {
+      summary.add(
+          String.format(
+              "%s %c %d",
+              event.getName(),
+              event.getPhase().name().charAt(0),
+              event.getMicroTime()));
+    }
+    return summary.build();
+  }
+
+  private static void assertEvent(
+      ChromeTraceEvent event,
+      String category,
+      String name,
+      ChromeTraceEvent.Phase phase,
+      long threadId,
+      long microTime,
+      Map<String, String> args) {
+    assertEquals(category, event.getCategory());
+    assertEquals(name, event.getName());
+    assertEquals(phase, event.getPhase());
+    assertEquals(threadId, event.getThreadId());
+    assertEquals(microTime, event.getMicroTime());
+    assertEquals(args, event.getArgs());
+  }
+}
@@ -81,8 +81,10 @@ import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -149,6 +151,39 @@ public class ChromeTraceBuildListenerTest {
         ImmutableSortedSet.copyOf(files));
   }
 
+  @Test
+  public void deletesOldTracesOfBothFormats() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    projectFilesystem.mkdirs(BuckConstant.BUCK_TRACE_DIR);
+    for (int i = 0; i < 4; ++i) {
+      String extension = i % 2 == 0 ? "trace" : "bintrace";
+      File oldResult = new File(
+          tmpDir.getRoot(),
+          String.format("%s/build.100%d.%s", BuckConstant.BUCK_TRACE_DIR, i, extension));
+      oldResult.createNewFile();
+      oldResult.setLastModified(TimeUnit.SECONDS.toMillis(i));
+    }
+
+    ChromeTraceBuildListener listener = new ChromeTraceBuildListener(
+        projectFilesystem,
+        new BuildId("BUILD_ID"),
+        new FakeClock(1409702151000000000L),
+        new ObjectMapper(),
+        Locale.US,
+        TimeZone.getTimeZone("America/Los_Angeles"),
+        /* tracesToKeep */ 2,
+        false,
+        Optional.of(new BinaryTraceWriter.Options(/* thresholdMicros */ 0, 0)));
+    projectFilesystem.deleteFileAtPath(listener.getTracePath());
+
+    listener.deleteOldTraces();
+
+    assertEquals(
+        ImmutableSortedSet.of("build.1002.trace", "build.1003.bintrace"),
+        ImmutableSortedSet.copyOf(
+            projectFilesystem.getRootPath().resolve(BuckConstant.BUCK_TRACE_DIR).toFile().list()));
+  }
+
   @Test
   public void testBuildJson() throws IOException {
     ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
@@ -540,6 +575,54 @@ public class ChromeTraceBuildListenerTest {
             Paths.get("buck-out/log/traces/build.2014-09-02.16-55-51.BUILD_ID.trace")));
   }
 
+  @Test
+  public void canWriteBinaryTraces() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
+    BuildId buildId = new BuildId("BUILD_ID");
+
+    ChromeTraceBuildListener listener = new ChromeTraceBuildListener(
+        projectFilesystem,
+        buildId,
+        new FakeClock(1409702151000000000L),
+        new ObjectMapper(),
+        Locale.US,
+        TimeZone.getTimeZone("America/Los_Angeles"),
+        /* tracesToKeep */ 1,
+        false,
+        Optional.of(new BinaryTraceWriter.Options(/* thresholdMicros */ 0, 0)));
+    Clock fakeClock = new IncrementingFakeClock(TimeUnit.MILLISECONDS.toNanos(1));
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock, buildId);
+    eventBus.register(listener);
+    BuildEvent.Started buildEventStarted = BuildEvent.started(ImmutableList.of("//fake:rule"));
+    eventBus.post(buildEventStarted);
+    StepEvent.Started stepStarted = StepEvent.started("fakeStep", "description", UUID.randomUUID());
+    eventBus.post(stepStarted);
+    eventBus.post(StepEvent.finished(stepStarted, 0));
+    eventBus.post(BuildEvent.finished(buildEventStarted, 0));
+    listener.outputTrace(buildId);
+
+    Path tracePath = Paths.get("buck-out/log/traces/build.2014-09-02.16-55-51.BUILD_ID.bintrace");
+    assertTrue(projectFilesystem.exists(tracePath));
+
+    ByteArrayOutputStream json = new ByteArrayOutputStream();
+    try (InputStream input = projectFilesystem.newFileInputStream(tracePath)) {
+      BinaryTraceConverter.convert(input, json, new ObjectMapper());
+    }
+    List<ChromeTraceEvent> events = new ObjectMapper().readValue(
+        json.toByteArray(),
+        new TypeReference<List<ChromeTraceEvent>>() {});
+    List<String> names = new ArrayList<>();
+    for (ChromeTraceEvent event : events) {
+      names.add(event.getName());
+    }
+    assertEquals(
+        ImmutableList.of("process_name", "build", "fakeStep", "fakeStep", "build"),
+        names);
+    assertEquals(
+        ImmutableMap.of("description", "description", "exit_code", "0"),
+        events.get(3).getArgs());
+  }
+
   @Test
   public void canCompressTraces() throws IOException {
     ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot().toPath());
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.util.Ansi;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class IncrementalFrameRendererTest {
+
+  private static final String STOP_WRAPPING = "\u001B[?7l";
+  private static final String RESUME_WRAPPING = "\u001B[?7h";
+  private static final String CLEAR_LINE = "\u001B[2K";
+
+  private static String up(int lines) {
+    return "\u001B[" + lines + "A";
+  }
+
+  @Test
+  public void firstFrameIsPrintedInFull() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.forceTty());
+    assertEquals(
+        "log\n" + STOP_WRAPPING + "a\nb\n" + RESUME_WRAPPING,
+        renderer.renderFrame(ImmutableList.of("log"), ImmutableList.of("a", "b")));
+  }
+
+  @Test
+  public void unchangedFrameProducesNoOutput() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.forceTty());
+    renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "b"));
+    assertEquals(
+        "",
+        renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "b")));
+  }
+
+  @Test
+  public void onlyChangedLinesAreRewritten() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.forceTty());
+    renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "b", "c", "d"));
+    assertEquals(
+        up(3) + STOP_WRAPPING + CLEAR_LINE + "B\n\n" + CLEAR_LINE + "D\n" + RESUME_WRAPPING,
+        renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "B", "c", "D")));
+  }
+
+  @Test
+  public void changeInShapeRedrawsWholeFrame() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.forceTty());
+    renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "b"));
+    assertEquals(
+        up(1) + CLEAR_LINE + up(1) + CLEAR_LINE + STOP_WRAPPING + "a\n" + RESUME_WRAPPING,
+        renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a")));
+  }
+
+  @Test
+  public void logLinesRedrawWholeFrameBelowThem() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.forceTty());
+    renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a"));
+    assertEquals(
+        up(1) + CLEAR_LINE + "log\n" + STOP_WRAPPING + "a\n" + RESUME_WRAPPING,
+        renderer.renderFrame(ImmutableList.of("log"), ImmutableList.of("a")));
+  }
+
+  @Test
+  public void withoutTtyEveryFrameIsPrintedInFull() {
+    IncrementalFrameRenderer renderer = new IncrementalFrameRenderer(Ansi.withoutTty());
+    renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "b"));
+    assertEquals(
+        "a\nB\n",
+        renderer.renderFrame(ImmutableList.<String>of(), ImmutableList.of("a", "B")));
+  }
+}
@@ -19,12 +19,14 @@ import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.rules.BuildRuleSuccessType;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.timing.FakeClock;
 import com.facebook.buck.util.BuckConstant;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 
@@ -275,24 +277,24 @@ public class ProgressEstimatorTest {
     e.didStartBuild();
     e.setNumberOfRules(10);
 
-    e.didStartRule();
-    e.didStartRule();
-    e.didStartRule();
-    e.didStartRule();
-
-    e.didSuspendRule();
-    e.didResumeRule();
-    e.didSuspendRule();
-    e.didResumeRule();
-    e.didSuspendRule();
-    e.didResumeRule();
-    e.didSuspendRule();
-    e.didResumeRule();
-
-    e.didFinishRule();
-    e.didFinishRule();
-    e.didFinishRule();
-    e.didFinishRule();
+    e.didStartRule("//:a", 0);
+    e.didStartRule("//:b", 0);
+    e.didStartRule("//:c", 0);
+    e.didStartRule("//:d", 0);
+
+    e.didSuspendRule("//:a", 1);
+    e.didResumeRule("//:a", 2);
+    e.didSuspendRule("//:b", 1);
+    e.didResumeRule("//:b", 2);
+    e.didSuspendRule("//:c", 1);
+    e.didResumeRule("//:c", 2);
+    e.didSuspendRule("//:d", 1);
+    e.didResumeRule("//:d", 2);
+
+    e.didFinishRule("//:a", 3, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+    e.didFinishRule("//:b", 3, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+    e.didFinishRule("//:c", 3, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+    e.didFinishRule("//:d", 3, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
 
     assertThat(e.getApproximateBuildProgress().isPresent(), Matchers.equalTo(true));
     assertThat(e.getApproximateBuildProgress().get().doubleValue(),
@@ -300,4 +302,80 @@ public class ProgressEstimatorTest {
     assertThat(e.getApproximateBuildProgress().get().doubleValue(),
         Matchers.lessThan(1.0));
   }
+
+  @Test
+  public void testBuildProgressIsWeightedByHistoricalRuleCost() throws IOException {
+    Path storagePath = tmp.getRoot().toPath();
+
+    // Teach the estimator that //:slow takes 9 times as long as //:fast.
+    ProgressEstimator first = new ProgressEstimator(storagePath, getBuckEventBus());
+    first.didStartBuild();
+    first.setNumberOfRules(2);
+    buildRule(first, "//:fast", 0, 100);
+    buildRule(first, "//:slow", 100, 1000);
+    first.didFinishBuild();
+
+    ProgressEstimator e = new ProgressEstimator(storagePath, getBuckEventBus());
+    e.didStartBuild();
+    e.setNumberOfRules(2);
+    e.didStartRule("//:fast", 0);
+    e.didStartRule("//:slow", 0);
+    e.didFinishRule("//:fast", 100, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+
+    assertThat(e.getApproximateBuildProgress().get().doubleValue(), Matchers.closeTo(0.1, 0.01));
+    // 10% of the work took 100ms, so the remaining 90% should take another 900ms.
+    assertThat(e.getEstimatedBuildTimeRemainingMillis(100).get(), Matchers.equalTo(900L));
+    assertThat(e.getEstimatedBuildTimeRemainingMillis(400).get(), Matchers.equalTo(600L));
+
+    e.didFinishRule("//:slow", 1000, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+    assertThat(e.getApproximateBuildProgress().get().doubleValue(), Matchers.closeTo(1.0, 0.01));
+    assertThat(e.getEstimatedBuildTimeRemainingMillis(1000).get(), Matchers.equalTo(0L));
+  }
+
+  @Test
+  public void testRulesWithoutHistoryCostTheAverageOfThoseWithHistory() throws IOException {
+    Path storagePath = tmp.getRoot().toPath();
+
+    ProgressEstimator first = new ProgressEstimator(storagePath, getBuckEventBus());
+    first.didStartBuild();
+    first.setNumberOfRules(1);
+    buildRule(first, "//:known", 0, 300);
+    first.didFinishBuild();
+
+    ProgressEstimator e = new ProgressEstimator(storagePath, getBuckEventBus());
+    e.didStartBuild();
+    e.setNumberOfRules(3);
+    e.didStartRule("//:known", 0);
+    e.didStartRule("//:new", 0);
+    e.didFinishRule("//:new", 300, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+
+    // One of three equally expensive rules is done, counting the one we haven't seen start yet.
+    assertThat(e.getApproximateBuildProgress().get().doubleValue(), Matchers.closeTo(0.33, 0.01));
+    assertThat(e.getEstimatedBuildTimeRemainingMillis(300).get(), Matchers.equalTo(600L));
+  }
+
+  @Test
+  public void testNoEstimatedTimeRemainingWithoutHistory() {
+    Path p = new FakeProjectFilesystem().getRootPath();
+    ProgressEstimator e = new ProgressEstimator(p, getBuckEventBus());
+
+    e.didStartBuild();
+    e.setNumberOfRules(2);
+    e.didStartRule("//:a", 0);
+    e.didFinishRule("//:a", 100, Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+
+    assertThat(e.getEstimatedBuildTimeRemainingMillis(100).isPresent(), Matchers.equalTo(false));
+  }
+
+  private static void buildRule(
+      ProgressEstimator estimator,
+      String buildTarget,
+      long startMillis,
+      long finishMillis) {
+    estimator.didStartRule(buildTarget, startMillis);
+    estimator.didFinishRule(
+        buildTarget,
+        finishMillis,
+        Optional.of(BuildRuleSuccessType.BUILT_LOCALLY));
+  }
 }
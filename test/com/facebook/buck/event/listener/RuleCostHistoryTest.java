@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+
+import org.hamcrest.Matchers;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+public class RuleCostHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void unknownRuleHasNoExpectedCost() {
+    assertThat(
+        RuleCostHistory.empty().getExpectedCostMillis("//:a"),
+        Matchers.equalTo(Optional.<Double>absent()));
+  }
+
+  @Test
+  public void expectedCostIsWeightedByHowOftenTheRuleIsSkipped() {
+    RuleCostHistory history = RuleCostHistory.empty();
+    history.record("//:a", 1000, /* builtLocally */ true);
+    history.record("//:a", 10, /* builtLocally */ false);
+
+    // Skipped in 30% of builds so far: 0.3 * 10ms + 0.7 * 1000ms.
+    assertThat(history.getExpectedCostMillis("//:a").get(), Matchers.closeTo(703.0, 0.1));
+  }
+
+  @Test
+  public void historySurvivesSaveAndLoad() {
+    Path path = tmp.getRoot().toPath().resolve("buck-out").resolve(".rulecosts");
+    RuleCostHistory history = RuleCostHistory.empty();
+    history.record("//:a", 250, /* builtLocally */ true);
+    history.save(path);
+
+    assertThat(
+        RuleCostHistory.load(path).getExpectedCostMillis("//:a").get(),
+        Matchers.closeTo(250.0, 0.1));
+  }
+
+  @Test
+  public void rulesWhichHaventBeenBuiltForAWhileAreForgotten() {
+    Path path = tmp.getRoot().toPath().resolve(".rulecosts");
+    RuleCostHistory history = RuleCostHistory.empty();
+    history.record("//:a", 1000, /* builtLocally */ true);
+
+    history.save(
+        path,
+        System.currentTimeMillis() + TimeUnit.DAYS.toMillis(RuleCostHistory.MAX_AGE_DAYS + 1));
+
+    assertThat(
+        RuleCostHistory.load(path).getExpectedCostMillis("//:a"),
+        Matchers.equalTo(Optional.<Double>absent()));
+  }
+
+  @Test
+  public void unreadableHistoryIsTreatedAsEmpty() throws IOException {
+    Path path = tmp.getRoot().toPath().resolve(".rulecosts");
+    Files.write(path, "not a cost file".getBytes(Charsets.UTF_8));
+
+    assertThat(
+        RuleCostHistory.load(path).getExpectedCostMillis("//:a"),
+        Matchers.equalTo(Optional.<Double>absent()));
+  }
+}
@@ -21,7 +21,9 @@ import static com.facebook.buck.event.listener.ConsoleTestUtils.postStoreSchedul
 import static com.facebook.buck.event.listener.ConsoleTestUtils.postStoreStarted;
 import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.artifact_cache.ArtifactCacheEvent;
 import com.facebook.buck.artifact_cache.CacheResult;
@@ -66,8 +68,11 @@ import com.facebook.buck.test.result.type.ResultType;
 import com.facebook.buck.test.selectors.TestSelectorList;
 import com.facebook.buck.testutil.TestConsole;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.timing.AbsolutePerfTime;
 import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.FakePerfTimer;
 import com.facebook.buck.timing.IncrementingFakeClock;
+import com.facebook.buck.timing.PerfTimer;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.environment.DefaultExecutionEnvironment;
 import com.google.common.base.Functions;
@@ -1568,6 +1573,69 @@ public class SuperConsoleEventBusListenerTest {
     validateConsole(console, listener, 0L, ImmutableList.<String>of());
   }
 
+  @Test
+  public void scheduledFramesOverCpuBudgetSkipLaterFrames() {
+    // Frames take a second of CPU time each, but no wall time at all.
+    SuperConsoleEventBusListener slowListener = createListenerForFrameBudget(
+        new IncrementingFakeClock(0),
+        new IncrementingFakePerfTimer(TimeUnit.SECONDS.toNanos(1)));
+
+    assertTrue(slowListener.renderScheduledFrame());
+    for (int i = 0; i < SuperConsoleEventBusListener.MAX_SKIPPED_FRAMES; i++) {
+      assertFalse(slowListener.renderScheduledFrame());
+    }
+    assertTrue(slowListener.renderScheduledFrame());
+
+    // Frames take a second of wall time each, spent waiting rather than using the CPU.
+    SuperConsoleEventBusListener fastListener = createListenerForFrameBudget(
+        new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1)),
+        new IncrementingFakePerfTimer(1));
+
+    assertTrue(fastListener.renderScheduledFrame());
+    assertTrue(fastListener.renderScheduledFrame());
+  }
+
+  @Test
+  public void scheduledFramesAreTimedByWallClockWithoutCpuTime() {
+    SuperConsoleEventBusListener slowListener = createListenerForFrameBudget(
+        new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1)),
+        new FakePerfTimer(AbsolutePerfTime.UNSUPPORTED, AbsolutePerfTime.UNSUPPORTED));
+
+    assertTrue(slowListener.renderScheduledFrame());
+    assertFalse(slowListener.renderScheduledFrame());
+  }
+
+  private SuperConsoleEventBusListener createListenerForFrameBudget(
+      Clock clock,
+      PerfTimer perfTimer) {
+    return new SuperConsoleEventBusListener(
+        new TestConsole(),
+        clock,
+        perfTimer,
+        silentSummaryVerbosity,
+        new DefaultExecutionEnvironment(
+            ImmutableMap.copyOf(System.getenv()),
+            System.getProperties()),
+        Optional.<WebServer>absent(),
+        Locale.US,
+        logPath);
+  }
+
+  private static class IncrementingFakePerfTimer implements PerfTimer {
+    private final long incrementNanos;
+    private long cpuTimeNanos;
+
+    IncrementingFakePerfTimer(long incrementNanos) {
+      this.incrementNanos = incrementNanos;
+    }
+
+    @Override
+    public AbsolutePerfTime getCurrentPerfTimeForThreadId(long threadId) {
+      cpuTimeNanos += incrementNanos;
+      return AbsolutePerfTime.of(cpuTimeNanos, 0);
+    }
+  }
+
   @Test
   public void testProjectGeneration() {
     Clock fakeClock = new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1));
@@ -1606,10 +1674,13 @@ public class SuperConsoleEventBusListenerTest {
 
   private Path getStorageForTest() throws IOException {
     tmp.create();
-    return tmp.getRootPath()
+    Path storagePath = tmp.getRootPath()
         .resolve("/tmp/estimatortests/")
         .resolve(BuckConstant.BUCK_OUTPUT_PATH)
         .resolve(ProgressEstimator.PROGRESS_ESTIMATIONS_JSON);
+    // Rule costs recorded by an earlier run would change the expected progress.
+    Files.deleteIfExists(storagePath.resolveSibling(ProgressEstimator.RULE_COSTS_FILE));
+    return storagePath;
   }
 
   @Test
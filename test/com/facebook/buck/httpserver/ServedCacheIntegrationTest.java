@@ -53,8 +53,11 @@ import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
 
 public class ServedCacheIntegrationTest {
   @Rule
@@ -434,6 +437,75 @@ public class ServedCacheIntegrationTest {
         Matchers.equalTo(data));
   }
 
+  @Test
+  public void testLargeArtifactIsSentInFull() throws Exception {
+    webServer = new WebServer(
+        /* port */ 0,
+        projectFilesystem,
+        "/static/",
+        new ObjectMapper());
+    webServer.updateAndStartIfNeeded(ArtifactCaches.newServedCache(
+            createMockLocalConfig(
+                "[cache]",
+                "dir = test-cache",
+                "serve_local_cache = true",
+                "served_local_cache_mode = readwrite"),
+            projectFilesystem));
+
+    ArtifactCache serverBackedCache = ArtifactCaches.newInstance(
+        createMockLocalHttpCacheConfig(webServer.getPort().get()),
+        buckEventBus,
+        projectFilesystem,
+        Optional.<String>absent(),
+        DIRECT_EXECUTOR_SERVICE);
+
+    RuleKey ruleKey = new RuleKey("00111222333444");
+    byte[] data = new byte[5 * 1024 * 1024 + 17];
+    new Random(0).nextBytes(data);
+    Path originalDataPath = tmpDir.newFile();
+    Files.write(originalDataPath, data);
+    serverBackedCache.store(ImmutableSet.of(ruleKey), A_FILE_METADATA, originalDataPath);
+
+    Path fetchedContents = tmpDir.newFile();
+    CacheResult cacheResult = serverBackedCache.fetch(ruleKey, fetchedContents);
+    assertThat(cacheResult.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(cacheResult.getMetadata(), Matchers.equalTo(A_FILE_METADATA));
+    assertThat(Arrays.equals(Files.readAllBytes(fetchedContents), data), Matchers.is(true));
+  }
+
+  @Test
+  public void requestsBeyondAdmissionLimitsAreTurnedAway() throws Exception {
+    webServer = new WebServer(
+        /* port */ 0,
+        projectFilesystem,
+        "/static/",
+        new ObjectMapper());
+    webServer.updateAndStartIfNeeded(
+        Optional.of(dirCache),
+        /* maxConcurrentFetches */ 0,
+        /* maxConcurrentStores */ 0);
+
+    ArtifactCache serverBackedCache = ArtifactCaches.newInstance(
+        createMockLocalHttpCacheConfig(webServer.getPort().get()),
+        buckEventBus,
+        projectFilesystem,
+        Optional.<String>absent(),
+        DIRECT_EXECUTOR_SERVICE);
+
+    Path fetchedContents = tmpDir.newFile();
+    assertThat(
+        serverBackedCache.fetch(A_FILE_RULE_KEY, fetchedContents).getType(),
+        Matchers.equalTo(CacheResultType.ERROR));
+
+    webServer.updateAndStartIfNeeded(
+        Optional.of(dirCache),
+        /* maxConcurrentFetches */ 1,
+        /* maxConcurrentStores */ 1);
+    assertThat(
+        serverBackedCache.fetch(A_FILE_RULE_KEY, fetchedContents).getType(),
+        Matchers.equalTo(CacheResultType.HIT));
+  }
+
   @Test
   public void testStoreDisabled() throws Exception {
     webServer = new WebServer(
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.io;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.bser.BserSerializer;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+public class WatchmanSubscriberTest {
+
+  private static final String NAME = "buckd-test";
+
+  @Test
+  public void startSendsSubscribeCommandAndRecordsClock() throws IOException {
+    ByteArrayOutputStream sent = new ByteArrayOutputStream();
+    WatchmanSubscriber subscriber = createSubscriber(
+        bserStream(ImmutableMap.of("subscribe", NAME, "clock", "c:0:1")),
+        sent,
+        100);
+    Map<String, Object> params = ImmutableMap.<String, Object>of("since", "c:0:1");
+
+    assertTrue(subscriber.start("/some/root", params));
+
+    ByteArrayOutputStream expected = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(
+        ImmutableList.of("subscribe", "/some/root", NAME, params),
+        expected);
+    assertArrayEquals(expected.toByteArray(), sent.toByteArray());
+    assertEquals(Optional.of("c:0:1"), subscriber.drain().getClock());
+    subscriber.close();
+  }
+
+  @Test
+  public void startFailsWhenWatchmanRejectsSubscription() throws IOException {
+    WatchmanSubscriber subscriber = createSubscriber(
+        bserStream(ImmutableMap.of("error", "unable to resolve root")),
+        new ByteArrayOutputStream(),
+        100);
+
+    assertFalse(subscriber.start("/some/root", ImmutableMap.<String, Object>of()));
+    assertFalse(subscriber.isAlive());
+  }
+
+  @Test
+  public void changesToTheSameFileAreCoalesced() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(100);
+
+    subscriber.handleUpdate(update("c:0:2", file("foo/bar", true, true)));
+    subscriber.handleUpdate(update("c:0:3", file("foo/baz", false, true)));
+    subscriber.handleUpdate(update("c:0:4", file("foo/bar", false, false)));
+
+    WatchmanSubscriber.Changes changes = subscriber.drain();
+    assertFalse(changes.isOverflow());
+    assertEquals(Optional.of("c:0:4"), changes.getClock());
+    assertEquals(
+        ImmutableList.of(
+            ImmutableMap.of("name", "foo/bar", "new", true, "exists", false),
+            ImmutableMap.of("name", "foo/baz", "new", false, "exists", true)),
+        changes.getFiles());
+  }
+
+  @Test
+  public void drainResetsPendingChanges() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(100);
+
+    subscriber.handleUpdate(update("c:0:2", file("foo/bar", false, true)));
+    subscriber.drain();
+
+    WatchmanSubscriber.Changes changes = subscriber.drain();
+    assertEquals(0, changes.getFiles().size());
+    assertEquals(Optional.of("c:0:2"), changes.getClock());
+  }
+
+  @Test
+  public void tooManyPendingChangesIsAnOverflow() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(1);
+
+    subscriber.handleUpdate(
+        update("c:0:2", file("foo/bar", false, true), file("foo/baz", false, true)));
+
+    WatchmanSubscriber.Changes changes = subscriber.drain();
+    assertTrue(changes.isOverflow());
+    assertEquals(0, changes.getFiles().size());
+    assertFalse("Overflow should be reset once drained", subscriber.drain().isOverflow());
+  }
+
+  @Test
+  public void freshInstanceIsAnOverflow() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(100);
+
+    subscriber.handleUpdate(
+        ImmutableMap.<String, Object>of(
+            "subscription", NAME,
+            "clock", "c:1:1",
+            "is_fresh_instance", true,
+            "files", ImmutableList.of()));
+
+    assertTrue(subscriber.drain().isOverflow());
+  }
+
+  @Test
+  public void updatesForOtherSubscriptionsAreIgnored() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(100);
+
+    assertTrue(
+        subscriber.handleUpdate(
+            ImmutableMap.<String, Object>of(
+                "subscription", "other",
+                "clock", "c:0:9",
+                "files", ImmutableList.of(file("foo/bar", false, true)))));
+
+    assertEquals(0, subscriber.drain().getFiles().size());
+  }
+
+  @Test
+  public void errorEndsSubscription() {
+    WatchmanSubscriber subscriber = createIdleSubscriber(100);
+
+    assertFalse(
+        subscriber.handleUpdate(ImmutableMap.<String, Object>of("error", "root was deleted")));
+  }
+
+  private static WatchmanSubscriber createIdleSubscriber(int overflowThreshold) {
+    return createSubscriber(
+        new ByteArrayInputStream(new byte[0]),
+        new ByteArrayOutputStream(),
+        overflowThreshold);
+  }
+
+  private static WatchmanSubscriber createSubscriber(
+      InputStream inputStream,
+      ByteArrayOutputStream outputStream,
+      int overflowThreshold) {
+    return new WatchmanSubscriber(
+        NAME,
+        inputStream,
+        outputStream,
+        new Closeable() {
+          @Override
+          public void close() {
+          }
+        },
+        overflowThreshold);
+  }
+
+  private static Map<String, Object> update(String clock, Map<?, ?>... files) {
+    return ImmutableMap.<String, Object>of(
+        "subscription", NAME,
+        "clock", clock,
+        "files", ImmutableList.copyOf(files));
+  }
+
+  private static Map<String, Object> file(String name, boolean isNew, boolean exists) {
+    return ImmutableMap.<String, Object>of("name", name, "new", isNew, "exists", exists);
+  }
+
+  private static InputStream bserStream(Object value) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(value, out);
+    return new ByteArrayInputStream(out.toByteArray());
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.json;
+
+import static com.facebook.buck.testutil.WatchEventsForTests.createOverflowEvent;
+import static com.facebook.buck.testutil.WatchEventsForTests.createPathEvent;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+
+public class GlobCacheTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private GlobCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    cache = new GlobCache();
+    touch("foo/BUCK");
+    touch("foo/A.java");
+    touch("foo/B.java");
+    touch("foo/.hidden.java");
+    touch("foo/README");
+    touch("foo/bar/C.java");
+    touch("foo/bar/baz/D.java");
+    touch("foo/.git/E.java");
+  }
+
+  @Test
+  public void matchesWithinOneDirectory() throws IOException {
+    assertEquals(
+        ImmutableList.of("A.java", "B.java"),
+        glob(ImmutableList.of("*.java"), ImmutableList.<String>of(), false));
+    assertEquals(
+        ImmutableList.of("A.java", "README"),
+        glob(ImmutableList.of("[!B]*"), ImmutableList.<String>of(), false));
+  }
+
+  @Test
+  public void doubleStarMatchesAnyNumberOfDirectories() throws IOException {
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "bar/C.java", "bar/baz/D.java"),
+        glob(ImmutableList.of("**/*.java"), ImmutableList.<String>of(), false));
+    assertEquals(
+        ImmutableList.of("bar/C.java", "bar/baz/D.java"),
+        glob(ImmutableList.of("bar/**"), ImmutableList.<String>of(), false));
+  }
+
+  @Test
+  public void dotfilesOnlyMatchWhenAskedFor() throws IOException {
+    assertEquals(
+        ImmutableList.of(
+            ".git/E.java",
+            ".hidden.java",
+            "A.java",
+            "B.java",
+            "bar/C.java",
+            "bar/baz/D.java"),
+        glob(ImmutableList.of("**/*.java"), ImmutableList.<String>of(), true));
+  }
+
+  @Test
+  public void excludesMatchWholePaths() throws IOException {
+    assertEquals(
+        ImmutableList.of("A.java", "bar/baz/D.java"),
+        glob(
+            ImmutableList.of("**/*.java"),
+            ImmutableList.of("B.java", "bar/*.java"),
+            false));
+  }
+
+  @Test
+  public void createdFilesInvalidateGlobsWhichListedTheirDirectory() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("**/*.java");
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "bar/C.java", "bar/baz/D.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    touch("foo/bar/baz/F.java");
+    assertEquals(
+        "Cached results are used until an event says otherwise.",
+        ImmutableList.of("A.java", "B.java", "bar/C.java", "bar/baz/D.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    cache.invalidateBasedOn(
+        createPathEvent(Paths.get("foo/bar/baz/F.java"), StandardWatchEventKinds.ENTRY_CREATE));
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "bar/C.java", "bar/baz/D.java", "bar/baz/F.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+  }
+
+  @Test
+  public void deletedDirectoriesAreForgotten() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("bar/**/*.java");
+    assertEquals(
+        ImmutableList.of("bar/C.java", "bar/baz/D.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    Files.delete(tmp.getRoot().resolve("foo/bar/baz/D.java"));
+    Files.delete(tmp.getRoot().resolve("foo/bar/baz"));
+    cache.invalidateBasedOn(
+        createPathEvent(Paths.get("foo/bar/baz"), StandardWatchEventKinds.ENTRY_DELETE));
+    assertEquals(
+        ImmutableList.of("bar/C.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+  }
+
+  @Test
+  public void replacedDirectoriesDropEverythingCachedBeneathThem() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("**/*.java");
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "bar/C.java", "bar/baz/D.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    MoreFiles.deleteRecursively(tmp.getRoot().resolve("foo"));
+    touch("foo/bar/H.java");
+    cache.invalidateBasedOn(
+        createPathEvent(Paths.get("foo"), StandardWatchEventKinds.ENTRY_DELETE));
+    assertEquals(
+        ImmutableList.of("bar/H.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+  }
+
+  @Test
+  public void modifiedFilesDoNotInvalidateAndOverflowsInvalidateEverything() throws IOException {
+    ImmutableList<String> includes = ImmutableList.of("*.java");
+    assertEquals(
+        ImmutableList.of("A.java", "B.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    touch("foo/G.java");
+    cache.invalidateBasedOn(
+        createPathEvent(Paths.get("foo/G.java"), StandardWatchEventKinds.ENTRY_MODIFY));
+    assertEquals(
+        ImmutableList.of("A.java", "B.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+
+    cache.invalidateBasedOn(createOverflowEvent());
+    assertEquals(
+        ImmutableList.of("A.java", "B.java", "G.java"),
+        glob(includes, ImmutableList.<String>of(), false));
+  }
+
+  private ImmutableList<String> glob(
+      ImmutableList<String> includes,
+      ImmutableList<String> excludes,
+      boolean includeDotfiles) throws IOException {
+    return cache.glob(tmp.getRoot(), Paths.get("foo"), includes, excludes, includeDotfiles);
+  }
+
+  private void touch(String path) throws IOException {
+    Path file = tmp.getRoot().resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.createFile(file);
+  }
+}
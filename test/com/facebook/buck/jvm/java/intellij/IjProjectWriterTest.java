@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java.intellij;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.jvm.core.JavaPackageFinder;
+import com.facebook.buck.jvm.java.DefaultJavaPackageFinder;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+
+public class IjProjectWriterTest {
+
+  private FakeProjectFilesystem filesystem;
+  private JavaPackageFinder javaPackageFinder;
+  private TargetNode<?> guavaTargetNode;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    javaPackageFinder = DefaultJavaPackageFinder.createDefaultJavaPackageFinder(
+        ImmutableSet.of("/java/", "/javatests/"));
+    guavaTargetNode = JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//third_party/guava:guava"))
+        .addSrc(Paths.get("third_party/guava/src/Collections.java"))
+        .build();
+  }
+
+  @Test
+  public void filesWithUnchangedContentsAreNotRewritten() throws Exception {
+    IjModuleGraph moduleGraph = IjModuleGraphTest.createModuleGraph(
+        ImmutableSet.of(guavaTargetNode, createBaseTargetNode("Base.java")));
+    Path guavaIml = getModuleImlPath(moduleGraph, guavaTargetNode);
+
+    write(moduleGraph, /* incremental */ false);
+    String contents = filesystem.readFileIfItExists(guavaIml).get();
+    assertThat(contents, containsString("JAVA_MODULE"));
+    filesystem.setLastModifiedTime(guavaIml, FileTime.fromMillis(0));
+
+    write(moduleGraph, /* incremental */ false);
+    assertEquals(0, filesystem.getLastModifiedTime(guavaIml));
+
+    filesystem.writeContentsToPath("stale", guavaIml);
+    write(moduleGraph, /* incremental */ false);
+    assertEquals(contents, filesystem.readFileIfItExists(guavaIml).get());
+  }
+
+  @Test
+  public void incrementalWriteOnlyRegeneratesChangedModules() throws Exception {
+    TargetNode<?> baseTargetNode = createBaseTargetNode("Base.java");
+    IjModuleGraph moduleGraph =
+        IjModuleGraphTest.createModuleGraph(ImmutableSet.of(guavaTargetNode, baseTargetNode));
+    Path guavaIml = getModuleImlPath(moduleGraph, guavaTargetNode);
+    Path baseIml = getModuleImlPath(moduleGraph, baseTargetNode);
+
+    write(moduleGraph, /* incremental */ false);
+    filesystem.writeContentsToPath("stale", guavaIml);
+    filesystem.writeContentsToPath("stale", baseIml);
+
+    write(moduleGraph, /* incremental */ true);
+    assertEquals("stale", filesystem.readFileIfItExists(guavaIml).get());
+    assertEquals("stale", filesystem.readFileIfItExists(baseIml).get());
+
+    TargetNode<?> changedBaseTargetNode = createBaseTargetNode("Changed.java");
+    write(
+        IjModuleGraphTest.createModuleGraph(
+            ImmutableSet.of(guavaTargetNode, changedBaseTargetNode)),
+        /* incremental */ true);
+    assertEquals("stale", filesystem.readFileIfItExists(guavaIml).get());
+    assertThat(filesystem.readFileIfItExists(baseIml).get(), containsString("third_party_guava"));
+
+    filesystem.deleteFileAtPath(guavaIml);
+    write(moduleGraph, /* incremental */ true);
+    assertThat(filesystem.readFileIfItExists(guavaIml).get(), containsString("JAVA_MODULE"));
+  }
+
+  private TargetNode<?> createBaseTargetNode(String source) {
+    return JavaLibraryBuilder
+        .createBuilder(BuildTargetFactory.newInstance("//java/com/example/base:base"))
+        .addDep(guavaTargetNode.getBuildTarget())
+        .addSrc(Paths.get("java/com/example/base").resolve(source))
+        .build();
+  }
+
+  private static Path getModuleImlPath(IjModuleGraph moduleGraph, TargetNode<?> targetNode) {
+    return IjModuleGraphTest.getModuleForTarget(moduleGraph, targetNode).getModuleImlFilePath();
+  }
+
+  private void write(IjModuleGraph moduleGraph, boolean incremental) throws Exception {
+    new IjProjectWriter(
+        new IjProjectTemplateDataPreparer(javaPackageFinder, moduleGraph, filesystem),
+        filesystem,
+        MoreExecutors.newDirectExecutorService(),
+        incremental)
+        .write();
+  }
+}
@@ -20,12 +20,17 @@ import static org.hamcrest.Matchers.equalTo;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.testutil.FakeOutputStream;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
 
 import org.junit.Test;
 
 import java.io.IOException;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.ErrorManager;
 import java.util.logging.Formatter;
 import java.util.logging.Handler;
 import java.util.logging.Level;
@@ -352,6 +357,129 @@ public class ConsoleHandlerTest {
     assertThat(outputStream3.toString("UTF-8"), equalTo("What thread is this?"));
   }
 
+  @Test
+  public void logRecordIsRoutedByCommandIdWhenPublished() throws IOException {
+    FakeOutputStream outputStream1 = new FakeOutputStream();
+    FakeOutputStream outputStream2 = new FakeOutputStream();
+    ConcurrentHashMap<Long, String> threadIdToCommandId = new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, OutputStreamWriter> commandIdToConsoleWriter =
+      new ConcurrentHashMap<>();
+    ConcurrentHashMap<String, Level> commandIdToLevel = new ConcurrentHashMap<>();
+    ConsoleHandler handler = new ConsoleHandler(
+        ConsoleHandler.utf8OutputStreamWriter(outputStream1),
+        new MessageOnlyFormatter(),
+        Level.INFO,
+        threadIdToCommandId,
+        commandIdToConsoleWriter,
+        commandIdToLevel);
+
+    threadIdToCommandId.put(49152L, "commandIdForOutputStream2");
+    handler.registerOutputStream("commandIdForOutputStream2", outputStream2);
+
+    handler.publish(newLogRecordWithThreadId(Level.INFO, "Stream 2", 49152));
+    threadIdToCommandId.remove(49152L);
+    handler.flush();
+    assertThat(outputStream1.toString("UTF-8"), equalTo(""));
+    assertThat(outputStream2.toString("UTF-8"), equalTo("Stream 2"));
+  }
+
+  @Test
+  public void logRecordsFromEachThreadStayInOrder() throws Exception {
+    FakeOutputStream outputStream = new FakeOutputStream();
+    final ConsoleHandler handler = new ConsoleHandler(
+        ConsoleHandler.utf8OutputStreamWriter(outputStream),
+        new MessageOnlyFormatter(),
+        Level.INFO,
+        new ConcurrentHashMap<Long, String>(),
+        new ConcurrentHashMap<String, OutputStreamWriter>(),
+        new ConcurrentHashMap<String, Level>());
+
+    final int threadCount = 4;
+    final int recordsPerThread = 1000;
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < threadCount; i++) {
+      final int thread = i;
+      threads.add(
+          new Thread() {
+            @Override
+            public void run() {
+              for (int record = 0; record < recordsPerThread; record++) {
+                handler.publish(new LogRecord(Level.INFO, thread + ":" + record + "\n"));
+              }
+            }
+          });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    handler.flush();
+
+    int[] nextRecord = new int[threadCount];
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(outputStream.toString("UTF-8"))) {
+      List<String> parts = Splitter.on(':').splitToList(line);
+      int thread = Integer.parseInt(parts.get(0));
+      assertThat(Integer.parseInt(parts.get(1)), equalTo(nextRecord[thread]));
+      nextRecord[thread]++;
+    }
+    for (int records : nextRecord) {
+      assertThat(records, equalTo(recordsPerThread));
+    }
+  }
+
+  @Test
+  public void logRecordIsFormattedWhenPublished() throws IOException {
+    FakeOutputStream outputStream = new FakeOutputStream();
+    ConsoleHandler handler = new ConsoleHandler(
+        ConsoleHandler.utf8OutputStreamWriter(outputStream),
+        new MessageOnlyFormatter(),
+        Level.INFO,
+        new ConcurrentHashMap<Long, String>(),
+        new ConcurrentHashMap<String, OutputStreamWriter>(),
+        new ConcurrentHashMap<String, Level>());
+
+    LogRecord record = new LogRecord(Level.INFO, "Before");
+    handler.publish(record);
+    record.setMessage("After");
+    handler.flush();
+    assertThat(outputStream.toString("UTF-8"), equalTo("Before"));
+  }
+
+  @Test
+  public void formattingFailuresAreReportedAndLoggingCarriesOn() throws IOException {
+    FakeOutputStream outputStream = new FakeOutputStream();
+    ConsoleHandler handler = new ConsoleHandler(
+        ConsoleHandler.utf8OutputStreamWriter(outputStream),
+        new MessageOnlyFormatter() {
+          @Override
+          public String format(LogRecord record) {
+            if (record.getMessage().equals("Boom")) {
+              throw new IllegalStateException("Boom");
+            }
+            return super.format(record);
+          }
+        },
+        Level.INFO,
+        new ConcurrentHashMap<Long, String>(),
+        new ConcurrentHashMap<String, OutputStreamWriter>(),
+        new ConcurrentHashMap<String, Level>());
+    final List<Integer> errorCodes = new ArrayList<>();
+    handler.setErrorManager(
+        new ErrorManager() {
+          @Override
+          public synchronized void error(String msg, Exception ex, int code) {
+            errorCodes.add(code);
+          }
+        });
+
+    handler.publish(new LogRecord(Level.INFO, "Boom"));
+    publishAndFlush(handler, new LogRecord(Level.INFO, "Fine"));
+    assertThat(outputStream.toString("UTF-8"), equalTo("Fine"));
+    assertThat(errorCodes, equalTo((List<Integer>) ImmutableList.of(ErrorManager.FORMAT_FAILURE)));
+  }
+
   private static void publishAndFlush(Handler handler, LogRecord logRecord) {
     handler.publish(logRecord);
     handler.flush();
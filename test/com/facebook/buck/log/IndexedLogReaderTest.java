@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.log;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+public class IndexedLogReaderTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private Path directory;
+
+  @Before
+  public void setUp() {
+    directory = temporaryFolder.getRoot().toPath().resolve("indexed");
+  }
+
+  @Test
+  public void recordsAreReadBackForTheirCommandOnly() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 64, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+      writer.write("command-2", null, "two\n");
+      writer.write("command-1", "//foo:bar", "three\n");
+      writer.write(null, null, "four\n");
+    }
+
+    assertThat(readRecords("command-1", Optional.<String>absent()), equalTo("one\nthree\n"));
+    assertThat(readRecords("command-2", Optional.<String>absent()), equalTo("two\n"));
+    assertThat(readRecords("command-3", Optional.<String>absent()), equalTo(""));
+  }
+
+  @Test
+  public void recordsCanBeNarrowedToABuildTarget() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 64, 1024 * 1024, 10)) {
+      writer.write("command-1", "//foo:bar", "bar 1\n");
+      writer.write("command-1", "//foo:baz", "baz\n");
+      writer.write("command-1", null, "neither\n");
+      writer.write("command-1", "//foo:bar", "bar 2\n");
+    }
+
+    assertThat(readRecords("command-1", Optional.of("//foo:bar")), equalTo("bar 1\nbar 2\n"));
+    assertThat(readRecords("command-1", Optional.of("//foo:qux")), equalTo(""));
+  }
+
+  @Test
+  public void onlyBlocksMentioningTheCommandAreIndexedForIt() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 1, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+      writer.write("command-2", "//foo:bar", "two\n");
+    }
+
+    List<String> indexLines =
+        Files.readAllLines(directory.resolve(IndexedLogWriter.getIndexFileName(0)), Charsets.UTF_8);
+    assertThat(indexLines, hasSize(2));
+    assertThat(
+        Splitter.on('\t').splitToList(indexLines.get(0)).subList(2, 3),
+        contains("c:command-1"));
+    assertThat(
+        Splitter.on('\t').splitToList(indexLines.get(1)).subList(2, 4),
+        contains("c:command-2", "t://foo:bar"));
+  }
+
+  @Test
+  public void flushMakesBufferedRecordsReadable() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 1024 * 1024, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+      assertThat(readRecords("command-1", Optional.<String>absent()), equalTo(""));
+
+      writer.flush();
+      assertThat(readRecords("command-1", Optional.<String>absent()), equalTo("one\n"));
+    }
+  }
+
+  @Test
+  public void oldSegmentsAreDeletedOnceThereAreTooMany() throws IOException {
+    // Every block fills a segment of its own.
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 1, 1, 2)) {
+      writer.write("command-1", null, "one\n");
+      writer.write("command-2", null, "two\n");
+      writer.write("command-3", null, "three\n");
+    }
+
+    assertThat(
+        listFileNames(),
+        containsInAnyOrder(
+            IndexedLogWriter.getSegmentFileName(1),
+            IndexedLogWriter.getIndexFileName(1),
+            IndexedLogWriter.getSegmentFileName(2),
+            IndexedLogWriter.getIndexFileName(2)));
+    assertThat(readRecords("command-1", Optional.<String>absent()), equalTo(""));
+    assertThat(readRecords("command-2", Optional.<String>absent()), equalTo("two\n"));
+    assertThat(readRecords("command-3", Optional.<String>absent()), equalTo("three\n"));
+  }
+
+  @Test
+  public void newWriterStartsANewSegment() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 64, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+    }
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 64, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "two\n");
+    }
+
+    assertThat(
+        listFileNames(),
+        containsInAnyOrder(
+            IndexedLogWriter.getSegmentFileName(0),
+            IndexedLogWriter.getIndexFileName(0),
+            IndexedLogWriter.getSegmentFileName(1),
+            IndexedLogWriter.getIndexFileName(1)));
+    assertThat(readRecords("command-1", Optional.<String>absent()), equalTo("one\ntwo\n"));
+  }
+
+  @Test
+  public void partlyWrittenIndexLineIsIgnored() throws IOException {
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 64, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+    }
+    Files.write(
+        directory.resolve(IndexedLogWriter.getIndexFileName(0)),
+        "1000\t".getBytes(Charsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    assertThat(readRecords("command-1", Optional.<String>absent()), equalTo("one\n"));
+  }
+
+  @Test
+  public void lastCommandIdSkipsTheExcludedCommand() throws IOException {
+    IndexedLogReader reader = new IndexedLogReader(directory);
+    assertThat(
+        reader.getLastCommandId(Optional.<String>absent()),
+        equalTo(Optional.<String>absent()));
+
+    try (IndexedLogWriter writer = new IndexedLogWriter(directory, 1, 1024 * 1024, 10)) {
+      writer.write("command-1", null, "one\n");
+      writer.write("command-2", null, "two\n");
+      writer.write(null, null, "three\n");
+    }
+
+    assertThat(
+        reader.getLastCommandId(Optional.<String>absent()),
+        equalTo(Optional.of("command-2")));
+    assertThat(
+        reader.getLastCommandId(Optional.of("command-2")),
+        equalTo(Optional.of("command-1")));
+  }
+
+  @Test
+  public void handlerIndexesRecordsByThreadCommandAndBuildTarget() throws IOException {
+    ConcurrentHashMap<Long, String> threadIdToCommandId = new ConcurrentHashMap<>();
+    ConcurrentHashMap<Long, String> threadIdToBuildTarget = new ConcurrentHashMap<>();
+    IndexedLogHandler handler = new IndexedLogHandler(
+        new IndexedLogWriter(directory, 1024 * 1024, 1024 * 1024, 10),
+        new MessageOnlyFormatter(),
+        Level.INFO,
+        threadIdToCommandId,
+        threadIdToBuildTarget);
+    threadIdToCommandId.put(49152L, "command-1");
+    threadIdToCommandId.put(64738L, "command-1");
+    threadIdToBuildTarget.put(64738L, "//foo:bar");
+
+    handler.publish(newLogRecordWithThreadId(Level.INFO, "main\n", 49152));
+    handler.publish(newLogRecordWithThreadId(Level.INFO, "rule\n", 64738));
+    handler.publish(newLogRecordWithThreadId(Level.FINE, "too quiet\n", 64738));
+    handler.flush();
+
+    assertThat(readRecords("command-1", Optional.<String>absent()), equalTo("main\nrule\n"));
+    assertThat(readRecords("command-1", Optional.of("//foo:bar")), equalTo("rule\n"));
+    handler.close();
+  }
+
+  @Test
+  public void buildTargetThreadAssociationRestoresTheOuterTarget() {
+    ConcurrentHashMap<Long, String> threadIdToBuildTarget = new ConcurrentHashMap<>();
+    long threadId = Thread.currentThread().getId();
+
+    BuildTargetThreadAssociation outer =
+        new BuildTargetThreadAssociation("//foo:outer", threadIdToBuildTarget);
+    BuildTargetThreadAssociation inner =
+        new BuildTargetThreadAssociation("//foo:inner", threadIdToBuildTarget);
+    assertThat(threadIdToBuildTarget.get(threadId), equalTo("//foo:inner"));
+    inner.stop();
+    assertThat(threadIdToBuildTarget.get(threadId), equalTo("//foo:outer"));
+    outer.stop();
+    assertThat(threadIdToBuildTarget.isEmpty(), equalTo(true));
+  }
+
+  private String readRecords(String commandId, Optional<String> buildTarget) throws IOException {
+    StringWriter writer = new StringWriter();
+    new IndexedLogReader(directory).copyRecords(commandId, buildTarget, writer);
+    return writer.toString();
+  }
+
+  private ImmutableList<String> listFileNames() throws IOException {
+    ImmutableList.Builder<String> fileNames = ImmutableList.builder();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+      for (Path file : files) {
+        fileNames.add(file.getFileName().toString());
+      }
+    }
+    return fileNames.build();
+  }
+
+  private static LogRecord newLogRecordWithThreadId(Level level, String contents, int threadId) {
+    LogRecord result = new LogRecord(level, contents);
+    result.setThreadID(threadId);
+    return result;
+  }
+
+  private static class MessageOnlyFormatter extends Formatter {
+    @Override
+    public String format(LogRecord record) {
+      return record.getMessage();
+    }
+  }
+}
@@ -19,11 +19,15 @@ package com.facebook.buck.model;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Ordering;
 
 import org.junit.Test;
 
@@ -156,6 +160,38 @@ public class BuildTargetTest {
     assertEquals(unflavoredTarget, flavoredTarget.getUnflavoredBuildTarget());
   }
 
+  @Test
+  public void testCompareToOrdersByCellThenNameThenFlavors() {
+    BuildTarget cellTarget = BuildTarget.builder(
+        UnflavoredBuildTarget.of(ROOT, Optional.of("other"), "//foo", "bar"))
+        .build();
+    BuildTarget plain = BuildTarget.builder(ROOT, "//foo", "bar").build();
+    BuildTarget flavored = BuildTarget.builder(ROOT, "//foo", "bar")
+        .addFlavors(ImmutableFlavor.of("baz"))
+        .build();
+    BuildTarget laterShortName = BuildTarget.builder(ROOT, "//foo", "baz").build();
+    BuildTarget laterBaseName = BuildTarget.builder(ROOT, "//foo/bar", "a").build();
+
+    assertEquals(
+        ImmutableList.of(cellTarget, plain, flavored, laterShortName, laterBaseName),
+        Ordering.natural().sortedCopy(
+            ImmutableList.of(laterBaseName, laterShortName, flavored, plain, cellTarget)));
+    assertEquals(0, plain.compareTo(BuildTarget.builder(ROOT, "//foo", "bar").build()));
+  }
+
+  @Test
+  public void testInternedTargetsAreShared() {
+    BuildTarget first = BuildTargetInterner.intern(
+        BuildTarget.builder(ROOT, "//foo", "bar").addFlavors(ImmutableFlavor.of("baz")).build());
+    BuildTarget second = BuildTargetInterner.intern(
+        BuildTarget.builder(ROOT, "//foo", "bar").addFlavors(ImmutableFlavor.of("baz")).build());
+    assertSame(first, second);
+    assertSame(
+        BuildTargetInterner.intern(BuildTarget.builder(ROOT, "//foo", "bar").build())
+            .getUnflavoredBuildTarget(),
+        first.getUnflavoredBuildTarget());
+  }
+
   @Test
   public void testNumbersAreValidFlavors() {
     BuildTarget.builder(ROOT, "//foo", "bar")
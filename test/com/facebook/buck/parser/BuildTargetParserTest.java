@@ -20,6 +20,7 @@ import static com.facebook.buck.rules.TestCellBuilder.createCellRoots;
 import static org.hamcrest.Matchers.hasItems;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
@@ -223,4 +224,20 @@ public class BuildTargetParserTest {
     assertEquals("//com/microsoft/windows", buildTarget.getBaseName());
   }
 
+
+  @Test
+  public void parsingTheSameTargetTwiceReturnsTheSameInstance() {
+    Function<Optional<String>, Path> cellRoots = createCellRoots(null);
+    BuildTarget fromFullName =
+        parser.parse("//facebook/orca:assets#foo", fullyQualifiedParser, cellRoots);
+    BuildTarget fromRelativeName = parser.parse(
+        ":assets#foo",
+        BuildTargetPatternParser.forBaseName("//facebook/orca"),
+        cellRoots);
+    assertSame(fromFullName, fromRelativeName);
+
+    BuildTarget unflavored =
+        parser.parse("//facebook/orca:assets", fullyQualifiedParser, cellRoots);
+    assertSame(fromFullName.getUnflavoredBuildTarget(), unflavored.getUnflavoredBuildTarget());
+  }
 }
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.json.ProjectBuildFileParser;
+import com.facebook.buck.json.ProjectBuildFileParserOptions;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.ConstructorArgMarshaller;
+import com.facebook.buck.rules.Description;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
+import com.facebook.buck.util.ProcessExecutor;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class SavedRawNodesTest {
+
+  @Rule
+  public DebuggableTemporaryFolder tmp = new DebuggableTemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path snapshot;
+  private Path buildFile;
+  private Path includedFile;
+  private Cell cell;
+
+  @Before
+  public void setUp() throws IOException, InterruptedException {
+    Path root = tmp.getRoot().toPath();
+    filesystem = new ProjectFilesystem(root);
+    snapshot = root.resolve("buck-out/raw_nodes.snapshot");
+    Files.createDirectories(root.resolve("foo/bar"));
+    Files.createDirectories(root.resolve("defs"));
+    buildFile = writeFile("foo/BUCK", "java_library(name = 'foo')");
+    includedFile = writeFile("defs/DEFS", "def foo(): pass");
+    writeFile("foo/bar/Foo.java", "class Foo {}");
+    setLastModifiedLongAgo("foo/bar");
+    setLastModifiedLongAgo("foo");
+    cell = new TestCellBuilder().setFilesystem(filesystem).build();
+  }
+
+  @Test
+  public void unchangedBuildFilesAreRestoredWithoutParsing() throws Exception {
+    List<Map<String, Object>> rawNodes = parseAndSave(cell);
+
+    FakeProjectBuildFileParser parser = new FakeProjectBuildFileParser();
+    SavedRawNodes restored = new SavedRawNodes(filesystem.getRootPath());
+    restored.loadSnapshot(snapshot);
+    assertEquals(rawNodes, restored.getAllRulesAndMetaRules(cell, parser, buildFile));
+    assertEquals(0, parser.parseCount);
+  }
+
+  @Test
+  public void buildFilesWithChangedIncludesAreParsedAgain() throws Exception {
+    parseAndSave(cell);
+    writeFile("defs/DEFS", "def foo(): return 42");
+
+    assertParsedAgainAfterRestoring(cell);
+  }
+
+  @Test
+  public void buildFilesWithFilesAddedBeneathThemAreParsedAgain() throws Exception {
+    parseAndSave(cell);
+    // A file which a glob in the build file might have matched.
+    Files.write(tmp.getRoot().toPath().resolve("foo/bar/Bar.java"), new byte[0]);
+
+    assertParsedAgainAfterRestoring(cell);
+  }
+
+  @Test
+  public void buildFilesOfDifferentlyConfiguredCellsAreParsedAgain() throws Exception {
+    parseAndSave(cell);
+    Cell otherCell = new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder()
+                .setFilesystem(filesystem)
+                .setSections(
+                    ImmutableMap.of("buildfile", ImmutableMap.of("includes", "//defs/DEFS")))
+                .build())
+        .build();
+
+    assertParsedAgainAfterRestoring(otherCell);
+  }
+
+  @Test
+  public void recentlyModifiedBuildFilesAreNotSaved() throws Exception {
+    Files.write(buildFile, "java_library(name = 'bar')".getBytes(StandardCharsets.UTF_8));
+    parseAndSave(cell);
+
+    assertParsedAgainAfterRestoring(cell);
+  }
+
+  @Test
+  public void missingSnapshotIsIgnored() throws Exception {
+    FakeProjectBuildFileParser parser = new FakeProjectBuildFileParser();
+    SavedRawNodes savedRawNodes = new SavedRawNodes(filesystem.getRootPath());
+    savedRawNodes.loadSnapshot(snapshot);
+    savedRawNodes.getAllRulesAndMetaRules(cell, parser, buildFile);
+    assertEquals(1, parser.parseCount);
+  }
+
+  private List<Map<String, Object>> parseAndSave(Cell cell) throws Exception {
+    FakeProjectBuildFileParser parser = new FakeProjectBuildFileParser();
+    SavedRawNodes savedRawNodes = new SavedRawNodes(filesystem.getRootPath());
+    List<Map<String, Object>> rawNodes =
+        savedRawNodes.getAllRulesAndMetaRules(cell, parser, buildFile);
+    assertEquals(1, parser.parseCount);
+    savedRawNodes.saveSnapshot(snapshot);
+    return rawNodes;
+  }
+
+  private void assertParsedAgainAfterRestoring(Cell cell) throws Exception {
+    FakeProjectBuildFileParser parser = new FakeProjectBuildFileParser();
+    SavedRawNodes restored = new SavedRawNodes(filesystem.getRootPath());
+    restored.loadSnapshot(snapshot);
+    restored.getAllRulesAndMetaRules(cell, parser, buildFile);
+    assertEquals(1, parser.parseCount);
+  }
+
+  /**
+   * Writes a file which was last modified long enough ago for what is parsed from it to be saved.
+   */
+  private Path writeFile(String name, String contents) throws IOException {
+    Path path = tmp.getRoot().toPath().resolve(name);
+    Files.write(path, contents.getBytes(StandardCharsets.UTF_8));
+    setLastModifiedLongAgo(name);
+    return path;
+  }
+
+  private void setLastModifiedLongAgo(String name) throws IOException {
+    Path path = tmp.getRoot().toPath().resolve(name);
+    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+  }
+
+  private class FakeProjectBuildFileParser extends ProjectBuildFileParser {
+    private int parseCount;
+
+    public FakeProjectBuildFileParser() {
+      super(
+          ProjectBuildFileParserOptions.builder()
+              .setProjectRoot(filesystem.getRootPath())
+              .setPythonInterpreter("python")
+              .setAllowEmptyGlobs(ParserConfig.DEFAULT_ALLOW_EMPTY_GLOBS)
+              .setBuildFileName("BUCK")
+              .setDefaultIncludes(ImmutableList.<String>of())
+              .setDescriptions(ImmutableSet.<Description<?>>of())
+              .build(),
+          new ConstructorArgMarshaller(new DefaultTypeCoercerFactory()),
+          ImmutableMap.<String, String>of(),
+          BuckEventBusFactory.newInstance(),
+          new ProcessExecutor(new TestConsole()));
+    }
+
+    @Override
+    public List<Map<String, Object>> getAllRulesAndMetaRules(Path buildFile) {
+      parseCount++;
+      Map<String, Object> rule = new TreeMap<>();
+      rule.put("buck.base_path", "foo");
+      rule.put("name", "foo");
+      rule.put("srcs", ImmutableList.of("bar/Foo.java"));
+      rule.put("exported", true);
+      Map<String, Object> includes = new TreeMap<>();
+      includes.put(
+          "__includes",
+          ImmutableList.of(buildFile.toString(), includedFile.toString()));
+      return ImmutableList.of(rule, includes);
+    }
+  }
+}
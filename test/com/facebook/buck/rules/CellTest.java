@@ -17,6 +17,7 @@
 package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertSame;
 
 import com.facebook.buck.cli.BuckConfig;
@@ -26,6 +27,7 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.util.HumanReadableException;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 
@@ -88,4 +90,47 @@ public class CellTest {
 
     assertEquals(cell2Root, other.getFilesystem().getRootPath());
   }
+
+  @Test
+  public void parserCacheKeyIgnoresSectionsWhichParsingNeverReads()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new FakeProjectFilesystem();
+    Cell cell = createCell(
+        filesystem,
+        ImmutableMap.of(
+            "cxx", ImmutableMap.of("cxxflags", "-O2"),
+            "log", ImmutableMap.of("max_traces", "5")));
+
+    assertEquals(
+        cell.getParserCacheKey(),
+        createCell(
+            filesystem,
+            ImmutableMap.of(
+                "cxx", ImmutableMap.of("cxxflags", "-O2"),
+                "log", ImmutableMap.of("max_traces", "10"),
+                "cache", ImmutableMap.of("mode", "http")))
+            .getParserCacheKey());
+    assertNotEquals(
+        cell.getParserCacheKey(),
+        createCell(
+            filesystem,
+            ImmutableMap.of(
+                "cxx", ImmutableMap.of("cxxflags", "-O0"),
+                "log", ImmutableMap.of("max_traces", "5")))
+            .getParserCacheKey());
+  }
+
+  private static Cell createCell(
+      ProjectFilesystem filesystem,
+      ImmutableMap<String, ImmutableMap<String, String>> sections)
+      throws IOException, InterruptedException {
+    return new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder()
+                .setFilesystem(filesystem)
+                .setSections(sections)
+                .build())
+        .build();
+  }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+
+public class ConstructorArgAccessorTest {
+
+  public static class Arg {
+    public String name;
+    public boolean flag;
+    public long count;
+    public Optional<List<String>> srcs;
+  }
+
+  @Test
+  public void generatedAccessorReadsAndWritesFields() throws NoSuchFieldException {
+    List<Field> fields = ImmutableList.of(
+        Arg.class.getField("name"),
+        Arg.class.getField("flag"),
+        Arg.class.getField("count"),
+        Arg.class.getField("srcs"));
+    ConstructorArgAccessor accessor = ConstructorArgAccessor.forFields(Arg.class, fields);
+    assertThat(
+        accessor.getClass(),
+        not(equalTo((Object) ConstructorArgAccessor.reflective(fields).getClass())));
+
+    Arg arg = new Arg();
+    accessor.set(arg, 0, "cheese");
+    accessor.set(arg, 1, true);
+    // Numbers are widened, like Field.set does.
+    accessor.set(arg, 2, 42);
+    accessor.set(arg, 3, Optional.of(ImmutableList.of("A.java")));
+
+    assertEquals("cheese", arg.name);
+    assertEquals(true, arg.flag);
+    assertEquals(42L, arg.count);
+    assertEquals(Optional.of(ImmutableList.of("A.java")), arg.srcs);
+
+    assertEquals("cheese", accessor.get(arg, 0));
+    assertEquals(true, accessor.get(arg, 1));
+    assertEquals(42L, accessor.get(arg, 2));
+    assertEquals(Optional.of(ImmutableList.of("A.java")), accessor.get(arg, 3));
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void generatedAccessorRejectsUnknownIndexes() throws NoSuchFieldException {
+    ConstructorArgAccessor accessor = ConstructorArgAccessor.forFields(
+        Arg.class,
+        ImmutableList.of(Arg.class.getField("name")));
+    accessor.get(new Arg(), 1);
+  }
+
+  @Test
+  public void nonPublicClassesFallBackToReflection() throws NoSuchFieldException {
+    class LocalArg {
+      public String name;
+    }
+
+    List<Field> fields = ImmutableList.of(LocalArg.class.getField("name"));
+    ConstructorArgAccessor accessor = ConstructorArgAccessor.forFields(LocalArg.class, fields);
+    assertEquals(ConstructorArgAccessor.reflective(fields).getClass(), accessor.getClass());
+
+    LocalArg arg = new LocalArg();
+    accessor.set(arg, 0, "cheese");
+    assertEquals("cheese", arg.name);
+  }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.rules.TestCellBuilder.createCellRoots;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares reading and writing constructor arg fields through reflection against the accessors
+ * generated by {@link ConstructorArgAccessor}, and measures populating a whole arg with
+ * {@link ConstructorArgMarshaller}.
+ */
+public class ConstructorArgMarshallerBenchmark {
+
+  /** Shaped like the args of the most common rules. */
+  public static class Arg {
+    public Optional<ImmutableSortedSet<SourcePath>> srcs;
+    public Optional<ImmutableSortedSet<SourcePath>> resources;
+    public Optional<ImmutableSortedSet<BuildTarget>> deps;
+    public Optional<ImmutableSortedSet<BuildTarget>> exportedDeps;
+    public Optional<ImmutableList<String>> extraArguments;
+    public Optional<String> source;
+    public Optional<String> target;
+    public Optional<Boolean> autodeps;
+    public Optional<ImmutableSortedSet<Label>> labels;
+  }
+
+  private static final Object[] VALUES = {
+      Optional.of(ImmutableSortedSet.of()),
+      Optional.of(ImmutableSortedSet.of()),
+      Optional.of(ImmutableSortedSet.of()),
+      Optional.of(ImmutableSortedSet.of()),
+      Optional.of(ImmutableList.of("-g")),
+      Optional.of("7"),
+      Optional.of("7"),
+      Optional.of(true),
+      Optional.of(ImmutableSortedSet.of()),
+  };
+
+  private ConstructorArgAccessor reflective;
+  private ConstructorArgAccessor generated;
+  private ConstructorArgMarshaller marshaller;
+  private Function<Optional<String>, Path> cellRoots;
+  private ProjectFilesystem filesystem;
+  private BuildRuleFactoryParams params;
+  private Map<String, Object> instance;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : Arg.class.getFields()) {
+      if (!Modifier.isFinal(field.getModifiers())) {
+        fields.add(field);
+      }
+    }
+    reflective = ConstructorArgAccessor.reflective(fields);
+    generated = ConstructorArgAccessor.forFields(Arg.class, fields);
+
+    marshaller = new ConstructorArgMarshaller(new DefaultTypeCoercerFactory());
+    filesystem = new FakeProjectFilesystem();
+    cellRoots = createCellRoots(filesystem);
+    params = NonCheckingBuildRuleFactoryParams.createNonCheckingBuildRuleFactoryParams(
+        BuildTargetFactory.newInstance("//example/path:lib"));
+    instance = ImmutableMap.<String, Object>of(
+        "srcs", ImmutableList.of("A.java", "B.java", "C.java"),
+        "deps", ImmutableList.of(":one", "//example/other:two", "//example/other:three"),
+        "extraArguments", ImmutableList.of("-g"),
+        "source", "7",
+        "autodeps", true);
+  }
+
+  @Test
+  public void accessorsAgree() throws Exception {
+    assertEquals(access(reflective, 1), access(generated, 1));
+    assertEquals(3, populate(1));
+  }
+
+  @Benchmark
+  public int reflectiveAccess(int reps) {
+    return access(reflective, reps);
+  }
+
+  @Benchmark
+  public int generatedAccess(int reps) {
+    return access(generated, reps);
+  }
+
+  @Benchmark
+  public int populate(int reps)
+      throws ConstructorArgMarshalException, NoSuchBuildTargetException {
+    int deps = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      ImmutableSet.Builder<BuildTarget> declaredDeps = ImmutableSet.builder();
+      marshaller.populate(
+          cellRoots,
+          filesystem,
+          params,
+          new Arg(),
+          declaredDeps,
+          ImmutableSet.<BuildTargetPattern>builder(),
+          instance);
+      deps += declaredDeps.build().size();
+    }
+    return deps / reps;
+  }
+
+  private static int access(ConstructorArgAccessor accessor, int reps) {
+    int present = 0;
+    for (int rep = 0; rep < reps; rep++) {
+      Arg arg = new Arg();
+      for (int i = 0; i < VALUES.length; i++) {
+        accessor.set(arg, i, VALUES[i]);
+      }
+      for (int i = 0; i < VALUES.length; i++) {
+        if (((Optional<?>) accessor.get(arg, i)).isPresent()) {
+          present++;
+        }
+      }
+    }
+    return present / reps;
+  }
+}
@@ -53,6 +53,11 @@ public class GenruleBuilder extends AbstractNodeBuilder<GenruleDescription.Arg>
     return this;
   }
 
+  public GenruleBuilder setWorkerTool(@Nullable BuildTarget workerTool) {
+    arg.workerTool = Optional.fromNullable(workerTool);
+    return this;
+  }
+
   public GenruleBuilder setSrcs(@Nullable ImmutableList<SourcePath> srcs) {
     arg.srcs = Optional.fromNullable(srcs);
     return this;
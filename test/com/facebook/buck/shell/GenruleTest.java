@@ -38,6 +38,7 @@ import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.BuildTargetSourcePath;
 import com.facebook.buck.rules.FakeBuildRule;
 import com.facebook.buck.rules.FakeBuildableContext;
+import com.facebook.buck.rules.FakeSourcePath;
 import com.facebook.buck.rules.PathSourcePath;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
@@ -66,6 +67,7 @@ import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
 
 import org.easymock.EasyMock;
 import org.hamcrest.Matchers;
@@ -261,6 +263,31 @@ public class GenruleTest {
     assertEquals("DEPS", keysInOrder.get(2));
   }
 
+  @Test
+  public void testWorkerToolRunsCommandAsWorkerJob() throws Exception {
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new BuildTargetNodeToBuildRuleTransformer());
+    BuildRule workerTool = new ShBinaryBuilder(BuildTargetFactory.newInstance("//tools:worker"))
+        .setMain(new FakeSourcePath("worker.sh"))
+        .build(resolver, filesystem);
+    Genrule genrule = (Genrule) GenruleBuilder
+        .newGenruleBuilder(BuildTargetFactory.newInstance("//example:genrule"))
+        .setCmd("compile $OUT")
+        .setOut("out.txt")
+        .setWorkerTool(workerTool.getBuildTarget())
+        .build(resolver, filesystem);
+
+    assertThat(genrule.getDeps(), Matchers.hasItem(workerTool));
+    Step step = Iterables.getLast(
+        genrule.getBuildSteps(
+            /* context */ null,
+            new FakeBuildableContext()));
+    assertTrue(step instanceof WorkerShellStep);
+    assertEquals(
+        "compile " + filesystem.resolve(GEN_PATH.resolve("example/genrule/out.txt")),
+        ((WorkerShellStep) step).getJobArgs(newEmptyExecutionContext(Platform.LINUX)));
+  }
+
   private ExecutionContext newEmptyExecutionContext(Platform platform) {
     return TestExecutionContext
         .newBuilder()
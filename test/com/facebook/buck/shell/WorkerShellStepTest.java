@@ -0,0 +1,195 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.shell;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assume.assumeTrue;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.timing.SettableFakeClock;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class WorkerShellStepTest {
+
+  /**
+   * Replies to every job with its own pid, except for "fail", which it fails, "crash", on which it
+   * exits, and "hang", to which it takes a while to reply.
+   */
+  private static final String WORKER_SCRIPT = Joiner.on('\n').join(
+      "#!/bin/sh",
+      "while read -r line; do",
+      "  id=$(echo \"$line\" | sed 's/.*\"id\":\\([0-9]*\\).*/\\1/')",
+      "  case \"$line\" in",
+      "    *handshake*) echo \"$line\" ;;",
+      "    *'\"args\":\"fail\"'*)",
+      "      printf '{\"id\":%s,\"type\":\"result\",\"exit_code\":3}\\n' \"$id\" ;;",
+      "    *'\"args\":\"crash\"'*) exit 1 ;;",
+      "    *'\"args\":\"hang\"'*) sleep 5 ;;",
+      "    *)",
+      "      printf '{\"id\":%s,\"type\":\"result\",\"exit_code\":0,\"stdout\":\"%s\"}\\n' \\",
+      "        \"$id\" \"$$\" ;;",
+      "  esac",
+      "done",
+      "");
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ExecutionContext context;
+  private Path worker;
+
+  @Before
+  public void setUp() throws IOException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    context = TestExecutionContext.newInstance();
+    worker = tmp.getRoot().resolve("worker.sh");
+    Files.write(worker, WORKER_SCRIPT.getBytes(StandardCharsets.UTF_8));
+    assumeTrue(worker.toFile().setExecutable(true));
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    if (context != null) {
+      context.close();
+    }
+  }
+
+  @Test
+  public void jobsReuseIdleWorkers() throws Exception {
+    WorkerShellStep step = createStep("build");
+    WorkerProcessPool pool = context.getWorkerProcessPool();
+
+    WorkerProcess first = step.borrowWorkerProcess(context);
+    String pid = first.submitAndWaitForJob("build").getStdout().get();
+    pool.returnWorkerProcess(first);
+
+    WorkerProcess second = step.borrowWorkerProcess(context);
+    assertSame(first, second);
+    assertEquals(pid, second.submitAndWaitForJob("build again").getStdout().get());
+    pool.returnWorkerProcess(second);
+  }
+
+  @Test
+  public void exitCodeOfJobIsExitCodeOfStep() throws Exception {
+    assertEquals(0, createStep("build").execute(context));
+    assertEquals(3, createStep("fail").execute(context));
+    assertEquals(0, createStep("build").execute(context));
+  }
+
+  @Test
+  public void crashedWorkerIsReplaced() throws Exception {
+    WorkerShellStep step = createStep("build");
+    WorkerProcessPool pool = context.getWorkerProcessPool();
+    WorkerProcess first = step.borrowWorkerProcess(context);
+    String pid = first.submitAndWaitForJob("build").getStdout().get();
+    pool.returnWorkerProcess(first);
+
+    assertEquals(1, createStep("crash").execute(context));
+
+    WorkerProcess second = step.borrowWorkerProcess(context);
+    assertNotEquals(pid, second.submitAndWaitForJob("build").getStdout().get());
+    pool.returnWorkerProcess(second);
+  }
+
+  @Test
+  public void workersWhichDoNotReplyInTimeAreReplaced() throws Exception {
+    context.close();
+    context = TestExecutionContext.newBuilder()
+        .setWorkerProcessPool(new WorkerProcessPool(Optional.of(200L)))
+        .build();
+    assertEquals(1, createStep("hang").execute(context));
+    assertEquals(0, createStep("build").execute(context));
+  }
+
+  @Test
+  public void workersRunningAnOldVersionOfTheToolAreReplaced() throws Exception {
+    WorkerShellStep step = createStep("build");
+    WorkerProcessPool pool = context.getWorkerProcessPool();
+    WorkerProcess old = step.borrowWorkerProcess(context);
+    WorkerProcess busyOld = step.borrowWorkerProcess(context);
+    String pid = old.submitAndWaitForJob("build").getStdout().get();
+    pool.returnWorkerProcess(old);
+
+    Files.write(worker, (WORKER_SCRIPT + "# changed\n").getBytes(StandardCharsets.UTF_8));
+
+    WorkerProcess updated = step.borrowWorkerProcess(context);
+    assertNotEquals(pid, updated.submitAndWaitForJob("build").getStdout().get());
+    // A worker which was busy when the tool changed is stopped once its job is done.
+    pool.returnWorkerProcess(updated);
+    pool.returnWorkerProcess(busyOld);
+    WorkerProcess reused = step.borrowWorkerProcess(context);
+    assertSame(updated, reused);
+    pool.returnWorkerProcess(reused);
+  }
+
+  @Test
+  public void workersIdleForTooLongAreStopped() throws Exception {
+    context.close();
+    SettableFakeClock clock = new SettableFakeClock(0, 0);
+    context = TestExecutionContext.newBuilder()
+        .setWorkerProcessPool(
+            new WorkerProcessPool(clock, Optional.<Long>absent(), /* idleTimeoutMs */ 1000))
+        .build();
+    WorkerShellStep step = createStep("build");
+    WorkerProcessPool pool = context.getWorkerProcessPool();
+
+    WorkerProcess first = step.borrowWorkerProcess(context);
+    pool.returnWorkerProcess(first);
+    clock.setCurrentTimeMillis(500);
+    WorkerProcess second = step.borrowWorkerProcess(context);
+    assertSame(first, second);
+    pool.returnWorkerProcess(second);
+
+    clock.setCurrentTimeMillis(1500);
+    WorkerProcess third = step.borrowWorkerProcess(context);
+    assertNotSame(first, third);
+    pool.returnWorkerProcess(third);
+  }
+
+  private WorkerShellStep createStep(final String args) {
+    return new WorkerShellStep(
+        tmp.getRoot(),
+        ImmutableList.of(worker.toString()),
+        ImmutableMap.<String, String>of(),
+        ImmutableSet.of(worker)) {
+      @Override
+      protected String getJobArgs(ExecutionContext context) {
+        return args;
+      }
+    };
+  }
+}
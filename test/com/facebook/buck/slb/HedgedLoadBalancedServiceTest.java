@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.slb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.HttpdForTests;
+import com.google.common.base.Optional;
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+public class HedgedLoadBalancedServiceTest {
+
+  private ScheduledExecutorService scheduler;
+  private HttpdForTests slowServer;
+  private HttpdForTests fastServer;
+  private StubHandler slowHandler;
+  private StubHandler fastHandler;
+
+  @Before
+  public void setUp() throws Exception {
+    scheduler = Executors.newScheduledThreadPool(1);
+    slowHandler = new StubHandler("slow", 2000);
+    fastHandler = new StubHandler("fast", 0);
+    slowServer = startServer(slowHandler);
+    fastServer = startServer(fastHandler);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    scheduler.shutdownNow();
+    slowServer.close();
+    fastServer.close();
+  }
+
+  @Test
+  public void slowServerIsHedgedWithNextBestServer() throws IOException {
+    HedgedLoadBalancedService service = newService(
+        HedgingConfig.builder()
+            .setSchedulerService(scheduler)
+            .setMinLatencySamples(0)
+            .setMinDelayMillis(50)
+            .build(),
+        localUri(slowServer),
+        localUri(fastServer));
+
+    Stopwatch stopwatch = Stopwatch.createStarted();
+    Response response = service.makeRequest("/artifact", new Request.Builder().get());
+    assertEquals("fast", response.body().string());
+    assertTrue(stopwatch.elapsed(TimeUnit.MILLISECONDS) < slowHandler.delayMillis);
+    assertEquals(1, slowHandler.requests.get());
+    assertEquals(1, fastHandler.requests.get());
+    // The cancelled primary still counts towards the latency percentile.
+    assertEquals(1, service.getLatencySampleCount());
+  }
+
+  @Test
+  public void fastServerIsNotHedged() throws IOException {
+    HedgedLoadBalancedService service = newService(
+        HedgingConfig.builder()
+            .setSchedulerService(scheduler)
+            .setMinLatencySamples(0)
+            .setMinDelayMillis(1000)
+            .build(),
+        localUri(fastServer),
+        localUri(slowServer));
+
+    Response response = service.makeRequest("/artifact", new Request.Builder().get());
+    assertEquals("fast", response.body().string());
+    assertEquals(1, fastHandler.requests.get());
+    assertEquals(0, slowHandler.requests.get());
+  }
+
+  @Test
+  public void noHedgingUntilEnoughLatenciesAreKnown() throws IOException {
+    HedgedLoadBalancedService service = newService(
+        HedgingConfig.builder()
+            .setSchedulerService(scheduler)
+            .setMinLatencySamples(1)
+            .setMinDelayMillis(0)
+            .build(),
+        localUri(fastServer),
+        localUri(slowServer));
+
+    assertEquals(Optional.<Long>absent(), service.getHedgeDelayMillis());
+    service.makeRequest("/artifact", new Request.Builder().get()).body().close();
+    assertTrue(service.getHedgeDelayMillis().isPresent());
+    assertEquals(0, slowHandler.requests.get());
+  }
+
+  @Test
+  public void hedgeDelayFollowsLatencyPercentile() {
+    HedgedLoadBalancedService service = newService(
+        HedgingConfig.builder()
+            .setSchedulerService(scheduler)
+            .setLatencyPercentile(90)
+            .setMinLatencySamples(10)
+            .setMinDelayMillis(5)
+            .build(),
+        localUri(fastServer),
+        localUri(slowServer));
+
+    for (int i = 1; i <= 9; i++) {
+      service.reportLatency(i);
+    }
+    assertEquals(Optional.<Long>absent(), service.getHedgeDelayMillis());
+
+    service.reportLatency(100);
+    assertEquals(Optional.of(9L), service.getHedgeDelayMillis());
+
+    // Only recent samples count, and the delay never drops below the minimum.
+    for (int i = 0; i < 200; i++) {
+      service.reportLatency(1);
+    }
+    assertEquals(Optional.of(5L), service.getHedgeDelayMillis());
+  }
+
+  private static HedgedLoadBalancedService newService(HedgingConfig config, URI... servers) {
+    final ImmutableList<URI> serverList = ImmutableList.copyOf(servers);
+    HttpLoadBalancer slb = new HttpLoadBalancer() {
+      @Override
+      public URI getBestServer() {
+        return serverList.get(0);
+      }
+
+      @Override
+      public ImmutableList<URI> getBestServers() {
+        return serverList;
+      }
+
+      @Override
+      public void reportException(URI server) {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    return new HedgedLoadBalancedService(slb, new OkHttpClient(), config);
+  }
+
+  private static URI localUri(HttpdForTests server) {
+    return URI.create(String.format("http://127.0.0.1:%d/", server.getRootUri().getPort()));
+  }
+
+  private static HttpdForTests startServer(StubHandler handler) throws Exception {
+    HttpdForTests server = new HttpdForTests();
+    server.addHandler(handler);
+    server.start();
+    return server;
+  }
+
+  private static class StubHandler extends AbstractHandler {
+    private final String body;
+    private final long delayMillis;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    StubHandler(String body, long delayMillis) {
+      this.body = body;
+      this.delayMillis = delayMillis;
+    }
+
+    @Override
+    public void handle(
+        String target,
+        org.eclipse.jetty.server.Request baseRequest,
+        HttpServletRequest request,
+        HttpServletResponse response) throws IOException {
+      requests.incrementAndGet();
+      try {
+        Thread.sleep(delayMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      response.setStatus(HttpServletResponse.SC_OK);
+      response.getWriter().write(body);
+      baseRequest.setHandled(true);
+    }
+  }
+}
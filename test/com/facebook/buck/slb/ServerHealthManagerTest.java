@@ -72,6 +72,18 @@ public class ServerHealthManagerTest {
     Assert.assertEquals(SERVERS.get(0), server);
   }
 
+  @Test
+  public void testServersAreRankedByLatency() throws IOException {
+    ServerHealthManager manager = newServerHealthManager();
+    manager.reportLatency(SERVERS.get(0), NOW_MILLIS, 20);
+    manager.reportLatency(SERVERS.get(1), NOW_MILLIS, 10);
+    manager.reportLatency(SERVERS.get(2), NOW_MILLIS, MAX_ACCEPTABLE_LATENCY_MILLIS + 1);
+
+    Assert.assertEquals(
+        ImmutableList.of(SERVERS.get(1), SERVERS.get(0)),
+        manager.getBestServers(NOW_MILLIS));
+  }
+
   private void reportLatencyToAll(ServerHealthManager manager, int latencyMillis) {
     for (URI server : SERVERS) {
       manager.reportLatency(server, NOW_MILLIS, latencyMillis);
@@ -80,7 +80,7 @@ public class FakeProcessExecutor extends ProcessExecutor {
   public FakeProcessExecutor(
       Function<? super ProcessExecutorParams, FakeProcess> processFunction,
       Console console) {
-    super(console);
+    super(console, Launcher.PROCESS_BUILDER);
     this.processFunction = processFunction;
     this.launchedProcesses = new HashSet<>();
   }
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Measures how quickly each {@link ProcessExecutor.Launcher} runs short-lived tools, which is
+ * what most {@link com.facebook.buck.shell.ShellStep}s launch.
+ */
+public class ProcessExecutorBenchmark {
+  private static final ProcessExecutorParams TRUE = ProcessExecutorParams.builder()
+      .setCommand(ImmutableList.of("true"))
+      .build();
+
+  private static final ProcessExecutorParams ECHO = ProcessExecutorParams.builder()
+      .setCommand(ImmutableList.of("sh", "-c", "echo stdout; echo stderr >&2"))
+      .build();
+
+  @Param({"PROCESS_BUILDER", "SPAWN"})
+  private ProcessExecutor.Launcher launcher = ProcessExecutor.Launcher.PROCESS_BUILDER;
+
+  private ProcessExecutor executor;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    executor = new ProcessExecutor(
+        new Console(
+            Verbosity.SILENT,
+            new CapturingPrintStream(),
+            new CapturingPrintStream(),
+            Ansi.withoutTty()),
+        launcher);
+  }
+
+  @Test
+  public void launchersAgree() throws IOException, InterruptedException {
+    for (ProcessExecutor.Launcher launcher : ProcessExecutor.Launcher.values()) {
+      this.launcher = launcher;
+      setUpBenchmark();
+      assertEquals(0, launchTrue(3));
+      assertEquals(3 * "stdout\nstderr\n".length(), launchEcho(3));
+    }
+  }
+
+  @Benchmark
+  public int launchTrue(int reps) throws IOException, InterruptedException {
+    int exitCodes = 0;
+    for (int i = 0; i < reps; i++) {
+      exitCodes += execute(TRUE, ImmutableSet.<ProcessExecutor.Option>of()).getExitCode();
+    }
+    return exitCodes;
+  }
+
+  @Benchmark
+  public int launchEcho(int reps) throws IOException, InterruptedException {
+    int outputLength = 0;
+    for (int i = 0; i < reps; i++) {
+      ProcessExecutor.Result result = execute(
+          ECHO,
+          EnumSet.of(
+              ProcessExecutor.Option.EXPECTING_STD_OUT,
+              ProcessExecutor.Option.EXPECTING_STD_ERR));
+      outputLength += result.getStdout().get().length() + result.getStderr().get().length();
+    }
+    return outputLength;
+  }
+
+  private ProcessExecutor.Result execute(
+      ProcessExecutorParams params,
+      Set<ProcessExecutor.Option> options) throws IOException, InterruptedException {
+    return executor.launchAndExecute(
+        params,
+        options,
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+  }
+}
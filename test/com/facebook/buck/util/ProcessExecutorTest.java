@@ -19,10 +19,12 @@ package com.facebook.buck.util;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
 
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 
 import org.junit.Test;
@@ -138,4 +140,75 @@ public class ProcessExecutorTest {
         "process was reported as timed out",
         result.isTimedOut());
   }
+
+  @Test
+  public void testSpawnedProcessOutputIsCaptured() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console, ProcessExecutor.Launcher.SPAWN);
+    ProcessExecutor.Result result = executor.launchAndExecute(
+        ProcessExecutorParams.builder()
+            .setCommand(ImmutableList.of("sh", "-c", "echo out; printf 'err\\r\\nlast' >&2"))
+            .build(),
+        EnumSet.of(
+            ProcessExecutor.Option.EXPECTING_STD_OUT,
+            ProcessExecutor.Option.EXPECTING_STD_ERR),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+    assertEquals(0, result.getExitCode());
+    assertFalse(result.isTimedOut());
+    assertEquals("out\n", result.getStdout().get());
+    assertEquals("err\nlast\n", result.getStderr().get());
+  }
+
+  @Test
+  public void testSpawnedProcessReadsStdin() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console, ProcessExecutor.Launcher.SPAWN);
+    ProcessExecutor.Result result = executor.launchAndExecute(
+        ProcessExecutorParams.builder()
+            .setCommand(ImmutableList.of("sh", "-c", "cat; exit 3"))
+            .build(),
+        EnumSet.of(ProcessExecutor.Option.EXPECTING_STD_OUT),
+        /* stdin */ Optional.of("Hello\nworld\n"),
+        /* timeOutMs */ Optional.<Long>absent(),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+    assertEquals(3, result.getExitCode());
+    assertEquals("Hello\nworld\n", result.getStdout().get());
+  }
+
+  @Test
+  public void testSpawnedProcessTimesOut() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console, ProcessExecutor.Launcher.SPAWN);
+    ProcessExecutor.Result result = executor.launchAndExecute(
+        ProcessExecutorParams.builder()
+            .setCommand(ImmutableList.of("sleep", "50"))
+            .build(),
+        /* options */ ImmutableSet.<ProcessExecutor.Option>of(),
+        /* stdin */ Optional.<String>absent(),
+        /* timeOutMs */ Optional.of((long) 100),
+        /* timeOutHandler */ Optional.<Function<Process, Void>>absent());
+    assertTrue(
+        "process was reported as timed out",
+        result.isTimedOut());
+  }
+
+  @Test(expected = IOException.class)
+  public void testSpawningMissingProgramFails() throws IOException, InterruptedException {
+    assumeTrue(Platform.detect() != Platform.WINDOWS);
+    Console console = new Console(
+        Verbosity.ALL, new CapturingPrintStream(), new CapturingPrintStream(), Ansi.withoutTty());
+    ProcessExecutor executor = new ProcessExecutor(console, ProcessExecutor.Launcher.SPAWN);
+    executor.launchAndExecute(
+        ProcessExecutorParams.builder()
+            .setCommand(ImmutableList.of("this-program-does-not-exist"))
+            .build());
+  }
 }
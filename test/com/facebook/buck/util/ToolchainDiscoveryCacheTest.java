@@ -0,0 +1,156 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ToolchainDiscoveryCacheTest {
+
+  @Rule
+  public TemporaryPaths tmp = new TemporaryPaths();
+
+  private Path tool;
+  private Path storage;
+  private AtomicInteger launches;
+  private int exitCode;
+  private ProcessExecutor processExecutor;
+
+  @Before
+  public void setUp() throws IOException {
+    tool = tmp.getRoot().resolve("tool");
+    Files.write(tool, "version 1".getBytes(StandardCharsets.UTF_8));
+    storage = tmp.getRoot().resolve("buck-out/bin/toolchains.cache");
+    launches = new AtomicInteger();
+    exitCode = 0;
+    processExecutor = new FakeProcessExecutor(
+        new Function<ProcessExecutorParams, FakeProcess>() {
+          @Override
+          public FakeProcess apply(ProcessExecutorParams params) {
+            launches.incrementAndGet();
+            return new FakeProcess(exitCode, "Tool 1.0", "");
+          }
+        },
+        new TestConsole());
+  }
+
+  @Test
+  public void probesAreOnlyRunOnce() throws Exception {
+    ToolchainDiscoveryCache cache = ToolchainDiscoveryCache.inMemory();
+    assertEquals("Tool 1.0", probe(cache).getStdout().get().trim());
+    assertEquals("Tool 1.0", probe(cache).getStdout().get().trim());
+    assertEquals(1, launches.get());
+  }
+
+  @Test
+  public void probesArePersistedBetweenCaches() throws Exception {
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    ProcessExecutor.Result result = probe(ToolchainDiscoveryCache.persistedAt(storage));
+    assertEquals(0, result.getExitCode());
+    assertEquals("Tool 1.0", result.getStdout().get().trim());
+    assertEquals(1, launches.get());
+  }
+
+  @Test
+  public void changingTheToolProbesItAgain() throws Exception {
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    Files.write(tool, "version 22".getBytes(StandardCharsets.UTF_8));
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    assertEquals(2, launches.get());
+  }
+
+  @Test
+  public void touchingTheToolDoesNotProbeItAgain() throws Exception {
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    Files.setLastModifiedTime(tool, FileTime.fromMillis(0));
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    assertEquals(1, launches.get());
+  }
+
+  @Test
+  public void failedProbesAreNotRemembered() throws Exception {
+    exitCode = 1;
+    ToolchainDiscoveryCache cache = ToolchainDiscoveryCache.inMemory();
+    assertEquals(1, probe(cache).getExitCode());
+    exitCode = 0;
+    assertEquals(0, probe(cache).getExitCode());
+    assertEquals(2, launches.get());
+  }
+
+  @Test
+  public void probesAreKeyedByTheEnvironmentTheyRunWith() throws Exception {
+    ToolchainDiscoveryCache cache = ToolchainDiscoveryCache.inMemory();
+    probe(cache);
+    probe(cache, Optional.<Map<String, String>>of(System.getenv()));
+    assertEquals("Inheriting an environment is the same as passing it.", 1, launches.get());
+    probe(cache, Optional.<Map<String, String>>of(ImmutableMap.of("GOROOT", "/opt/go")));
+    assertEquals(2, launches.get());
+  }
+
+  @Test
+  public void corruptStoresAreIgnored() throws Exception {
+    probe(ToolchainDiscoveryCache.persistedAt(storage));
+    byte[] stored = Files.readAllBytes(storage);
+    // Claim an impossible number of probes, right after the magic and version.
+    ByteBuffer.wrap(stored).putInt(8, Integer.MAX_VALUE);
+    Files.write(storage, stored);
+    assertEquals(0, probe(ToolchainDiscoveryCache.persistedAt(storage)).getExitCode());
+    // And a truncated one.
+    Files.write(storage, Arrays.copyOf(stored, stored.length - 4));
+    assertEquals(0, probe(ToolchainDiscoveryCache.persistedAt(storage)).getExitCode());
+    assertEquals(3, launches.get());
+  }
+
+  private ProcessExecutor.Result probe(ToolchainDiscoveryCache cache) throws Exception {
+    return probe(cache, Optional.<Map<String, String>>absent());
+  }
+
+  private ProcessExecutor.Result probe(
+      ToolchainDiscoveryCache cache,
+      Optional<Map<String, String>> environment) throws Exception {
+    return cache.launchAndExecute(
+        processExecutor,
+        tool,
+        ProcessExecutorParams.builder()
+            .addCommand(tool.toString(), "--version")
+            .setEnvironment(environment)
+            .build(),
+        ImmutableSet.<ProcessExecutor.Option>of());
+  }
+}
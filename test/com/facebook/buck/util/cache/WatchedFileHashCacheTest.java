@@ -18,13 +18,17 @@ package com.facebook.buck.util.cache;
 
 import static com.facebook.buck.testutil.WatchEventsForTests.createOverflowEvent;
 import static com.facebook.buck.testutil.WatchEventsForTests.createPathEvent;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.io.WatchEventBatch;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
 import com.google.common.hash.HashCode;
 import com.google.common.io.Files;
 
@@ -135,4 +139,123 @@ public class WatchedFileHashCacheTest {
     assertFalse("Cache should not contain path", cache.willGet(dir));
   }
 
+  @Test
+  public void whenNotifiedOfBatchThenChangedFilesAndEnclosingDirsAreRemoved() {
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(new FakeProjectFilesystem());
+    Path dir = Paths.get("foo/bar");
+    Path changedFile = Paths.get("foo/bar/baz/Changed.java");
+    Path unchangedFile = Paths.get("foo/Unchanged.java");
+    Path unrelatedDir = Paths.get("foo/qux");
+    cache.loadingCache.put(
+        dir,
+        HashCodeAndFileType.of(HashCode.fromInt(1), HashCodeAndFileType.Type.DIRECTORY));
+    cache.loadingCache.put(
+        changedFile,
+        HashCodeAndFileType.of(HashCode.fromInt(2), HashCodeAndFileType.Type.FILE));
+    cache.loadingCache.put(
+        unchangedFile,
+        HashCodeAndFileType.of(HashCode.fromInt(3), HashCodeAndFileType.Type.FILE));
+    cache.loadingCache.put(
+        unrelatedDir,
+        HashCodeAndFileType.of(HashCode.fromInt(4), HashCodeAndFileType.Type.DIRECTORY));
+
+    cache.onFileSystemChanges(
+        new WatchEventBatch(
+            ImmutableList.of(
+                createPathEvent(changedFile, StandardWatchEventKinds.ENTRY_MODIFY),
+                createPathEvent(
+                    Paths.get("other/New.java"),
+                    StandardWatchEventKinds.ENTRY_CREATE))));
+
+    assertFalse("Cache should not contain changed file", cache.willGet(changedFile));
+    assertFalse("Cache should not contain enclosing dir", cache.willGet(dir));
+    assertTrue("Cache should still contain unchanged file", cache.willGet(unchangedFile));
+    assertTrue("Cache should still contain unrelated dir", cache.willGet(unrelatedDir));
+  }
+
+  @Test
+  public void whenNotifiedOfBatchWithOverflowCacheIsCleared() {
+    WatchedFileHashCache cache =
+        new WatchedFileHashCache(new FakeProjectFilesystem());
+    Path path = Paths.get("SomeClass.java");
+    cache.loadingCache.put(
+        path,
+        HashCodeAndFileType.of(HashCode.fromInt(42), HashCodeAndFileType.Type.FILE));
+
+    cache.onFileSystemChanges(
+        new WatchEventBatch(
+            ImmutableList.of(
+                createPathEvent(Paths.get("Other.java"), StandardWatchEventKinds.ENTRY_MODIFY),
+                createOverflowEvent())));
+
+    assertFalse("Cache should not contain path", cache.willGet(path));
+  }
+
+  @Test
+  public void hashesOfUnchangedFilesAreRestoredFromSnapshot() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path snapshot = tmp.getRoot().toPath().resolve("buck-out/file_hashes.snapshot");
+    File unchanged = writeFile("unchanged", "Hello world");
+    File changed = writeFile("changed", "Hello world");
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem);
+    HashCode originalHash = cache.get(Paths.get("unchanged"));
+    cache.get(Paths.get("changed"));
+    cache.saveSnapshot(snapshot);
+
+    // Same size and modification time, so the restored hash is trusted without reading the file.
+    long lastModified = unchanged.lastModified();
+    Files.write("Jello world".getBytes(Charsets.UTF_8), unchanged);
+    assertTrue(unchanged.setLastModified(lastModified));
+    Files.write("Goodbye world".getBytes(Charsets.UTF_8), changed);
+
+    WatchedFileHashCache restored = new WatchedFileHashCache(filesystem);
+    restored.loadSnapshot(snapshot);
+    assertEquals(originalHash, restored.get(Paths.get("unchanged")));
+    assertEquals(
+        new DefaultFileHashCache(filesystem).get(Paths.get("changed")),
+        restored.get(Paths.get("changed")));
+  }
+
+  @Test
+  public void hashesOfRecentlyModifiedFilesAreNotSaved() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    Path snapshot = tmp.getRoot().toPath().resolve("buck-out/file_hashes.snapshot");
+    File file = tmp.newFile("racy");
+    Files.write("Hello world".getBytes(Charsets.UTF_8), file);
+    long lastModified = file.lastModified();
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem);
+    cache.get(Paths.get("racy"));
+    cache.saveSnapshot(snapshot);
+
+    Files.write("Jello world".getBytes(Charsets.UTF_8), file);
+    assertTrue(file.setLastModified(lastModified));
+
+    WatchedFileHashCache restored = new WatchedFileHashCache(filesystem);
+    restored.loadSnapshot(snapshot);
+    assertEquals(
+        new DefaultFileHashCache(filesystem).get(Paths.get("racy")),
+        restored.get(Paths.get("racy")));
+  }
+
+  @Test
+  public void missingSnapshotIsIgnored() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    File file = writeFile("file", "Hello world");
+    WatchedFileHashCache cache = new WatchedFileHashCache(filesystem);
+    cache.loadSnapshot(tmp.getRoot().toPath().resolve("does-not-exist"));
+    assertEquals(
+        new DefaultFileHashCache(filesystem).get(file.toPath()),
+        cache.get(file.toPath()));
+  }
+
+  /**
+   * Writes a file which was last modified long enough ago for its hash to be saved.
+   */
+  private File writeFile(String name, String contents) throws IOException {
+    File file = tmp.newFile(name);
+    Files.write(contents.getBytes(Charsets.UTF_8), file);
+    assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+    return file;
+  }
 }
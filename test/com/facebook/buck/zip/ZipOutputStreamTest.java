@@ -33,6 +33,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.testutil.Zip;
+import com.facebook.buck.timing.DefaultClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.hash.Hashing;
@@ -53,6 +54,7 @@ import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Enumeration;
@@ -488,4 +490,172 @@ public class ZipOutputStreamTest {
     }
   }
 
+
+  @Test
+  public void compressingInParallelGeneratesTheSameOutputAsAppending() throws IOException {
+    Path reference = Files.createTempFile("reference", ".zip");
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+
+    try (
+        CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+            output,
+            APPEND_TO_ZIP);
+        CustomZipOutputStream ref = ZipOutputStreams.newOutputStream(reference, APPEND_TO_ZIP)
+    ) {
+      for (int i = 0; i < 200; i++) {
+        CustomZipEntry entry = new CustomZipEntry("dir" + (i % 7) + "/file" + i);
+        entry.setTime(0);
+        byte[] data = Arrays.copyOf(macbeth, (macbeth.length * i) / 200);
+        if (i % 3 == 0) {
+          entry.setCompressionLevel(NO_COMPRESSION);
+          entry.setSize(data.length);
+          entry.setCompressedSize(data.length);
+          entry.setCrc(Hashing.crc32().hashBytes(data).padToLong());
+        } else if (i % 3 == 1) {
+          entry.setCompressionLevel(BEST_COMPRESSION);
+        }
+        out.putNextEntry(entry);
+        ref.putNextEntry(entry);
+        // Write in uneven chunks, so that the parallel stream has to gather them up.
+        for (int offset = 0; offset < data.length; offset += 1000) {
+          int length = Math.min(1000, data.length - offset);
+          out.write(data, offset, length);
+          ref.write(data, offset, length);
+        }
+        // The same entry appears again, as in APPEND_TO_ZIP mode that's allowed.
+        if (i == 100) {
+          out.putNextEntry(new ZipEntry("file100"));
+          ref.putNextEntry(new ZipEntry("file100"));
+        }
+      }
+    }
+
+    assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(output));
+    try (ZipInputStream in = new ZipInputStream(Files.newInputStream(output))) {
+      int count = 0;
+      while (in.getNextEntry() != null) {
+        ByteStreams.toByteArray(in);
+        count++;
+      }
+      assertEquals(201, count);
+    }
+  }
+
+  @Test
+  public void largeEntriesAreStreamedWhenCompressingInParallel() throws IOException {
+    Path reference = Files.createTempFile("reference", ".zip");
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+
+    try (
+        CustomZipOutputStream out = new ParallelZipOutputStream(
+            new DefaultClock(),
+            Files.newOutputStream(output),
+            /* throwExceptionsOnDuplicate */ true,
+            /* streamingThresholdBytes */ 10000);
+        CustomZipOutputStream ref = ZipOutputStreams.newOutputStream(reference, APPEND_TO_ZIP)
+    ) {
+      // Small entries queued up around large ones, which must still come out in order.
+      for (int i = 0; i < 20; i++) {
+        CustomZipEntry entry = new CustomZipEntry("file" + i);
+        entry.setTime(0);
+        byte[] data = Arrays.copyOf(macbeth, i % 4 == 0 ? macbeth.length : 100 * i);
+        out.putNextEntry(entry);
+        ref.putNextEntry(entry);
+        for (int offset = 0; offset < data.length; offset += 1000) {
+          int length = Math.min(1000, data.length - offset);
+          out.write(data, offset, length);
+          ref.write(data, offset, length);
+        }
+      }
+    }
+    assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(output));
+
+    // Copied entries too large to hold are written straight out as well.
+    Path copy = Files.createTempFile("copy", ".zip");
+    try (
+        ZipReader reader = new ZipReader(reference);
+        CustomZipOutputStream out = new ParallelZipOutputStream(
+            new DefaultClock(),
+            Files.newOutputStream(copy),
+            /* throwExceptionsOnDuplicate */ true,
+            /* streamingThresholdBytes */ 1000)
+    ) {
+      for (ZipReader.Entry entry : reader.getEntries()) {
+        out.copyEntry(reader, entry);
+      }
+    }
+    assertArrayEquals(Files.readAllBytes(reference), Files.readAllBytes(copy));
+  }
+
+  @Test(expected = ZipException.class)
+  public void writingTheSameFileMoreThanOnceIsAnErrorWhenCompressingInParallel()
+      throws IOException {
+    try (CustomZipOutputStream out = ZipOutputStreams.newParallelOutputStream(
+        output,
+        ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION)) {
+      out.putNextEntry(new ZipEntry("example.txt"));
+      out.putNextEntry(new ZipEntry("example.txt"));
+    }
+  }
+
+  @Test
+  public void copiedEntriesKeepTheirCompressedData() throws IOException {
+    Path input = Files.createTempFile("input", ".zip");
+    String packageName = getClass().getPackage().getName().replace(".", "/");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(packageName + "/macbeth.properties"));
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(input))) {
+      // Compressed at a level we'd never use, so that recompressing would be noticed.
+      out.setLevel(Deflater.BEST_SPEED);
+      out.putNextEntry(new ZipEntry("macbeth.txt"));
+      out.write(macbeth);
+      ZipEntry stored = new ZipEntry("stored.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(5);
+      stored.setCrc(Hashing.crc32().hashBytes("hello".getBytes(UTF_8)).padToLong());
+      out.putNextEntry(stored);
+      out.write("hello".getBytes(UTF_8));
+    }
+    long compressedSize;
+    try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(input.toFile())) {
+      compressedSize = zip.getEntry("macbeth.txt").getCompressedSize();
+    }
+
+    for (int i = 0; i < 3; i++) {
+      CustomZipOutputStream out;
+      if (i == 0) {
+        out = ZipOutputStreams.newOutputStream(output, APPEND_TO_ZIP);
+      } else if (i == 1) {
+        out = ZipOutputStreams.newParallelOutputStream(output, APPEND_TO_ZIP);
+      } else {
+        out = ZipOutputStreams.newOutputStream(output, OVERWRITE_EXISTING);
+      }
+      try (ZipReader reader = new ZipReader(input)) {
+        for (ZipReader.Entry entry : reader.getEntries()) {
+          out.copyEntry(reader, entry);
+        }
+        out.close();
+      }
+
+      try (java.util.zip.ZipFile zip = new java.util.zip.ZipFile(output.toFile())) {
+        ZipEntry macbethEntry = zip.getEntry("macbeth.txt");
+        if (out instanceof OverwritingZipOutputStream) {
+          // This one can't copy raw data, so recompresses it at the default level.
+          assertThat(macbethEntry.getCompressedSize(), lessThan(compressedSize));
+        } else {
+          assertEquals(compressedSize, macbethEntry.getCompressedSize());
+        }
+        assertArrayEquals(macbeth, ByteStreams.toByteArray(zip.getInputStream(macbethEntry)));
+        ZipEntry storedEntry = zip.getEntry("stored.txt");
+        assertEquals(ZipEntry.STORED, storedEntry.getMethod());
+        assertEquals(
+            "hello",
+            new String(ByteStreams.toByteArray(zip.getInputStream(storedEntry)), UTF_8));
+      }
+    }
+  }
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2016-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Resources;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+public class ZipReaderTest {
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void entriesMatchThoseSeenByZipFile() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("example.zip");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(getClass().getPackage().getName().replace('.', '/') +
+            "/macbeth.properties"));
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      out.setComment("A comment at the end of the archive");
+      out.putNextEntry(new ZipEntry("dir/"));
+      ZipEntry deflated = new ZipEntry("dir/macbeth.txt");
+      deflated.setTime(1234567890000L);
+      out.putNextEntry(deflated);
+      out.write(macbeth);
+      ZipEntry stored = new ZipEntry("stored/\u00e9t\u00e9.txt");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(5);
+      stored.setCrc(Hashing.crc32().hashBytes("hello".getBytes(UTF_8)).padToLong());
+      stored.setExtra(new byte[] {(byte) 0xFE, (byte) 0xCA, 2, 0, 1, 2});
+      out.putNextEntry(stored);
+      out.write("hello".getBytes(UTF_8));
+      out.putNextEntry(new ZipEntry("empty"));
+    }
+
+    try (ZipReader reader = new ZipReader(zip); ZipFile expected = new ZipFile(zip.toFile())) {
+      List<ZipReader.Entry> entries = reader.getEntries();
+      Enumeration<? extends ZipEntry> expectedEntries = expected.entries();
+      for (ZipReader.Entry entry : entries) {
+        ZipEntry expectedEntry = expectedEntries.nextElement();
+        assertEquals(expectedEntry.getName(), entry.getName());
+        assertEquals(expectedEntry.getMethod(), entry.getMethod());
+        assertEquals(expectedEntry.getTime(), entry.getTime());
+        assertEquals(expectedEntry.getCrc(), entry.getCrc());
+        assertEquals(expectedEntry.getSize(), entry.getSize());
+        assertEquals(expectedEntry.getCompressedSize(), entry.getCompressedSize());
+        try (InputStream actualData = reader.getInputStream(entry);
+             InputStream expectedData = expected.getInputStream(expectedEntry)) {
+          assertArrayEquals(
+              ByteStreams.toByteArray(expectedData),
+              ByteStreams.toByteArray(actualData));
+        }
+        try (InputStream raw = reader.getRawInputStream(entry)) {
+          assertEquals(entry.getCompressedSize(), ByteStreams.toByteArray(raw).length);
+        }
+      }
+      assertEquals(4, entries.size());
+    }
+  }
+
+  @Test
+  public void readsZip64Archives() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("many.zip");
+    // More entries than fit in the end of central directory record.
+    int entryCount = 0x10000 + 10;
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      for (int i = 0; i < entryCount; i++) {
+        out.putNextEntry(new ZipEntry("entry" + i));
+        out.write(Integer.toString(i).getBytes(UTF_8));
+      }
+    }
+
+    try (ZipReader reader = new ZipReader(zip)) {
+      List<ZipReader.Entry> entries = reader.getEntries();
+      assertEquals(entryCount, entries.size());
+      ZipReader.Entry last = entries.get(entryCount - 1);
+      assertEquals("entry" + (entryCount - 1), last.getName());
+      try (InputStream data = reader.getInputStream(last)) {
+        assertEquals(
+            Integer.toString(entryCount - 1),
+            new String(ByteStreams.toByteArray(data), UTF_8));
+      }
+    }
+  }
+
+  @Test
+  public void entriesCanBeLookedUpByName() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("lookup.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      for (int i = 0; i < 100; i++) {
+        out.putNextEntry(new ZipEntry("com/example/Class" + i + ".class"));
+        out.write(("class " + i).getBytes(UTF_8));
+      }
+      ZipEntry stored = new ZipEntry("stored");
+      stored.setMethod(ZipEntry.STORED);
+      stored.setSize(5);
+      stored.setCrc(Hashing.crc32().hashBytes("hello".getBytes(UTF_8)).padToLong());
+      out.putNextEntry(stored);
+      out.write("hello".getBytes(UTF_8));
+    }
+
+    ZipReader.Entry entry;
+    ByteBuffer storedBytes;
+    try (ZipReader reader = new ZipReader(zip)) {
+      entry = reader.getEntry("com/example/Class42.class");
+      assertNotNull(entry);
+      try (InputStream data = reader.getInputStream(entry)) {
+        assertEquals("class 42", new String(ByteStreams.toByteArray(data), UTF_8));
+      }
+      assertNull(reader.getEntry("com/example/Class100.class"));
+      storedBytes = reader.getRawBytes(reader.getEntry("stored"));
+    }
+
+    // The data of stored entries is there as it is, and can still be read once the reader is
+    // closed.
+    assertTrue(storedBytes.isReadOnly());
+    byte[] hello = new byte[storedBytes.remaining()];
+    storedBytes.get(hello);
+    assertEquals("hello", new String(hello, UTF_8));
+  }
+
+  @Test(expected = ZipException.class)
+  public void throwsIfTruncatedWhileOpen() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("truncated.zip");
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      for (int i = 0; i < 10; i++) {
+        out.putNextEntry(new ZipEntry("entry" + i));
+        out.write(("contents of entry " + i).getBytes(UTF_8));
+      }
+    }
+
+    try (ZipReader reader = new ZipReader(zip)) {
+      // Rewrite the archive in place, as a build overwriting its output would.
+      Files.write(zip, new byte[16]);
+      reader.getRawBytes(reader.getEntry("entry9"));
+    }
+  }
+
+  @Test
+  public void entriesAreStreamedAndCanBeReadSideBySide() throws IOException {
+    Path zip = tmp.getRoot().toPath().resolve("streams.zip");
+    byte[] macbeth = Resources.toByteArray(
+        Resources.getResource(getClass().getPackage().getName().replace('.', '/') +
+            "/macbeth.properties"));
+    try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(zip))) {
+      out.putNextEntry(new ZipEntry("first"));
+      out.write(macbeth);
+      out.putNextEntry(new ZipEntry("second"));
+      out.write(macbeth);
+    }
+
+    ByteArrayOutputStream first = new ByteArrayOutputStream();
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    try (ZipReader reader = new ZipReader(zip);
+         InputStream firstIn = reader.getInputStream(reader.getEntry("first"));
+         InputStream secondIn = reader.getInputStream(reader.getEntry("second"))) {
+      // Alternate between the two, which would mix them up if they shared a position in the file.
+      byte[] buffer = new byte[1000];
+      int read;
+      do {
+        read = firstIn.read(buffer);
+        if (read > 0) {
+          first.write(buffer, 0, read);
+        }
+        int secondRead = secondIn.read(buffer);
+        if (secondRead > 0) {
+          second.write(buffer, 0, secondRead);
+        }
+        read = Math.max(read, secondRead);
+      } while (read >= 0);
+    }
+    assertArrayEquals(macbeth, first.toByteArray());
+    assertArrayEquals(macbeth, second.toByteArray());
+  }
+
+  @Test(expected = ZipException.class)
+  public void throwsIfNotAZipFile() throws IOException {
+    Path notZip = tmp.newFile("not.zip").toPath();
+    Files.write(notZip, "This is not a zip file".getBytes(UTF_8));
+    new ZipReader(notZip).close();
+  }
+}